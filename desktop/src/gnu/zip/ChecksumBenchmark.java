@@ -0,0 +1,58 @@
+package gnu.zip;
+
+import java.util.Random;
+
+/**
+ * Compares the speed of the checksums in this package with the ones
+ * in java.util.zip and checks that they give the same values.  Runs
+ * on a desktop VM only.
+ *
+ * @author albus
+ */
+public class ChecksumBenchmark
+{
+  private static final int SIZE = 1 << 20;
+  private static final int ROUNDS = 200;
+
+  public static void main(String[] args)
+  {
+    byte[] data = new byte[SIZE];
+    new Random(1).nextBytes(data);
+
+    for (int i = 0; i < 3; i++)
+      {
+	run("gnu.zip.CRC32", new CRC32(), data);
+	run("java.util.zip.CRC32", new java.util.zip.CRC32(), data);
+	run("gnu.zip.Adler32", new Adler32(), data);
+	run("java.util.zip.Adler32", new java.util.zip.Adler32(), data);
+	System.out.println();
+      }
+  }
+
+  private static void run(String name, Object checksum, byte[] data)
+  {
+    long start = System.currentTimeMillis();
+    long value = 0;
+    for (int i = 0; i < ROUNDS; i++)
+      {
+	if (checksum instanceof Checksum)
+	  {
+	    Checksum c = (Checksum) checksum;
+	    c.reset();
+	    c.update(data, 0, data.length);
+	    value = c.getValue();
+	  }
+	else
+	  {
+	    java.util.zip.Checksum c = (java.util.zip.Checksum) checksum;
+	    c.reset();
+	    c.update(data, 0, data.length);
+	    value = c.getValue();
+	  }
+      }
+    long time = System.currentTimeMillis() - start;
+    System.out.println(name + ": " + (time == 0 ? 0 : (long) SIZE * ROUNDS
+				      / 1000 / time) + " MB/s, value "
+		       + Long.toHexString(value));
+  }
+}
@@ -0,0 +1,257 @@
+package gnu.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+/**
+ * Checks that the Inflater in this package gives the same output as
+ * java.util.zip.Inflater, feeding it the input in chunks of different
+ * sizes, so that the fast path both runs and falls back to
+ * decoding a symbol at a time, and compares their speed.  The files
+ * given as arguments are used as data, or generated text and random
+ * bytes if there are none.  Runs on a desktop VM only.
+ *
+ * @author albus
+ */
+public class InflaterBenchmark
+{
+  private static final int SIZE = 1 << 20;
+  private static final int ROUNDS = 50;
+
+  private static final int[] LEVELS = { 1, 6, 9 };
+  private static final int[] INPUT_CHUNKS = { 1, 7, 100, 4096, 1 << 30 };
+  private static final int[] OUTPUT_CHUNKS = { 1, 333, 32768, 1 << 30 };
+
+  public static void main(String[] args)
+    throws IOException, DataFormatException,
+           java.util.zip.DataFormatException
+  {
+    byte[][] data;
+    String[] names;
+
+    if (args.length > 0)
+      {
+	data = new byte[args.length][];
+	names = args;
+	for (int i = 0; i < args.length; i++)
+	  data[i] = readFile(new File(args[i]));
+      }
+    else
+      {
+	data = new byte[][] { generateText(), generateRandom() };
+	names = new String[] { "text", "random" };
+      }
+
+    for (int i = 0; i < data.length; i++)
+      for (int l = 0; l < LEVELS.length; l++)
+	{
+	  byte[] deflated = deflate(data[i], LEVELS[l]);
+	  String name = names[i] + ", level " + LEVELS[l];
+
+	  check(name, data[i], deflated);
+
+	  for (int r = 0; r < 3; r++)
+	    {
+	      long gnu = runGnu(deflated, data[i].length);
+	      long jdk = runJdk(deflated, data[i].length);
+	      System.out.println(name + ": gnu.zip " + speed(data[i], gnu)
+				 + " MB/s, java.util.zip "
+				 + speed(data[i], jdk) + " MB/s");
+	    }
+	  System.out.println();
+	}
+  }
+
+  /**
+   * Inflates the data with both inflaters and every combination of
+   * chunk sizes and fails unless they all give the original data.
+   */
+  private static void check(String name, byte[] data, byte[] deflated)
+    throws DataFormatException, java.util.zip.DataFormatException
+  {
+    byte[] expected = inflateJdk(deflated, data.length);
+    if (!Arrays.equals(expected, data))
+      throw new RuntimeException(name + ": java.util.zip mismatch");
+
+    for (int i = 0; i < INPUT_CHUNKS.length; i++)
+      for (int o = 0; o < OUTPUT_CHUNKS.length; o++)
+	{
+	  byte[] got = inflateGnu(deflated, data.length,
+				  INPUT_CHUNKS[i], OUTPUT_CHUNKS[o]);
+	  if (!Arrays.equals(expected, got))
+	    throw new RuntimeException(name + ": gnu.zip mismatch with "
+				       + INPUT_CHUNKS[i] + " byte input and "
+				       + OUTPUT_CHUNKS[o] + " byte output");
+	}
+
+    System.out.println(name + ": " + data.length + " -> "
+		       + deflated.length + " bytes, identical");
+  }
+
+  private static byte[] inflateGnu(byte[] deflated, int size,
+				   int inputChunk, int outputChunk)
+    throws DataFormatException
+  {
+    Inflater inf = new Inflater(true);
+    byte[] out = new byte[size];
+    int in = 0;
+    int written = 0;
+
+    // With nowrap, it needs an extra dummy byte, just as ZipFile gives it
+    byte[] input = Arrays.copyOf(deflated, deflated.length + 1);
+
+    while (!inf.finished())
+      {
+	if (inf.needsInput())
+	  {
+	    if (in == input.length)
+	      throw new RuntimeException("gnu.zip: stream ends early");
+	    int len = Math.min(inputChunk, input.length - in);
+	    inf.setInput(input, in, len);
+	    in += len;
+	  }
+
+	int len = Math.min(outputChunk, size - written);
+	int count;
+	if (len == 0)
+	  {
+	    // All data is out, but the end of the stream is not read yet
+	    if (inf.inflate(new byte[1], 0, 1) != 0)
+	      throw new RuntimeException("gnu.zip: too much output");
+	    count = 0;
+	  }
+	else
+	  count = inf.inflate(out, written, len);
+
+	if (count == 0 && !inf.needsInput() && !inf.finished())
+	  throw new RuntimeException("gnu.zip: no progress");
+	written += count;
+      }
+
+    if (written != size)
+      throw new RuntimeException("gnu.zip: " + written + " of " + size
+				 + " bytes");
+    return out;
+  }
+
+  private static byte[] inflateJdk(byte[] deflated, int size)
+    throws java.util.zip.DataFormatException
+  {
+    java.util.zip.Inflater inf = new java.util.zip.Inflater(true);
+    byte[] out = new byte[size];
+    int written = 0;
+
+    // Needs the dummy byte too
+    inf.setInput(Arrays.copyOf(deflated, deflated.length + 1));
+    while (!inf.finished() && written < size)
+      {
+	int count = inf.inflate(out, written, size - written);
+	if (count == 0 && inf.needsInput())
+	  throw new RuntimeException("java.util.zip: stream ends early");
+	written += count;
+      }
+    inf.end();
+    return Arrays.copyOf(out, written);
+  }
+
+  private static long runGnu(byte[] deflated, int size)
+    throws DataFormatException
+  {
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < ROUNDS; i++)
+      inflateGnu(deflated, size, 4096, 1 << 30);
+    return System.currentTimeMillis() - start;
+  }
+
+  private static long runJdk(byte[] deflated, int size)
+    throws java.util.zip.DataFormatException
+  {
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < ROUNDS; i++)
+      inflateJdk(deflated, size);
+    return System.currentTimeMillis() - start;
+  }
+
+  private static long speed(byte[] data, long time)
+  {
+    return time == 0 ? 0 : (long) data.length * ROUNDS / 1000 / time;
+  }
+
+  private static byte[] deflate(byte[] data, int level)
+  {
+    Deflater def = new Deflater(level, true);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+    byte[] buf = new byte[8192];
+
+    def.setInput(data);
+    def.finish();
+    while (!def.finished())
+      out.write(buf, 0, def.deflate(buf));
+    def.end();
+    return out.toByteArray();
+  }
+
+  /**
+   * Words from a small vocabulary, so that there are both literals and
+   * matches of all lengths and distances.
+   */
+  private static byte[] generateText()
+  {
+    Random random = new Random(1);
+    String[] words = new String[2000];
+    for (int i = 0; i < words.length; i++)
+      {
+	char[] word = new char[1 + random.nextInt(10)];
+	for (int j = 0; j < word.length; j++)
+	  word[j] = (char) ('a' + random.nextInt(26));
+	words[i] = new String(word);
+      }
+
+    StringBuffer text = new StringBuffer(SIZE + 16);
+    while (text.length() < SIZE)
+      {
+	text.append(words[(int) Math.abs(random.nextGaussian() * 300)
+			  % words.length]);
+	text.append(random.nextInt(12) == 0 ? ".\n" : " ");
+      }
+    text.setLength(SIZE);
+
+    byte[] res = new byte[SIZE];
+    for (int i = 0; i < SIZE; i++)
+      res[i] = (byte) text.charAt(i);
+    return res;
+  }
+
+  /**
+   * Incompressible, so that the deflater writes stored blocks
+   */
+  private static byte[] generateRandom()
+  {
+    byte[] res = new byte[SIZE];
+    new Random(1).nextBytes(res);
+    return res;
+  }
+
+  private static byte[] readFile(File file) throws IOException
+  {
+    InputStream in = new FileInputStream(file);
+    try
+      {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	byte[] buf = new byte[8192];
+	for (int len = in.read(buf); len > 0; len = in.read(buf))
+	  out.write(buf, 0, len);
+	return out.toByteArray();
+      }
+    finally
+      {
+	in.close();
+      }
+  }
+}
@@ -0,0 +1,316 @@
+package gnu.zip;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import org.albite.io.FileChannelFile;
+
+/**
+ * Writes a sparse Zip64 archive of several GB and checks that ZipFile
+ * reads it.  The archive has a small stored entry at the start, a
+ * stored entry larger than 4 GB and a deflated entry after the 4 GB
+ * mark, so the sizes, the local header offsets and the central
+ * directory all need Zip64.  Most of it is a hole in the file, so it
+ * takes little disk space, as long as the file system supports sparse
+ * files.  Runs on a desktop VM only.
+ *
+ * @author albus
+ */
+public class Zip64Check implements ZipConstants
+{
+  private static final long HUGE_SIZE = 5L << 30;
+  private static final byte[] HUGE_TAIL = bytes("end of the huge entry");
+  private static final byte[] SMALL = bytes("mimetype goes first");
+  private static final byte[] TEXT = bytes("a deflated entry past 4 GB, "
+					  + "a deflated entry past 4 GB");
+
+  private final RandomAccessFile out;
+
+  private Zip64Check(RandomAccessFile out)
+  {
+    this.out = out;
+  }
+
+  public static void main(String[] args) throws IOException
+  {
+    File file = File.createTempFile("zip64", ".zip",
+				    args.length > 0 ? new File(args[0]) : null);
+    file.deleteOnExit();
+
+    try
+      {
+	write(file);
+	check(file);
+	checkWithJdk(file);
+	System.out.println("Zip64 archive of " + file.length()
+			   + " bytes read correctly");
+      }
+    finally
+      {
+	file.delete();
+      }
+  }
+
+  private static void write(File file) throws IOException
+  {
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    try
+      {
+	new Zip64Check(out).writeArchive();
+      }
+    finally
+      {
+	out.close();
+      }
+  }
+
+  private void writeArchive() throws IOException
+  {
+    long smallOffset = 0;
+    writeLocal("small.txt", ZipEntry.STORED, crc(SMALL), SMALL.length,
+	       SMALL.length, false);
+    out.write(SMALL);
+
+    /* Zeros, except for the tail, which are a hole in the file */
+    long hugeOffset = out.getFilePointer();
+    writeLocal("huge.bin", ZipEntry.STORED, hugeCrc(), HUGE_SIZE,
+	       HUGE_SIZE, true);
+    long hugeData = out.getFilePointer();
+    out.setLength(hugeData + HUGE_SIZE);
+    out.seek(hugeData + HUGE_SIZE - HUGE_TAIL.length);
+    out.write(HUGE_TAIL);
+
+    byte[] deflated = deflate(TEXT);
+    long textOffset = out.getFilePointer();
+    writeLocal("text.txt", ZipEntry.DEFLATED, crc(TEXT), deflated.length,
+	       TEXT.length, true);
+    out.write(deflated);
+
+    long centralOffset = out.getFilePointer();
+    writeCentral("small.txt", ZipEntry.STORED, crc(SMALL), SMALL.length,
+		 SMALL.length, smallOffset);
+    writeCentral("huge.bin", ZipEntry.STORED, hugeCrc(), HUGE_SIZE,
+		 HUGE_SIZE, hugeOffset);
+    writeCentral("text.txt", ZipEntry.DEFLATED, crc(TEXT), deflated.length,
+		 TEXT.length, textOffset);
+    long centralSize = out.getFilePointer() - centralOffset;
+
+    long recOffset = out.getFilePointer();
+    writeInt(ZIP64ENDSIG);
+    writeLong(ZIP64ENDHDR - 12);
+    writeShort(45);
+    writeShort(45);
+    writeInt(0);
+    writeInt(0);
+    writeLong(3);
+    writeLong(3);
+    writeLong(centralSize);
+    writeLong(centralOffset);
+
+    writeInt(ZIP64LOCSIG);
+    writeInt(0);
+    writeLong(recOffset);
+    writeInt(1);
+
+    writeInt(ENDSIG);
+    writeShort(0);
+    writeShort(0);
+    writeShort(0xffff);
+    writeShort(0xffff);
+    writeInt(0xffffffffL);
+    writeInt(0xffffffffL);
+    writeShort(0);
+  }
+
+  private void writeLocal(String name, int method, long crc, long csize,
+			  long size, boolean zip64) throws IOException
+  {
+    byte[] n = bytes(name);
+    writeInt(LOCSIG);
+    writeShort(zip64 ? 45 : 10);
+    writeShort(0);
+    writeShort(method);
+    writeInt(0);
+    writeInt(crc);
+    writeInt(zip64 ? 0xffffffffL : csize);
+    writeInt(zip64 ? 0xffffffffL : size);
+    writeShort(n.length);
+    writeShort(zip64 ? 20 : 0);
+    out.write(n);
+    if (zip64)
+      {
+	writeShort(ZIP64EXTID);
+	writeShort(16);
+	writeLong(size);
+	writeLong(csize);
+      }
+  }
+
+  /**
+   * Writes a record with all of the sizes and offset in the Zip64
+   * extra field, if any of them needs it.
+   */
+  private void writeCentral(String name, int method, long crc, long csize,
+			    long size, long offset) throws IOException
+  {
+    byte[] n = bytes(name);
+    boolean zip64 = csize >= 0xffffffffL || size >= 0xffffffffL
+      || offset >= 0xffffffffL;
+    writeInt(CENSIG);
+    writeShort(45);
+    writeShort(zip64 ? 45 : 10);
+    writeShort(0);
+    writeShort(method);
+    writeInt(0);
+    writeInt(crc);
+    writeInt(zip64 ? 0xffffffffL : csize);
+    writeInt(zip64 ? 0xffffffffL : size);
+    writeShort(n.length);
+    writeShort(zip64 ? 28 : 0);
+    writeShort(0);
+    writeShort(0);
+    writeShort(0);
+    writeInt(0);
+    writeInt(zip64 ? 0xffffffffL : offset);
+    out.write(n);
+    if (zip64)
+      {
+	writeShort(ZIP64EXTID);
+	writeShort(24);
+	writeLong(size);
+	writeLong(csize);
+	writeLong(offset);
+      }
+  }
+
+  private static void check(File file) throws IOException
+  {
+    ZipFile zip = new ZipFile(new FileChannelFile(file));
+    try
+      {
+	zip.setVerify(true);
+	expect(zip.size() == 3, "entry count");
+
+	int small = zip.getEntryIndex("small.txt");
+	expect(Arrays.equals(readAll(zip.getInputStream(small),
+				     SMALL.length), SMALL), "small entry");
+
+	int huge = zip.getEntryIndex("huge.bin");
+	expect(zip.getSize(huge) == HUGE_SIZE, "huge entry size");
+	expect(zip.getEntry("huge.bin").getSize() == HUGE_SIZE,
+	       "huge ZipEntry size");
+	InputStream in = zip.getInputStream(huge,
+					    HUGE_SIZE - HUGE_TAIL.length);
+	expect(Arrays.equals(readAll(in, HUGE_TAIL.length), HUGE_TAIL),
+	       "huge entry tail");
+	expect(in.read() == -1, "huge entry end");
+
+	int text = zip.getEntryIndex("text.txt");
+	expect(Arrays.equals(readAll(zip.getInputStream(text),
+				     TEXT.length), TEXT), "deflated entry");
+	in = zip.getInputStream(text, 10);
+	expect(Arrays.equals(readAll(in, TEXT.length - 10),
+			     Arrays.copyOfRange(TEXT, 10, TEXT.length)),
+	       "deflated entry at an offset");
+      }
+    finally
+      {
+	zip.close();
+      }
+  }
+
+  /**
+   * Checks that the JDK agrees that the archive is valid.
+   */
+  private static void checkWithJdk(File file) throws IOException
+  {
+    java.util.zip.ZipFile zip = new java.util.zip.ZipFile(file);
+    try
+      {
+	expect(zip.getEntry("huge.bin").getSize() == HUGE_SIZE,
+	       "JDK huge entry size");
+	expect(Arrays.equals(readAll(zip.getInputStream(
+	    zip.getEntry("text.txt")), TEXT.length), TEXT),
+	       "JDK deflated entry");
+      }
+    finally
+      {
+	zip.close();
+      }
+  }
+
+  private static byte[] readAll(InputStream in, int len) throws IOException
+  {
+    byte[] b = new byte[len];
+    new DataInputStream(in).readFully(b);
+    return b;
+  }
+
+  private static void expect(boolean ok, String what)
+  {
+    if (!ok)
+      throw new AssertionError("Wrong " + what);
+  }
+
+  private static long crc(byte[] b)
+  {
+    CRC32 crc = new CRC32();
+    crc.update(b, 0, b.length);
+    return crc.getValue();
+  }
+
+  private static long hugeCrc()
+  {
+    java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+    byte[] zeros = new byte[1 << 20];
+    long left = HUGE_SIZE - HUGE_TAIL.length;
+    while (left > 0)
+      {
+	int n = (int) Math.min(left, zeros.length);
+	crc.update(zeros, 0, n);
+	left -= n;
+      }
+    crc.update(HUGE_TAIL);
+    return crc.getValue();
+  }
+
+  private static byte[] deflate(byte[] b)
+  {
+    java.util.zip.Deflater def = new java.util.zip.Deflater(9, true);
+    def.setInput(b);
+    def.finish();
+    byte[] buf = new byte[b.length + 64];
+    int len = def.deflate(buf);
+    def.end();
+    return Arrays.copyOf(buf, len);
+  }
+
+  private static byte[] bytes(String s)
+  {
+    byte[] b = new byte[s.length()];
+    for (int i = 0; i < b.length; i++)
+      b[i] = (byte) s.charAt(i);
+    return b;
+  }
+
+  private void writeShort(int v) throws IOException
+  {
+    out.write(v);
+    out.write(v >> 8);
+  }
+
+  private void writeInt(long v) throws IOException
+  {
+    writeShort((int) v);
+    writeShort((int) (v >> 16));
+  }
+
+  private void writeLong(long v) throws IOException
+  {
+    writeInt(v);
+    writeInt(v >> 32);
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.albite.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link PositionalFile} backed by a desktop NIO
+ * {@link java.nio.channels.FileChannel FileChannel}, so that gnu.zip and
+ * the book code can be run and tested on a desktop VM.
+ *
+ * The file may also be mapped into memory, so that reads are plain
+ * copies from the mapping. Files of 2 GB or more are never mapped, as
+ * a mapping cannot be that large.
+ *
+ * It is not part of the MIDlet: the source is kept out of src, as CLDC
+ * has no NIO.
+ *
+ * @author albus
+ */
+public class FileChannelFile implements PositionalFile {
+    private final String            name;
+    private final RandomAccessFile  file;
+    private final FileChannel       channel;
+    private final MappedByteBuffer  map;
+
+    public FileChannelFile(final File file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * @param map if the file should be mapped into memory
+     */
+    public FileChannelFile(final File file, final boolean map)
+            throws IOException {
+
+        this.name = file.getName();
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.map = map && channel.size() <= Integer.MAX_VALUE
+                ? channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                : null;
+    }
+
+    public final long length() throws IOException {
+        return channel.size();
+    }
+
+    public final String getName() {
+        return name;
+    }
+
+    public final int read(
+            final long position, final byte[] b, final int off, final int len)
+            throws IOException {
+
+        if (position < 0) {
+            throw new IllegalArgumentException(
+                    "Trying to read outside file's contents");
+        }
+
+        if (map != null) {
+            final int count = (int) Math.min(len, map.limit() - position);
+
+            if (count <= 0) {
+                return len == 0 ? 0 : -1;
+            }
+
+            final ByteBuffer slice = map.duplicate();
+            slice.position((int) position);
+            slice.get(b, off, count);
+            return count;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        int count = 0;
+
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position + count);
+
+            if (read < 0) {
+                break;
+            }
+
+            count += read;
+        }
+
+        return count == 0 && len > 0 ? -1 : count;
+    }
+
+    public final void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+}
@@ -0,0 +1,173 @@
+package org.albite.io.decoders;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Generates res/charsets.bin, the tables of the single-byte charsets
+ * read by {@link SingleByteDecoder}. The tables come from the charsets
+ * of the desktop VM, except for those it does not have, which are
+ * listed here. Runs on a desktop VM only.
+ *
+ * If charsets are given after the output file, only their tables are
+ * written. That is how res/charsets-tiny.bin, which has only the
+ * charsets of the Tiny builds, is generated:
+ * CharsetTableBuilder res/charsets-tiny.bin windows-1250
+ *
+ * Usage: CharsetTableBuilder &lt;output file&gt; [charset ...]
+ *
+ * @author albus
+ */
+public class CharsetTableBuilder {
+
+    private static final char[] ISO_8859_10 = {
+        /* 0x80 */
+        0x0080, 0x0081, 0x0082, 0x0083, 0x0084, 0x0085, 0x0086, 0x0087,
+        0x0088, 0x0089, 0x008a, 0x008b, 0x008c, 0x008d, 0x008e, 0x008f,
+        /* 0x90 */
+        0x0090, 0x0091, 0x0092, 0x0093, 0x0094, 0x0095, 0x0096, 0x0097,
+        0x0098, 0x0099, 0x009a, 0x009b, 0x009c, 0x009d, 0x009e, 0x009f,
+        /* 0xa0 */
+        0x00a0, 0x0104, 0x0112, 0x0122, 0x012a, 0x0128, 0x0136, 0x00a7,
+        0x013b, 0x0110, 0x0160, 0x0166, 0x017d, 0x00ad, 0x016a, 0x014a,
+        /* 0xb0 */
+        0x00b0, 0x0105, 0x0113, 0x0123, 0x012b, 0x0129, 0x0137, 0x00b7,
+        0x013c, 0x0111, 0x0161, 0x0167, 0x017e, 0x2015, 0x016b, 0x014b,
+        /* 0xc0 */
+        0x0100, 0x00c1, 0x00c2, 0x00c3, 0x00c4, 0x00c5, 0x00c6, 0x012e,
+        0x010c, 0x00c9, 0x0118, 0x00cb, 0x0116, 0x00cd, 0x00ce, 0x00cf,
+        /* 0xd0 */
+        0x00d0, 0x0145, 0x014c, 0x00d3, 0x00d4, 0x00d5, 0x00d6, 0x0168,
+        0x00d8, 0x0172, 0x00da, 0x00db, 0x00dc, 0x00dd, 0x00de, 0x00df,
+        /* 0xe0 */
+        0x0101, 0x00e1, 0x00e2, 0x00e3, 0x00e4, 0x00e5, 0x00e6, 0x012f,
+        0x010d, 0x00e9, 0x0119, 0x00eb, 0x0117, 0x00ed, 0x00ee, 0x00ef,
+        /* 0xf0 */
+        0x00f0, 0x0146, 0x014d, 0x00f3, 0x00f4, 0x00f5, 0x00f6, 0x0169,
+        0x00f8, 0x0173, 0x00fa, 0x00fb, 0x00fc, 0x00fd, 0x00fe, 0x0138,
+    };
+
+    private static final char[] ISO_8859_14 = {
+        /* 0x80 */
+        0x0080, 0x0081, 0x0082, 0x0083, 0x0084, 0x0085, 0x0086, 0x0087,
+        0x0088, 0x0089, 0x008a, 0x008b, 0x008c, 0x008d, 0x008e, 0x008f,
+        /* 0x90 */
+        0x0090, 0x0091, 0x0092, 0x0093, 0x0094, 0x0095, 0x0096, 0x0097,
+        0x0098, 0x0099, 0x009a, 0x009b, 0x009c, 0x009d, 0x009e, 0x009f,
+        /* 0xa0 */
+        0x00a0, 0x1e02, 0x1e03, 0x00a3, 0x010a, 0x010b, 0x1e0a, 0x00a7,
+        0x1e80, 0x00a9, 0x1e82, 0x1e0b, 0x1ef2, 0x00ad, 0x00ae, 0x0178,
+        /* 0xb0 */
+        0x1e1e, 0x1e1f, 0x0120, 0x0121, 0x1e40, 0x1e41, 0x00b6, 0x1e56,
+        0x1e81, 0x1e57, 0x1e83, 0x1e60, 0x1ef3, 0x1e84, 0x1e85, 0x1e61,
+        /* 0xc0 */
+        0x00c0, 0x00c1, 0x00c2, 0x00c3, 0x00c4, 0x00c5, 0x00c6, 0x00c7,
+        0x00c8, 0x00c9, 0x00ca, 0x00cb, 0x00cc, 0x00cd, 0x00ce, 0x00cf,
+        /* 0xd0 */
+        0x0174, 0x00d1, 0x00d2, 0x00d3, 0x00d4, 0x00d5, 0x00d6, 0x1e6a,
+        0x00d8, 0x00d9, 0x00da, 0x00db, 0x00dc, 0x00dd, 0x0176, 0x00df,
+        /* 0xe0 */
+        0x00e0, 0x00e1, 0x00e2, 0x00e3, 0x00e4, 0x00e5, 0x00e6, 0x00e7,
+        0x00e8, 0x00e9, 0x00ea, 0x00eb, 0x00ec, 0x00ed, 0x00ee, 0x00ef,
+        /* 0xf0 */
+        0x0175, 0x00f1, 0x00f2, 0x00f3, 0x00f4, 0x00f5, 0x00f6, 0x1e6b,
+        0x00f8, 0x00f9, 0x00fa, 0x00fb, 0x00fc, 0x00fd, 0x0177, 0x00ff,
+    };
+
+    private static final char[] KOI8_RU = {
+        /* 0x80 */
+        0x2500, 0x2502, 0x250c, 0x2510, 0x2514, 0x2518, 0x251c, 0x2524,
+        0x252c, 0x2534, 0x253c, 0x2580, 0x2584, 0x2588, 0x258c, 0x2590,
+        /* 0x90 */
+        0x2591, 0x2592, 0x2593, 0x2320, 0x25a0, 0x2219, 0x221a, 0x2248,
+        0x2264, 0x2265, 0x00a0, 0x2321, 0x00b0, 0x00b2, 0x00b7, 0x00f7,
+        /* 0xa0 */
+        0x2550, 0x2551, 0x2552, 0x0451, 0x0454, 0x2554, 0x0456, 0x0457,
+        0x2557, 0x2558, 0x2559, 0x255a, 0x255b, 0x0491, 0x045e, 0x255e,
+        /* 0xb0 */
+        0x255f, 0x2560, 0x2561, 0x0401, 0x0404, 0x2563, 0x0406, 0x0407,
+        0x2566, 0x2567, 0x2568, 0x2569, 0x256a, 0x0490, 0x040e, 0x00a9,
+        /* 0xc0 */
+        0x044e, 0x0430, 0x0431, 0x0446, 0x0434, 0x0435, 0x0444, 0x0433,
+        0x0445, 0x0438, 0x0439, 0x043a, 0x043b, 0x043c, 0x043d, 0x043e,
+        /* 0xd0 */
+        0x043f, 0x044f, 0x0440, 0x0441, 0x0442, 0x0443, 0x0436, 0x0432,
+        0x044c, 0x044b, 0x0437, 0x0448, 0x044d, 0x0449, 0x0447, 0x044a,
+        /* 0xe0 */
+        0x042e, 0x0410, 0x0411, 0x0426, 0x0414, 0x0415, 0x0424, 0x0413,
+        0x0425, 0x0418, 0x0419, 0x041a, 0x041b, 0x041c, 0x041d, 0x041e,
+        /* 0xf0 */
+        0x041f, 0x042f, 0x0420, 0x0421, 0x0422, 0x0423, 0x0416, 0x0412,
+        0x042c, 0x042b, 0x0417, 0x0428, 0x042d, 0x0429, 0x0427, 0x042a,
+    };
+
+    public static void main(final String[] args) throws IOException {
+        final String[] encodings;
+
+        if (args.length > 1) {
+            encodings = new String[args.length - 1];
+            System.arraycopy(args, 1, encodings, 0, encodings.length);
+        } else {
+            encodings = SingleByteDecoder.getTableEncodings();
+        }
+
+        final DataOutputStream out =
+                new DataOutputStream(new FileOutputStream(args[0]));
+
+        try {
+            out.writeShort(encodings.length);
+
+            for (int i = 0; i < encodings.length; i++) {
+                out.writeUTF(encodings[i]);
+            }
+
+            for (int i = 0; i < encodings.length; i++) {
+                final char[] table = getTable(encodings[i]);
+
+                for (int j = 0; j < table.length; j++) {
+                    out.writeChar(table[j]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        System.out.println(encodings.length + " tables written");
+    }
+
+    /**
+     * @return the chars for bytes 0x80 to 0xFF, with U+FFFD for the
+     * unmapped ones
+     */
+    private static char[] getTable(final String encoding)
+            throws UnsupportedEncodingException {
+
+        if (Encodings.ISO_8859_10.equals(encoding)) {
+            return ISO_8859_10;
+        }
+
+        if (Encodings.ISO_8859_14.equals(encoding)) {
+            return ISO_8859_14;
+        }
+
+        if (Encodings.KOI8_RU.equals(encoding)) {
+            return KOI8_RU;
+        }
+
+        final byte[] bytes = new byte[SingleByteDecoder.TABLE_SIZE];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (0x80 + i);
+        }
+
+        final char[] table = new String(bytes, encoding).toCharArray();
+
+        if (table.length != bytes.length) {
+            throw new UnsupportedEncodingException(encoding);
+        }
+
+        return table;
+    }
+}
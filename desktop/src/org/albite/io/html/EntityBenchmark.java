@@ -0,0 +1,276 @@
+package org.albite.io.html;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import org.albite.io.decoders.AlbiteStreamReader;
+import org.albite.io.decoders.Encodings;
+
+/**
+ * Measures how fast XhtmlStreamReader gets through a chapter dense with
+ * entities, compared to the Hashtable lookup it used before the trie and
+ * to the same text with the entities already resolved. Checks that both
+ * lookups resolve every entity the same. Runs on a desktop VM only.
+ *
+ * @author albus
+ */
+public class EntityBenchmark {
+
+    private static final int    SIZE    = 192 * 1024;
+    private static final int    ROUNDS  = 50;
+
+    private static final String[][] PIECES = {
+        {"&ldquo;",     "“"},
+        {"&rdquo;",     "”"},
+        {"&nbsp;",      " "},
+        {"&mdash;",     "—"},
+        {"&hellip;",    "…"},
+        {"&amp;",       "&"},
+        {"&eacute;",    "é"},
+        {"&#8217;",     "’"},
+        {"&#x201C;",    "“"},
+        {"&thetasym;",  "ϑ"},
+    };
+
+    public static void main(final String[] args) throws Exception {
+        final Hashtable entities = readTrie();
+        checkAll(entities);
+
+        final StringBuffer html = new StringBuffer(SIZE + 64);
+        final StringBuffer text = new StringBuffer(SIZE + 64);
+
+        for (int i = 0; html.length() < SIZE; i++) {
+            final String[] piece = PIECES[i % PIECES.length];
+            html.append("word ").append(piece[0]);
+            text.append("word ").append(piece[1]);
+        }
+
+        final byte[] htmlBytes = bytes(html.toString());
+        final byte[] textBytes = bytes(text.toString());
+
+        if (!read(htmlBytes, null).equals(text.toString())
+                || !read(htmlBytes, entities).equals(text.toString())) {
+            throw new IllegalStateException("Entities resolved wrong");
+        }
+
+        for (int i = 0; i < 3; i++) {
+            run("trie", htmlBytes, null);
+            run("hashtable", htmlBytes, entities);
+            run("resolved", textBytes, null);
+            System.out.println();
+        }
+    }
+
+    /**
+     * Reads every entity of the table, both by name and by number,
+     * with both lookups.
+     */
+    private static void checkAll(final Hashtable entities)
+            throws IOException {
+
+        final StringBuffer html = new StringBuffer();
+
+        for (Enumeration e = entities.keys(); e.hasMoreElements();) {
+            final String name = (String) e.nextElement();
+            html.append('&').append(name).append("; &#")
+                    .append(entities.get(name)).append("; ");
+        }
+
+        html.append("&unknown; &#xZZ; & amp;");
+
+        final byte[] data = bytes(html.toString());
+
+        if (!read(data, null).equals(read(data, entities))) {
+            throw new IllegalStateException("Lookups differ");
+        }
+
+        System.out.println(entities.size() + " entities, identical");
+    }
+
+    /**
+     * Collects the entities from the trie of XhtmlStreamReader, so that
+     * the Hashtable holds exactly the same ones.
+     */
+    private static Hashtable readTrie() throws Exception {
+        final char[] chars = (char[]) trieField("trieChars");
+        final short[] child = (short[]) trieField("trieChild");
+        final short[] sibling = (short[]) trieField("trieSibling");
+        final char[] values = (char[]) trieField("trieValues");
+
+        final Hashtable entities = new Hashtable(300);
+        addNodes(entities, "", child[0], chars, child, sibling, values);
+        return entities;
+    }
+
+    private static void addNodes(
+            final Hashtable entities,
+            final String prefix,
+            int node,
+            final char[] chars,
+            final short[] child,
+            final short[] sibling,
+            final char[] values) {
+
+        for (; node != 0; node = sibling[node]) {
+            final String name = prefix + chars[node];
+
+            if (values[node] != 0) {
+                entities.put(name, new Integer(values[node]));
+            }
+
+            addNodes(entities, name, child[node],
+                    chars, child, sibling, values);
+        }
+    }
+
+    private static Object trieField(final String name) throws Exception {
+        final Field field = XhtmlStreamReader.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(null);
+    }
+
+    private static void run(
+            final String name,
+            final byte[] data,
+            final Hashtable entities) throws IOException {
+
+        final long start = System.currentTimeMillis();
+
+        for (int i = 0; i < ROUNDS; i++) {
+            read(data, entities);
+        }
+
+        final long time = System.currentTimeMillis() - start;
+        System.out.println(name + ": " + (time == 0 ? 0 : (long) data.length
+                * ROUNDS / 1000 / time) + " MB/s, "
+                + (time / (double) ROUNDS) + " ms per chapter");
+    }
+
+    /**
+     * @param entities the table to look the entities up in, or null to
+     * use XhtmlStreamReader
+     */
+    private static String read(final byte[] data, final Hashtable entities)
+            throws IOException {
+
+        final AlbiteStreamReader in = new AlbiteStreamReader(
+                new ByteArrayInputStream(data), Encodings.UTF_8, data.length);
+
+        final Reader r = (entities == null
+                ? (Reader) new XhtmlStreamReader(in, false, false)
+                : new HashtableReader(in, entities));
+
+        final char[] chars = new char[data.length];
+        final int read = r.read(chars);
+        r.close();
+        return new String(chars, 0, Math.max(read, 0));
+    }
+
+    private static byte[] bytes(final String s)
+            throws UnsupportedEncodingException {
+
+        return s.getBytes("UTF-8");
+    }
+
+    /**
+     * The entity lookup of XhtmlStreamReader before the trie: the name
+     * is made into a String and looked up in a Hashtable.
+     */
+    private static class HashtableReader extends Reader
+            implements HTMLSubstitues {
+
+        private final AlbiteStreamReader in;
+        private final Hashtable entities;
+        private final char[] buffer = new char[10];
+
+        HashtableReader(
+                final AlbiteStreamReader in, final Hashtable entities) {
+
+            this.in = in;
+            this.entities = entities;
+        }
+
+        public int read() throws IOException {
+            int read = in.read();
+
+            if (read == 0x003C) {
+                return START_TAG_INT;
+            }
+
+            if (read == 0x003E) {
+                return END_TAG_INT;
+            }
+
+            if (read == 38) {
+                in.mark(10);
+
+                for (int len = 0; len < 10; len++) {
+                    read = in.read();
+
+                    if (read == 59) {
+                        return processEntity(new String(buffer, 0, len));
+                    }
+
+                    if (read == -1
+                            || read == 0x20
+                            || read == 0x9 || read == 0xD || read == 0xA) {
+                        break;
+                    }
+
+                    buffer[len] = (char) read;
+                }
+
+                read = 38;
+                in.reset();
+            }
+
+            return read;
+        }
+
+        private int processEntity(final String entityName) {
+            final Object entityValue = entities.get(entityName);
+
+            if (entityValue != null) {
+                return ((Integer) entityValue).intValue();
+            }
+
+            if (entityName.length() > 0 && entityName.charAt(0) == '#') {
+                try {
+                    if (entityName.length() > 2
+                            && (entityName.charAt(1) == 'x'
+                            || entityName.charAt(1) == 'X')) {
+                        return Integer.parseInt(entityName.substring(2), 16);
+                    }
+
+                    return Integer.parseInt(entityName.substring(1));
+                } catch (NumberFormatException e) {}
+            }
+
+            return 0;
+        }
+
+        public int read(final char[] cbuf, final int off, final int len)
+                throws IOException {
+
+            for (int i = 0; i < len; i++) {
+                final int read = read();
+
+                if (read == -1) {
+                    return i;
+                }
+
+                cbuf[i + off] = (char) read;
+            }
+
+            return len;
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
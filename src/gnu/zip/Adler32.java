@@ -174,6 +174,27 @@ public class Adler32 implements Checksum
 	if (n > len)
 	  n = len;
 	len -= n;
+	// Unrolled by eight, which 3800 is a multiple of
+	for (; n >= 8; n -= 8)
+	  {
+	    s1 += buf[off] & 0xFF;
+	    s2 += s1;
+	    s1 += buf[off + 1] & 0xFF;
+	    s2 += s1;
+	    s1 += buf[off + 2] & 0xFF;
+	    s2 += s1;
+	    s1 += buf[off + 3] & 0xFF;
+	    s2 += s1;
+	    s1 += buf[off + 4] & 0xFF;
+	    s2 += s1;
+	    s1 += buf[off + 5] & 0xFF;
+	    s2 += s1;
+	    s1 += buf[off + 6] & 0xFF;
+	    s2 += s1;
+	    s1 += buf[off + 7] & 0xFF;
+	    s2 += s1;
+	    off += 8;
+	  }
 	while (--n >= 0)
 	  {
 	    s1 = s1 + (buf[off++] & 0xFF);
@@ -62,13 +62,19 @@ public class CRC32 implements Checksum
   /** The crc data checksum so far. */
   private int crc = 0;
 
-  /** The fast CRC table. Computed once when the CRC32 class is loaded. */
+  /**
+   * The fast CRC tables, computed once when the CRC32 class is loaded.
+   * The first 256 entries are the table for a single byte.  Table k
+   * (entries 256 * k to 256 * k + 255) gives the CRC of a byte
+   * followed by k zero bytes, so that eight bytes can be added at
+   * once ("slicing-by-8").
+   */
   private static int[] crc_table = make_crc_table();
 
-  /** Make the table for a fast CRC. */
+  /** Make the tables for a fast CRC. */
   private static int[] make_crc_table ()
   {
-    int[] crc_table = new int[256];
+    int[] crc_table = new int[8 * 256];
     for (int n = 0; n < 256; n++)
       {
 	int c = n;
@@ -81,6 +87,11 @@ public class CRC32 implements Checksum
 	  }
 	crc_table[n] = c;
       }
+    for (int n = 256; n < 8 * 256; n++)
+      {
+	int c = crc_table[n - 256];
+	crc_table[n] = crc_table[c & 0xff] ^ (c >>> 8);
+      }
     return crc_table;
   }
 
@@ -119,9 +130,23 @@ public class CRC32 implements Checksum
    */
   public void update (byte[] buf, int off, int len)
   {
+    final int[] t = crc_table;
     int c = ~crc;
+    while (len >= 8)
+      {
+	c ^= (buf[off] & 0xff) | (buf[off + 1] & 0xff) << 8
+	  | (buf[off + 2] & 0xff) << 16 | buf[off + 3] << 24;
+	int hi = (buf[off + 4] & 0xff) | (buf[off + 5] & 0xff) << 8
+	  | (buf[off + 6] & 0xff) << 16 | buf[off + 7] << 24;
+	c = t[7 * 256 + (c & 0xff)] ^ t[6 * 256 + ((c >>> 8) & 0xff)]
+	  ^ t[5 * 256 + ((c >>> 16) & 0xff)] ^ t[4 * 256 + (c >>> 24)]
+	  ^ t[3 * 256 + (hi & 0xff)] ^ t[2 * 256 + ((hi >>> 8) & 0xff)]
+	  ^ t[256 + ((hi >>> 16) & 0xff)] ^ t[hi >>> 24];
+	off += 8;
+	len -= 8;
+      }
     while (--len >= 0)
-      c = crc_table[(c ^ buf[off++]) & 0xff] ^ (c >>> 8);
+      c = t[(c ^ buf[off++]) & 0xff] ^ (c >>> 8);
     crc = ~c;
   }
 
@@ -96,6 +96,11 @@ public class Inflater
     12, 12, 13, 13
   };
 
+  /* Input needed by decodeHuffmanFast() for one literal or match: up
+   * to four refills of two bytes each.
+   */
+  private static final int FAST_INPUT = 8;
+
   /* This are the state in which the inflater can be.  */
   private static final int DECODE_HEADER           = 0;
   private static final int DECODE_DICT             = 1;
@@ -154,6 +159,21 @@ public class Inflater
    */
   private boolean nowrap;
 
+  /**
+   * Output that was inflated directly into the caller's array and
+   * that is not yet in the output window: directBuf[directStart,
+   * directEnd).  While there is such, matches may also refer to it.
+   */
+  private byte[] directBuf;
+  private int directStart, directEnd;
+
+  /**
+   * Seek points are added to this index, if not null.  The position
+   * of the input in the compressed stream is inputStart plus totalIn.
+   */
+  private InflaterIndex index;
+  private long inputStart;
+
   private StreamManipulator input;
   private OutputWindow outputWindow;
   private InflaterDynHeader dynHeader;
@@ -202,6 +222,7 @@ public class Inflater
    */
   public void end ()
   {
+    directBuf = null;
     outputWindow = null;
     input = null;
     dynHeader = null;
@@ -312,6 +333,28 @@ public class Inflater
    * @exception IndexOutOfBoundsException if the off and/or len are wrong.
    */
   public int inflate (byte[] buf, int off, int len) throws DataFormatException
+  {
+    int count = inflate(buf, off, len, false);
+    endDirect();
+    return count;
+  }
+
+  /**
+   * Inflates the compressed stream to the output buffer like
+   * inflate(byte[], int, int).  Unless direct is false, huffman and
+   * stored blocks are inflated straight into the output buffer,
+   * instead of going through the output window.  The output then
+   * stays there as the history matches refer to, so the caller must
+   * not change it until it calls endDirect().  Until then, this may
+   * only be called again for output that follows right after.
+   *
+   * In direct mode this also returns when less input is left than is
+   * needed to decode a symbol at once.  The caller should then add
+   * more input with moveInput() and addInput(), or call endDirect()
+   * and inflate the rest through the window.
+   */
+  int inflate (byte[] buf, int off, int len, boolean direct)
+    throws DataFormatException
   {
     /* Special case: len may be zero */
     if (len == 0)
@@ -319,11 +362,13 @@ public class Inflater
     /* Check for correct buff, off, len triple */
     if (0 > off || off > off + len || off + len > buf.length)
       throw new ArrayIndexOutOfBoundsException();
+    if (directBuf != null && (buf != directBuf || off != directEnd))
+      endDirect();
     int count = 0;
     int more;
-    do
+    for (;;)
       {
-	if (mode != DECODE_CHKSUM)
+	if (mode != DECODE_CHKSUM && directBuf == null)
 	  {
 	    /* Don't give away any output, if we are waiting for the
 	     * checksum in the input stream.
@@ -341,10 +386,150 @@ public class Inflater
 	    if (len == 0)
 	      return count;
 	  }
+
+	if (direct && outputWindow.getAvailable() == 0
+	    && (mode == DECODE_HUFFMAN || mode == DECODE_STORED))
+	  {
+	    if (mode == DECODE_HUFFMAN)
+	      more = decodeHuffmanDirect(buf, off, off + len);
+	    else
+	      more = copyStoredDirect(buf, off, len);
+
+	    if (more > 0)
+	      {
+		if (directBuf == null)
+		  {
+		    directBuf = buf;
+		    directStart = off;
+		  }
+		directEnd = off + more;
+		adler.update(buf, off, more);
+		off += more;
+		count += more;
+		totalOut += more;
+		len -= more;
+		if (len == 0)
+		  return count;
+	      }
+
+	    if (mode == DECODE_BLOCKS)
+	      continue;
+
+	    if (input.getUnreadBytes() < FAST_INPUT)
+	      return count;
+
+	    /* Not enough room left for a match */
+	  }
+
+	if (mode == DECODE_STORED
+	    || (mode >= DECODE_HUFFMAN && mode <= DECODE_HUFFMAN_DISTBITS))
+	  endDirect();
+
+	if (!(decode() || (outputWindow.getAvailable() > 0
+			   && mode != DECODE_CHKSUM)))
+	  return count;
       }
-    while (decode() || (outputWindow.getAvailable() > 0
-			&& mode != DECODE_CHKSUM));
-    return count;
+  }
+
+  /**
+   * Puts the output inflated directly into the caller's array into the
+   * output window, so that the caller may change it.
+   */
+  void endDirect ()
+  {
+    if (directBuf != null)
+      {
+	outputWindow.copyHistory(directBuf, directStart,
+				 directEnd - directStart);
+	directBuf = null;
+      }
+  }
+
+  /**
+   * Adds seek points to an index while inflating.  Must be called
+   * before any input is set.
+   */
+  void setIndex (InflaterIndex index)
+  {
+    this.index = index;
+  }
+
+  /**
+   * Starts inflating from a seek point of a stream with no header
+   * (nowrap), instead of from its beginning.  Must be called before
+   * any input is set.  The input must then start at the byte after
+   * the one the point is in.
+   *
+   * @param index the index with the point.
+   * @param point the number of the point.
+   * @param firstByte the byte the point is in, if it does not start
+   * at a byte boundary.
+   */
+  void setStart (InflaterIndex index, int point, int firstByte)
+  {
+    long bitOffset = index.getBitOffset(point);
+    int skip = (int) bitOffset & 7;
+
+    mode = DECODE_BLOCKS;
+    inputStart = bitOffset >> 3;
+    if (skip != 0)
+      {
+	input.buffer = (firstByte & 0xff) >>> skip;
+	input.bits_in_buffer = 8 - skip;
+	totalIn = 1;
+      }
+
+    byte[] window = index.getWindow(point);
+    outputWindow.copyHistory(window, 0, window.length);
+    totalOut = index.getOffset(point);
+  }
+
+  /**
+   * Adds a seek point to the index, if it is time for one.  This must
+   * be called at the start of a block.
+   */
+  private void addSeekPoint ()
+  {
+    long offset = totalOut + outputWindow.getAvailable();
+    if (!index.needsPoint(offset))
+      return;
+
+    /* The output inflated directly to the caller is needed, too */
+    endDirect();
+
+    long bitOffset = (inputStart + totalIn) * 8
+      - (input.getUnreadBytes() * 8 + input.getAvailableBits());
+    try
+      {
+	index.add(offset, bitOffset,
+		  outputWindow.getHistory((int) Math.min(offset,
+							 OutputWindow.WINDOW_SIZE)));
+      }
+    catch (OutOfMemoryError e)
+      {
+	// The windows are a luxury: free them and go on without
+	index.drop();
+	index = null;
+      }
+  }
+
+  /**
+   * Moves the input that is left to the start of buf, so that more
+   * input can be added after it with addInput().
+   * @return the number of bytes moved
+   */
+  int moveInput (byte[] buf)
+  {
+    return input.moveInput(buf);
+  }
+
+  /**
+   * Adds input that follows right after the current one in its buffer.
+   */
+  void addInput (int len)
+  {
+    input.addInput(len);
+    totalIn += len;
   }
 
   /**
@@ -374,6 +559,9 @@ public class Inflater
   {
     mode = nowrap ? DECODE_BLOCKS : DECODE_HEADER;
     totalIn = totalOut = 0;
+    directBuf = null;
+    index = null;
+    inputStart = 0;
     input.reset();
     outputWindow.reset();
     dynHeader = null;
@@ -507,6 +695,329 @@ public class Inflater
     return false;
   }
 
+  /**
+   * Decodes huffman encoded symbols as long as there is enough input
+   * for a whole literal or length/distance pair and enough room in
+   * the output window for the longest match.  This is the same as
+   * the loop in decodeHuffman(), but the bit buffer, the lookup
+   * tables and the window are all accessed directly, so that literal
+   * runs and match copies happen without any method calls.
+   *
+   * @return true if the current block ended.
+   * @exception DataFormatException if deflated stream is invalid.  
+   */
+  private boolean decodeHuffmanFast () throws DataFormatException
+  {
+    final StreamManipulator in = input;
+    final OutputWindow out = outputWindow;
+
+    final byte[] inBuf = in.window;
+    final int inLimit = in.window_end - FAST_INPUT;
+    int inPos = in.window_start;
+    int bitBuf = in.buffer;
+    int bits = in.bits_in_buffer;
+
+    final byte[] win = out.window;
+    int winEnd = out.window_end;
+    final int freeLimit = out.window_filled + OutputWindow.WINDOW_SIZE - 258;
+    int filled = out.window_filled;
+
+    final short[] lit = litlenTree.tree;
+    final short[] dist = distTree.tree;
+
+    boolean endOfBlock = false;
+    int symbol, n;
+
+    while (inPos <= inLimit && filled <= freeLimit)
+      {
+	/* Literal or length code */
+	if (bits < 16)
+	  {
+	    bitBuf |= (inBuf[inPos] & 0xff
+		       | (inBuf[inPos + 1] & 0xff) << 8) << bits;
+	    inPos += 2;
+	    bits += 16;
+	  }
+	symbol = lit[bitBuf & InflaterHuffmanTree.PRIMARY_MASK];
+	if (symbol < 0)
+	  symbol = lit[-(symbol >> 4)
+		       | ((bitBuf & ((1 << (symbol & 15)) - 1))
+			  >> InflaterHuffmanTree.PRIMARY_BITS)];
+	n = symbol & 15;
+	bitBuf >>>= n;
+	bits -= n;
+	symbol >>= 4;
+
+	if (symbol < 256)
+	  {
+	    win[winEnd] = (byte) symbol;
+	    winEnd = (winEnd + 1) & OutputWindow.WINDOW_MASK;
+	    filled++;
+	    continue;
+	  }
+
+	if (symbol == 256)
+	  {
+	    endOfBlock = true;
+	    break;
+	  }
+
+	symbol -= 257;
+	if (symbol >= CPLENS.length)
+	  throw new DataFormatException("Illegal rep length code");
+	int length = CPLENS[symbol];
+	n = CPLEXT[symbol];
+	if (n > 0)
+	  {
+	    if (bits < 16)
+	      {
+		bitBuf |= (inBuf[inPos] & 0xff
+			   | (inBuf[inPos + 1] & 0xff) << 8) << bits;
+		inPos += 2;
+		bits += 16;
+	      }
+	    length += bitBuf & ((1 << n) - 1);
+	    bitBuf >>>= n;
+	    bits -= n;
+	  }
+
+	/* Distance code */
+	if (bits < 16)
+	  {
+	    bitBuf |= (inBuf[inPos] & 0xff
+		       | (inBuf[inPos + 1] & 0xff) << 8) << bits;
+	    inPos += 2;
+	    bits += 16;
+	  }
+	symbol = dist[bitBuf & InflaterHuffmanTree.PRIMARY_MASK];
+	if (symbol < 0)
+	  symbol = dist[-(symbol >> 4)
+			| ((bitBuf & ((1 << (symbol & 15)) - 1))
+			   >> InflaterHuffmanTree.PRIMARY_BITS)];
+	n = symbol & 15;
+	bitBuf >>>= n;
+	bits -= n;
+	symbol >>= 4;
+
+	if (symbol >= CPDIST.length)
+	  throw new DataFormatException("Illegal rep dist code");
+	int distance = CPDIST[symbol];
+	n = CPDEXT[symbol];
+	if (n > 0)
+	  {
+	    if (bits < 16)
+	      {
+		bitBuf |= (inBuf[inPos] & 0xff
+			   | (inBuf[inPos + 1] & 0xff) << 8) << bits;
+		inPos += 2;
+		bits += 16;
+	      }
+	    distance += bitBuf & ((1 << n) - 1);
+	    bitBuf >>>= n;
+	    bits -= n;
+	  }
+
+	/* Copy the match */
+	filled += length;
+	int from = (winEnd - distance) & OutputWindow.WINDOW_MASK;
+	if (length <= distance
+	    && from + length <= OutputWindow.WINDOW_SIZE
+	    && winEnd + length <= OutputWindow.WINDOW_SIZE)
+	  {
+	    System.arraycopy(win, from, win, winEnd, length);
+	    winEnd = (winEnd + length) & OutputWindow.WINDOW_MASK;
+	  }
+	else
+	  {
+	    while (length-- > 0)
+	      {
+		win[winEnd] = win[from];
+		winEnd = (winEnd + 1) & OutputWindow.WINDOW_MASK;
+		from = (from + 1) & OutputWindow.WINDOW_MASK;
+	      }
+	  }
+      }
+
+    in.window_start = inPos;
+    in.buffer = bitBuf;
+    in.bits_in_buffer = bits;
+    out.window_end = winEnd;
+    out.window_filled = filled;
+    return endOfBlock;
+  }
+
+  /**
+   * Decodes huffman encoded symbols straight into dst like
+   * decodeHuffmanFast(), as long as there is room for the longest
+   * match.  Matches refer to the output in dst since directStart, or
+   * before it in the output window.
+   *
+   * @return the number of bytes written to dst.
+   * @exception DataFormatException if deflated stream is invalid.  
+   */
+  private int decodeHuffmanDirect (byte[] dst, int dstStart, int dstEnd)
+    throws DataFormatException
+  {
+    final StreamManipulator in = input;
+
+    final byte[] inBuf = in.window;
+    final int inLimit = in.window_end - FAST_INPUT;
+    int inPos = in.window_start;
+    int bitBuf = in.buffer;
+    int bits = in.bits_in_buffer;
+
+    final byte[] win = outputWindow.window;
+    final int winEnd = outputWindow.window_end;
+    final int histStart = directBuf == null ? dstStart : directStart;
+    final int dstLimit = dstEnd - 258;
+    int dstPos = dstStart;
+
+    final short[] lit = litlenTree.tree;
+    final short[] dist = distTree.tree;
+
+    int symbol, n;
+
+    while (inPos <= inLimit && dstPos <= dstLimit)
+      {
+	/* Literal or length code */
+	if (bits < 16)
+	  {
+	    bitBuf |= (inBuf[inPos] & 0xff
+		       | (inBuf[inPos + 1] & 0xff) << 8) << bits;
+	    inPos += 2;
+	    bits += 16;
+	  }
+	symbol = lit[bitBuf & InflaterHuffmanTree.PRIMARY_MASK];
+	if (symbol < 0)
+	  symbol = lit[-(symbol >> 4)
+		       | ((bitBuf & ((1 << (symbol & 15)) - 1))
+			  >> InflaterHuffmanTree.PRIMARY_BITS)];
+	n = symbol & 15;
+	bitBuf >>>= n;
+	bits -= n;
+	symbol >>= 4;
+
+	if (symbol < 256)
+	  {
+	    dst[dstPos++] = (byte) symbol;
+	    continue;
+	  }
+
+	if (symbol == 256)
+	  {
+	    /* end of block */
+	    distTree = null;
+	    litlenTree = null;
+	    mode = DECODE_BLOCKS;
+	    break;
+	  }
+
+	symbol -= 257;
+	if (symbol >= CPLENS.length)
+	  throw new DataFormatException("Illegal rep length code");
+	int length = CPLENS[symbol];
+	n = CPLEXT[symbol];
+	if (n > 0)
+	  {
+	    if (bits < 16)
+	      {
+		bitBuf |= (inBuf[inPos] & 0xff
+			   | (inBuf[inPos + 1] & 0xff) << 8) << bits;
+		inPos += 2;
+		bits += 16;
+	      }
+	    length += bitBuf & ((1 << n) - 1);
+	    bitBuf >>>= n;
+	    bits -= n;
+	  }
+
+	/* Distance code */
+	if (bits < 16)
+	  {
+	    bitBuf |= (inBuf[inPos] & 0xff
+		       | (inBuf[inPos + 1] & 0xff) << 8) << bits;
+	    inPos += 2;
+	    bits += 16;
+	  }
+	symbol = dist[bitBuf & InflaterHuffmanTree.PRIMARY_MASK];
+	if (symbol < 0)
+	  symbol = dist[-(symbol >> 4)
+			| ((bitBuf & ((1 << (symbol & 15)) - 1))
+			   >> InflaterHuffmanTree.PRIMARY_BITS)];
+	n = symbol & 15;
+	bitBuf >>>= n;
+	bits -= n;
+	symbol >>= 4;
+
+	if (symbol >= CPDIST.length)
+	  throw new DataFormatException("Illegal rep dist code");
+	int distance = CPDIST[symbol];
+	n = CPDEXT[symbol];
+	if (n > 0)
+	  {
+	    if (bits < 16)
+	      {
+		bitBuf |= (inBuf[inPos] & 0xff
+			   | (inBuf[inPos + 1] & 0xff) << 8) << bits;
+		inPos += 2;
+		bits += 16;
+	      }
+	    distance += bitBuf & ((1 << n) - 1);
+	    bitBuf >>>= n;
+	    bits -= n;
+	  }
+
+	/* Copy the match */
+	int from = dstPos - distance;
+	if (from < histStart)
+	  {
+	    /* It starts in the output window */
+	    int winFrom = (winEnd - (histStart - from)) & OutputWindow.WINDOW_MASK;
+	    n = histStart - from;
+	    if (n > length)
+	      n = length;
+	    length -= n;
+	    while (n-- > 0)
+	      {
+		dst[dstPos++] = win[winFrom];
+		winFrom = (winFrom + 1) & OutputWindow.WINDOW_MASK;
+	      }
+	    from = histStart;
+	  }
+
+	if (length <= dstPos - from)
+	  {
+	    System.arraycopy(dst, from, dst, dstPos, length);
+	    dstPos += length;
+	  }
+	else
+	  {
+	    /* We have to copy manually, since the repeat pattern overlaps.
+	     */
+	    while (length-- > 0)
+	      dst[dstPos++] = dst[from++];
+	  }
+      }
+
+    in.window_start = inPos;
+    in.buffer = bitBuf;
+    in.bits_in_buffer = bits;
+    return dstPos - dstStart;
+  }
+
+  /**
+   * Copies a stored block straight into dst.
+   * @return the number of bytes copied
+   */
+  private int copyStoredDirect (byte[] dst, int off, int len)
+  {
+    int more = input.copyBytes(dst, off, Math.min(len, uncomprLen));
+    uncomprLen -= more;
+    if (uncomprLen == 0)
+      mode = DECODE_BLOCKS;
+    return more;
+  }
+
   /**
    * Decodes the huffman encoded symbols in the input stream.
    * @return false if more input is needed, true if output window is
@@ -515,6 +1026,15 @@ public class Inflater
    */
   private boolean decodeHuffman () throws DataFormatException
   {
+    if (mode == DECODE_HUFFMAN && decodeHuffmanFast())
+      {
+	/* end of block */
+	distTree = null;
+	litlenTree = null;
+	mode = DECODE_BLOCKS;
+	return true;
+      }
+
     int free = outputWindow.getFreeSpace();
     while (free >= 258)
       {
@@ -657,6 +1177,9 @@ public class Inflater
 	      }
 	  }
 
+	if (index != null)
+	  addSeekPoint();
+
 	int type = input.peekBits(3);
 	if (type < 0)
 	  return false;
@@ -701,8 +1224,8 @@ public class Inflater
 	  if (nlen != (uncomprLen ^ 0xffff))
 	    throw new DataFormatException("broken uncompressed block");
 	  mode = DECODE_STORED;
+	  return true;
 	}
-	/* fall through */
       case DECODE_STORED:
 	{
 	  int more = outputWindow.copyStored(input, uncomprLen);
@@ -721,7 +1244,7 @@ public class Inflater
 	litlenTree = dynHeader.buildLitLenTree();
 	distTree = dynHeader.buildDistTree();
 	mode = DECODE_HUFFMAN;
-	/* fall through */
+	return true;
       case DECODE_HUFFMAN:
       case DECODE_HUFFMAN_LENBITS:
       case DECODE_HUFFMAN_DIST:
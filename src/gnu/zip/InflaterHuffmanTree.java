@@ -41,10 +41,31 @@ class InflaterHuffmanTree
 {
   private static final int MAX_BITLEN = 15;
 
+  /**
+   * Number of bits looked up at once in the primary table.  Longer
+   * codes continue in secondary tables that follow it.
+   */
+  static final int PRIMARY_BITS = 10;
+  static final int PRIMARY_SIZE = 1 << PRIMARY_BITS;
+  static final int PRIMARY_MASK = PRIMARY_SIZE - 1;
+
+  /* Mask of the bits of a left aligned 16 bit code that select its
+   * secondary table, and the code step between secondary tables.
+   */
+  private static final int SUBTREE_MASK = 0x1ffff & ~((1 << (16 - PRIMARY_BITS)) - 1);
+  private static final int SUBTREE_STEP = 1 << (16 - PRIMARY_BITS);
+
   private static final String bit4Reverse =
     "\000\010\004\014\002\012\006\016\001\011\005\015\003\013\007\017";
   
-  private short[] tree;
+  /**
+   * The lookup table, indexed by the next bits of input in reversed
+   * order.  A non-negative entry holds the symbol in its upper bits
+   * and the code length in the lower four bits.  A negative entry
+   * points to a secondary table: its upper bits hold the negated
+   * table offset and its lower four bits the longest code length in it.
+   */
+  short[] tree;
 
   static InflaterHuffmanTree defLitLenTree, defDistTree;
 
@@ -99,16 +120,16 @@ class InflaterHuffmanTree
       }
 
     int code = 0;
-    int treeSize = 512;
+    int treeSize = PRIMARY_SIZE;
     for (int bits = 1; bits <= MAX_BITLEN; bits++)
       {
 	nextCode[bits] = code;
 	code += blCount[bits] << (16 - bits);
-	if (bits >= 10)
+	if (bits > PRIMARY_BITS)
 	  {
-	    /* We need an extra table for bit lengths >= 10. */
-	    int start = nextCode[bits] & 0x1ff80;
-	    int end   = code & 0x1ff80;
+	    /* We need an extra table for longer bit lengths. */
+	    int start = nextCode[bits] & SUBTREE_MASK;
+	    int end   = code & SUBTREE_MASK;
 	    treeSize += (end - start) >> (16 - bits);
 	  }
       }
@@ -119,17 +140,17 @@ class InflaterHuffmanTree
      * bit len.  This way the sub trees will be aligned.
      */
     tree = new short[treeSize];
-    int treePtr = 512;
-    for (int bits = MAX_BITLEN; bits >= 10; bits--)
+    int treePtr = PRIMARY_SIZE;
+    for (int bits = MAX_BITLEN; bits > PRIMARY_BITS; bits--)
       {
-	int end   = code & 0x1ff80;
+	int end   = code & SUBTREE_MASK;
 	code -= blCount[bits] << (16 - bits);
-	int start = code & 0x1ff80;
-	for (int i = start; i < end; i += 1 << 7)
+	int start = code & SUBTREE_MASK;
+	for (int i = start; i < end; i += SUBTREE_STEP)
 	  {
 	    tree[bitReverse(i)]
 	      = (short) ((-treePtr << 4) | bits);
-	    treePtr += 1 << (bits-9);
+	    treePtr += 1 << (bits - PRIMARY_BITS);
 	  }
       }
     
@@ -140,23 +161,24 @@ class InflaterHuffmanTree
 	  continue;
 	code = nextCode[bits];
 	int revcode = bitReverse(code);
-	if (bits <= 9)
+	if (bits <= PRIMARY_BITS)
 	  {
 	    do
 	      {
 		tree[revcode] = (short) ((i << 4) | bits);
 		revcode += 1 << bits;
 	      }
-	    while (revcode < 512);
+	    while (revcode < PRIMARY_SIZE);
 	  }
 	else
 	  {
-	    int subTree = tree[revcode & 511];
+	    int subTree = tree[revcode & PRIMARY_MASK];
 	    int treeLen = 1 << (subTree & 15);
 	    subTree = -(subTree >> 4);
 	    do
 	      { 
-		tree[subTree | (revcode >> 9)] = (short) ((i << 4) | bits);
+		tree[subTree | (revcode >> PRIMARY_BITS)]
+		  = (short) ((i << 4) | bits);
 		revcode += 1 << bits;
 	      }
 	    while (revcode < treeLen);
@@ -174,7 +196,7 @@ class InflaterHuffmanTree
   int getSymbol(StreamManipulator input) throws DataFormatException
   {
     int lookahead, symbol;
-    if ((lookahead = input.peekBits(9)) >= 0)
+    if ((lookahead = input.peekBits(PRIMARY_BITS)) >= 0)
       {
 	if ((symbol = tree[lookahead]) >= 0)
 	  {
@@ -185,7 +207,7 @@ class InflaterHuffmanTree
 	int bitlen = symbol & 15;
 	if ((lookahead = input.peekBits(bitlen)) >= 0)
 	  {
-	    symbol = tree[subtree | (lookahead >> 9)];
+	    symbol = tree[subtree | (lookahead >> PRIMARY_BITS)];
 	    input.dropBits(symbol & 15);
 	    return symbol >> 4;
 	  }
@@ -193,7 +215,7 @@ class InflaterHuffmanTree
 	  {
 	    int bits = input.getAvailableBits();
 	    lookahead = input.peekBits(bits);
-	    symbol = tree[subtree | (lookahead >> 9)];
+	    symbol = tree[subtree | (lookahead >> PRIMARY_BITS)];
 	    if ((symbol & 15) <= bits)
 	      {
 		input.dropBits(symbol & 15);
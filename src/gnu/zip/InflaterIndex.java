@@ -0,0 +1,200 @@
+package gnu.zip;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Seek points into a deflated stream, so that it could be inflated
+ * from (nearly) any position without inflating everything before it.
+ *
+ * A point is taken at the start of a deflate block, at least span
+ * bytes of output after the previous one.  It holds the position in
+ * the uncompressed data, the position in bits in the compressed data
+ * and the last 32K of output before it, which matches may refer to.
+ *
+ * The points are added by the inflaters that are given the index,
+ * while they inflate past the last point, so the index grows as more
+ * of the stream is read.  They may be written out with write() and
+ * read back with read(), so that they need not be found again.
+ *
+ * @author albus
+ */
+public class InflaterIndex
+{
+  private final int span;
+
+  // Set once the points have been dropped for want of memory
+  private boolean dropped;
+
+  private int count;
+  private long[] offsets = new long[4];
+  private long[] bitOffsets = new long[4];
+  private byte[][] windows = new byte[4][];
+
+  /**
+   * @param span the minimal distance between two points in bytes of
+   * uncompressed data.
+   */
+  public InflaterIndex(int span)
+  {
+    if (span < 1)
+      throw new IllegalArgumentException();
+    this.span = span;
+  }
+
+  public int getSpan()
+  {
+    return span;
+  }
+
+  public synchronized int getCount()
+  {
+    return count;
+  }
+
+  /**
+   * Finds the last point at or before a position.
+   *
+   * @param offset the position in the uncompressed data.
+   * @return the number of the point or -1, if there is none.
+   */
+  public synchronized int find(long offset)
+  {
+    int low = 0;
+    int high = count - 1;
+
+    while (low <= high)
+      {
+	int mid = (low + high) >>> 1;
+	if (offsets[mid] <= offset)
+	  low = mid + 1;
+	else
+	  high = mid - 1;
+      }
+
+    return high;
+  }
+
+  /**
+   * Gets the position of a point in the uncompressed data.
+   */
+  public synchronized long getOffset(int point)
+  {
+    return offsets[point];
+  }
+
+  /**
+   * Gets the position of a point in the compressed data in bits.
+   */
+  public synchronized long getBitOffset(int point)
+  {
+    return bitOffsets[point];
+  }
+
+  /**
+   * Gets the output before a point, at most 32K of it.
+   */
+  public synchronized byte[] getWindow(int point)
+  {
+    return windows[point];
+  }
+
+  /**
+   * Checks if a point should be added at the given position.
+   */
+  synchronized boolean needsPoint(long offset)
+  {
+    if (dropped)
+      return false;
+    return offset - (count == 0 ? 0 : offsets[count - 1]) >= span;
+  }
+
+  /**
+   * Drops all points and takes no more, e.g. when there is no memory
+   * left for their windows.
+   */
+  synchronized void drop()
+  {
+    for (int i = 0; i < count; i++)
+      windows[i] = null;
+    count = 0;
+    dropped = true;
+  }
+
+  synchronized boolean isDropped()
+  {
+    return dropped;
+  }
+
+  synchronized void add(long offset, long bitOffset, byte[] window)
+  {
+    if (!needsPoint(offset))
+      return;
+
+    if (count == offsets.length)
+      {
+	long[] o = new long[count * 2];
+	System.arraycopy(offsets, 0, o, 0, count);
+	offsets = o;
+
+	long[] b = new long[count * 2];
+	System.arraycopy(bitOffsets, 0, b, 0, count);
+	bitOffsets = b;
+
+	byte[][] w = new byte[count * 2][];
+	System.arraycopy(windows, 0, w, 0, count);
+	windows = w;
+      }
+
+    offsets[count] = offset;
+    bitOffsets[count] = bitOffset;
+    windows[count] = window;
+    count++;
+  }
+
+  /**
+   * Writes out the points.
+   */
+  public synchronized void write(DataOutputStream out) throws IOException
+  {
+    out.writeInt(span);
+    out.writeInt(count);
+    for (int i = 0; i < count; i++)
+      {
+	out.writeLong(offsets[i]);
+	out.writeLong(bitOffsets[i]);
+	out.writeInt(windows[i].length);
+	out.write(windows[i]);
+      }
+  }
+
+  /**
+   * Reads back points written out with write().
+   *
+   * @exception IOException if the data is not a valid index.
+   */
+  public static InflaterIndex read(DataInputStream in) throws IOException
+  {
+    int span = in.readInt();
+    int count = in.readInt();
+    if (span < 1 || count < 0)
+      throw new IOException("Invalid inflater index");
+
+    InflaterIndex index = new InflaterIndex(span);
+    for (int i = 0; i < count; i++)
+      {
+	long offset = in.readLong();
+	long bitOffset = in.readLong();
+	int len = in.readInt();
+	if (len < 0 || len > OutputWindow.WINDOW_SIZE
+	    || len > offset || bitOffset < 0)
+	  throw new IOException("Invalid inflater index");
+
+	byte[] window = new byte[len];
+	in.readFully(window);
+	index.add(offset, bitOffset, window);
+      }
+    return index;
+  }
+}
@@ -75,6 +75,11 @@ public class InflaterInputStream extends FilterInputStream
   // read() call.
   private byte[] onebytebuffer = new byte[1];
 
+  // Reads of at least this size are inflated straight into the
+  // caller's array.  Smaller ones gain nothing, as the last window's
+  // worth of output has to be copied to the inflater's window anyway.
+  private static final int DIRECT_READ = 1 << 15;
+
   /**
    * Create an InflaterInputStream with the default decompresseor
    * and a default buffer size.
@@ -121,6 +126,27 @@ public class InflaterInputStream extends FilterInputStream
     this.buf = new byte [size];
   }
 
+  /**
+   * Create an InflaterInputStream with the specified decompresseor
+   * and buffer, e.g. ones that are reused from a closed stream.
+   *
+   * @param in the InputStream to read bytes from
+   * @param inf the decompressor used to decompress data read from in
+   * @param buf the buffer to use
+   */
+  InflaterInputStream(InputStream in, Inflater inf, byte[] buf)
+  {
+    super(in);
+
+    if (in == null)
+      throw new NullPointerException("in may not be null");
+    if (inf == null)
+      throw new NullPointerException("inf may not be null");
+
+    this.inf = inf;
+    this.buf = buf;
+  }
+
   /**
    * Returns 0 once the end of the stream (EOF) has been reached.
    * Otherwise returns 1.
@@ -174,7 +200,9 @@ public class InflaterInputStream extends FilterInputStream
   }
 
   /**
-   * Decompresses data into the byte array
+   * Decompresses data into the byte array.  Reads of at least 32K are
+   * filled completely, unless the end of the stream is reached, and
+   * the data is inflated straight into the array.
    *
    * @param b the array to read and decompress data into
    * @param off the offset indicating where the data should be placed
@@ -187,6 +215,9 @@ public class InflaterInputStream extends FilterInputStream
     if (len == 0)
       return 0;
 
+    if (len >= DIRECT_READ && buf.length > 16)
+      return readDirect(b, off, len);
+
     int count = 0;
     for (;;)
       {
@@ -213,6 +244,78 @@ public class InflaterInputStream extends FilterInputStream
       }
   }
 
+  private int readDirect(byte[] b, int off, int len) throws IOException
+  {
+    int total = 0;
+    try
+      {
+	for (;;)
+	  {
+	    int count = inf.inflate(b, off, len, true);
+	    off += count;
+	    len -= count;
+	    total += count;
+
+	    if (len == 0 || inf.needsDictionary() || inf.finished())
+	      break;
+
+	    if (!refill())
+	      {
+		/* No more input: inflate the rest through the window */
+		inf.endDirect();
+		while (len > 0)
+		  {
+		    count = inf.inflate(b, off, len);
+		    if (count == 0)
+		      {
+			if (inf.needsInput() && !inf.finished())
+			  throw new ZipException("Deflated stream ends early.");
+			break;
+		      }
+		    off += count;
+		    len -= count;
+		    total += count;
+		  }
+		break;
+	      }
+	  }
+      }
+    catch (DataFormatException dfe)
+      {
+	throw new ZipException(dfe.getMessage());
+      }
+    finally
+      {
+	inf.endDirect();
+      }
+
+    return total > 0 ? total : -1;
+  }
+
+  /**
+   * Fills the buffer with more data to decompress, keeping the input
+   * the inflater has not used yet in front of it.
+   *
+   * @return false if there is no more input.
+   */
+  private boolean refill() throws IOException
+  {
+    if (in == null)
+      throw new ZipException ("InflaterInputStream is closed");
+
+    int left = inf.moveInput(buf);
+    int n = in.read(buf, left, buf.length - left);
+    if (n <= 0)
+      {
+	len = left;
+	return false;
+      }
+
+    len = left + n;
+    inf.addInput(n);
+    return true;
+  }
+
   /**
    * Skip specified number of bytes of uncompressed data
    *
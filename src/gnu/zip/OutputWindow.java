@@ -48,12 +48,13 @@ package gnu.zip;
  */
 class OutputWindow
 {
-  private static final int WINDOW_SIZE = 1 << 15;
-  private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+  static final int WINDOW_SIZE = 1 << 15;
+  static final int WINDOW_MASK = WINDOW_SIZE - 1;
 
-  private byte[] window = new byte[WINDOW_SIZE]; //The window is 2^15 bytes
-  private int window_end  = 0;
-  private int window_filled = 0;
+  /* These are also used directly by Inflater.decodeHuffmanFast() */
+  byte[] window = new byte[WINDOW_SIZE]; //The window is 2^15 bytes
+  int window_end  = 0;
+  int window_filled = 0;
 
   public void write(int abyte)
   {
@@ -120,6 +121,52 @@ class OutputWindow
     return copied;
   }
 
+  /**
+   * Appends output that has already been given away to the window, so
+   * that later matches can refer to it.  Only the last WINDOW_SIZE
+   * bytes are kept.
+   */
+  public void copyHistory(byte[] output, int offset, int len)
+  {
+    if (window_filled > 0)
+      throw new IllegalStateException();
+
+    if (len > WINDOW_SIZE)
+      {
+	offset += len - WINDOW_SIZE;
+	len = WINDOW_SIZE;
+      }
+
+    int tailLen = WINDOW_SIZE - window_end;
+    if (len > tailLen)
+      {
+	System.arraycopy(output, offset, window, window_end, tailLen);
+	System.arraycopy(output, offset + tailLen, window, 0, len - tailLen);
+      }
+    else
+      System.arraycopy(output, offset, window, window_end, len);
+    window_end = (window_end + len) & WINDOW_MASK;
+  }
+
+  /**
+   * Copies the last len bytes of output, including any that has not
+   * been given away yet.
+   */
+  public byte[] getHistory(int len)
+  {
+    byte[] history = new byte[len];
+    int start = (window_end - len) & WINDOW_MASK;
+    int tailLen = WINDOW_SIZE - start;
+    if (len > tailLen)
+      {
+	System.arraycopy(window, start, history, 0, tailLen);
+	System.arraycopy(window, 0, history, tailLen, len - tailLen);
+      }
+    else
+      System.arraycopy(window, start, history, 0, len);
+    return history;
+  }
+
   public void copyDict(byte[] dict, int offset, int len)
   {
     if (window_filled > 0)
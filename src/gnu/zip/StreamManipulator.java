@@ -55,12 +55,16 @@ package gnu.zip;
 
 class StreamManipulator
 {
-  private byte[] window;
-  private int window_start = 0;
-  private int window_end = 0;
+  /* These are also used directly by the fast decoding loops of the
+   * Inflater, which only refill the buffer while it holds less than 16
+   * bits, so that it never holds more than 31.
+   */
+  byte[] window;
+  int window_start = 0;
+  int window_end = 0;
 
-  private int buffer = 0;
-  private int bits_in_buffer = 0;
+  int buffer = 0;
+  int bits_in_buffer = 0;
 
   /**
    * Get the next n bits but don't increase input pointer.  n must be
@@ -70,13 +74,12 @@ class StreamManipulator
    * @return the value of the bits, or -1 if not enough bits available.  */
   public final int peekBits(int n)
   {
-    if (bits_in_buffer < n)
+    while (bits_in_buffer < n)
       {
 	if (window_start == window_end)
 	  return -1;
-	buffer |= (window[window_start++] & 0xff
-		   | (window[window_start++] & 0xff) << 8) << bits_in_buffer;
-	bits_in_buffer += 16;
+	buffer |= (window[window_start++] & 0xff) << bits_in_buffer;
+	bits_in_buffer += 8;
       }
     return buffer & ((1 << n) - 1);
   }
@@ -168,13 +171,6 @@ class StreamManipulator
       length = avail;
     System.arraycopy(window, window_start, output, offset, length);
     window_start += length;
-
-    if (((window_start - window_end) & 1) != 0)
-      {
-	/* We always want an even number of bytes in input, see peekBits */
-	buffer = (window[window_start++] & 0xff);
-	bits_in_buffer = 8;
-      }
     return count + length;
   }
 
@@ -201,16 +197,45 @@ class StreamManipulator
     if (0 > off || off > end || end > buf.length)
       throw new ArrayIndexOutOfBoundsException();
     
-    if ((len & 1) != 0)
-      {
-	/* We always want an even number of bytes in input, see peekBits */
-	buffer |= (buf[off++] & 0xff) << bits_in_buffer;
-	bits_in_buffer += 8;
-      }
-    
     window = buf;
     window_start = off;
     window_end = end;
   }
+
+  /**
+   * Gets the number of input bytes not yet taken into the bit buffer.
+   */
+  final int getUnreadBytes()
+  {
+    return window_end - window_start;
+  }
+
+  /**
+   * Moves the input bytes not yet taken into the bit buffer to the
+   * start of buf and continues reading from there.  More input may
+   * then be added after them with addInput().
+   *
+   * @return the number of bytes moved
+   */
+  int moveInput(byte[] buf)
+  {
+    int left = window_end - window_start;
+    if (left > 0)
+      System.arraycopy(window, window_start, buf, 0, left);
+    window = buf;
+    window_start = 0;
+    window_end = left;
+    return left;
+  }
+
+  /**
+   * Adds input that follows the current one in the same buffer.
+   */
+  void addInput(int len)
+  {
+    if (len < 0 || window_end + len > window.length)
+      throw new ArrayIndexOutOfBoundsException();
+    window_end += len;
+  }
 }
 
@@ -90,5 +90,22 @@ interface ZipConstants
   int ENDSIZ = 12;
   int ENDOFF = 16;
   int ENDCOM = 20;
+
+  /* The Zip64 end of central directory locator */
+  long ZIP64LOCSIG = 'P'|('K'<<8)|(6<<16)|(7<<24);
+  int ZIP64LOCHDR = 20;
+
+  int ZIP64LOCOFF =  8;
+
+  /* The entries in the Zip64 end of central directory record */
+  long ZIP64ENDSIG = 'P'|('K'<<8)|(6<<16)|(6<<24);
+  int ZIP64ENDHDR = 56;
+
+  int ZIP64ENDTOT = 32;
+  int ZIP64ENDSIZ = 40;
+  int ZIP64ENDOFF = 48;
+
+  /* The header id of the Zip64 extra field */
+  int ZIP64EXTID = 0x0001;
 }
 
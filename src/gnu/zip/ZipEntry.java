@@ -60,7 +60,7 @@ public class ZipEntry implements ZipConstants//, Cloneable
   private static Calendar cal;
 
   private String name;
-  private int size;
+  private long size;
   private long compressedSize = -1;
   private int crc;
   private int dostime;
@@ -70,7 +70,7 @@ public class ZipEntry implements ZipConstants//, Cloneable
   private String comment = null;
 
   int flags;              /* used by ZipOutputStream */
-  int offset;             /* used by ZipFile and ZipOutputStream */
+  long offset;            /* used by ZipFile and ZipOutputStream */
 
   /**
    * Compression method.  This method doesn't compress at all.
@@ -240,13 +240,13 @@ public class ZipEntry implements ZipConstants//, Cloneable
 
   /**
    * Sets the size of the uncompressed data.
-   * @exception IllegalArgumentException if size is not in 0..0xffffffffL
+   * @exception IllegalArgumentException if size is negative
    */
   public void setSize(long size)
   {
-    if ((size & 0xffffffff00000000L) != 0)
+    if (size < 0)
 	throw new IllegalArgumentException();
-    this.size = (int) size;
+    this.size = size;
     this.known |= KNOWN_SIZE;
   }
 
@@ -256,7 +256,7 @@ public class ZipEntry implements ZipConstants//, Cloneable
    */
   public long getSize()
   {
-    return (known & KNOWN_SIZE) != 0 ? size & 0xffffffffL : -1L;
+    return (known & KNOWN_SIZE) != 0 ? size : -1L;
   }
 
   /**
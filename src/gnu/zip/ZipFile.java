@@ -39,16 +39,12 @@ exception statement from your version. */
 
 package gnu.zip;
 
-import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
-import java.nio.ByteBuffer;
-import java.util.Hashtable;
-import org.albite.io.RandomReadingFile;
-import org.albite.io.decoders.AlbiteStreamReader;
-import org.albite.io.decoders.Encodings;
+import java13.io.FilterInputStream;
+import org.albite.io.PositionalFile;
 
 /**
  * This class represents a Zip archive.  You can ask for the contained
@@ -83,13 +79,58 @@ public class ZipFile implements ZipConstants
   private final String name;
 
   // File from which zip entries are read.
-  private final RandomReadingFile rrf;
+  private final PositionalFile rrf;
 
-  // The entries of this zip file when initialized and not yet closed.
-  private Hashtable entries;
+  // The central directory of this zip file when initialized and not
+  // yet closed.  Entries are resolved from it only on demand.
+  private byte[] directory;
+
+  // Number of entries in the central directory.
+  private int count;
+
+  // Offset of each entry's record in the directory.
+  private int[] records;
+
+  // Hash of each entry's name, computed over its bytes.
+  private int[] hashes;
+
+  // Open addressing table of entry index + 1, by name hash.
+  private int[] table;
+
+  // Seek points of the large deflated entries, by index, created when
+  // they are first read, and when each of them was last opened.
+  private InflaterIndex[] indexes;
+  private int[] indexUses;
+  private int indexClock;
+
+  // Deflated entries larger than twice this get a seek point every
+  // this many bytes of output, or farther apart for very large ones.
+  private static final int INDEX_SPAN = 1 << 18;
+
+  // Each point keeps 32K of output, so the indexes of all entries
+  // together hold at most this many points.  Those of the entries
+  // opened least recently are dropped first.
+  private static final int MAX_INDEX_POINTS = 8;
 
   private boolean closed = false;
 
+  // Inflaters and read buffers of closed entry streams, kept for
+  // reuse, so that opening many small entries allocates nothing.
+  private static final int POOL_SIZE = 4;
+  private static final int BUFFER_SIZE = 4096;
+  private final Inflater[] inflaters = new Inflater[POOL_SIZE];
+  private int inflaterCount;
+  private final byte[][] buffers = new byte[2 * POOL_SIZE][];
+  private int bufferCount;
+
+  // Whether entry streams check the CRC of the data.
+  private boolean verify;
+
+  // Number of inflaters and buffers asked for and of those that were
+  // taken from the pool.
+  private int poolRequests;
+  private int poolHits;
+
 
 //  /**
 //   * Helper function to open RandomAccessFile and throw the proper
@@ -127,7 +168,7 @@ public class ZipFile implements ZipConstants
    * @exception ZipException if the file doesn't contain a valid zip
    * archive.
    */
-  public ZipFile(final RandomReadingFile file)
+  public ZipFile(final PositionalFile file)
           throws ZipException, IOException {
     this.rrf = file;
     this.name = file.getName();
@@ -216,10 +257,19 @@ public class ZipFile implements ZipConstants
   }
 
   /**
-   * Read the central directory of a zip file and fill the entries
-   * array.  This is called exactly once when first needed. It is called
+   * Read the central directory of a zip file and index its entries.
+   * This is called exactly once when first needed. It is called
    * while holding the lock on <code>raf</code>.
    *
+   * The end of the file is read in one go and, unless it already
+   * contains it, the whole central directory in another.  No entries
+   * are created: only the offsets of their records in the directory
+   * and the hashes of their names are kept.
+   *
+   * Zip64 archives are recognized by the end of central directory
+   * holding 0xffff or 0xffffffff; the real values are then read from
+   * the Zip64 end of central directory record.
+   *
    * @exception IOException if a i/o error occured.
    * @exception ZipException if the central directory is malformed 
    */
@@ -230,65 +280,322 @@ public class ZipFile implements ZipConstants
      * Note that a comment has a maximum length of 64K, so that is the
      * maximum we search backwards.
      */
-    PartialInputStream inp = new PartialInputStream(rrf, 4096);
-    long pos = rrf.length() - ENDHDR;
-    long top = Math.max(0, pos - 65536);
-    do
+    final long length = rrf.length();
+    final int tailSize = (int) Math.min(length, ENDHDR + 65535);
+    final long tailOffset = length - tailSize;
+    final byte[] tail = new byte[tailSize];
+
+    readFully(rrf, tailOffset, tail, 0, tailSize);
+
+    int end = tailSize - ENDHDR;
+    while (end >= 0 && readLeInt(tail, end) != (int) ENDSIG)
+      end--;
+
+    if (end < 0)
+      throw new ZipException
+        ("central directory not found, probably not a zip file: " + name);
+
+    long total = readLeShort(tail, end + ENDTOT);
+    long centralSize = readLeInt(tail, end + ENDSIZ) & 0xffffffffL;
+    long centralOffset = readLeInt(tail, end + ENDOFF) & 0xffffffffL;
+
+    final long endOffset = tailOffset + end;
+    if ((total == 0xffff || centralSize == 0xffffffffL
+         || centralOffset == 0xffffffffL)
+        && endOffset >= ZIP64LOCHDR)
       {
-	if (pos < top)
-	  throw new ZipException
-	    ("central directory not found, probably not a zip file: " + name);
-	inp.seek(pos--);
+        final byte[] locator = new byte[ZIP64LOCHDR];
+        readFully(rrf, endOffset - ZIP64LOCHDR, locator, 0, ZIP64LOCHDR);
+
+        if (readLeInt(locator, 0) == (int) ZIP64LOCSIG)
+          {
+            final long recOffset = readLeLong(locator, ZIP64LOCOFF);
+            if (recOffset < 0 || recOffset + ZIP64ENDHDR > endOffset)
+              throw new ZipException("Wrong Zip64 locator: " + name);
+
+            final byte[] rec = new byte[ZIP64ENDHDR];
+            readFully(rrf, recOffset, rec, 0, ZIP64ENDHDR);
+
+            if (readLeInt(rec, 0) != (int) ZIP64ENDSIG)
+              throw new ZipException
+                ("Wrong Zip64 end of central directory signature: " + name);
+
+            total = readLeLong(rec, ZIP64ENDTOT);
+            centralSize = readLeLong(rec, ZIP64ENDSIZ);
+            centralOffset = readLeLong(rec, ZIP64ENDOFF);
+          }
       }
-    while (inp.readLeInt() != ENDSIG);
-    
-    if (inp.skip(ENDTOT - ENDNRD) != ENDTOT - ENDNRD)
-      throw new EOFException(name);
-    int count = inp.readLeShort();
-    if (inp.skip(ENDOFF - ENDSIZ) != ENDOFF - ENDSIZ)
-      throw new EOFException(name);
-    int centralOffset = inp.readLeInt();
-
-    entries = new Hashtable(count+count/2);
-    inp.seek(centralOffset);
-    
-    for (int i = 0; i < count; i++)
+
+    if (total < 0 || total > Integer.MAX_VALUE
+        || centralSize < 0 || centralSize > Integer.MAX_VALUE
+        || centralOffset < 0 || centralOffset + centralSize > length)
+      throw new ZipException("Wrong Central Directory size: " + name);
+
+    final byte[] dir = new byte[(int) centralSize];
+    if (centralOffset >= tailOffset
+        && centralOffset + centralSize <= length)
+      {
+        System.arraycopy(tail, (int) (centralOffset - tailOffset),
+                         dir, 0, dir.length);
+      }
+    else
+      {
+        readFully(rrf, centralOffset, dir, 0, dir.length);
+      }
+
+    final int[] recs = new int[(int) total];
+    final int[] hs = new int[(int) total];
+
+    int tableSize = 16;
+    while (tableSize < total * 2)
+      tableSize <<= 1;
+    final int[] tbl = new int[tableSize];
+    final int mask = tableSize - 1;
+
+    int pos = 0;
+    for (int i = 0; i < total; i++)
+      {
+        if (pos + CENHDR > centralSize
+            || readLeInt(dir, pos) != (int) CENSIG)
+          throw new ZipException("Wrong Central Directory signature: " + name);
+
+        final int nameLen = readLeShort(dir, pos + CENNAM);
+        final int extraLen = readLeShort(dir, pos + CENEXT);
+        final int commentLen = readLeShort(dir, pos + CENCOM);
+
+        if (pos + CENHDR + nameLen > centralSize)
+          throw new EOFException(name);
+
+        recs[i] = pos;
+        hs[i] = hash(dir, pos + CENHDR, nameLen);
+
+        /* A later entry with the same name replaces the former one */
+        int slot = hs[i] & mask;
+        while (tbl[slot] != 0
+               && !sameName(dir, recs, hs, tbl[slot] - 1, i))
+          slot = (slot + 1) & mask;
+        tbl[slot] = i + 1;
+
+        pos += CENHDR + nameLen + extraLen + commentLen;
+      }
+
+    directory = dir;
+    count = (int) total;
+    records = recs;
+    hashes = hs;
+    table = tbl;
+  }
+
+  private static boolean sameName(byte[] dir, int[] recs, int[] hs,
+                                  int a, int b)
+  {
+    if (hs[a] != hs[b])
+      return false;
+
+    final int nameLen = readLeShort(dir, recs[a] + CENNAM);
+    if (nameLen != readLeShort(dir, recs[b] + CENNAM))
+      return false;
+
+    return equal(dir, recs[a] + CENHDR, dir, recs[b] + CENHDR, nameLen);
+  }
+
+  private static boolean equal(byte[] a, int aOff, byte[] b, int bOff,
+                               int len)
+  {
+    for (int i = 0; i < len; i++)
+      if (a[aOff + i] != b[bOff + i])
+        return false;
+    return true;
+  }
+
+  private static int hash(byte[] b, int off, int len)
+  {
+    int h = 0;
+    for (int i = off + len - 1; i >= off; i--)
+      h = 31 * h + b[i];
+    return h;
+  }
+
+  /**
+   * Reads exactly len bytes of the file at the given position.  Other
+   * threads may read the file at the same time.
+   *
+   * @exception EOFException if the file ends before.
+   */
+  static void readFully(PositionalFile file, long position,
+                        byte[] b, int off, int len) throws IOException
+  {
+    while (len > 0)
+      {
+        int count = file.read(position, b, off, len);
+        if (count <= 0)
+          throw new EOFException();
+        position += count;
+        off += count;
+        len -= count;
+      }
+  }
+
+  static int readLeShort(byte[] b, int off)
+  {
+    return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8;
+  }
+
+  static int readLeInt(byte[] b, int off)
+  {
+    return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8
+      | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+  }
+
+  static long readLeLong(byte[] b, int off)
+  {
+    return (readLeInt(b, off) & 0xffffffffL)
+      | (long) readLeInt(b, off + 4) << 32;
+  }
+
+  /**
+   * Reads the uncompressed size, the compressed size or the offset of
+   * the local header from the record of an entry in the central
+   * directory.  If it does not fit in 32 bits, it is in the Zip64
+   * extra field, after those of the former that do not fit either.
+   *
+   * @param field CENLEN, CENSIZ or CENOFF
+   */
+  private long readCenLong(int rec, int field)
+  {
+    final byte[] dir = directory;
+    final long value = readLeInt(dir, rec + field) & 0xffffffffL;
+    if (value != 0xffffffffL)
+      return value;
+
+    int skip = 0;
+    if (field != CENLEN && readLeInt(dir, rec + CENLEN) == -1)
+      skip += 8;
+    if (field == CENOFF && readLeInt(dir, rec + CENSIZ) == -1)
+      skip += 8;
+
+    int pos = rec + CENHDR + readLeShort(dir, rec + CENNAM);
+    final int extraEnd = pos + readLeShort(dir, rec + CENEXT);
+    while (pos + 4 <= extraEnd)
+      {
+        final int id = readLeShort(dir, pos);
+        final int len = readLeShort(dir, pos + 2);
+        pos += 4;
+        if (id == ZIP64EXTID)
+          {
+            if (skip + 8 <= len && pos + skip + 8 <= extraEnd)
+              return readLeLong(dir, pos + skip);
+            break;
+          }
+        pos += len;
+      }
+    return value;
+  }
+
+  private static byte[] toBytes(String name)
+  {
+    final int length = name.length();
+    final byte[] res = new byte[length];
+
+    for (int i = 0; i < length; i++)
+      {
+        final char c = name.charAt(i);
+        if (c >= 0x80)
+          {
+            try
+              {
+                return name.getBytes("UTF-8");
+              }
+            catch (UnsupportedEncodingException uee)
+              {
+                throw new Error();
+              }
+          }
+        res[i] = (byte) c;
+      }
+
+    return res;
+  }
+
+  /**
+   * Looks up an entry by its name.
+   *
+   * @return the index of the entry or -1, if there is no such entry
+   * @exception IOException when the entries could not be read.
+   */
+  private int findEntry(String name) throws IOException
+  {
+    final byte[] directory;
+    final int[] records;
+    final int[] hashes;
+    final int[] table;
+
+    // Taken under the lock, as close() drops them
+    synchronized(rrf)
+      {
+        checkClosed();
+
+        if (this.directory == null)
+          readEntries();
+
+        directory = this.directory;
+        records = this.records;
+        hashes = this.hashes;
+        table = this.table;
+      }
+
+    final byte[] bytes = toBytes(name);
+    final int h = hash(bytes, 0, bytes.length);
+    final int mask = table.length - 1;
+
+    for (int slot = h & mask; table[slot] != 0; slot = (slot + 1) & mask)
       {
-	if (inp.readLeInt() != CENSIG)
-	  throw new ZipException("Wrong Central Directory signature: " + name);
-
-        inp.skip(6);
-	int method = inp.readLeShort();
-	int dostime = inp.readLeInt();
-	int crc = inp.readLeInt();
-	int csize = inp.readLeInt();
-	int size = inp.readLeInt();
-	int nameLen = inp.readLeShort();
-	int extraLen = inp.readLeShort();
-	int commentLen = inp.readLeShort();
-        inp.skip(8);
-	int offset = inp.readLeInt();
-	String name = inp.readString(nameLen);
-
-	ZipEntry entry = new ZipEntry(name);
-	entry.setMethod(method);
-	entry.setCrc(crc & 0xffffffffL);
-	entry.setSize(size & 0xffffffffL);
-	entry.setCompressedSize(csize & 0xffffffffL);
-	entry.setDOSTime(dostime);
-	if (extraLen > 0)
-	  {
-	    byte[] extra = new byte[extraLen];
-	    inp.readFully(extra);
-	    entry.setExtra(extra);
-	  }
-	if (commentLen > 0)
-	  {
-            entry.setComment(inp.readString(commentLen));
-	  }
-	entry.offset = offset;
-	entries.put(name, entry);
+        final int index = table[slot] - 1;
+        final int rec = records[index];
+
+        if (hashes[index] == h
+            && readLeShort(directory, rec + CENNAM) == bytes.length
+            && equal(directory, rec + CENHDR, bytes, 0, bytes.length))
+          return index;
       }
+
+    return -1;
+  }
+
+  /**
+   * Looks up an entry by its name or, if there is none, by the
+   * name of a directory.
+   *
+   * @return the index of the entry or -1, if there is no such entry
+   * @exception IllegalStateException when the ZipFile has already been closed
+   */
+  public int getEntryIndex(String name)
+  {
+    checkClosed();
+
+    try
+      {
+        int index = findEntry(name);
+        // If we didn't find it, maybe it's a directory.
+        if (index < 0 && !name.endsWith("/"))
+          index = findEntry(name + '/');
+        return index;
+      }
+    catch (IOException ioe)
+      {
+        return -1;
+      }
+  }
+
+  /**
+   * Returns the uncompressed size of an entry.
+   *
+   * @param index the index of the entry, as returned by
+   * {@link #getEntryIndex(String)}
+   */
+  public long getSize(int index)
+  {
+    return readCenLong(records[index], CENLEN);
   }
 
   /**
@@ -300,14 +607,19 @@ public class ZipFile implements ZipConstants
    */
   public void close() throws IOException
   {
-    RandomReadingFile rrf = this.rrf;
+    PositionalFile rrf = this.rrf;
     if (rrf == null)
       return;
 
     synchronized (rrf)
       {
 	closed = true;
-	entries = null;
+	directory = null;
+	records = null;
+	hashes = null;
+	table = null;
+	indexes = null;
+	indexUses = null;
 	rrf.close();
       }
   }
@@ -340,25 +652,6 @@ public class ZipFile implements ZipConstants
 //      }
 //  }
 
-  /**
-   * Checks that the ZipFile is still open and reads entries when necessary.
-   *
-   * @exception IllegalStateException when the ZipFile has already been closed.
-   * @exception IOException when the entries could not be read.
-   */
-  private Hashtable getEntries() throws IOException
-  {
-    synchronized(rrf)
-      {
-	checkClosed();
-
-	if (entries == null)
-	  readEntries();
-
-	return entries;
-      }
-  }
-
   /**
    * Searches for a zip entry in this archive with the given name.
    *
@@ -370,21 +663,48 @@ public class ZipFile implements ZipConstants
    */
   public ZipEntry getEntry(String name)
   {
-    checkClosed();
+    final int index = getEntryIndex(name);
+    return index >= 0 ? createEntry(index, name) : null;
+  }
 
-    try
+  /**
+   * Creates an entry out of its record in the central directory.
+   */
+  private ZipEntry createEntry(int index, String name)
+  {
+    final byte[] dir = directory;
+    final int rec = records[index];
+
+    final int nameLen = readLeShort(dir, rec + CENNAM);
+    final int extraLen = readLeShort(dir, rec + CENEXT);
+    final int commentLen = readLeShort(dir, rec + CENCOM);
+
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(readLeShort(dir, rec + CENHOW));
+    entry.setCrc(readLeInt(dir, rec + CENCRC) & 0xffffffffL);
+    entry.setSize(readCenLong(rec, CENLEN));
+    entry.setCompressedSize(readCenLong(rec, CENSIZ));
+    entry.setDOSTime(readLeInt(dir, rec + CENTIM));
+    if (extraLen > 0)
       {
-	Hashtable entries = getEntries();
-	ZipEntry entry = (ZipEntry) entries.get(name);
-        // If we didn't find it, maybe it's a directory.
-        if (entry == null && !name.endsWith("/"))
-	  entry = (ZipEntry) entries.get(name + '/');
-	return entry != null ? new ZipEntry(entry, name) : null;
+        byte[] extra = new byte[extraLen];
+        System.arraycopy(dir, rec + CENHDR + nameLen, extra, 0, extraLen);
+        entry.setExtra(extra);
       }
-    catch (IOException ioe)
+    if (commentLen > 0)
       {
-	return null;
+        try
+          {
+            entry.setComment(new String(dir, rec + CENHDR + nameLen
+                                         + extraLen, commentLen, "UTF-8"));
+          }
+        catch (UnsupportedEncodingException uee)
+          {
+            throw new Error();
+          }
       }
+    entry.offset = readCenLong(rec, CENOFF);
+    return entry;
   }
 
   /**
@@ -413,55 +733,371 @@ public class ZipFile implements ZipConstants
   {
     checkClosed();
 
-    Hashtable entries = getEntries();
-    String name = entry.getName();
-    ZipEntry zipEntry = (ZipEntry) entries.get(name);
-    if (zipEntry == null)
+    final int index = findEntry(entry.getName());
+    if (index < 0)
       return null;
 
-    PartialInputStream inp = new PartialInputStream(rrf, 1024);
-    inp.seek(zipEntry.offset);
+    return getInputStream(index);
+  }
 
-    if (inp.readLeInt() != LOCSIG)
-      throw new ZipException("Wrong Local header signature: " + name);
+  /**
+   * Creates an input stream reading the given zip entry as
+   * uncompressed data.
+   *
+   * @param index the index of the entry, as returned by
+   * {@link #getEntryIndex(String)}
+   *
+   * @exception IllegalStateException when the ZipFile has already been closed
+   * @exception IOException if a i/o error occured.
+   * @exception ZipException if the Zip archive is malformed.  
+   */
+  public InputStream getInputStream(int index) throws IOException
+  {
+    return getInputStream(index, 0);
+  }
+
+  /**
+   * Creates an input stream reading the given zip entry as
+   * uncompressed data, starting at the given position in it.
+   *
+   * Large deflated entries are inflated from the last seek point
+   * before the position, if it is already known, instead of from
+   * their beginning.  Seek points are added while the entries are
+   * read.
+   *
+   * @param index the index of the entry, as returned by
+   * {@link #getEntryIndex(String)}
+   * @param position the position in the uncompressed data
+   *
+   * @exception IllegalStateException when the ZipFile has already been closed
+   * @exception IOException if a i/o error occured.
+   * @exception ZipException if the Zip archive is malformed.  
+   */
+  public InputStream getInputStream(int index, long position)
+    throws IOException
+  {
+    InputStream in = openEntry(index, position);
+
+    if (verify && position == 0)
+      in = new VerifiedInputStream(in, index,
+                                   readLeInt(directory,
+                                             records[index] + CENCRC),
+                                   getSize(index));
+    return in;
+  }
 
-    inp.skip(4);
+  /**
+   * Sets whether the input streams of entries check the CRC of the
+   * data they read, as they read it.  Streams that do not start at
+   * the beginning of an entry are not checked.
+   *
+   * @param verify true to check entries
+   */
+  public void setVerify(boolean verify)
+  {
+    this.verify = verify;
+  }
 
-    if (zipEntry.getMethod() != inp.readLeShort())
-      throw new ZipException("Compression method mismatch: " + name);
+  public boolean getVerify()
+  {
+    return verify;
+  }
+
+  private InputStream openEntry(int index, long position)
+    throws IOException
+  {
+    checkClosed();
 
-    inp.skip(16);
+    final byte[] dir = directory;
+    final int rec = records[index];
+    final int method = readLeShort(dir, rec + CENHOW);
 
-    int nameLen = inp.readLeShort();
-    int extraLen = inp.readLeShort();
-    inp.skip(nameLen + extraLen);
+    final long offset = readCenLong(rec, CENOFF);
+    final byte[] header = new byte[LOCHDR];
+    readFully(rrf, offset, header, 0, LOCHDR);
 
-    inp.setLength(zipEntry.getCompressedSize());
+    if (readLeInt(header, 0) != LOCSIG)
+      throw new ZipException("Wrong Local header signature: " + name);
+
+    if (method != readLeShort(header, LOCHOW))
+      throw new ZipException("Compression method mismatch: " + name);
+
+    final long start = offset + LOCHDR + readLeShort(header, LOCNAM)
+      + readLeShort(header, LOCEXT);
+    final long csize = readCenLong(rec, CENSIZ);
 
-    int method = zipEntry.getMethod();
     switch (method)
       {
       case ZipEntry.STORED:
-	return inp;
+        StoredInputStream stored =
+          new StoredInputStream(this, rrf, start, csize);
+        stored.skip(position);
+        return stored;
       case ZipEntry.DEFLATED:
+        PartialInputStream inp =
+          new PartialInputStream(this, rrf, getBuffer());
+        inp.seek(start);
+        inp.setLength(csize);
         inp.addDummyByte();
-        final Inflater inf = new Inflater(true);
-        final int sz = (int) entry.getSize();
-        return new InflaterInputStream(inp, inf)
+        final Inflater inflater = getInflater();
+        final long sz = getSize(index);
+        final InflaterIndex seekPoints = getIndex(index);
+        if (seekPoints != null)
+          {
+            int point = seekPoints.find(position);
+            if (point >= 0)
+              {
+                long bitOffset = seekPoints.getBitOffset(point);
+                inp.skip(bitOffset >> 3);
+                int firstByte = (bitOffset & 7) != 0 ? inp.read() : 0;
+                inflater.setStart(seekPoints, point, firstByte);
+                position -= seekPoints.getOffset(point);
+              }
+            inflater.setIndex(seekPoints);
+          }
+        InputStream in = new InflaterInputStream(inp, inflater, getBuffer())
         {
+          // inf is the field, which is null once the stream is closed,
+          // while inflater is the one the stream was opened with.
           public int available() throws IOException
           {
+            if (inf == null)
+              throw new IOException("stream closed");
             if (sz == -1)
               return super.available();
             if (super.available() != 0)
-              return sz - inf.getTotalOut();
+              return (int) Math.min(sz - inflater.getBytesWritten(),
+                                    Integer.MAX_VALUE);
             return 0;
           }
+
+          public void close() throws IOException
+          {
+            if (inf == null)
+              return;
+
+            super.close();
+            releaseInflater(inf);
+            releaseBuffer(buf);
+            inf = null;
+            buf = null;
+          }
         };
+        while (position > 0)
+          {
+            long skipped = in.skip(position);
+            if (skipped <= 0)
+              break;
+            position -= skipped;
+          }
+        return in;
       default:
 	throw new ZipException("Unknown compression method " + method);
       }
   }
+
+  /**
+   * Takes an inflater from the pool, or creates a new one.
+   */
+  private Inflater getInflater()
+  {
+    synchronized (inflaters)
+      {
+        poolRequests++;
+        if (inflaterCount > 0)
+          {
+            poolHits++;
+            Inflater inf = inflaters[--inflaterCount];
+            inflaters[inflaterCount] = null;
+            return inf;
+          }
+      }
+    return new Inflater(true);
+  }
+
+  /**
+   * Puts an inflater of a closed stream back into the pool.
+   */
+  private void releaseInflater(Inflater inf)
+  {
+    inf.reset();
+    synchronized (inflaters)
+      {
+        if (inflaterCount < inflaters.length)
+          inflaters[inflaterCount++] = inf;
+      }
+  }
+
+  /**
+   * Takes a read buffer from the pool, or creates a new one.
+   */
+  byte[] getBuffer()
+  {
+    synchronized (inflaters)
+      {
+        poolRequests++;
+        if (bufferCount > 0)
+          {
+            poolHits++;
+            byte[] buf = buffers[--bufferCount];
+            buffers[bufferCount] = null;
+            return buf;
+          }
+      }
+    return new byte[BUFFER_SIZE];
+  }
+
+  /**
+   * Puts a read buffer of a closed stream back into the pool.
+   */
+  void releaseBuffer(byte[] buf)
+  {
+    synchronized (inflaters)
+      {
+        if (bufferCount < buffers.length)
+          buffers[bufferCount++] = buf;
+      }
+  }
+
+  /**
+   * Returns the number of inflaters and read buffers the input streams
+   * have asked for.
+   */
+  public int getPoolRequests()
+  {
+    synchronized (inflaters)
+      {
+        return poolRequests;
+      }
+  }
+
+  /**
+   * Returns the number of inflaters and read buffers the input streams
+   * have reused from closed ones, instead of allocating them.
+   */
+  public int getPoolHits()
+  {
+    synchronized (inflaters)
+      {
+        return poolHits;
+      }
+  }
+
+  /**
+   * Returns the seek points of an entry, or null if it is not large
+   * and deflated, or if there is no memory for them.  The points may
+   * be stored and given back to {@link #setIndex(int, InflaterIndex)}
+   * when the file is opened again, so that they need not be found
+   * again.
+   *
+   * @param index the index of the entry, as returned by
+   * {@link #getEntryIndex(String)}
+   */
+  public InflaterIndex getIndex(int index)
+  {
+    checkClosed();
+
+    synchronized (rrf)
+      {
+        try
+          {
+            if (indexes == null)
+              {
+                indexes = new InflaterIndex[count];
+                indexUses = new int[count];
+              }
+            indexUses[index] = ++indexClock;
+
+            InflaterIndex seekPoints = indexes[index];
+            long size = getSize(index);
+            if (seekPoints == null
+                && readLeShort(directory, records[index] + CENHOW)
+                   == ZipEntry.DEFLATED
+                && size > 2 * INDEX_SPAN)
+              {
+                long span = Math.max(INDEX_SPAN,
+                                     size / MAX_INDEX_POINTS + 1);
+                seekPoints = new InflaterIndex((int) Math.min(
+                    span, Integer.MAX_VALUE));
+                indexes[index] = seekPoints;
+              }
+            trimIndexes(index);
+            return seekPoints != null && seekPoints.isDropped()
+              ? null : seekPoints;
+          }
+        catch (OutOfMemoryError e)
+          {
+            indexes = null;
+            indexUses = null;
+            return null;
+          }
+      }
+  }
+
+  /**
+   * Drops the indexes of the entries opened least recently, until
+   * the indexes together, counting all the points the given one may
+   * still get, have at most MAX_INDEX_POINTS.  All of them are
+   * dropped once an inflater has run out of memory for a point.
+   *
+   * @param keep the index of the entry being opened
+   */
+  private void trimIndexes(int keep)
+  {
+    while (true)
+      {
+        int points = 0;
+        int oldest = -1;
+        for (int i = 0; i < indexes.length; i++)
+          {
+            InflaterIndex seekPoints = indexes[i];
+            if (seekPoints == null)
+              continue;
+            if (seekPoints.isDropped())
+              {
+                indexes = new InflaterIndex[count];
+                indexUses = new int[count];
+                return;
+              }
+            if (i == keep)
+              points += Math.max(seekPoints.getCount(),
+                                 getSize(i) / seekPoints.getSpan());
+            else
+              {
+                points += seekPoints.getCount();
+                if (oldest < 0 || indexUses[i] < indexUses[oldest])
+                  oldest = i;
+              }
+          }
+
+        if (points <= MAX_INDEX_POINTS || oldest < 0)
+          return;
+        indexes[oldest] = null;
+      }
+  }
+
+  /**
+   * Sets the seek points of an entry, e.g. ones that have been stored
+   * the last time the file was open.
+   *
+   * @param index the index of the entry, as returned by
+   * {@link #getEntryIndex(String)}
+   */
+  public void setIndex(int index, InflaterIndex seekPoints)
+  {
+    checkClosed();
+
+    synchronized (rrf)
+      {
+        if (indexes == null)
+          {
+            indexes = new InflaterIndex[count];
+            indexUses = new int[count];
+          }
+        indexUses[index] = ++indexClock;
+        indexes[index] = seekPoints;
+      }
+  }
   
   /**
    * Returns the (path) name of this zip file.
@@ -482,7 +1118,12 @@ public class ZipFile implements ZipConstants
     
     try
       {
-	return getEntries().size();
+        synchronized(rrf)
+          {
+            if (directory == null)
+              readEntries();
+            return count;
+          }
       }
     catch (IOException ioe)
       {
@@ -513,6 +1154,208 @@ public class ZipFile implements ZipConstants
 //    }
 //  }
 
+  /**
+   * Computes the CRC of an entry while it is read and checks it and
+   * the size, when the end of the entry is reached.  Skipped data is
+   * read, too.
+   */
+  private static final class VerifiedInputStream extends FilterInputStream
+  {
+    private final CRC32 crc = new CRC32();
+    private final int index;
+    private final int expectedCrc;
+    private final long size;
+    private long count;
+    private boolean checked;
+
+    VerifiedInputStream(InputStream in, int index, int expectedCrc,
+                        long size)
+    {
+      super(in);
+      this.index = index;
+      this.expectedCrc = expectedCrc;
+      this.size = size;
+    }
+
+    public int read() throws IOException
+    {
+      int b = in.read();
+      if (b < 0)
+        check();
+      else
+        {
+          crc.update(b);
+          add(1);
+        }
+      return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+      int n = in.read(b, off, len);
+      if (n < 0)
+        check();
+      else
+        {
+          crc.update(b, off, n);
+          add(n);
+        }
+      return n;
+    }
+
+    public long skip(long n) throws IOException
+    {
+      byte[] tmp = new byte[(int) Math.min(n, 2048)];
+      long skipped = 0;
+      while (skipped < n)
+        {
+          int k = read(tmp, 0, (int) Math.min(n - skipped, tmp.length));
+          if (k <= 0)
+            break;
+          skipped += k;
+        }
+      return skipped;
+    }
+
+    private void add(int n) throws IOException
+    {
+      count += n;
+      if (count >= size)
+        check();
+    }
+
+    private void check() throws IOException
+    {
+      if (checked)
+        return;
+      checked = true;
+
+      if (count != size)
+        throw new ZipException("Wrong size of entry #" + index + ": "
+                               + count + " instead of " + size);
+      if ((int) crc.getValue() != expectedCrc)
+        throw new ZipException("CRC mismatch in entry #" + index);
+    }
+  }
+
+  /**
+   * Reads a stored entry as a slice of the file.  Reads of at least
+   * BUFFER_SIZE bytes go straight from the file into the caller's
+   * array; only smaller ones are buffered.
+   */
+  private static final class StoredInputStream extends InputStream
+  {
+    private final ZipFile zip;
+    private final PositionalFile file;
+    private final long end;
+
+    // Position in the file of the next byte to return
+    private long position;
+
+    // Bytes at position, read ahead for small reads
+    private byte[] buffer;
+    private int bufferPos;
+    private int bufferEnd;
+
+    private boolean closed;
+
+    StoredInputStream(ZipFile zip, PositionalFile file, long start, long len)
+    {
+      this.zip = zip;
+      this.file = file;
+      this.position = start;
+      this.end = start + len;
+    }
+
+    public int available() throws IOException
+    {
+      if (closed)
+        throw new IOException("stream closed");
+      return (int) Math.min(end - position, Integer.MAX_VALUE);
+    }
+
+    public int read() throws IOException
+    {
+      if (bufferPos == bufferEnd && !fillBuffer())
+        return -1;
+      position++;
+      return buffer[bufferPos++] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+      if (closed)
+        throw new IOException("stream closed");
+      if (len == 0)
+        return 0;
+
+      if (bufferPos == bufferEnd)
+        {
+          if (position == end)
+            return -1;
+
+          if (len >= BUFFER_SIZE)
+            {
+              len = (int) Math.min(len, end - position);
+              readFully(file, position, b, off, len);
+              position += len;
+              return len;
+            }
+
+          fillBuffer();
+        }
+
+      len = Math.min(len, bufferEnd - bufferPos);
+      System.arraycopy(buffer, bufferPos, b, off, len);
+      bufferPos += len;
+      position += len;
+      return len;
+    }
+
+    private boolean fillBuffer() throws IOException
+    {
+      if (closed)
+        throw new IOException("stream closed");
+      if (position == end)
+        return false;
+
+      if (buffer == null)
+        buffer = zip.getBuffer();
+
+      bufferPos = 0;
+      bufferEnd = (int) Math.min(buffer.length, end - position);
+      readFully(file, position, buffer, 0, bufferEnd);
+      return true;
+    }
+
+    public long skip(long n) throws IOException
+    {
+      if (closed)
+        throw new IOException("stream closed");
+      if (n <= 0)
+        return 0;
+
+      n = Math.min(n, end - position);
+      bufferPos = (int) Math.min(bufferEnd, bufferPos + n);
+      position += n;
+      return n;
+    }
+
+    public void close()
+    {
+      if (closed)
+        return;
+
+      closed = true;
+      if (buffer != null)
+        {
+          zip.releaseBuffer(buffer);
+          buffer = null;
+        }
+      bufferPos = bufferEnd = 0;
+    }
+  }
+
   private static final class PartialInputStream extends InputStream
   {
 //    /**
@@ -525,8 +1368,9 @@ public class ZipFile implements ZipConstants
 //     */
 //    private CharsetDecoder utf8Decoder;
 
-    private final RandomReadingFile rrf;
-    private final byte[] buffer;
+    private final ZipFile zip;
+    private final PositionalFile rrf;
+    private byte[] buffer;
     private long bufferOffset;
     private int pos;
     private long end;
@@ -536,16 +1380,24 @@ public class ZipFile implements ZipConstants
     // byte in methods where we know it is not needed.
     private int dummyByteCount;
 
-    public PartialInputStream(RandomReadingFile rrf, int bufferSize)
+    public PartialInputStream(ZipFile zip, PositionalFile rrf,
+                              byte[] buffer)
       throws IOException
     {
+      this.zip = zip;
       this.rrf = rrf;
-      buffer = new byte[bufferSize];
+      this.buffer = buffer;
       bufferOffset = -buffer.length;
       pos = buffer.length;
       end = rrf.length();
     }
 
+    private void checkOpen() throws IOException
+    {
+      if (buffer == null)
+        throw new IOException("stream closed");
+    }
+
     void setLength(long length)
     {
       end = bufferOffset + pos + length;
@@ -553,25 +1405,20 @@ public class ZipFile implements ZipConstants
 
     private void fillBuffer() throws IOException
     {
-      synchronized (rrf)
+      long len = end - bufferOffset;
+      if (len == 0 && dummyByteCount > 0)
         {
-          long len = end - bufferOffset;
-          if (len == 0 && dummyByteCount > 0)
-            {
-              buffer[0] = 0;
-              dummyByteCount = 0;
-            }
-          else
-            {
-              rrf.seek((int) bufferOffset);
-//              rrf.seek(bufferOffset);
-              rrf.readFully(buffer, 0, (int) Math.min(buffer.length, len));
-            }
+          buffer[0] = 0;
+          dummyByteCount = 0;
         }
+      else
+        ZipFile.readFully(rrf, bufferOffset, buffer, 0,
+                          (int) Math.min(buffer.length, len));
     }
     
-    public int available()
+    public int available() throws IOException
     {
+      checkOpen();
       long amount = end - (bufferOffset + pos);
       if (amount > Integer.MAX_VALUE)
 	return Integer.MAX_VALUE;
@@ -580,6 +1427,7 @@ public class ZipFile implements ZipConstants
     
     public int read() throws IOException
     {
+      checkOpen();
       if (bufferOffset + pos >= end + dummyByteCount)
 	return -1;
       if (pos == buffer.length)
@@ -594,6 +1442,7 @@ public class ZipFile implements ZipConstants
 
     public int read(byte[] b, int off, int len) throws IOException
     {
+      checkOpen();
       if (len > end + dummyByteCount - (bufferOffset + pos))
 	{
 	  len = (int) (end + dummyByteCount - (bufferOffset + pos));
@@ -625,6 +1474,7 @@ public class ZipFile implements ZipConstants
 
     public long skip(long amount) throws IOException
     {
+      checkOpen();
       if (amount < 0)
 	return 0;
       if (amount > end - (bufferOffset + pos))
@@ -704,77 +1554,16 @@ public class ZipFile implements ZipConstants
     }
 
     /**
-     * Decode chars from byte buffer using UTF8 encoding.  This
-     * operation is performance-critical since a jar file contains a
-     * large number of strings for the name of each file in the
-     * archive.  This routine therefore avoids using the expensive
-     * utf8Decoder when decoding is straightforward.
-     *
-     * @param buffer the buffer that contains the encoded character
-     *        data
-     * @param pos the index in buffer of the first byte of the encoded
-     *        data
-     * @param length the length of the encoded data in number of
-     *        bytes.
-     *
-     * @return a String that contains the decoded characters.
+     * Gives the buffer back to the zip file.  The stream may not be
+     * read after this.
      */
-    private String decodeChars(byte[] buffer, int pos, int length)
-      throws IOException
+    public void close()
     {
-      String result;
-      int i=length - 1;
-      while ((i >= 0) && (buffer[i] <= 0x7f))
+      if (buffer != null)
         {
-          i--;
+          zip.releaseBuffer(buffer);
+          buffer = null;
         }
-      if (i < 0)
-        {
-          result = stringFromSubarray(buffer, 0, pos, length);
-        }
-      else
-        {
-          ByteBuffer bufferBuffer = ByteBuffer.wrap(buffer, pos, length);
-//          if (utf8Decoder == null)
-//            utf8Decoder = UTF8CHARSET.newDecoder();
-//          utf8Decoder.reset();
-//          char [] characters = utf8Decoder.decode(bufferBuffer).array();
-//          char [] characters = utf8Decoder.decode(bufferBuffer).array();
-          
-          ByteArrayInputStream in = new ByteArrayInputStream(buffer);
-          AlbiteStreamReader r =
-                  new AlbiteStreamReader(in, Encodings.UTF_8);
-          char[] characters = r.read(buffer.length);
-          result = String.valueOf(characters);
-        }
-      return result;
-    }
-
-    String readString(int length) throws IOException
-    {
-      if (length > end - (bufferOffset + pos))
-        throw new EOFException();
-
-      String result = null;
-      try
-        {
-          if (buffer.length - pos >= length)
-            {
-              result = decodeChars(buffer, pos, length);
-              pos += length;
-            }
-          else
-            {
-              byte[] b = new byte[length];
-              readFully(b);
-              result = decodeChars(b, 0, length);
-            }
-        }
-      catch (UnsupportedEncodingException uee)
-        {
-          throw new Error();//uee);
-        }
-      return result;
     }
 
     public void addDummyByte()
@@ -782,63 +1571,4 @@ public class ZipFile implements ZipConstants
       dummyByteCount = 1;
     }
   }
-
-    /**
-     * Allocates a new <code>String</code> constructed from a subarray
-     * of an array of 8-bit integer values.
-     * <p>
-     * The <code>offset</code> argument is the index of the first byte
-     * of the subarray, and the <code>count</code> argument specifies the
-     * length of the subarray.
-     * <p>
-     * Each <code>byte</code> in the subarray is converted to a
-     * <code>char</code> as specified in the method above.
-     *
-     * @deprecated This method does not properly convert bytes into characters.
-     * As of JDK&nbsp;1.1, the preferred way to do this is via the
-     * <code>String</code> constructors that take a character-encoding name or
-     * that use the platform's default encoding.
-     *
-     * @param      ascii     the bytes to be converted to characters.
-     * @param      hibyte    the top 8 bits of each 16-bit Unicode character.
-     * @param      offset    the initial offset.
-     * @param      count     the length.
-     * @exception  IndexOutOfBoundsException  if the <code>offset</code>
-     *               or <code>count</code> argument is invalid.
-     * @exception NullPointerException if <code>ascii</code> is
-     *                       <code>null</code>.
-     * @see        java.lang.String#String(byte[], int)
-     * @see        java.lang.String#String(byte[], int, int, java.lang.String)
-     * @see        java.lang.String#String(byte[], int, int)
-     * @see        java.lang.String#String(byte[], java.lang.String)
-     * @see        java.lang.String#String(byte[])
-     */
-    private static String stringFromSubarray(
-            byte ascii[], int hibyte, int offset, int count) {
-	if (offset < 0) {
-	    throw new StringIndexOutOfBoundsException(offset);
-	}
-	if (count < 0) {
-	    throw new StringIndexOutOfBoundsException(count);
-	}
-	// Note: offset or count might be near -1>>>1.
-	if (offset > ascii.length - count) {
-	    throw new StringIndexOutOfBoundsException(offset + count);
-	}
-
-	char value[] = new char[count];
-
-	if (hibyte == 0) {
-	    for (int i = count ; i-- > 0 ;) {
-		value[i] = (char) (ascii[i + offset] & 0xff);
-	    }
-	} else {
-	    hibyte <<= 8;
-	    for (int i = count ; i-- > 0 ;) {
-		value[i] = (char) (hibyte | (ascii[i + offset] & 0xff));
-	    }
-	}
-
-        return new String(value);
-    }
 }
@@ -22,6 +22,7 @@ import org.albite.dictionary.DictionaryManager;
 import org.albite.dictionary.Dictionary;
 //#endif
 import org.albite.io.decoders.Encodings;
+import org.albite.library.LibraryIndex;
 import org.albite.util.RMSHelper;
 import org.albite.util.units.Unit;
 import org.albite.util.units.UnitGroup;
@@ -64,6 +65,11 @@ public class AlbiteMIDlet extends MIDlet
      */
     private String                  bookURL;
 
+    /*
+     * Metadata of the books in the library
+     */
+    public final LibraryIndex       library = new LibraryIndex();
+
     /*
      * Section: Dictionary / Converter
      */
@@ -838,6 +844,7 @@ public class AlbiteMIDlet extends MIDlet
             bookBrowser.addCommand(FileBrowser.SELECT_FILE_COMMAND);
             bookBrowser.addCommand(getCANCEL_COMMAND());//GEN-END:|32-getter|1|32-postInit
             // write post-init user code here
+            bookBrowser.setLibraryIndex(library);
             bookBrowser.setDir(getCurrentBookFolder());
         }//GEN-BEGIN:|32-getter|2|
         return bookBrowser;
@@ -2902,6 +2909,10 @@ public class AlbiteMIDlet extends MIDlet
             reloadImages.append("Render images in books", null);
             reloadImages.setSelectedFlags(new boolean[] { bookCanvas.rendersImages() });//GEN-END:|881-getter|1|881-postInit
             // write post-init user code here
+            //#if !(TinyMode || TinyModeExport)
+            reloadImages.append("Cache chapters on the memory card", null);
+            reloadImages.setSelectedIndex(1, bookCanvas.cachesChapters());
+            //#endif
         }//GEN-BEGIN:|881-getter|2|
         return reloadImages;
     }
@@ -3689,7 +3700,9 @@ public class AlbiteMIDlet extends MIDlet
                     bookCanvas.updatePageSettings(
                             getPageMargins().getValue(),
                             getLineSpacing().getValue(),
-                            getReloadImages().isSelected(0)
+                            getReloadImages().isSelected(0),
+                            getReloadImages().size() > 1
+                                && getReloadImages().isSelected(1)
                     );
                 }//GEN-BEGIN:|1064-getter|2|1064-postInit
             });//GEN-END:|1064-getter|2|1064-postInit
@@ -4122,6 +4135,7 @@ public class AlbiteMIDlet extends MIDlet
     private void reallyExit() {
         saveOptionsToRMS();
         closeRMS();
+        library.close();
         //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
         dictman.closeDictionaries();
         //#endif
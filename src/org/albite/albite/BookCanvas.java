@@ -27,8 +27,12 @@ import org.albite.book.model.book.Book;
 import org.albite.book.model.book.BookException;
 import org.albite.book.model.book.Bookmark;
 import org.albite.book.model.book.Chapter;
+import org.albite.book.model.book.ChapterCache;
+import org.albite.book.model.book.ChapterPrefetcher;
 import org.albite.book.view.Booklet;
 import org.albite.book.view.Page;
+import org.albite.book.view.PaginationIndex;
+import org.albite.book.view.PaginationIndexer;
 import org.albite.font.AlbiteFont;
 import org.albite.book.view.DummyPage;
 import org.albite.book.view.TextPage;
@@ -73,6 +77,11 @@ public class BookCanvas extends Canvas {
     private              int    currentLineSpacing      = LINE_SPACING;
     private boolean             renderImages;
 
+    /*
+     * Whether decoded chapters are cached on the memory card
+     */
+    private boolean             cacheChapters           = false;
+
     private static final int    DRAG_TRESHOLD           = 40;
     private static final int    MARGIN_CLICK_TRESHOLD   = 60;
     private static final int    HOLDING_TIME_MIN        = 250;
@@ -94,6 +103,14 @@ public class BookCanvas extends Canvas {
 
     private static final float  MAXIMUM_SPEED           = 4F;
 
+    /*
+     * The part of the chapter that has to be read before the next
+     * (or the previous one, if reading backwards) is prefetched
+     */
+    private static final float  PREFETCH_THRESHOLD      = 0.75F;
+    private float               prefetchThreshold       = PREFETCH_THRESHOLD;
+    private int                 lastReadPosition        = -1;
+
     private float               speedMultiplier         = 0.3F;
     private boolean             scrollingOnX            = true;
 
@@ -187,7 +204,6 @@ public class BookCanvas extends Canvas {
     private volatile boolean    repaintClock            = false;
     
     private char[]              chapterNoChars          = {'#', '0', '0', '0'};
-    private int                 pagesCount;
     private final char[]        clockChars = {'0', '0', ':', '0', '0'};
 
     private int                 statusBarHeight;
@@ -238,6 +254,9 @@ public class BookCanvas extends Canvas {
     private ZLTextTeXHyphenator hyphenator;
     //#endif
     private Booklet             chapterBooklet;
+    private PaginationIndex     paginationIndex;
+    private PaginationIndexer   paginationIndexer;
+    private ChapterPrefetcher   chapterPrefetcher;
     private PageCanvas          prevPageCanvas;
     private PageCanvas          currentPageCanvas;
     private PageCanvas          nextPageCanvas;
@@ -590,6 +609,11 @@ public class BookCanvas extends Canvas {
 
         final int pagesBarWidth;
 
+        /*
+         * The count may change as the chapter is being laid out
+         */
+        final int pagesCount = chapterBooklet.getPagesCount() - 3;
+
         if (pagesCount > 0) {
             pagesBarWidth =
                     (int) (progressBarWidth
@@ -1253,6 +1277,7 @@ public class BookCanvas extends Canvas {
         Book newBook = null;
 
         newBook = Book.open(bookURL);
+        newBook.setChapterFileCache(cacheChapters);
 
         /*
          * All was OK, let's close current book
@@ -1285,6 +1310,8 @@ public class BookCanvas extends Canvas {
 
     private void closeBook() {
         if (isBookOpen()) {
+            stopPaginationIndexer();
+            stopChapterPrefetcher();
             saveAllOptions();
             try {
                 //#debug
@@ -1293,12 +1320,24 @@ public class BookCanvas extends Canvas {
             } catch (IOException e) {}
             currentBook = null;
             chapterBooklet = null;
+            paginationIndex = null;
         }
     }
 
     private void saveBookOptions() {
         if (isBookOpen()) {
             currentBook.saveBookSettings();
+            app.library.update(currentBook);
+
+            final PaginationIndex index = paginationIndex;
+            if (index != null && index.isModified()) {
+                try {
+                    currentBook.savePaginationData(index.toByteArray());
+                } catch (IOException e) {
+                    //#debug
+                    AlbiteMIDlet.LOGGER.log(e);
+                }
+            }
         }
     }
 
@@ -1557,6 +1596,8 @@ public class BookCanvas extends Canvas {
 
         repaint();
         serviceRepaints();
+
+        prefetchAdjacentChapter();
     }
 
     private void loadNextPage() {
@@ -1588,6 +1629,8 @@ public class BookCanvas extends Canvas {
 
         repaint();
         serviceRepaints();
+
+        prefetchAdjacentChapter();
     }
 
     private void loadChapter(final Chapter chapter) {
@@ -1596,7 +1639,20 @@ public class BookCanvas extends Canvas {
                 || chapterBooklet == null) {
 
             /* chapter changed or book not loaded at all */
-            currentBook.unloadChaptersBuffers();
+            if (chapterPrefetcher != null
+                    && chapterPrefetcher.getChapter() != chapter) {
+                stopChapterPrefetcher();
+            }
+
+            //#mdebug
+            final ChapterCache cache = currentBook.getChapterCache();
+            AlbiteMIDlet.LOGGER.log("chapter cache: " + cache.getSize()
+                    + " bytes, " + cache.getHits() + " hits, "
+                    + cache.getMisses() + " misses, "
+                    + cache.getEvictions() + " evictions");
+            //#enddebug
+
+            lastReadPosition = -1;
             currentBook.setCurrentChapter(chapter);
             updateChapterNum(chapter.getNumber() + 1);
             renderWaitCursor();
@@ -1714,6 +1770,8 @@ public class BookCanvas extends Canvas {
                 currentPageCanvas.getPageHeight()
                 );
         //#enddebug
+        updatePaginationIndex();
+
         chapterBooklet = new Booklet(
                 currentPageCanvas.getPageWidth(),
                 currentPageCanvas.getPageHeight(),
@@ -1727,9 +1785,137 @@ public class BookCanvas extends Canvas {
                 //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
                 hyphenator,
                 //#endif
-                currentBook.getParser());
+                currentBook.getParser(),
+                paginationIndex);
+
+        if (paginationIndexer == null
+                && !paginationIndex.isComplete(
+                    currentBook.getChaptersCount())) {
+
+            /*
+             * Paginate the rest of the chapters in the background
+             */
+            paginationIndexer = new PaginationIndexer(
+                    currentBook,
+                    paginationIndex,
+                    currentPageCanvas.getPageWidth(),
+                    currentPageCanvas.getPageHeight(),
+                    fontPlain,
+                    fontItalic,
+                    currentLineSpacing,
+                    //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
+                    hyphenator,
+                    //#endif
+                    renderImages);
+            paginationIndexer.start();
+        }
+    }
+
+    /**
+     * Makes sure the pagination index matches the current layout settings.
+     * If it doesn't, a new one is used and the pages will be indexed anew.
+     */
+    private void updatePaginationIndex() {
+        final PaginationIndex index = new PaginationIndex(
+                (useNativeFonts
+                    ? "native_" + nativeFontSizes[currentFontSizeIndex]
+                    : "droid-serif_" + fontSizes[currentFontSizeIndex]),
+                currentPageCanvas.getPageWidth(),
+                currentPageCanvas.getPageHeight(),
+                currentLineSpacing,
+                //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
+                (hyphenator != null ? hyphenator.getLanguage() : null),
+                //#else
+//#                 null,
+                //#endif
+                renderImages);
+
+        if (index.matches(paginationIndex)) {
+            return;
+        }
+
+        stopPaginationIndexer();
+
+        PaginationIndex saved = index;
+
+        if (paginationIndex == null) {
+            /*
+             * The book has just been opened, so try the saved index
+             */
+            final DataInputStream in = currentBook.openPaginationData();
+            if (in != null) {
+                try {
+                    try {
+                        saved = PaginationIndex.read(in, index);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    //#debug
+                    AlbiteMIDlet.LOGGER.log(e);
+                    saved = index;
+                }
+            }
+        }
 
-        pagesCount = chapterBooklet.getPagesCount() - 3;
+        paginationIndex = saved;
+    }
+
+    /**
+     * Starts decoding the chapter the reader is most likely to go to next,
+     * once enough of the current one has been read.
+     */
+    private void prefetchAdjacentChapter() {
+        final int length = chapterBooklet.getTextBuffer().length();
+        final int position = chapterBooklet.getCurrentPage().getStart();
+        final int lastPosition = lastReadPosition;
+
+        lastReadPosition = position;
+
+        if (lastPosition < 0 || length == 0 || position == lastPosition) {
+            return;
+        }
+
+        final float read = ((float) position) / length;
+        final Chapter chapter = currentBook.getCurrentChapter();
+        final Chapter target;
+
+        if (position > lastPosition) {
+            if (read < prefetchThreshold) {
+                return;
+            }
+            target = chapter.getNextChapter();
+        } else {
+            if (read > 1 - prefetchThreshold) {
+                return;
+            }
+            target = chapter.getPrevChapter();
+        }
+
+        if (target == null || target.isLoaded()
+                || (chapterPrefetcher != null
+                    && chapterPrefetcher.getChapter() == target)) {
+            return;
+        }
+
+        stopChapterPrefetcher();
+
+        chapterPrefetcher = new ChapterPrefetcher(target);
+        chapterPrefetcher.start();
+    }
+
+    private void stopChapterPrefetcher() {
+        if (chapterPrefetcher != null) {
+            chapterPrefetcher.cancel();
+            chapterPrefetcher = null;
+        }
+    }
+
+    private void stopPaginationIndexer() {
+        if (paginationIndexer != null) {
+            paginationIndexer.cancel();
+            paginationIndexer = null;
+        }
     }
 
     public final void cycleColorSchemes() {
@@ -1974,6 +2160,7 @@ public class BookCanvas extends Canvas {
                     currentMarginWidth = din.readInt();
                     currentLineSpacing = din.readInt();
                     renderImages = din.readBoolean();
+                    cacheChapters = din.readBoolean();
 
                 } catch (IOException ioe) {
                     //#debug
@@ -2033,6 +2220,7 @@ public class BookCanvas extends Canvas {
                     dout.writeInt(currentMarginWidth);
                     dout.writeInt(currentLineSpacing);
                     dout.writeBoolean(renderImages);
+                    dout.writeBoolean(cacheChapters);
 
                 } catch (IOException ioe) {
                     //#debug
@@ -2416,7 +2604,16 @@ public class BookCanvas extends Canvas {
     public final void updatePageSettings(
             final int margin,
             final int lineSpacing,
-            final boolean images) {
+            final boolean images,
+            final boolean cache) {
+
+        if (cache != cacheChapters) {
+            cacheChapters = cache;
+
+            if (currentBook != null) {
+                currentBook.setChapterFileCache(cache);
+            }
+        }
 
         if (margin == currentMarginWidth
                 && lineSpacing == currentLineSpacing
@@ -2459,6 +2656,10 @@ public class BookCanvas extends Canvas {
         return renderImages;
     }
 
+    public final boolean cachesChapters() {
+        return cacheChapters;
+    }
+
     public final Book getCurrentBook() {
         return currentBook;
     }
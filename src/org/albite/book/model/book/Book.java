@@ -62,13 +62,28 @@ public abstract class Book
     protected static final byte[]   USERDATA_POSITION_ATTRIB_BYTES =
             USERDATA_POSITION_ATTRIB.getBytes();
 
-    private static final int ALBX_MAGIC_NUMBER = 0x616C6278;
+    protected static final String   USERDATA_VERSION_ATTRIB  = "v";
+    protected static final String   USERDATA_CHAPTERS_ATTRIB = "n";
+
+    /*
+     * The settings and bookmarks point to chapters by their numbers, so
+     * these change whenever the way a book is divided into chapters
+     * does, e.g. when small EPUB spine items began to be merged and large
+     * ones to be split differently. Files saved with an older version
+     * or for a different number of chapters are dropped, as their
+     * chapters and positions would be wrong.
+     */
+    private static final int ALBX_MAGIC_NUMBER = 0x616C6279;
+    private static final int BOOKMARKS_VERSION = 2;
 
     /*
      * Main info
      */
-    protected String                title                    = "Untitled";
-    protected String                author                   = "Unknown Author";
+    public static final String      DEFAULT_TITLE            = "Untitled";
+    public static final String      DEFAULT_AUTHOR           = "Unknown Author";
+
+    protected String                title                    = DEFAULT_TITLE;
+    protected String                author                   = DEFAULT_AUTHOR;
     //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
     protected String                language            = Languages.NO_LANGUAGE;
     protected String                currentLanguage     = Languages.NO_LANGUAGE;
@@ -88,14 +103,41 @@ public abstract class Book
      */
     protected FileConnection        bookSettingsFile         = null;
     protected FileConnection        bookmarksFile            = null;
+
+    /*
+     * .alp book pagination index
+     */
+    protected FileConnection        paginationFile           = null;
     protected String                bookURL                  = null;
 
+    /*
+     * .als split table of the oversized chapters
+     */
+    protected FileConnection        splitTableFile           = null;
+    protected SplitTable            splitTable               = null;
+
+    /*
+     * Size and time of modification of the book's file, or -1 if unknown
+     */
+    protected long                  bookFileSize             = -1;
+    protected long                  bookFileModified         = -1;
+
     /*
      * Chapters
      */
     protected Chapter[]             chapters;
     protected Chapter               currentChapter;
 
+    /*
+     * Decoded chapters
+     */
+    protected final ChapterCache    chapterCache = new ChapterCache(this);
+
+    /*
+     * Decoded chapters on the file system, if enabled
+     */
+    private ChapterFileCache        fileCache;
+
     protected TextParser            parser;
 
     public abstract void close() throws IOException;
@@ -108,6 +150,14 @@ public abstract class Book
         if (bookmarksFile != null) {
             bookmarksFile.close();
         }
+
+        if (paginationFile != null) {
+            paginationFile.close();
+        }
+
+        if (splitTableFile != null) {
+            splitTableFile.close();
+        }
     }
 
     //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
@@ -169,6 +219,10 @@ public abstract class Book
         }
     }
 
+    public final ChapterCache getChapterCache() {
+        return chapterCache;
+    }
+
     public boolean setEncoding(final String encoding) {
         boolean reflowNeeded = currentChapter.setEncoding(encoding);
 
@@ -191,10 +245,57 @@ public abstract class Book
                 RandomReadingFile.changeExtension(filename, ".alx"));
         bookmarksFile = loadUserFile(
                 RandomReadingFile.changeExtension(filename, ".alb"));
+        paginationFile = loadUserFile(
+                RandomReadingFile.changeExtension(filename, ".alp"));
+
+        if (splitTable != null && splitTable.isModified()) {
+            try {
+                writeData(splitTable.toByteArray(), splitTableFile);
+            } catch (IOException e) {}
+        }
 
         loadUserData();
     }
 
+    /**
+     * Loads the saved split table of the book. Must be called before
+     * the chapters are loaded.
+     */
+    protected final void loadSplitTable(final String filename) {
+        try {
+            final FileConnection file = (FileConnection) Connector.open(
+                    filename, Connector.READ);
+
+            try {
+                bookFileSize = file.fileSize();
+                bookFileModified = file.lastModified();
+            } finally {
+                file.close();
+            }
+        } catch (SecurityException e) {
+        } catch (IOException e) {}
+
+        splitTable = new SplitTable(bookFileSize, bookFileModified);
+
+        try {
+            splitTableFile = loadUserFile(
+                    RandomReadingFile.changeExtension(filename, ".als"));
+
+            if (splitTableFile != null
+                    && splitTableFile.exists()
+                    && !splitTableFile.isDirectory()) {
+                final DataInputStream in =
+                        splitTableFile.openDataInputStream();
+                try {
+                    splitTable = SplitTable.read(in, splitTable);
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (IOException e) {
+        } catch (SecurityException e) {}
+    }
+
     protected FileConnection loadUserFile(final String filename)
             throws IOException {
 
@@ -235,10 +336,17 @@ public abstract class Book
                     throw new BookException("Wrong magic number");
                 }
                 currentLanguage = in.readUTF();
-                currentChapter = getChapter(in.readShort());
+                final int current = in.readShort();
 
                 Chapter chapter;
                 final int chaptersNumber = in.readShort();
+
+                if (chaptersNumber != chapters.length) {
+                    throw new BookException("Wrong number of chapters");
+                }
+
+                currentChapter = getChapter(current);
+
                 for (int i = 0; i < chaptersNumber; i++) {
                     chapter = getChapter(i);
                     chapter.setCurrentPosition(in.readInt());
@@ -286,6 +394,13 @@ public abstract class Book
              */
             root = doc.getRootElement();
 
+            if (readIntFromXML(root, USERDATA_VERSION_ATTRIB)
+                        != BOOKMARKS_VERSION
+                    || readIntFromXML(root, USERDATA_CHAPTERS_ATTRIB)
+                        != chapters.length) {
+                throw new BookException("Bookmarks saved for other chapters");
+            }
+
             int childCount = root.getChildCount();
 
             for (int i = 0; i < childCount ; i++ ) {
@@ -409,9 +524,14 @@ public abstract class Book
                 try {
                     /*
                      * Root element
+                     * <b v="2" n="12">
                      */
                     out.write(lt);
                     out.write(USERDATA_BOOKMARK_TAG_BYTES);
+                    writeAttribute(out, USERDATA_VERSION_ATTRIB,
+                            BOOKMARKS_VERSION, encoding);
+                    writeAttribute(out, USERDATA_CHAPTERS_ATTRIB,
+                            chapters.length, encoding);
                     out.write(gt);
                     out.write(nl);
 
@@ -475,7 +595,46 @@ public abstract class Book
         }
     }
 
-    private void writeData(byte[] data, FileConnection file) {
+    private static void writeAttribute(
+            final DataOutputStream out,
+            final String name,
+            final int value,
+            final String encoding) throws IOException {
+
+        out.write(' ');
+        out.write(name.getBytes(encoding));
+        out.write('=');
+        out.write('"');
+        out.write(Integer.toString(value).getBytes(encoding));
+        out.write('"');
+    }
+
+    /**
+     * Opens the saved pagination index of the book.
+     *
+     * @return the saved data or null, if there is none
+     */
+    public final DataInputStream openPaginationData() {
+        if (paginationFile != null) {
+            try {
+                if (paginationFile.exists()
+                        && !paginationFile.isDirectory()) {
+                    return paginationFile.openDataInputStream();
+                }
+            } catch (IOException e) {
+            } catch (SecurityException e) {}
+        }
+
+        return null;
+    }
+
+    public final void savePaginationData(final byte[] data) {
+        //#debug
+        AlbiteMIDlet.LOGGER.log("saving pagination index");
+        writeData(data, paginationFile);
+    }
+
+    protected final void writeData(byte[] data, FileConnection file) {
         /*
          * if there is a dir by that name,
          * the functionality will be disabled
@@ -556,7 +715,7 @@ public abstract class Book
     }
 
     public final void setCurrentChapterPos(final int pos) {
-        if (pos < 0 || pos >= currentChapter.getTextBuffer().length) {
+        if (pos < 0 || pos >= currentChapter.getTextBuffer().length()) {
             throw new IllegalArgumentException("Position is wrong");
         }
 
@@ -598,6 +757,10 @@ public abstract class Book
         Chapter prev;
         Chapter cur;
 
+        for (int i = 0; i < chapters.length; i++) {
+            chapters[i].cache = chapterCache;
+        }
+
         for (int i = 1; i < chapters.length; i++) {
             prev = chapters[i - 1];
             cur  = chapters[i];
@@ -628,45 +791,80 @@ public abstract class Book
 
         } else {
 
-            int kMax = chapterFilesize / maxChapterSize;
-            if (chapterFilesize % maxChapterSize > 0) {
-                kMax++;
-            }
-
-            int left = chapterFilesize;
-            int chapSize;
+            final ChapterPieces pieces = getChapterPieces(
+                    chapterFile, chapterFilesize, maxChapterSize,
+                    chapterNumber, processHtmlEntities);
 
-            for (int k = 0; k < kMax; k++) {
-                chapSize = (left > maxChapterSize ? maxChapterSize : left);
-                chapters.addElement(new Chapter(
+            for (int k = 0; k < pieces.getCount(); k++) {
+                final int chapSize = pieces.getSize(k);
+                final Chapter chapter = new Chapter(
                         new PartitionedConnection(
-                            chapterFile, k * maxChapterSize, chapSize),
+                            chapterFile, pieces.starts[k], chapSize),
                         chapSize,
                         pathReference,
                         "Chapter #" + (chapterNumber + k + 1),
                         processHtmlEntities,
                         chapterNumber + k
-                        ));
-                left -= maxChapterSize;
+                        );
+                chapter.parserState = pieces.states[k];
+                chapters.addElement(chapter);
+            }
+        }
+    }
+
+    private ChapterPieces getChapterPieces(
+            final InputConnection chapterFile,
+            final int chapterFilesize,
+            final int maxChapterSize,
+            final int chapterNumber,
+            final boolean processHtmlEntities) {
+
+        ChapterPieces pieces = (splitTable == null ? null
+                : splitTable.get(
+                    chapterNumber, chapterFilesize, maxChapterSize));
+
+        if (pieces != null) {
+            return pieces;
+        }
+
+        try {
+            final InputStream in = chapterFile.openInputStream();
+            try {
+                pieces = new ChapterSplitter(
+                        in, chapterFilesize, maxChapterSize,
+                        processHtmlEntities).split();
+            } finally {
+                in.close();
             }
+        } catch (IOException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+
+            /*
+             * Better split it on raw bytes than not at all
+             */
+            return ChapterPieces.fixed(chapterFilesize, maxChapterSize);
+        }
+
+        if (splitTable != null) {
+            splitTable.put(chapterNumber, pieces);
         }
+
+        return pieces;
     }
 
     /*
      * The maximum file size after which the Filebook is split
-     * forcefully into chapters. The split is a dumb one, for it splits
-     * on bytes, not characters or tags, i.e. it may split a utf-8 character
-     * in two halves, making it unreadable (so that it would be visible as a
-     * question mark) or it may split an HTML tag (so that it would become
-     * useless and be shown in the text of the chapter)
+     * into chapters. The split is done at paragraphs or tags if possible
+     * and never inside a character, tag or entity (see ChapterSplitter).
      */
     protected final int getMaximumTxtFilesize(final boolean lightMode) {
         return (lightMode ? 16 * 1024 : 64 * 1024);
     }
     //#if (TinyMode || TinyModeExport)
-//#         public static final int MAXIMUM_TXT_FILESIZE = 16 * 1024;
+//#         public static final int MAXIMUM_TXT_FILESIZE = 12 * 1024;
     //#elif (LightMode || LightModeExport)
-//#         public static final int MAXIMUM_TXT_FILESIZE = 24 * 1024;
+//#         public static final int MAXIMUM_TXT_FILESIZE = 16 * 1024;
     //#elif (HDMode || HDModeExport)
 //#         public static final int MAXIMUM_TXT_FILESIZE = 128 * 1024;
     //#else
@@ -674,15 +872,50 @@ public abstract class Book
     //#endif
     
     //#if (TinyMode || TinyModeExport)
-//#         public static final int MAXIMUM_HTML_FILESIZE = 16 * 1024;
+//#         public static final int MAXIMUM_HTML_FILESIZE = 12 * 1024;
     //#elif (LightMode || LightModeExport)
-//#         public static final int MAXIMUM_HTML_FILESIZE = 48 * 1024;
+//#         public static final int MAXIMUM_HTML_FILESIZE = 32 * 1024;
     //#elif (HDMode || HDModeExport)
 //#         public static final int MAXIMUM_HTML_FILESIZE = 512 * 1024;
     //#else
         public static final int MAXIMUM_HTML_FILESIZE = 192 * 1024;
     //#endif
 
+    /*
+     * Whether decoded chapters can be cached on the file system.
+     * It's up to the user to enable it.
+     */
+    //#if (TinyMode || TinyModeExport)
+//#         public static final boolean USE_CHAPTER_FILE_CACHE = false;
+    //#else
+        public static final boolean USE_CHAPTER_FILE_CACHE = true;
+    //#endif
+
+    /**
+     * Enables or disables caching the decoded chapters in a .alc folder
+     * next to the book. Disabling it deletes the cached chapters of all
+     * books.
+     */
+    public final void setChapterFileCache(final boolean enabled) {
+        if (!USE_CHAPTER_FILE_CACHE || bookFileSize < 0
+                || enabled == (fileCache != null)) {
+            return;
+        }
+
+        if (enabled) {
+            fileCache = new ChapterFileCache(
+                    RandomReadingFile.changeExtension(bookURL, ".alc") + "/",
+                    bookFileSize, bookFileModified);
+        } else {
+            fileCache.close(true);
+            fileCache = null;
+        }
+
+        for (int i = 0; i < chapters.length; i++) {
+            chapters[i].fileCache = fileCache;
+        }
+    }
+
     protected final int getMaximumHtmlFilesize(final boolean lightMode) {
         return (lightMode ? 16 * 1024 : 192 * 1024);
     }
@@ -691,5 +924,35 @@ public abstract class Book
         return bookURL;
     }
 
+    public final String getTitle() {
+        return title;
+    }
+
+    public final String getAuthor() {
+        return author;
+    }
+
+    /**
+     * Returns the language code found in the book, or null
+     * if none was found.
+     */
+    public final String getOriginalLanguage() {
+        return language;
+    }
+
+    /**
+     * Returns the size of the book's file or -1 if it's unknown.
+     */
+    public final long getFileSize() {
+        return bookFileSize;
+    }
+
+    /**
+     * Returns the time the book's file was modified or -1 if it's unknown.
+     */
+    public final long getFileModified() {
+        return bookFileModified;
+    }
+
     public abstract Archive getArchive();
 }
\ No newline at end of file
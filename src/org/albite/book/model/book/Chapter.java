@@ -3,19 +3,25 @@ package org.albite.book.model.book;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java13.io.BufferedInputStream;
 import javax.microedition.io.InputConnection;
 import org.albite.albite.AlbiteMIDlet;
+import org.albite.book.model.parser.MarkupTokens;
 import org.albite.io.RandomReadingFile;
 import org.albite.io.decoders.AlbiteStreamReader;
 import org.albite.io.decoders.Encodings;
 import org.albite.io.html.XhtmlStreamReader;
+import org.albite.lang.TextBuffer;
 import org.albite.util.archive.File;
 
 public class Chapter {
 
     public static final String     AUTO_ENCODING = "-";
 
+    /*
+     * How many chars are decoded between checks for a cancelled prefetch
+     */
+    private static final int        DECODE_CHUNK = 16 * 1024;
+
     /*
      * Can be overwritten by the user
      */
@@ -33,7 +39,22 @@ public class Chapter {
     private Chapter                 prevChapter;
     private Chapter                 nextChapter;
 
-    private char[]                  textBuffer;
+    private TextBuffer              textBuffer;
+
+    /*
+     * The tags of an HTML chapter, found once when it's decoded, so
+     * that laying it out again doesn't need to read them
+     */
+    private MarkupTokens            markupTokens;
+
+    /*
+     * Set while the chapter is being decoded in the background
+     */
+    private boolean                 prefetching = false;
+    private boolean                 discardPrefetched = false;
+    private boolean                 readerWaiting = false;
+    private volatile boolean        prefetchCancelled = false;
+    private int                     encodingGeneration = 0;
 
     private final boolean           processHtmlEntities;
 
@@ -41,6 +62,19 @@ public class Chapter {
 
     private final int               number;
 
+    /*
+     * Set by the book, when it links its chapters
+     */
+    ChapterCache                    cache;
+    int                             bufferSize;
+    volatile ChapterFileCache       fileCache;
+
+    /*
+     * The parser state the chapter starts with, if it's a piece of
+     * a split chapter
+     */
+    byte[]                          parserState;
+
     public Chapter(
             final InputConnection file,
             final int fileSize,
@@ -57,6 +91,14 @@ public class Chapter {
         this.number = number;
     }
 
+    /**
+     * Returns the state the parser should start the chapter with,
+     * or null if it should start afresh.
+     */
+    public final byte[] getParserState() {
+        return parserState;
+    }
+
     public final String getTitle() {
         return title;
     }
@@ -77,76 +119,341 @@ public class Chapter {
         nextChapter = bc;
     }
 
-    public final char[] getTextBuffer() {
-        if (textBuffer == null) {
-            try {
-                InputStream in = file.openInputStream();
-                Reader r = null;
-                AlbiteStreamReader asr = null;
+    public final TextBuffer getTextBuffer() {
+        final TextBuffer buffer;
+        final boolean decoded;
+        final int memorySize;
 
-                final boolean auto =
-                        AUTO_ENCODING.equalsIgnoreCase(currentEncoding);
+        synchronized (this) {
+            /*
+             * If the chapter is being prefetched, it's faster to wait for it
+             */
+            discardPrefetched = false;
+            prefetchCancelled = false;
+            while (prefetching) {
+                readerWaiting = true;
+                try {
+                    wait();
+                } catch (InterruptedException e) {}
+            }
+            readerWaiting = false;
 
-                if (auto) {
-                    currentEncoding = Encodings.DEFAULT;
-                }
+            decoded = (textBuffer == null);
 
-                if (processHtmlEntities) {
-                    if (!in.markSupported()) {
-                        in = new BufferedInputStream(in);
-                    }
+            if (decoded) {
+                final String[] encoding = {currentEncoding};
+                final MarkupTokens[] tokens = new MarkupTokens[1];
+                textBuffer = decode(encoding, tokens, false);
+                markupTokens = tokens[0];
+                currentEncoding = encoding[0];
+            }
+
+            buffer = textBuffer;
+            memorySize = getMemorySize(buffer, markupTokens);
+        }
+
+        /*
+         * The cache must not be called while holding the chapter's lock
+         */
+        if (cache != null) {
+            if (decoded) {
+                cache.loaded(this, memorySize);
+            } else {
+                cache.hit(this);
+            }
+        }
+
+        return buffer;
+    }
 
-                    /*
-                     * Warning: if the XhtmlStreamReader is not used,
-                     * then the HtmlParser won't work, as
-                     * it relies on modified versions of '<' and '>'
-                     */
-                    asr = new AlbiteStreamReader(in, currentEncoding);
-                    r = new XhtmlStreamReader(asr, auto, true);
-                } else {
-                    asr = new AlbiteStreamReader(in, currentEncoding);
-                    r = asr;
+    /**
+     * Decodes the chapter on the calling thread without holding the lock
+     * of the chapter, so that the reader is not blocked while the
+     * chapter is being prefetched in the background. The buffer is adopted
+     * only if the chapter hasn't been unloaded or its encoding changed
+     * meanwhile. Decoding stops early if the prefetcher is cancelled.
+     *
+     * @return true if the buffer was prefetched
+     */
+    final boolean prefetch(final ChapterPrefetcher prefetcher) {
+        final String[] encoding;
+        final int generation;
+
+        synchronized (this) {
+            /*
+             * Checked under the lock, so that a cancel either comes before
+             * this or finds the chapter being prefetched
+             */
+            if (textBuffer != null || prefetching
+                    || prefetcher.isCancelled()) {
+                return false;
+            }
+
+            prefetching = true;
+            discardPrefetched = false;
+            prefetchCancelled = false;
+            encoding = new String[] {currentEncoding};
+            generation = encodingGeneration;
+        }
+
+        final MarkupTokens[] tokens = new MarkupTokens[1];
+        TextBuffer buffer = null;
+        boolean adopted = false;
+
+        try {
+            buffer = decode(encoding, tokens, true);
+        } finally {
+            synchronized (this) {
+                prefetching = false;
+                prefetchCancelled = false;
+
+                if (buffer != null
+                        && !discardPrefetched
+                        && generation == encodingGeneration) {
+                    textBuffer = buffer;
+                    markupTokens = tokens[0];
+                    currentEncoding = encoding[0];
+                    adopted = true;
                 }
 
-                try {
-                    textBuffer = new char[fileSize];
-                    int read = r.read(textBuffer);
+                notifyAll();
+            }
+        }
 
-                    if (read == -1) {
-                        return new char[0];
-                    }
+        if (adopted && cache != null) {
+            cache.loaded(this, getMemorySize(buffer, tokens[0]));
+        }
+
+        return adopted;
+    }
+
+    /**
+     * Stops the chapter being prefetched, unless the reader is already
+     * waiting for it. The text decoded so far is dropped.
+     */
+    final synchronized void cancelPrefetch() {
+        if (prefetching && !readerWaiting) {
+            prefetchCancelled = true;
+            discardPrefetched = true;
+        }
+    }
+
+    /**
+     * Decodes the chapter for a single use, e.g. for paginating it in the
+     * background, without keeping the text in the chapter, so that
+     * neither the chapter the reader is on, nor the ones in the cache
+     * are disturbed. If the chapter is loaded, its text is used instead.
+     * Only the detected encoding is kept, so that the text is the same
+     * when the chapter is loaded.
+     *
+     * @param tokens receives the tags of the text, if it's HTML
+     */
+    public final TextBuffer readTextBuffer(final MarkupTokens[] tokens) {
+        final String[] encoding;
+        final int generation;
+
+        synchronized (this) {
+            if (textBuffer != null) {
+                tokens[0] = markupTokens;
+                return textBuffer;
+            }
+
+            encoding = new String[] {currentEncoding};
+            generation = encodingGeneration;
+        }
+
+        final TextBuffer buffer = decode(encoding, tokens, false);
+
+        synchronized (this) {
+            if (generation == encodingGeneration) {
+                currentEncoding = encoding[0];
+            }
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Returns the tags of the text buffer, if it's still the one the
+     * chapter has loaded.
+     *
+     * @param buffer a buffer returned by {@link #getTextBuffer()}
+     * @return the tags or null, if the chapter is not HTML or the buffer
+     * has been unloaded meanwhile
+     */
+    public final synchronized MarkupTokens getMarkupTokens(
+            final TextBuffer buffer) {
 
-                    if (read < fileSize) {
-                        char[] res = new char[read];
-                        System.arraycopy(textBuffer, 0, res, 0, read);
-                        textBuffer = res;
+        return buffer == textBuffer ? markupTokens : null;
+    }
+
+    private static int getMemorySize(
+            final TextBuffer buffer, final MarkupTokens tokens) {
+
+        return buffer.getMemorySize()
+                + (tokens == null ? 0 : tokens.getMemorySize());
+    }
+
+    /**
+     * @param encoding the encoding to be used. It is replaced by the
+     * actual encoding, if it was to be detected automatically.
+     * @param tokens receives the tags of the text, if it's HTML
+     * @param prefetched if decoding should stop when the prefetch is
+     * cancelled
+     * @return the text or null, if the prefetch was cancelled
+     */
+    private TextBuffer decode(final String[] encoding,
+            final MarkupTokens[] tokens, final boolean prefetched) {
+
+        final TextBuffer buffer = decode(encoding, prefetched);
+
+        if (buffer != null && processHtmlEntities) {
+            /*
+             * Done right away, while the text is being loaded anyway
+             */
+            tokens[0] = MarkupTokens.tokenize(buffer);
+        }
+
+        return buffer;
+    }
+
+    private TextBuffer decode(
+            final String[] encoding, final boolean prefetched) {
+        final ChapterFileCache fileCache = this.fileCache;
+
+        if (fileCache != null) {
+            final TextBuffer cached = fileCache.read(this, encoding);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final String requestedEncoding = encoding[0];
+        TextBuffer buffer;
+
+        try {
+            final InputStream in = file.openInputStream();
+            Reader r = null;
+            AlbiteStreamReader asr = null;
+
+            final boolean auto =
+                    AUTO_ENCODING.equalsIgnoreCase(encoding[0]);
+
+            if (auto) {
+                encoding[0] = Encodings.DEFAULT;
+            }
+
+            /*
+             * The reader buffers the whole chapter, if possible
+             */
+            asr = new AlbiteStreamReader(in, encoding[0], fileSize);
+
+            if (auto) {
+                /*
+                 * Guessed from the raw bytes, so that the chapter is
+                 * decoded only once. An XML declaration still overrides
+                 * the guess. The encoding is then kept in the book's
+                 * settings.
+                 */
+                asr.detectEncoding();
+            }
+
+            if (processHtmlEntities) {
+                /*
+                 * Warning: if the XhtmlStreamReader is not used,
+                 * then the HtmlParser won't work, as
+                 * it relies on modified versions of '<' and '>'
+                 */
+                r = new XhtmlStreamReader(asr, auto, true);
+            } else {
+                r = asr;
+            }
+
+            try {
+                final char[] chars = new char[fileSize];
+                int read = 0;
+
+                /*
+                 * Read in chunks, so that a cancelled prefetch stops
+                 * early. A short read means the text has ended.
+                 */
+                while (read < fileSize) {
+                    if (prefetched && prefetchCancelled) {
+                        //#debug
+                        AlbiteMIDlet.LOGGER.log("prefetch cancelled");
+                        return null;
                     }
 
-                    currentEncoding = asr.getEncoding();
+                    final int len = Math.min(DECODE_CHUNK, fileSize - read);
+                    final int count = r.read(chars, read, len);
+
+                    if (count > 0) {
+                        read += count;
+                    }
 
-                } catch (IOException e) {
-                    //#debug
-                    AlbiteMIDlet.LOGGER.log(e);
-                    textBuffer = new char[0];
-                } finally {
-                    in.close();
+                    if (count < len) {
+                        break;
+                    }
                 }
-            } catch (Exception e) {
+
                 /*
-                 * couldn't load the chapter,
-                 * it will be rendered as "empty chapter"
+                 * Latin-1 text is compacted to a byte per char
                  */
+                buffer = TextBuffer.create(chars, read);
+                encoding[0] = asr.getEncoding();
+
+                if (fileCache != null) {
+                    fileCache.write(
+                            this, requestedEncoding, encoding[0], buffer);
+                }
+
+            } catch (IOException e) {
                 //#debug
                 AlbiteMIDlet.LOGGER.log(e);
-                textBuffer = new char[0];
+                buffer = TextBuffer.EMPTY;
+            } finally {
+                in.close();
             }
+        } catch (Exception e) {
+            /*
+             * couldn't load the chapter,
+             * it will be rendered as "empty chapter"
+             */
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+            buffer = TextBuffer.EMPTY;
         }
 
-        return textBuffer;
+        return buffer;
     }
 
     public final void unload() {
+        release();
+
+        if (cache != null) {
+            cache.removed(this);
+        }
+    }
+
+    /**
+     * Unloads the buffer without notifying the cache.
+     */
+    final synchronized void release() {
         textBuffer = null;
+        markupTokens = null;
+        discardPrefetched = true;
+    }
+
+    public final synchronized boolean isLoaded() {
+        return textBuffer != null;
+    }
+
+    /**
+     * The size of the chapter's file, i.e. the upper limit
+     * of the decoded text's length.
+     */
+    public final int getFileSize() {
+        return fileSize;
     }
 
     public final int getCurrentPosition() {
@@ -178,6 +485,20 @@ public class Chapter {
     }
 
     protected final boolean setEncoding(final String encoding) {
+        synchronized (this) {
+            if (!changeEncoding(encoding)) {
+                return false;
+            }
+        }
+
+        if (cache != null) {
+            cache.removed(this);
+        }
+
+        return true;
+    }
+
+    private boolean changeEncoding(final String encoding) {
         if (
                 encoding != null
                 && !encoding.equalsIgnoreCase(currentEncoding)
@@ -195,6 +516,8 @@ public class Chapter {
              * Invalidate current buffer
              */
             textBuffer = null;
+            markupTokens = null;
+            encodingGeneration++;
 
             return true;
         }
@@ -0,0 +1,124 @@
+package org.albite.book.model.book;
+
+import java.util.Vector;
+import org.albite.albite.AlbiteMIDlet;
+
+/**
+ * Keeps the decoded text of the recently read chapters within a memory
+ * budget, unloading the least recently used ones first. The book's
+ * current chapter is never unloaded.
+ *
+ * @author albus
+ */
+public class ChapterCache {
+
+    /*
+     * Budget for the decoded buffers in bytes
+     */
+    //#if (TinyMode || TinyModeExport)
+//#         public static final int BUDGET = 64 * 1024;
+    //#elif (LightMode || LightModeExport)
+//#         public static final int BUDGET = 192 * 1024;
+    //#elif (HDMode || HDModeExport)
+//#         public static final int BUDGET = 3 * 1024 * 1024;
+    //#else
+        public static final int BUDGET = 1024 * 1024;
+    //#endif
+
+    private final Book      book;
+
+    /*
+     * Loaded chapters, the most recently used one is last
+     */
+    private final Vector    chapters = new Vector(8);
+    private int             size = 0;
+
+    private int             hits = 0;
+    private int             misses = 0;
+    private int             evictions = 0;
+
+    ChapterCache(final Book book) {
+        this.book = book;
+    }
+
+    /**
+     * Called when a loaded chapter's text is requested.
+     */
+    final synchronized void hit(final Chapter chapter) {
+        hits++;
+
+        final int last = chapters.size() - 1;
+        if (last >= 0 && chapters.elementAt(last) == chapter) {
+            return;
+        }
+
+        if (chapters.removeElement(chapter)) {
+            chapters.addElement(chapter);
+        }
+    }
+
+    /**
+     * Called after a chapter's text has been decoded.
+     */
+    final synchronized void loaded(final Chapter chapter, final int bytes) {
+        misses++;
+
+        /*
+         * The chapter might have been unloaded meanwhile
+         */
+        if (chapters.contains(chapter) || !chapter.isLoaded()) {
+            return;
+        }
+
+        chapters.addElement(chapter);
+        size += chapter.bufferSize = bytes;
+
+        /*
+         * Unload the least recently used chapters, but neither the current
+         * one, nor the one that has just been loaded.
+         */
+        final Chapter current = book.getCurrentChapter();
+
+        for (int i = 0; size > BUDGET && i < chapters.size() - 1;) {
+            final Chapter c = (Chapter) chapters.elementAt(i);
+
+            if (c == current) {
+                i++;
+                continue;
+            }
+
+            //#debug
+            AlbiteMIDlet.LOGGER.log("evicting chapter #" + c.getNumber());
+
+            chapters.removeElementAt(i);
+            size -= c.bufferSize;
+            evictions++;
+            c.release();
+        }
+    }
+
+    /**
+     * Called after a chapter has been unloaded.
+     */
+    final synchronized void removed(final Chapter chapter) {
+        if (chapters.removeElement(chapter)) {
+            size -= chapter.bufferSize;
+        }
+    }
+
+    public final synchronized int getSize() {
+        return size;
+    }
+
+    public final synchronized int getHits() {
+        return hits;
+    }
+
+    public final synchronized int getMisses() {
+        return misses;
+    }
+
+    public final synchronized int getEvictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,696 @@
+package org.albite.book.model.book;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Vector;
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+import org.albite.albite.AlbiteMIDlet;
+import org.albite.lang.TextBuffer;
+
+/**
+ * Keeps the decoded text of the chapters in a folder next to the book,
+ * so that a chapter would not need to be inflated, decoded and have its
+ * entities processed again the next time it is opened.
+ *
+ * A cached chapter is valid only for the same book file (checked using its
+ * size and time of modification) and the same encoding. If the book file
+ * has changed, its folder is emptied.
+ *
+ * The chapters are written one at a time by a single background thread,
+ * and a chapter that is waiting to be written is not read. A folder
+ * takes at most {@link #MAX_FOLDER_SIZE} bytes, the chapters written
+ * least recently being deleted first, and only the folders of the
+ * {@link #MAX_FOLDERS} books opened most recently are kept.
+ *
+ * @author albus
+ */
+public class ChapterFileCache implements Runnable {
+
+    private static final int    MAGIC_NUMBER = 0x616C7463;
+
+    /*
+     * The book the folder is for
+     */
+    private static final String INFO_FILE = "book.inf";
+    private static final String CHAPTER_EXTENSION = ".alt";
+
+    /*
+     * The folders in use, the most recently opened one first
+     */
+    private static final String RECORD_STORE = "chaptercache";
+
+    //#if (LightMode || LightModeExport)
+//#         public static final int MAX_FOLDER_SIZE = 1024 * 1024;
+    //#elif (HDMode || HDModeExport)
+//#         public static final int MAX_FOLDER_SIZE = 8 * 1024 * 1024;
+    //#else
+        public static final int MAX_FOLDER_SIZE = 4 * 1024 * 1024;
+    //#endif
+
+    public static final int     MAX_FOLDERS = 8;
+
+    private final String        folderURL;
+    private final long          bookSize;
+    private final long          bookModified;
+
+    /*
+     * Pending writes, the oldest first, and the chapter being written
+     */
+    private final Vector        queue = new Vector(4);
+    private Chapter             writing;
+    private Thread              writer;
+
+    private boolean             closed = false;
+    private boolean             deleteOnClose = false;
+
+    /*
+     * Used only by the writer
+     */
+    private boolean             prepared = false;
+    private boolean             ready = false;
+    private long                folderSize;
+
+    /**
+     * @param folderURL URL of the cache folder, ending with a slash
+     * @param bookSize size of the book's file
+     * @param bookModified time the book's file was modified
+     */
+    public ChapterFileCache(
+            final String folderURL,
+            final long bookSize,
+            final long bookModified) {
+
+        this.folderURL = folderURL;
+        this.bookSize = bookSize;
+        this.bookModified = bookModified;
+    }
+
+    private String getURL(final Chapter chapter) {
+        return folderURL + chapter.getNumber() + CHAPTER_EXTENSION;
+    }
+
+    /**
+     * Reads a chapter's text from the cache.
+     *
+     * @param chapter the chapter
+     * @param encoding the encoding of the chapter. If the text is found,
+     * it is replaced with the encoding the text was actually decoded with.
+     * @return the text or null, if it is not in the cache
+     */
+    final TextBuffer read(final Chapter chapter, final String[] encoding) {
+        synchronized (this) {
+            if (closed || writing == chapter || isQueued(chapter) >= 0) {
+                return null;
+            }
+        }
+
+        FileConnection file = null;
+        boolean corrupt = false;
+
+        try {
+            file = (FileConnection) Connector.open(
+                    getURL(chapter), Connector.READ);
+
+            if (!file.exists() || file.isDirectory()) {
+                return null;
+            }
+
+            final long fileSize = file.fileSize();
+            final DataInputStream in = file.openDataInputStream();
+
+            try {
+                if (in.readInt() != MAGIC_NUMBER
+                        || in.readLong() != bookSize
+                        || in.readLong() != bookModified
+                        || in.readInt() != chapter.getFileSize()
+                        || !in.readUTF().equalsIgnoreCase(encoding[0])) {
+                    return null;
+                }
+
+                final String decodedEncoding = in.readUTF();
+                final TextBuffer text = TextBuffer.read(in, fileSize);
+
+                encoding[0] = decodedEncoding;
+                return text;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+            corrupt = (file != null);
+        } catch (SecurityException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        } catch (RuntimeException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+            corrupt = true;
+        } catch (OutOfMemoryError e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        } finally {
+            close(file);
+        }
+
+        if (corrupt) {
+            delete(chapter);
+        }
+
+        return null;
+    }
+
+    /**
+     * Deletes a chapter's file that couldn't be read, so that it would
+     * not fail again each time the chapter is opened. It is left alone,
+     * if the chapter is about to be written anew anyway. The writer still
+     * counts the file in the size of the folder, so the folder may be
+     * trimmed a little early until the book is opened again.
+     */
+    private synchronized void delete(final Chapter chapter) {
+        if (closed || writing == chapter || isQueued(chapter) >= 0) {
+            return;
+        }
+
+        FileConnection file = null;
+
+        try {
+            file = (FileConnection) Connector.open(
+                    getURL(chapter), Connector.READ_WRITE);
+
+            if (file.exists() && !file.isDirectory()) {
+                file.delete();
+            }
+        } catch (IOException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        } catch (SecurityException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        } finally {
+            close(file);
+        }
+    }
+
+    /**
+     * Queues a chapter's text to be written to the cache. A write of the
+     * same chapter that hasn't started yet is replaced.
+     *
+     * @param chapter the chapter
+     * @param encoding the encoding that was requested for the chapter
+     * @param decodedEncoding the encoding the chapter was decoded with
+     * @param text the decoded text
+     */
+    final synchronized void write(
+            final Chapter chapter,
+            final String encoding,
+            final String decodedEncoding,
+            final TextBuffer text) {
+
+        if (closed) {
+            return;
+        }
+
+        final int queued = isQueued(chapter);
+        if (queued >= 0) {
+            queue.removeElementAt(queued);
+        }
+
+        queue.addElement(
+                new Write(chapter, encoding, decodedEncoding, text));
+        startWriter();
+    }
+
+    /**
+     * Stops writing to the cache. Pending writes are dropped.
+     *
+     * @param delete if true, the folders of all books are deleted, e.g.
+     * when the user has disabled the cache
+     */
+    public final synchronized void close(final boolean delete) {
+        closed = true;
+        queue.removeAllElements();
+
+        if (delete) {
+            deleteOnClose = true;
+            startWriter();
+        }
+    }
+
+    private int isQueued(final Chapter chapter) {
+        for (int i = 0; i < queue.size(); i++) {
+            if (((Write) queue.elementAt(i)).chapter == chapter) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private void startWriter() {
+        if (writer == null) {
+            writer = new Thread(this);
+            writer.setPriority(Thread.MIN_PRIORITY);
+            writer.start();
+        }
+    }
+
+    public final void run() {
+        while (true) {
+            final Write w;
+            final boolean delete;
+
+            synchronized (this) {
+                writing = null;
+
+                if (closed || queue.isEmpty()) {
+                    writer = null;
+                    delete = deleteOnClose;
+                    deleteOnClose = false;
+                    w = null;
+                } else {
+                    w = (Write) queue.elementAt(0);
+                    queue.removeElementAt(0);
+                    writing = w.chapter;
+                    delete = false;
+                }
+            }
+
+            if (w == null) {
+                if (delete) {
+                    deleteAll();
+                }
+
+                return;
+            }
+
+            if (!prepared) {
+                prepared = true;
+                prepare();
+            }
+
+            if (ready) {
+                writeChapter(w);
+            }
+        }
+    }
+
+    /**
+     * Creates the folder, if it doesn't exist, and empties it, if it
+     * was for a different version of the book.
+     */
+    private void prepare() {
+        try {
+            final FileConnection folder = (FileConnection) Connector.open(
+                    folderURL, Connector.READ_WRITE);
+
+            try {
+                if (!folder.exists()) {
+                    folder.mkdir();
+                }
+
+                if (!folder.isDirectory()) {
+                    return;
+                }
+            } finally {
+                folder.close();
+            }
+
+            if (!checkInfo()) {
+                deleteFiles(folderURL);
+                writeInfo();
+            }
+
+            folderSize = getFolderSize();
+            register(folderURL);
+            ready = true;
+        } catch (IOException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        } catch (SecurityException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        }
+    }
+
+    private boolean checkInfo() throws IOException {
+        final FileConnection file = (FileConnection) Connector.open(
+                folderURL + INFO_FILE, Connector.READ);
+
+        try {
+            if (!file.exists()) {
+                return false;
+            }
+
+            final DataInputStream in = file.openDataInputStream();
+
+            try {
+                return in.readInt() == MAGIC_NUMBER
+                        && in.readLong() == bookSize
+                        && in.readLong() == bookModified;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeInfo() throws IOException {
+        final FileConnection file = (FileConnection) Connector.open(
+                folderURL + INFO_FILE, Connector.READ_WRITE);
+
+        try {
+            if (!file.exists()) {
+                file.create();
+            }
+
+            final DataOutputStream out = file.openDataOutputStream();
+
+            try {
+                out.writeInt(MAGIC_NUMBER);
+                out.writeLong(bookSize);
+                out.writeLong(bookModified);
+            } finally {
+                out.close();
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private long getFolderSize() throws IOException {
+        final FileConnection folder = (FileConnection) Connector.open(
+                folderURL, Connector.READ);
+
+        try {
+            return folder.directorySize(false);
+        } finally {
+            folder.close();
+        }
+    }
+
+    private void writeChapter(final Write w) {
+        FileConnection file = null;
+
+        try {
+            file = (FileConnection) Connector.open(
+                    getURL(w.chapter), Connector.READ_WRITE);
+
+            if (file.isDirectory()) {
+                return;
+            }
+
+            if (file.exists()) {
+                folderSize -= file.fileSize();
+                file.truncate(0);
+            } else {
+                file.create();
+            }
+
+            final DataOutputStream out = file.openDataOutputStream();
+
+            try {
+                out.writeInt(MAGIC_NUMBER);
+                out.writeLong(bookSize);
+                out.writeLong(bookModified);
+                out.writeInt(w.chapter.getFileSize());
+                out.writeUTF(w.encoding);
+                out.writeUTF(w.decodedEncoding);
+                w.text.write(out);
+            } finally {
+                out.close();
+            }
+
+            folderSize += file.fileSize();
+            close(file);
+            file = null;
+
+            trim(w.chapter.getNumber() + CHAPTER_EXTENSION);
+        } catch (IOException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        } catch (SecurityException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        } catch (OutOfMemoryError e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        } finally {
+            close(file);
+        }
+    }
+
+    /**
+     * Deletes the chapters written least recently, until the folder
+     * fits in {@link #MAX_FOLDER_SIZE}.
+     *
+     * @param keep the file that has just been written
+     */
+    private void trim(final String keep) throws IOException {
+        while (folderSize > MAX_FOLDER_SIZE) {
+            final FileConnection folder = (FileConnection) Connector.open(
+                    folderURL, Connector.READ);
+
+            String oldest = null;
+            long oldestModified = Long.MAX_VALUE;
+
+            try {
+                final Enumeration files = folder.list();
+
+                while (files.hasMoreElements()) {
+                    final String name = (String) files.nextElement();
+
+                    if (!name.endsWith(CHAPTER_EXTENSION)
+                            || name.equals(keep)) {
+                        continue;
+                    }
+
+                    final FileConnection file = (FileConnection)
+                            Connector.open(folderURL + name, Connector.READ);
+
+                    try {
+                        final long modified = file.lastModified();
+
+                        if (modified < oldestModified) {
+                            oldest = name;
+                            oldestModified = modified;
+                        }
+                    } finally {
+                        file.close();
+                    }
+                }
+            } finally {
+                folder.close();
+            }
+
+            if (oldest == null) {
+                return;
+            }
+
+            final FileConnection file = (FileConnection) Connector.open(
+                    folderURL + oldest, Connector.READ_WRITE);
+
+            try {
+                folderSize -= file.fileSize();
+                file.delete();
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Puts the folder first in the list of folders and deletes the
+     * ones of the books that were opened least recently.
+     */
+    private static synchronized void register(final String folderURL) {
+        final Vector folders = loadFolders();
+
+        folders.removeElement(folderURL);
+        folders.insertElementAt(folderURL, 0);
+
+        while (folders.size() > MAX_FOLDERS) {
+            final int last = folders.size() - 1;
+            deleteFolder((String) folders.elementAt(last));
+            folders.removeElementAt(last);
+        }
+
+        saveFolders(folders);
+    }
+
+    private static synchronized void deleteAll() {
+        final Vector folders = loadFolders();
+
+        for (int i = 0; i < folders.size(); i++) {
+            deleteFolder((String) folders.elementAt(i));
+        }
+
+        folders.removeAllElements();
+        saveFolders(folders);
+    }
+
+    private static Vector loadFolders() {
+        final Vector folders = new Vector(MAX_FOLDERS + 1);
+
+        try {
+            final RecordStore rs =
+                    RecordStore.openRecordStore(RECORD_STORE, true);
+
+            try {
+                if (rs.getNumRecords() > 0) {
+                    final DataInputStream in = new DataInputStream(
+                            new ByteArrayInputStream(rs.getRecord(1)));
+
+                    try {
+                        final int count = in.readShort();
+
+                        for (int i = 0; i < count; i++) {
+                            folders.addElement(in.readUTF());
+                        }
+                    } finally {
+                        in.close();
+                    }
+                }
+            } finally {
+                rs.closeRecordStore();
+            }
+        } catch (RecordStoreException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        } catch (IOException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        }
+
+        return folders;
+    }
+
+    private static void saveFolders(final Vector folders) {
+        try {
+            final ByteArrayOutputStream boas = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(boas);
+
+            out.writeShort(folders.size());
+
+            for (int i = 0; i < folders.size(); i++) {
+                out.writeUTF((String) folders.elementAt(i));
+            }
+
+            final byte[] data = boas.toByteArray();
+
+            final RecordStore rs =
+                    RecordStore.openRecordStore(RECORD_STORE, true);
+
+            try {
+                if (rs.getNumRecords() > 0) {
+                    rs.setRecord(1, data, 0, data.length);
+                } else {
+                    rs.addRecord(data, 0, data.length);
+                }
+            } finally {
+                rs.closeRecordStore();
+            }
+        } catch (RecordStoreException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        } catch (IOException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        }
+    }
+
+    private static void deleteFolder(final String folderURL) {
+        try {
+            deleteFiles(folderURL);
+
+            final FileConnection folder = (FileConnection) Connector.open(
+                    folderURL, Connector.READ_WRITE);
+
+            try {
+                if (folder.exists() && folder.isDirectory()) {
+                    folder.delete();
+                }
+            } finally {
+                folder.close();
+            }
+        } catch (IOException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        } catch (SecurityException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        }
+    }
+
+    private static void deleteFiles(final String folderURL)
+            throws IOException {
+
+        final Vector names = new Vector(32);
+        final FileConnection folder = (FileConnection) Connector.open(
+                folderURL, Connector.READ);
+
+        try {
+            if (!folder.exists() || !folder.isDirectory()) {
+                return;
+            }
+
+            final Enumeration files = folder.list();
+
+            while (files.hasMoreElements()) {
+                names.addElement(files.nextElement());
+            }
+        } finally {
+            folder.close();
+        }
+
+        for (int i = 0; i < names.size(); i++) {
+            final FileConnection file = (FileConnection) Connector.open(
+                    folderURL + names.elementAt(i), Connector.READ_WRITE);
+
+            try {
+                if (file.exists() && !file.isDirectory()) {
+                    file.delete();
+                }
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    private static void close(final FileConnection file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    private static final class Write {
+        final Chapter       chapter;
+        final String        encoding;
+        final String        decodedEncoding;
+        final TextBuffer    text;
+
+        Write(
+                final Chapter chapter,
+                final String encoding,
+                final String decodedEncoding,
+                final TextBuffer text) {
+
+            this.chapter = chapter;
+            this.encoding = encoding;
+            this.decodedEncoding = decodedEncoding;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.albite.book.model.book;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The pieces an oversized chapter file is split into. Every piece
+ * starts with the parser state the previous pieces ended with, so that
+ * the styling would go on across them.
+ *
+ * @author albus
+ */
+final class ChapterPieces {
+
+    final int       fileSize;
+    final int       maxSize;
+
+    /*
+     * Offset of each piece in the file and the parser state at it,
+     * or null, if the parser is to start afresh.
+     */
+    final int[]     starts;
+    final byte[][]  states;
+
+    ChapterPieces(
+            final int fileSize,
+            final int maxSize,
+            final int[] starts,
+            final byte[][] states) {
+
+        this.fileSize = fileSize;
+        this.maxSize = maxSize;
+        this.starts = starts;
+        this.states = states;
+    }
+
+    /**
+     * Splits the file on raw byte offsets, when it can't be scanned.
+     */
+    static ChapterPieces fixed(final int fileSize, final int maxSize) {
+        int count = fileSize / maxSize;
+        if (fileSize % maxSize > 0) {
+            count++;
+        }
+
+        final int[] starts = new int[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = i * maxSize;
+        }
+
+        return new ChapterPieces(
+                fileSize, maxSize, starts, new byte[count][]);
+    }
+
+    final int getCount() {
+        return starts.length;
+    }
+
+    final int getSize(final int piece) {
+        return (piece + 1 < starts.length ? starts[piece + 1] : fileSize)
+                - starts[piece];
+    }
+
+    final void write(final DataOutputStream out) throws IOException {
+        out.writeInt(fileSize);
+        out.writeInt(maxSize);
+        out.writeInt(starts.length);
+
+        for (int i = 0; i < starts.length; i++) {
+            out.writeInt(starts[i]);
+
+            final byte[] state = states[i];
+            if (state == null) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(state.length);
+                out.write(state);
+            }
+        }
+    }
+
+    static ChapterPieces read(final DataInputStream in) throws IOException {
+        final int fileSize = in.readInt();
+        final int maxSize = in.readInt();
+        final int count = in.readInt();
+
+        if (count < 1 || maxSize < 1) {
+            throw new IOException("Wrong pieces count");
+        }
+
+        final int[] starts = new int[count];
+        final byte[][] states = new byte[count][];
+
+        for (int i = 0; i < count; i++) {
+            starts[i] = in.readInt();
+
+            final int stateSize = in.readUnsignedShort();
+            if (stateSize > 0) {
+                states[i] = new byte[stateSize];
+                in.readFully(states[i]);
+            }
+        }
+
+        return new ChapterPieces(fileSize, maxSize, starts, states);
+    }
+}
@@ -0,0 +1,82 @@
+package org.albite.book.model.book;
+
+import org.albite.albite.AlbiteMIDlet;
+
+/**
+ * Decodes the text of a chapter on a low-priority background thread,
+ * so that it would already be loaded when the reader gets to it.
+ *
+ * @author albus
+ */
+public class ChapterPrefetcher implements Runnable {
+
+    /*
+     * Memory that should be left free after prefetching
+     */
+    private static final int    MEMORY_RESERVE = 256 * 1024;
+
+    private final Chapter       chapter;
+
+    private volatile boolean    cancelled = false;
+
+    public ChapterPrefetcher(final Chapter chapter) {
+        this.chapter = chapter;
+    }
+
+    public final Chapter getChapter() {
+        return chapter;
+    }
+
+    public final void start() {
+        final Thread thread = new Thread(this);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops the prefetcher. If it's already decoding the chapter, it stops
+     * at the next chunk of text and the text is not kept, unless the
+     * reader is waiting for the chapter meanwhile.
+     */
+    public final void cancel() {
+        cancelled = true;
+        chapter.cancelPrefetch();
+    }
+
+    final boolean isCancelled() {
+        return cancelled;
+    }
+
+    public final void run() {
+        if (cancelled || chapter.isLoaded() || !fitsInMemory()) {
+            return;
+        }
+
+        //#debug
+        AlbiteMIDlet.LOGGER.log("prefetching chapter #" + chapter.getNumber());
+
+        try {
+            chapter.prefetch(this);
+        } catch (OutOfMemoryError e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        }
+    }
+
+    /**
+     * Up to two char buffers as large as the file may be needed
+     * for decoding the chapter.
+     */
+    private boolean fitsInMemory() {
+        final Runtime runtime = Runtime.getRuntime();
+        final long needed = ((long) chapter.getFileSize()) * 4
+                + MEMORY_RESERVE;
+
+        if (runtime.freeMemory() >= needed) {
+            return true;
+        }
+
+        System.gc();
+        return runtime.freeMemory() >= needed;
+    }
+}
@@ -0,0 +1,393 @@
+package org.albite.book.model.book;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Vector;
+import org.albite.book.model.parser.HTMLTextParser;
+
+/**
+ * Finds where an oversized chapter file could be split in a single pass
+ * over its raw bytes, i.e. without decoding it.
+ *
+ * The file is split at paragraphs or block tags if possible, then at
+ * white space and as a last resort at any character, but never inside a
+ * multibyte character (UTF-8 or UTF-16), an HTML tag, comment or entity.
+ * The nesting of the styling tags is followed, so that each piece could
+ * start with the styling its text is in.
+ *
+ * @author albus
+ */
+final class ChapterSplitter {
+
+    private static final int    RANK_CHAR           = 0;
+    private static final int    RANK_SPACE          = 1;
+    private static final int    RANK_BLOCK          = 2;
+    private static final int    RANKS               = 3;
+
+    private static final int    LEX_TEXT            = 0;
+    private static final int    LEX_ENTITY          = 1;
+    private static final int    LEX_TAG_NAME        = 2;
+    private static final int    LEX_TAG             = 3;
+    private static final int    LEX_COMMENT         = 4;
+
+    private static final int    MAX_ENTITY_LENGTH   = 10;
+    private static final int    MAX_NAME_LENGTH     = 16;
+
+    private static final int    BUFFER_SIZE         = 4096;
+
+    private final InputStream   in;
+    private final int           fileSize;
+    private final int           maxSize;
+    private final boolean       html;
+
+    private final byte[]        buffer              = new byte[BUFFER_SIZE];
+    private int                 bufferPosition      = 0;
+    private int                 bufferLength        = 0;
+
+    /*
+     * Offset of the next byte to be read
+     */
+    private int                 offset              = 0;
+
+    private boolean             utf16               = false;
+    private boolean             bigEndian           = false;
+
+    /*
+     * HTML lexing
+     */
+    private int                 lexState            = LEX_TEXT;
+    private int                 lexLength;
+    private boolean             terminatingTag;
+    private int                 tagStart;
+    private final char[]        name                = new char[MAX_NAME_LENGTH];
+
+    private final int[]         counters =
+            new int[HTMLTextParser.COUNTERS_SIZE];
+    private final int[]         tagCounters =
+            new int[HTMLTextParser.COUNTERS_SIZE];
+
+    /*
+     * The last place of each rank the current piece could end at and
+     * the counters there
+     */
+    private final int[]         candidates          = {-1, -1, -1};
+    private final int[][]       candidateCounters =
+            new int[RANKS][HTMLTextParser.COUNTERS_SIZE];
+
+    private int                 pieceStart          = 0;
+    private final Vector        starts              = new Vector(16);
+    private final Vector        states              = new Vector(16);
+
+    /**
+     * @param in the chapter's raw data
+     * @param fileSize the size of the chapter's file
+     * @param maxSize the maximum size of a piece
+     * @param html if the chapter is to be parsed as HTML
+     */
+    ChapterSplitter(
+            final InputStream in,
+            final int fileSize,
+            final int maxSize,
+            final boolean html) {
+
+        this.in = in;
+        this.fileSize = fileSize;
+        this.maxSize = maxSize;
+        this.html = html;
+    }
+
+    final ChapterPieces split() throws IOException {
+        addPiece(0, counters);
+        detectUTF16();
+
+        int unitStart;
+        int c;
+
+        while (true) {
+            unitStart = offset;
+            c = readUnit();
+
+            if (c < 0) {
+                break;
+            }
+
+            if (unitStart - pieceStart >= maxSize && isBoundary(c)) {
+                splitPiece(unitStart);
+            }
+
+            if (html) {
+                processHTML(c, unitStart);
+            } else {
+                processText(c, unitStart);
+            }
+        }
+
+        final int count = starts.size();
+        final int[] startsArray = new int[count];
+        final byte[][] statesArray = new byte[count][];
+
+        for (int i = 0; i < count; i++) {
+            startsArray[i] = ((Integer) starts.elementAt(i)).intValue();
+            statesArray[i] = (byte[]) states.elementAt(i);
+        }
+
+        return new ChapterPieces(fileSize, maxSize, startsArray, statesArray);
+    }
+
+    private void processText(final int c, final int unitStart) {
+        if (c == '\n') {
+            addCandidate(RANK_BLOCK, offset, counters);
+        } else if (c == ' ' || c == '\t' || c == '\r') {
+            addCandidate(RANK_SPACE, offset, counters);
+        } else if (isBoundary(c)) {
+            addCandidate(RANK_CHAR, unitStart, counters);
+        }
+    }
+
+    private void processHTML(final int c, final int unitStart) {
+        switch (lexState) {
+            case LEX_TEXT:
+                if (c == '<') {
+                    addCandidate(RANK_CHAR, unitStart, counters);
+                    System.arraycopy(counters, 0, tagCounters, 0,
+                            counters.length);
+                    tagStart = unitStart;
+                    terminatingTag = false;
+                    lexLength = 0;
+                    lexState = LEX_TAG_NAME;
+                } else if (c == '&') {
+                    addCandidate(RANK_CHAR, unitStart, counters);
+                    lexLength = 0;
+                    lexState = LEX_ENTITY;
+                } else if (isWhiteSpace(c)) {
+                    addCandidate(
+                            (c == '\n'
+                                && counters[HTMLTextParser.COUNTER_PRE] > 0
+                                ? RANK_BLOCK : RANK_SPACE),
+                            offset, counters);
+                } else if (isBoundary(c)) {
+                    addCandidate(RANK_CHAR, unitStart, counters);
+                }
+                break;
+
+            case LEX_ENTITY:
+                if (c == ';') {
+                    lexState = LEX_TEXT;
+                } else if (c == '<' || c == '&' || isWhiteSpace(c)
+                        || ++lexLength > MAX_ENTITY_LENGTH) {
+                    /*
+                     * Not an entity after all
+                     */
+                    lexState = LEX_TEXT;
+                    processHTML(c, unitStart);
+                }
+                break;
+
+            case LEX_TAG_NAME:
+                if (c == '/' && lexLength == 0 && !terminatingTag) {
+                    terminatingTag = true;
+                } else if (c == '>') {
+                    endTag();
+                } else if (c == '/' || isWhiteSpace(c)) {
+                    lexState = LEX_TAG;
+                } else {
+                    if (lexLength < MAX_NAME_LENGTH) {
+                        name[lexLength] = (char) c;
+                    }
+                    lexLength++;
+
+                    if (lexLength == 3 && !terminatingTag
+                            && name[0] == '!'
+                            && name[1] == '-'
+                            && name[2] == '-') {
+                        lexLength = 0;
+                        lexState = LEX_COMMENT;
+                    }
+                }
+                break;
+
+            case LEX_TAG:
+                if (c == '>') {
+                    endTag();
+                }
+                break;
+
+            case LEX_COMMENT:
+                if (c == '-') {
+                    lexLength++;
+                } else {
+                    if (c == '>' && lexLength >= 2) {
+                        lexState = LEX_TEXT;
+                    }
+                    lexLength = 0;
+                }
+                break;
+        }
+    }
+
+    private void endTag() {
+        lexState = LEX_TEXT;
+
+        if (lexLength > MAX_NAME_LENGTH) {
+            /*
+             * Too long for any of the known tags
+             */
+            return;
+        }
+
+        final String tagName = new String(name, 0, lexLength);
+        final boolean block = HTMLTextParser.isBlockTag(tagName);
+
+        if (block && !terminatingTag) {
+            addCandidate(RANK_BLOCK, tagStart, tagCounters);
+        }
+
+        HTMLTextParser.updateCounters(tagName, terminatingTag, counters);
+
+        if (block && terminatingTag) {
+            addCandidate(RANK_BLOCK, offset, counters);
+        }
+    }
+
+    private void addCandidate(
+            final int rank, final int position, final int[] state) {
+
+        if (position > pieceStart) {
+            candidates[rank] = position;
+            System.arraycopy(state, 0, candidateCounters[rank], 0,
+                    state.length);
+        }
+    }
+
+    private void splitPiece(final int unitStart) {
+        /*
+         * Prefer the best kind of place in the second half of the piece,
+         * or else the last place found
+         */
+        final int min = pieceStart + maxSize / 2;
+        int rank = -1;
+
+        for (int i = RANKS - 1; i >= 0; i--) {
+            if (candidates[i] >= min) {
+                rank = i;
+                break;
+            }
+        }
+
+        if (rank < 0) {
+            for (int i = 0; i < RANKS; i++) {
+                if (candidates[i] > pieceStart
+                        && (rank < 0 || candidates[i] > candidates[rank])) {
+                    rank = i;
+                }
+            }
+        }
+
+        final int position;
+
+        if (rank < 0) {
+            /*
+             * No proper place at all, e.g. a huge tag
+             */
+            position = unitStart;
+            addPiece(position, counters);
+        } else {
+            position = candidates[rank];
+            addPiece(position, candidateCounters[rank]);
+        }
+
+        pieceStart = position;
+
+        for (int i = 0; i < RANKS; i++) {
+            if (candidates[i] <= position) {
+                candidates[i] = -1;
+            }
+        }
+    }
+
+    private void addPiece(final int position, final int[] state) {
+        starts.addElement(new Integer(position));
+        states.addElement(html ? HTMLTextParser.createState(state) : null);
+    }
+
+    private void detectUTF16() throws IOException {
+        fillBuffer();
+
+        if (bufferLength >= 2) {
+            final int b0 = buffer[0] & 0xFF;
+            final int b1 = buffer[1] & 0xFF;
+
+            if (b0 == 0xFE && b1 == 0xFF) {
+                utf16 = true;
+                bigEndian = true;
+            } else if (b0 == 0xFF && b1 == 0xFE) {
+                utf16 = true;
+            }
+        }
+    }
+
+    private void fillBuffer() throws IOException {
+        final int left = fileSize - offset;
+
+        if (left <= 0) {
+            bufferLength = 0;
+        } else {
+            bufferLength = in.read(buffer, 0,
+                    (left < BUFFER_SIZE ? left : BUFFER_SIZE));
+
+            if (bufferLength < 0) {
+                bufferLength = 0;
+            }
+        }
+
+        bufferPosition = 0;
+    }
+
+    private int readByte() throws IOException {
+        if (bufferPosition == bufferLength) {
+            fillBuffer();
+
+            if (bufferLength == 0) {
+                return -1;
+            }
+        }
+
+        offset++;
+        return buffer[bufferPosition++] & 0xFF;
+    }
+
+    /**
+     * Reads a byte or, for UTF-16, a code unit.
+     */
+    private int readUnit() throws IOException {
+        final int b0 = readByte();
+
+        if (!utf16 || b0 < 0) {
+            return b0;
+        }
+
+        final int b1 = readByte();
+
+        if (b1 < 0) {
+            return -1;
+        }
+
+        return (bigEndian ? (b0 << 8) | b1 : (b1 << 8) | b0);
+    }
+
+    /**
+     * Returns true if a character starts at the unit, i.e. it is not a
+     * UTF-8 continuation byte or a low surrogate.
+     */
+    private boolean isBoundary(final int c) {
+        if (utf16) {
+            return c < 0xDC00 || c > 0xDFFF;
+        }
+
+        return (c & 0xC0) != 0x80;
+    }
+
+    private static boolean isWhiteSpace(final int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+}
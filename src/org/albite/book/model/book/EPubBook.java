@@ -5,23 +5,18 @@
 
 package org.albite.book.model.book;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Hashtable;
 import java.util.Vector;
+import javax.microedition.io.file.FileConnection;
 import org.albite.albite.AlbiteMIDlet;
 import org.albite.book.model.parser.HTMLTextParser;
+import org.albite.io.CompositeConnection;
 import org.albite.io.RandomReadingFile;
-import org.albite.io.decoders.AlbiteStreamReader;
-import org.albite.io.decoders.Encodings;
 import org.albite.util.archive.Archive;
 import org.albite.util.archive.ArchiveEntry;
 import org.albite.util.archive.zip.ArchiveZip;
-import org.kxml2.io.KXmlParser;
-import org.kxml2.kdom.Document;
-import org.kxml2.kdom.Element;
-import org.kxml2.kdom.Node;
-import org.xmlpull.v1.XmlPullParserException;
 
 /**
  *
@@ -34,6 +29,11 @@ public class EPubBook extends Book {
      */
     private ArchiveZip      bookArchive;
 
+    /*
+     * .ale saved spine
+     */
+    private FileConnection  spineFile;
+
     public EPubBook(final String filename)
             throws IOException, BookException {
 
@@ -46,6 +46,7 @@ public class EPubBook extends Book {
             /*
              * load chapters info (filename + title)
              */
+            loadSplitTable(filename);
             loadChaptersAndBookDescriptor();
 
             linkChapters();
@@ -57,42 +58,268 @@ public class EPubBook extends Book {
         }
     }
 
-    private String text(final Element kid) {
+    private void loadChaptersAndBookDescriptor()
+            throws BookException, IOException  {
+
+        EPubSpine spine = loadSpine();
 
-        String res = null;
+        if (spine == null) {
+            spine = readSpine(bookArchive);
+            saveSpine(spine);
+        }
 
-        try {
-            res = kid.getText(0);
-        } catch (Exception e) {}
+        if (spine.title != null) {
+            title = spine.title;
+        }
 
-        if (res == null) {
-            return "";
+        if (spine.author != null) {
+            author = spine.author;
         }
 
-        return res;
-    }
+        if (spine.language != null) {
+            language = spine.getLanguage();
 
-    private Element getElement(final Node node, final String name) {
-        for (int i = 0; i < node.getChildCount(); i++) {
-            if (node.getType(i) != Node.ELEMENT) {
-                continue;
+            /*
+             * set currentLanguage to the default value
+             * afterward (in loadUserFile) it will
+             * be overwritten
+             */
+            currentLanguage = language;
+        }
+
+        try {
+            /*
+             * Create the chapters
+             */
+            Vector chaps = new Vector(40);
+
+            /*
+             * Consecutive small items in the same folder and with the
+             * same prolog are merged into a single chapter
+             */
+            final Vector merged = new Vector(16);
+            int mergedSize = 0;
+            String mergedPath = null;
+            String mergedProlog = null;
+
+            for (int i = 0; i < spine.paths.length; i++) {
+                ArchiveEntry entry = bookArchive.getEntry(spine.paths[i]);
+
+                if (entry == null
+                        || entry.fileSize() > Integer.MAX_VALUE) {
+                    continue;
+                }
+
+                /*
+                 * chapter is OK
+                 */
+                final int size = (int) entry.fileSize();
+                final String path =
+                        RandomReadingFile.getPathFromURL(entry.getURL());
+                final String prolog = (size < MAXIMUM_MERGED_FILESIZE
+                        ? readProlog(entry) : null);
+
+                if (!merged.isEmpty()
+                        && (mergedSize + size > MAXIMUM_MERGED_FILESIZE
+                            || !path.equals(mergedPath)
+                            || prolog == null
+                            || !prolog.equals(mergedProlog))) {
+                    addMergedChapter(merged, mergedSize, chaps);
+                    merged.removeAllElements();
+                    mergedSize = 0;
+                }
+
+                if (size < MAXIMUM_MERGED_FILESIZE) {
+                    if (merged.isEmpty()) {
+                        mergedProlog = prolog;
+                    }
+
+                    merged.addElement(entry);
+                    mergedSize += size;
+                    mergedPath = path;
+                } else {
+                    splitChapterIntoPieces(
+                            entry,
+                            size,
+                            entry,
+                            MAXIMUM_HTML_FILESIZE,
+                            chaps.size(),
+                            true,
+                            chaps
+                            );
+                }
+            }
+
+            if (!merged.isEmpty()) {
+                addMergedChapter(merged, mergedSize, chaps);
             }
 
-            Element element = node.getElement(i);
-            if (name.equalsIgnoreCase(element.getName())) {
-                return element;
+            if (chaps.isEmpty()) {
+                throw new BookException("no chaps found in opf");
             }
+
+            /*
+             * all chaps loaded
+             */
+            chapters = new Chapter[chaps.size()];
+            chaps.copyInto(chapters);
+        } catch (Exception e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+            throw new BookException("couldn't load chapters");
         }
+    }
 
-        return null;
+    /**
+     * Reads what decides how an item is decoded, i.e. its byte order
+     * mark and the encoding in its xmldecl. Only the start of a chapter
+     * is checked for these, so an item is merged only if they are the
+     * same as those of the first item of the chapter.
+     *
+     * @return the prolog or null, if it couldn't be read
+     */
+    private static String readProlog(final ArchiveEntry entry) {
+        final byte[] buf = new byte[PROLOG_SIZE];
+        int read = 0;
+
+        try {
+            final InputStream in = entry.openInputStream();
+
+            try {
+                while (read < buf.length) {
+                    final int n = in.read(buf, read, buf.length - read);
+
+                    if (n <= 0) {
+                        break;
+                    }
+
+                    read += n;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        final int b0 = (read > 0 ? buf[0] & 0xFF : -1);
+        final int b1 = (read > 1 ? buf[1] & 0xFF : -1);
+
+        if ((b0 == 0xFE && b1 == 0xFF) || (b0 == 0xFF && b1 == 0xFE)) {
+            /*
+             * UTF-16, whose xmldecl can't be read as bytes
+             */
+            return "bom " + b0;
+        }
+
+        int start = 0;
+        final StringBuffer res = new StringBuffer(24);
+
+        if (read >= 3 && b0 == 0xEF && b1 == 0xBB
+                && (buf[2] & 0xFF) == 0xBF) {
+            res.append("bom ");
+            start = 3;
+        }
+
+        final char[] chars = new char[read - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (buf[start + i] & 0xFF);
+        }
+
+        final String text = new String(chars);
+
+        if (!text.startsWith("<?xml")) {
+            return res.toString();
+        }
+
+        final int end = text.indexOf("?>");
+        int i = text.indexOf("encoding");
+
+        if (end < 0 || i < 0 || i > end) {
+            return res.toString();
+        }
+
+        i += 8;
+        while (i < end && text.charAt(i) != '"' && text.charAt(i) != '\'') {
+            i++;
+        }
+
+        final int close =
+                (i < end ? text.indexOf(text.charAt(i), i + 1) : -1);
+
+        if (close > 0 && close < end) {
+            res.append(text.substring(i + 1, close).trim().toLowerCase());
+        }
+
+        return res.toString();
     }
 
-    private void loadChaptersAndBookDescriptor()
-            throws BookException, IOException  {
+    /**
+     * Adds a chapter, made of several consecutive spine items. All of
+     * them must be in the same folder, so that the images would be
+     * found using the path of the first one.
+     */
+    private void addMergedChapter(
+            final Vector entries,
+            final int size,
+            final Vector chaps) throws IOException, BookException {
+
+        final ArchiveEntry first = (ArchiveEntry) entries.elementAt(0);
+
+        if (entries.size() == 1) {
+            splitChapterIntoPieces(
+                    first,
+                    size,
+                    first,
+                    MAXIMUM_HTML_FILESIZE,
+                    chaps.size(),
+                    true,
+                    chaps
+                    );
+            return;
+        }
+
+        final ArchiveEntry[] parts = new ArchiveEntry[entries.size()];
+        final int[] sizes = new int[parts.length];
+
+        entries.copyInto(parts);
+        for (int i = 0; i < parts.length; i++) {
+            sizes[i] = (int) parts[i].fileSize();
+        }
+
+        chaps.addElement(new Chapter(
+                new CompositeConnection(parts, sizes),
+                size,
+                first,
+                "Chapter #" + (chaps.size() + 1),
+                true,
+                chaps.size()));
+    }
+
+    /**
+     * Reads the metadata and spine of an EPUB without opening it as a
+     * book, i.e. without creating its chapters or touching its user files.
+     */
+    public static EPubSpine readSpine(final String filename)
+            throws IOException, BookException {
+
+        final ArchiveZip archive = new ArchiveZip(filename);
+
+        try {
+            return readSpine(archive);
+        } finally {
+            archive.close();
+        }
+    }
+
+    /**
+     * Parses the container.xml and the OPF file.
+     */
+    private static EPubSpine readSpine(final ArchiveZip bookArchive)
+            throws BookException, IOException {
 
         InputStream in;
-        String opfFileName = null;
-        final String opfFilePath;
+        final String opfFileName;
 
         /*
          * first load META-INF/container.xml
@@ -107,47 +334,17 @@ public class EPubBook extends Book {
         in = container.openInputStream();
 
         try {
-            KXmlParser parser = null;
-            Document doc = null;
-            Element root;
-            Element kid;
-            try {
-                parser = new KXmlParser();
-                parser.setInput(new AlbiteStreamReader(
-                        in, Encodings.DEFAULT));
-
-                doc = new Document();
-                doc.parse(parser);
-                parser = null;
-
-                root = doc.getRootElement();
-
-                Element rfile = root
-                        .getElement(KXmlParser.NO_NAMESPACE, "rootfiles")
-                        .getElement(KXmlParser.NO_NAMESPACE, "rootfile");
-
-                opfFileName = rfile.getAttributeValue(
-                        KXmlParser.NO_NAMESPACE, "full-path");
-
-                if (opfFileName == null) {
-                    throw new BookException("Missing opf file");
-                }
-
-                opfFilePath = RandomReadingFile.getPathFromURL(opfFileName);
-
-                //#debug
-                AlbiteMIDlet.LOGGER.log(opfFilePath);
-
-            } catch (XmlPullParserException xppe) {
-                parser = null;
-                doc = null;
-                throw new BookException(
-                    "container.xml is invalid");
-            }
+            opfFileName = OPFReader.readContainer(in);
         } finally {
             in.close();
         }
 
+        final String opfFilePath =
+                RandomReadingFile.getPathFromURL(opfFileName);
+
+        //#debug
+        AlbiteMIDlet.LOGGER.log(opfFilePath);
+
         /*
          * now the opf file
          */
@@ -160,236 +357,69 @@ public class EPubBook extends Book {
         in = opfFile.openInputStream();
 
         try {
-            KXmlParser parser = null;
-            Document doc = null;
-            Element root;
-            Element kid;
-
-            try {
-                parser = new KXmlParser();
-
-                try {
-                    parser.setFeature(
-                            KXmlParser.FEATURE_PROCESS_NAMESPACES, true);
-                } catch (XmlPullParserException e) {}
-
-                parser.setInput(new AlbiteStreamReader(
-                        in, Encodings.DEFAULT));
-
-                doc = new Document();
-                doc.parse(parser);
-                parser = null;
-
-                root = doc.getRootElement();
-
-                try {
-                    /*
-                     * try to get the metadata
-                     */
-//                    meta = new Hashtable(10);
-
-                    Element metadata = getElement(root, "metadata");
-                    
-                    Element dcmetadata = getElement(metadata, "dc-metadata");
-                    
-                    if (dcmetadata != null) {
-                        metadata = dcmetadata;
-                    }
+            return OPFReader.readOPF(in, opfFilePath);
+        } finally {
+            in.close();
+        }
+    }
 
-                    if (metadata != null) {
-                        for (int i = 0; i < metadata.getChildCount(); i++) {
-                            if (metadata.getType(i) != Node.ELEMENT) {
-                                continue;
-                            }
-
-                            kid = metadata.getElement(i);
-
-                            if (kid.getName().equalsIgnoreCase("title")) {
-                                title = text(kid);
-                                continue;
-                            }
-
-                            if (kid.getName().equalsIgnoreCase("creator")) {
-                                author = text(kid);
-                                continue;
-                            }
-
-                            if (kid.getName().equalsIgnoreCase("language")) {
-                                language = text(kid);
-                                /*
-                                 * squash it to a 2-letter tag
-                                 */
-                                if (language.length() > 2) {
-                                    language = language.substring(0, 2);
-                                }
-
-                                /*
-                                 * set currentLanguage to the default value
-                                 * afterward (in loadUserFile) it will
-                                 * be overwritten
-                                 */
-                                currentLanguage = language;
-
-                                continue;
-                            }
-
-//                            if (kid.getName().equalsIgnoreCase("meta")) {
-//                                String metaname = kid.getAttributeValue(parser.NO_NAMESPACE, "name");
-//                                String metavalue = kid.getAttributeValue(parser.NO_NAMESPACE, "content");
-//                                if (metaname != null && metavalue != null
-//                                        && !metaname.startsWith("calibre")) {
-//                                    /*
-//                                     * Ignore Calibre-specific tags,
-//                                     * as they are not informative for the
-//                                     * reader, but only for Calibre
-//                                     */
-//                                    meta.put(metaname, metavalue);
-//                                }
-//
-//                                continue;
-//                            }
-//
-//                            /*
-//                             * It's a metadata then
-//                             */
-//                            {
-//                                String metaname = kid.getName();
-//                                String metavalue = text(kid);
-//
-//                                if (metaname != null && metavalue != null
-//                                        && !metaname.startsWith("calibre")) {
-//                                    meta.put(metaname, metavalue);
-//                                }
-//                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    /*
-                     * If there is a problem with the metadata,
-                     * it's not worth bothering
-                     */
-                    //#debug
-                    AlbiteMIDlet.LOGGER.log(e);
-                }
+    /**
+     * Loads the spine, saved the last time the book was opened.
+     *
+     * @return the spine or null, if there is no valid one
+     */
+    private EPubSpine loadSpine() {
+        if (bookFileSize < 0) {
+            return null;
+        }
 
-                Hashtable manifest = new Hashtable(200);
+        try {
+            spineFile = loadUserFile(
+                    RandomReadingFile.changeExtension(bookURL, ".ale"));
 
+            if (spineFile != null
+                    && spineFile.exists() && !spineFile.isDirectory()) {
+                final DataInputStream in = spineFile.openDataInputStream();
                 try {
-                    /*
-                     * Parse the manifest list
-                     */
-                    Element manifestEl = getElement(root, "manifest");
-
-                    if (manifestEl == null) {
-                        throw new BookException("No manifest tag in OPF");
-                    }
-                    
-                    for (int i = 0; i < manifestEl.getChildCount(); i++) {
-                        if (manifestEl.getType(i) != Node.ELEMENT) {
-                            continue;
-                        }
-
-                        kid = manifestEl.getElement(i);
-
-                        if (kid.getName().equalsIgnoreCase("item")) {
-                            String id = kid.getAttributeValue(
-                                    KXmlParser.NO_NAMESPACE, "id");
-                            String href = kid.getAttributeValue(
-                                    KXmlParser.NO_NAMESPACE, "href");
-
-                            if (id != null && href != null) {
-                                /*
-                                 * Item is OK
-                                 */
-                                manifest.put(id, href);
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    //#debug
-                    AlbiteMIDlet.LOGGER.log(e);
-                    throw new BookException("couldn't parse manifest");
+                    return EPubSpine.read(in, bookFileSize, bookFileModified);
+                } finally {
+                    in.close();
                 }
+            }
+        } catch (IOException e) {
+        } catch (SecurityException e) {}
 
-                try {
-                    /*
-                     * Parse the spine and create the chapters
-                     */
-                    Vector chaps = new Vector(40);
-
-                    Element spine = getElement(root, "spine");
+        return null;
+    }
 
-                    if (spine == null) {
-                        throw new BookException("No spine tag in OPF");
-                    }
+    private void saveSpine(final EPubSpine spine) {
+        if (spineFile != null) {
+            try {
+                writeData(spine.toByteArray(bookFileSize, bookFileModified),
+                        spineFile);
+            } catch (IOException e) {}
+        }
+    }
 
-                    for (int i = 0; i < spine.getChildCount(); i++) {
-                        if (spine.getType(i) != Node.ELEMENT) {
-                            continue;
-                        }
-
-                        kid = spine.getElement(i);
-
-                        if (kid.getName().equalsIgnoreCase("itemref")) {
-                            String idref = kid.getAttributeValue(
-                                    KXmlParser.NO_NAMESPACE, "idref");
-                            if (idref != null) {
-                                String href = (String) manifest.get(idref);
-
-                                if (href != null) {
-                                    ArchiveEntry entry =
-                                            bookArchive.getEntry(
-                                            RandomReadingFile
-                                            .relativeToAbsoluteURL(
-                                            opfFilePath + href));
-
-                                    if (entry != null) {
-                                        /*
-                                         * chapter is OK
-                                         */
-//                                        final Chapter cur = loadChapter(
-//                                                entry, chaps.size());
-                                        splitChapterIntoPieces(
-                                                entry,
-                                                entry.fileSize(),
-                                                entry,
-                                                MAXIMUM_HTML_FILESIZE,
-                                                chaps.size(),
-                                                true,
-                                                chaps
-                                                );
-                                    }
-                                }
-                            }
-                        }
-                    }
+    /*
+     * The bytes read from the start of an item for its prolog
+     */
+    private static final int PROLOG_SIZE = 128;
 
-                    if (chaps.isEmpty()) {
-                        throw new BookException("no chaps found in opf");
-                    }
+    /*
+     * Consecutive spine items smaller than this are merged
+     * into a single chapter of up to this size
+     */
 
-                    /*
-                     * all chaps loaded
-                     */
-                    chapters = new Chapter[chaps.size()];
-                    chaps.copyInto(chapters);
-                } catch (Exception e) {
-                    //#debug
-                    AlbiteMIDlet.LOGGER.log(e);
-                    throw new BookException("couldn't load chapters");
-                }
-            } catch (XmlPullParserException xppe) {
-                parser = null;
-                doc = null;
-                //#debug
-                AlbiteMIDlet.LOGGER.log(xppe);
-                throw new BookException(
-                    "the opf file is invalid");
-            }
-        } finally {
-            in.close();
-        }
-    }
+    //#if (TinyMode || TinyModeExport)
+//#         private static final int MAXIMUM_MERGED_FILESIZE = 8 * 1024;
+    //#elif (LightMode || LightModeExport)
+//#         private static final int MAXIMUM_MERGED_FILESIZE = 16 * 1024;
+    //#elif (HDMode || HDModeExport)
+//#         private static final int MAXIMUM_MERGED_FILESIZE = 96 * 1024;
+    //#else
+        private static final int MAXIMUM_MERGED_FILESIZE = 48 * 1024;
+    //#endif
 
     public Archive getArchive() {
         return bookArchive;
@@ -398,6 +428,10 @@ public class EPubBook extends Book {
     public final void close() throws IOException {
         bookArchive.close();
         closeUserFiles();
+
+        if (spineFile != null) {
+            spineFile.close();
+        }
     }
 
     public final boolean setEncoding(final String encoding) {
@@ -0,0 +1,140 @@
+package org.albite.book.model.book;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The metadata and resolved spine of an EPUB, i.e. all that is needed
+ * from its OPF in order to open it. It is saved next to the book, so that
+ * the OPF would need to be parsed only the first time the book is opened.
+ * The library reads it too, so that it wouldn't have to open the book.
+ *
+ * @author albus
+ */
+public final class EPubSpine {
+
+    private static final int    MAGIC_NUMBER = 0x616C6573;
+
+    /*
+     * null if not found in the OPF
+     */
+    final String                title;
+    final String                author;
+    final String                language;
+
+    /*
+     * Absolute paths of the chapters' entries in the archive
+     */
+    final String[]              paths;
+
+    EPubSpine(
+            final String title,
+            final String author,
+            final String language,
+            final String[] paths) {
+
+        this.title = title;
+        this.author = author;
+        this.language = language;
+        this.paths = paths;
+    }
+
+    public final String getTitle() {
+        return title;
+    }
+
+    public final String getAuthor() {
+        return author;
+    }
+
+    /**
+     * Returns the language squashed to a 2-letter tag, or null if
+     * none was found.
+     */
+    public final String getLanguage() {
+        if (language != null && language.length() > 2) {
+            return language.substring(0, 2);
+        }
+
+        return language;
+    }
+
+    /**
+     * Returns the number of spine items found in the manifest.
+     */
+    public final int getItemsCount() {
+        return paths.length;
+    }
+
+    final byte[] toByteArray(
+            final long bookSize,
+            final long bookModified) throws IOException {
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+        final DataOutputStream out = new DataOutputStream(baos);
+
+        try {
+            out.writeInt(MAGIC_NUMBER);
+            out.writeLong(bookSize);
+            out.writeLong(bookModified);
+            writeString(out, title);
+            writeString(out, author);
+            writeString(out, language);
+            out.writeInt(paths.length);
+
+            for (int i = 0; i < paths.length; i++) {
+                out.writeUTF(paths[i]);
+            }
+
+            return baos.toByteArray();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a saved spine.
+     *
+     * @return the spine or null, if it was saved for a different book file
+     */
+    static EPubSpine read(
+            final DataInputStream in,
+            final long bookSize,
+            final long bookModified) throws IOException {
+
+        if (in.readInt() != MAGIC_NUMBER
+                || in.readLong() != bookSize
+                || in.readLong() != bookModified) {
+            return null;
+        }
+
+        final String title = readString(in);
+        final String author = readString(in);
+        final String language = readString(in);
+        final String[] paths = new String[in.readInt()];
+
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = in.readUTF();
+        }
+
+        return new EPubSpine(title, author, language, paths);
+    }
+
+    private static void writeString(
+            final DataOutputStream out,
+            final String s) throws IOException {
+
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(final DataInputStream in)
+            throws IOException {
+
+        return (in.readBoolean() ? in.readUTF() : null);
+    }
+}
@@ -44,6 +44,7 @@ public class FileBook extends Book {
             /*
              * load chapters info (filename + title)
              */
+            loadSplitTable(filename);
             chapters = loadChaptersDescriptor();
             linkChapters();
 
@@ -0,0 +1,299 @@
+package org.albite.book.model.book;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.albite.albite.AlbiteMIDlet;
+import org.albite.io.RandomReadingFile;
+import org.albite.io.decoders.AlbiteStreamReader;
+import org.albite.io.decoders.Encodings;
+import org.kxml2.io.KXmlParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Reads the container.xml and OPF of an EPUB in a single pass each,
+ * i.e. without building a document tree. The manifest is kept in
+ * parallel arrays, so that books with thousands of items could be opened
+ * quickly and using little memory.
+ *
+ * @author albus
+ */
+final class OPFReader {
+
+    private static final int    SECTION_NONE        = 0;
+    private static final int    SECTION_METADATA    = 1;
+    private static final int    SECTION_MANIFEST    = 2;
+    private static final int    SECTION_SPINE       = 3;
+
+    private String              title;
+    private String              author;
+    private String              language;
+
+    private boolean             manifestFound       = false;
+    private boolean             spineFound          = false;
+
+    /*
+     * Manifest items
+     */
+    private String[]            ids                 = new String[64];
+    private String[]            hrefs               = new String[64];
+    private int                 itemsCount          = 0;
+
+    /*
+     * Spine idrefs
+     */
+    private String[]            idrefs              = new String[64];
+    private int                 idrefsCount         = 0;
+
+    private OPFReader() {}
+
+    /**
+     * Reads the path of the OPF from the container.xml.
+     */
+    static String readContainer(final InputStream in)
+            throws IOException, BookException {
+
+        try {
+            final KXmlParser parser = new KXmlParser();
+            parser.setInput(new AlbiteStreamReader(in, Encodings.DEFAULT));
+
+            for (int type = parser.next();
+                    type != XmlPullParser.END_DOCUMENT;
+                    type = parser.next()) {
+
+                if (type == XmlPullParser.START_TAG
+                        && "rootfile".equalsIgnoreCase(parser.getName())) {
+                    final String opfFileName = parser.getAttributeValue(
+                            KXmlParser.NO_NAMESPACE, "full-path");
+
+                    if (opfFileName != null) {
+                        return opfFileName;
+                    }
+                }
+            }
+        } catch (XmlPullParserException e) {
+            throw new BookException("container.xml is invalid");
+        }
+
+        throw new BookException("Missing opf file");
+    }
+
+    /**
+     * Reads the metadata, manifest and spine of an OPF.
+     *
+     * @param in the OPF data
+     * @param opfFilePath the folder of the OPF in the archive
+     * @return the resolved spine
+     */
+    static EPubSpine readOPF(final InputStream in, final String opfFilePath)
+            throws IOException, BookException {
+
+        final OPFReader reader = new OPFReader();
+
+        try {
+            reader.parse(in);
+        } catch (XmlPullParserException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+            throw new BookException("the opf file is invalid");
+        }
+
+        if (!reader.manifestFound) {
+            throw new BookException("No manifest tag in OPF");
+        }
+
+        if (!reader.spineFound) {
+            throw new BookException("No spine tag in OPF");
+        }
+
+        return new EPubSpine(reader.title, reader.author, reader.language,
+                reader.resolveSpine(opfFilePath));
+    }
+
+    private void parse(final InputStream in)
+            throws IOException, XmlPullParserException {
+
+        final KXmlParser parser = new KXmlParser();
+
+        try {
+            parser.setFeature(KXmlParser.FEATURE_PROCESS_NAMESPACES, true);
+        } catch (XmlPullParserException e) {}
+
+        parser.setInput(new AlbiteStreamReader(in, Encodings.DEFAULT));
+
+        int section = SECTION_NONE;
+        String name;
+
+        for (int type = parser.next();
+                type != XmlPullParser.END_DOCUMENT;
+                type = parser.next()) {
+
+            if (type == XmlPullParser.END_TAG) {
+                name = parser.getName();
+
+                if ("metadata".equalsIgnoreCase(name)
+                        || "manifest".equalsIgnoreCase(name)
+                        || "spine".equalsIgnoreCase(name)) {
+                    section = SECTION_NONE;
+                }
+
+                continue;
+            }
+
+            if (type != XmlPullParser.START_TAG) {
+                continue;
+            }
+
+            name = parser.getName();
+
+            if ("metadata".equalsIgnoreCase(name)) {
+                section = SECTION_METADATA;
+                continue;
+            }
+
+            if ("manifest".equalsIgnoreCase(name)) {
+                section = SECTION_MANIFEST;
+                manifestFound = true;
+                continue;
+            }
+
+            if ("spine".equalsIgnoreCase(name)) {
+                section = SECTION_SPINE;
+                spineFound = true;
+                continue;
+            }
+
+            switch (section) {
+                case SECTION_METADATA:
+                    if ("title".equalsIgnoreCase(name)) {
+                        title = readText(parser);
+                    } else if ("creator".equalsIgnoreCase(name)) {
+                        author = readText(parser);
+                    } else if ("language".equalsIgnoreCase(name)) {
+                        language = readText(parser);
+                    }
+                    break;
+
+                case SECTION_MANIFEST:
+                    if ("item".equalsIgnoreCase(name)) {
+                        addItem(
+                                parser.getAttributeValue(
+                                    KXmlParser.NO_NAMESPACE, "id"),
+                                parser.getAttributeValue(
+                                    KXmlParser.NO_NAMESPACE, "href"));
+                    }
+                    break;
+
+                case SECTION_SPINE:
+                    if ("itemref".equalsIgnoreCase(name)) {
+                        addIdref(parser.getAttributeValue(
+                                KXmlParser.NO_NAMESPACE, "idref"));
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Reads the text right after the start tag.
+     */
+    private static String readText(final KXmlParser parser)
+            throws IOException, XmlPullParserException {
+
+        if (parser.next() == XmlPullParser.TEXT) {
+            return parser.getText();
+        }
+
+        return "";
+    }
+
+    private void addItem(final String id, final String href) {
+        if (id == null || href == null) {
+            return;
+        }
+
+        if (itemsCount == ids.length) {
+            ids = grow(ids);
+            hrefs = grow(hrefs);
+        }
+
+        ids[itemsCount] = id;
+        hrefs[itemsCount] = href;
+        itemsCount++;
+    }
+
+    private void addIdref(final String idref) {
+        if (idref == null) {
+            return;
+        }
+
+        if (idrefsCount == idrefs.length) {
+            idrefs = grow(idrefs);
+        }
+
+        idrefs[idrefsCount++] = idref;
+    }
+
+    private static String[] grow(final String[] array) {
+        final String[] res = new String[array.length * 2];
+        System.arraycopy(array, 0, res, 0, array.length);
+        return res;
+    }
+
+    /**
+     * Looks up the spine items in the manifest using an open addressing
+     * hash table of indices into the manifest arrays.
+     *
+     * @return the absolute paths of the found items
+     */
+    private String[] resolveSpine(final String opfFilePath) {
+        int tableSize = 16;
+        while (tableSize < itemsCount * 2) {
+            tableSize <<= 1;
+        }
+
+        final int mask = tableSize - 1;
+
+        /*
+         * index + 1, so that 0 would mean empty
+         */
+        final int[] table = new int[tableSize];
+
+        for (int i = 0; i < itemsCount; i++) {
+            int slot = ids[i].hashCode() & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+
+        final String[] paths = new String[idrefsCount];
+        int pathsCount = 0;
+
+        for (int i = 0; i < idrefsCount; i++) {
+            final String idref = idrefs[i];
+            int slot = idref.hashCode() & mask;
+
+            while (table[slot] != 0) {
+                final int item = table[slot] - 1;
+
+                if (ids[item].equals(idref)) {
+                    paths[pathsCount++] =
+                            RandomReadingFile.relativeToAbsoluteURL(
+                            opfFilePath + hrefs[item]);
+                    break;
+                }
+
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        if (pathsCount == paths.length) {
+            return paths;
+        }
+
+        final String[] res = new String[pathsCount];
+        System.arraycopy(paths, 0, res, 0, pathsCount);
+        return res;
+    }
+}
@@ -0,0 +1,118 @@
+package org.albite.book.model.book;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+/**
+ * Keeps where the oversized chapters of a book have been split, so that
+ * they would not need to be scanned each time the book is opened.
+ *
+ * The table is valid only for the same book file, which is checked using
+ * its size and time of modification.
+ *
+ * @author albus
+ */
+final class SplitTable {
+
+    private static final int    MAGIC_NUMBER = 0x616C7371;
+
+    private final long          bookSize;
+    private final long          bookModified;
+
+    /*
+     * number of the first piece -> ChapterPieces
+     */
+    private final Hashtable     chapters = new Hashtable(8);
+
+    private boolean             modified = false;
+
+    SplitTable(final long bookSize, final long bookModified) {
+        this.bookSize = bookSize;
+        this.bookModified = bookModified;
+    }
+
+    final ChapterPieces get(
+            final int number,
+            final int fileSize,
+            final int maxSize) {
+
+        final ChapterPieces pieces =
+                (ChapterPieces) chapters.get(new Integer(number));
+
+        if (pieces != null
+                && pieces.fileSize == fileSize
+                && pieces.maxSize == maxSize) {
+            return pieces;
+        }
+
+        return null;
+    }
+
+    final void put(final int number, final ChapterPieces pieces) {
+        chapters.put(new Integer(number), pieces);
+        modified = true;
+    }
+
+    final boolean isModified() {
+        return modified;
+    }
+
+    final byte[] toByteArray() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(512);
+        final DataOutputStream out = new DataOutputStream(baos);
+
+        try {
+            out.writeInt(MAGIC_NUMBER);
+            out.writeLong(bookSize);
+            out.writeLong(bookModified);
+            out.writeShort(chapters.size());
+
+            for (Enumeration e = chapters.keys(); e.hasMoreElements();) {
+                final Integer number = (Integer) e.nextElement();
+                out.writeShort(number.intValue());
+                ((ChapterPieces) chapters.get(number)).write(out);
+            }
+
+            modified = false;
+            return baos.toByteArray();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a saved table. If it was saved for a different book file,
+     * an empty table is returned instead.
+     *
+     * @param in saved data
+     * @param empty an empty table for the current book file
+     * @return the saved table or <code>empty</code>
+     * @throws IOException
+     */
+    static SplitTable read(
+            final DataInputStream in,
+            final SplitTable empty) throws IOException {
+
+        if (in.readInt() != MAGIC_NUMBER
+                || in.readLong() != empty.bookSize
+                || in.readLong() != empty.bookModified) {
+            return empty;
+        }
+
+        final SplitTable table =
+                new SplitTable(empty.bookSize, empty.bookModified);
+
+        final int chaptersCount = in.readShort();
+
+        for (int i = 0; i < chaptersCount; i++) {
+            final int number = in.readShort();
+            table.chapters.put(new Integer(number), ChapterPieces.read(in));
+        }
+
+        return table;
+    }
+}
@@ -10,6 +10,7 @@ import org.albite.albite.AlbiteMIDlet;
 import org.albite.book.view.StylingConstants;
 import org.albite.io.html.HTMLSubstitues;
 import org.albite.io.html.XhtmlStreamReader;
+import org.albite.lang.TextBuffer;
 
 ////#define DEBUG_PARSER
 
@@ -58,6 +59,55 @@ public class HTMLTextParser extends TextParser
 
     private static final String TAG_PRE     = "pre";
 
+    /*
+     * What tags do, as read by {@link #getTagCode(TextBuffer, int, int)}
+     * and kept in {@link MarkupTokens}. It must fit in 5 bits.
+     */
+    static final int CODE_OTHER         = 0;
+    static final int CODE_BLOCK         = 1;
+    static final int CODE_BR            = 2;
+    static final int CODE_IMG           = 3;
+    static final int CODE_SVG_IMAGE     = 4;
+    static final int CODE_BOLD          = 5;
+    static final int CODE_ITALIC        = 6;
+    static final int CODE_HEADING       = 7;
+    static final int CODE_CENTER        = 8;
+    static final int CODE_HR            = 9;
+    static final int CODE_PRE           = 10;
+    static final int CODE_IGNORE        = 11;
+    static final int CODE_COMMENT       = 12;
+
+    private static final String[] TAG_NAMES = {
+        TAG_P, TAG_DIV, TAG_TR, TAG_LI,
+        TAG_BR,
+        TAG_IMG,
+        TAG_SVG_IMAGE,
+        TAG_B, TAG_STRONG,
+        TAG_I, TAG_EM,
+        TAG_H1, TAG_H2, TAG_H3, TAG_H4, TAG_H5, TAG_H6,
+        TAG_CENTER,
+        TAG_HR,
+        TAG_PRE,
+        "head", "style", "form", "frameset", "map", "script", "object",
+        "applet", "noscript"
+    };
+
+    private static final byte[] TAG_CODES = {
+        CODE_BLOCK, CODE_BLOCK, CODE_BLOCK, CODE_BLOCK,
+        CODE_BR,
+        CODE_IMG,
+        CODE_SVG_IMAGE,
+        CODE_BOLD, CODE_BOLD,
+        CODE_ITALIC, CODE_ITALIC,
+        CODE_HEADING, CODE_HEADING, CODE_HEADING,
+        CODE_HEADING, CODE_HEADING, CODE_HEADING,
+        CODE_CENTER,
+        CODE_HR,
+        CODE_PRE,
+        CODE_IGNORE, CODE_IGNORE, CODE_IGNORE, CODE_IGNORE, CODE_IGNORE,
+        CODE_IGNORE, CODE_IGNORE, CODE_IGNORE, CODE_IGNORE
+    };
+
     private int ignoreTag = 0;
 
     private int pre = 0;
@@ -72,6 +122,13 @@ public class HTMLTextParser extends TextParser
 
     private Vector instructions = new Vector(20);
 
+    /*
+     * The tags of the chapter being parsed, if it has been tokenized,
+     * and the index of the last one replayed
+     */
+    private MarkupTokens tokens;
+    private int lastToken = -1;
+
     public HTMLTextParser() {
         processBreaks = false;
     }
@@ -92,12 +149,218 @@ public class HTMLTextParser extends TextParser
         super.reset();
     }
 
+    public final TextParser newParser() {
+        return new HTMLTextParser();
+    }
+
+    public final void setMarkupTokens(final MarkupTokens tokens) {
+        this.tokens = tokens;
+        lastToken = -1;
+    }
+
+    /*
+     * State layout: processBreaks, hr, ignoreTag, pre, bold, italic,
+     * heading, center, styling flags and then the pending instructions
+     * (if any). The nesting counters are clipped to a byte.
+     *
+     * The styling flags are needed for pending styling instructions, as
+     * they are executed without parsing anything.
+     */
+    private static final int STATE_SIZE = 9;
+
+    public final byte[] saveState() {
+        final int instructionsSize = instructions.size();
+        final byte[] res = new byte[STATE_SIZE + instructionsSize];
+
+        res[0] = (byte) (processBreaks ? 1 : 0);
+        res[1] = (byte) (hr ? 1 : 0);
+        res[2] = clip(ignoreTag);
+        res[3] = clip(pre);
+        res[4] = clip(bold);
+        res[5] = clip(italic);
+        res[6] = clip(heading);
+        res[7] = clip(center);
+        res[8] = (byte) (
+                  (enableItalic       ? 0x01 : 0)
+                | (disableItalic      ? 0x02 : 0)
+                | (enableBold         ? 0x04 : 0)
+                | (disableBold        ? 0x08 : 0)
+                | (enableHeading      ? 0x10 : 0)
+                | (disableHeading     ? 0x20 : 0)
+                | (enableCenterAlign  ? 0x40 : 0)
+                | (disableCenterAlign ? 0x80 : 0));
+
+        for (int i = 0; i < instructionsSize; i++) {
+            res[STATE_SIZE + i] =
+                    ((Integer) instructions.elementAt(i)).byteValue();
+        }
+
+        return res;
+    }
+
+    public final void restoreState(final byte[] state) {
+        reset();
+
+        if (state.length < STATE_SIZE) {
+            return;
+        }
+
+        processBreaks = (state[0] != 0);
+        hr = (state[1] != 0);
+        ignoreTag = state[2];
+        pre = state[3];
+        bold = state[4];
+        italic = state[5];
+        heading = state[6];
+        center = state[7];
+
+        final int flags = state[8];
+        enableItalic        = (flags & 0x01) != 0;
+        disableItalic       = (flags & 0x02) != 0;
+        enableBold          = (flags & 0x04) != 0;
+        disableBold         = (flags & 0x08) != 0;
+        enableHeading       = (flags & 0x10) != 0;
+        disableHeading      = (flags & 0x20) != 0;
+        enableCenterAlign   = (flags & 0x40) != 0;
+        disableCenterAlign  = (flags & 0x80) != 0;
+
+        for (int i = STATE_SIZE; i < state.length; i++) {
+            instructions.addElement(new Integer(state[i]));
+        }
+    }
+
+    /*
+     * Indices of the nesting counters, as used by
+     * {@link #updateCounters(String, boolean, int[])}
+     */
+    public static final int COUNTER_IGNORE_TAG  = 0;
+    public static final int COUNTER_PRE         = 1;
+    public static final int COUNTER_BOLD        = 2;
+    public static final int COUNTER_ITALIC      = 3;
+    public static final int COUNTER_HEADING     = 4;
+    public static final int COUNTER_CENTER      = 5;
+    public static final int COUNTERS_SIZE       = 6;
+
+    /**
+     * Updates the nesting counters the same way parsing the tag would.
+     * Used for following the styling through a chapter without
+     * decoding and parsing it.
+     *
+     * @param name the name of the tag
+     * @param terminatingTag if it's a closing tag
+     * @param counters the counters to update
+     */
+    public static void updateCounters(
+            final String name,
+            final boolean terminatingTag,
+            final int[] counters) {
+
+        final int counter;
+
+        if (TAG_B.equalsIgnoreCase(name)
+                || TAG_STRONG.equalsIgnoreCase(name)) {
+            counter = COUNTER_BOLD;
+        } else if (TAG_I.equalsIgnoreCase(name)
+                || TAG_EM.equalsIgnoreCase(name)) {
+            counter = COUNTER_ITALIC;
+        } else if (isHeadingTag(name)) {
+            counter = COUNTER_HEADING;
+        } else if (TAG_CENTER.equalsIgnoreCase(name)) {
+            counter = COUNTER_CENTER;
+        } else if (TAG_PRE.equalsIgnoreCase(name)) {
+            counter = COUNTER_PRE;
+        } else if (isIgnoreTag(name)) {
+            counter = COUNTER_IGNORE_TAG;
+        } else {
+            return;
+        }
+
+        if (terminatingTag) {
+            if (counters[counter] > 0) {
+                counters[counter]--;
+            }
+        } else {
+            counters[counter]++;
+        }
+    }
+
+    /**
+     * Returns true if the tag starts a new line, i.e. the text might be
+     * split right before it (or after it, if it's a closing tag) without
+     * changing the way it's laid out.
+     */
+    public static boolean isBlockTag(final String name) {
+        return
+                   TAG_P.equalsIgnoreCase(name)
+                || TAG_BR.equalsIgnoreCase(name)
+                || TAG_DIV.equalsIgnoreCase(name)
+                || TAG_TR.equalsIgnoreCase(name)
+                || TAG_LI.equalsIgnoreCase(name)
+                || TAG_HR.equalsIgnoreCase(name)
+                || TAG_CENTER.equalsIgnoreCase(name)
+                || isHeadingTag(name);
+    }
+
+    /**
+     * Creates a state that could be passed to {@link #restoreState(byte[])}
+     * so that parsing would start as if the tags counted in
+     * <code>counters</code> had been already opened, i.e. the first thing
+     * the parser would do is to apply their styling.
+     *
+     * @param counters the nesting counters
+     * @return the state or null, if no tags are opened
+     */
+    public static byte[] createState(final int[] counters) {
+        boolean opened = false;
+        for (int i = 0; i < COUNTERS_SIZE; i++) {
+            if (counters[i] > 0) {
+                opened = true;
+                break;
+            }
+        }
+
+        if (!opened) {
+            return null;
+        }
+
+        final boolean styled =
+                   counters[COUNTER_BOLD] > 0
+                || counters[COUNTER_ITALIC] > 0
+                || counters[COUNTER_HEADING] > 0
+                || counters[COUNTER_CENTER] > 0;
+
+        final byte[] res = new byte[STATE_SIZE + (styled ? 1 : 0)];
+
+        res[0] = (byte) (counters[COUNTER_PRE] > 0 ? 1 : 0);
+        res[2] = clip(counters[COUNTER_IGNORE_TAG]);
+        res[3] = clip(counters[COUNTER_PRE]);
+        res[4] = clip(counters[COUNTER_BOLD]);
+        res[5] = clip(counters[COUNTER_ITALIC]);
+        res[6] = clip(counters[COUNTER_HEADING]);
+        res[7] = clip(counters[COUNTER_CENTER]);
+        res[8] = (byte) (
+                  (counters[COUNTER_ITALIC]  > 0 ? 0x01 : 0)
+                | (counters[COUNTER_BOLD]    > 0 ? 0x04 : 0)
+                | (counters[COUNTER_HEADING] > 0 ? 0x10 : 0)
+                | (counters[COUNTER_CENTER]  > 0 ? 0x40 : 0));
+
+        if (styled) {
+            res[STATE_SIZE] = STATE_STYLING;
+        }
+
+        return res;
+    }
+
+    private static byte clip(final int value) {
+        return (byte) (value > Byte.MAX_VALUE ? Byte.MAX_VALUE : value);
+    }
+
     public final boolean parseNext(
-            final char[] text,
+            final TextBuffer text,
             final int textSize) {
 
         //#ifdef DEBUG_PARSER
-//#         AlbiteMIDlet.LOGGER.log("---------------\nParsing: " + text.length + " / " + textSize);
+//#         AlbiteMIDlet.LOGGER.log("---------------\nParsing: " + text.length() + " / " + textSize);
         //#endif
 
         if (!instructions.isEmpty()) {
@@ -135,7 +398,7 @@ public class HTMLTextParser extends TextParser
          */
         state = (ignoreTag > 0 ? STATE_PASS : STATE_TEXT);
         for (int i = position; i < textSize; i++) {
-            ch = text[i];
+            ch = text.charAt(i);
             if (isWhiteSpace(ch) || isNewLine(ch) || ch == START_TAG_CHAR) {
                 length = i - position;
                 
@@ -156,7 +419,7 @@ public class HTMLTextParser extends TextParser
         return true;
     }
 
-    private boolean parseMarkup(final char[] text, final int textSize) {
+    private boolean parseMarkup(final TextBuffer text, final int textSize) {
 
         int pos = position;
         boolean terminatingTag = false;
@@ -168,7 +431,7 @@ public class HTMLTextParser extends TextParser
 //#         AlbiteMIDlet.LOGGER.log("Trying markup: " + textSize + ", " + pos);
         //#endif
 
-        if (textSize > pos && text[pos] == START_TAG_CHAR) {
+        if (textSize > pos && text.charAt(pos) == START_TAG_CHAR) {
 
             //#ifdef DEBUG_PARSER
 //#             AlbiteMIDlet.LOGGER.log("parsing markup...");
@@ -176,23 +439,49 @@ public class HTMLTextParser extends TextParser
 
             state = STATE_PASS;
 
+            /*
+             * Replay the tag, if it has already been read
+             */
+            if (tokens != null && tokens.getTextSize() == textSize) {
+                final int token = tokens.find(pos, lastToken);
+
+                if (token >= 0) {
+                    lastToken = token;
+
+                    final int code = tokens.getCode(token);
+
+                    if (code == CODE_COMMENT) {
+                        position = pos + tokens.getLength(token);
+                        length = 0;
+                        return true;
+                    }
+
+                    terminatingTag = tokens.isTerminating(token);
+                    position = pos + (terminatingTag ? 2 : 1);
+                    length = tokens.getLength(token);
+
+                    return applyTag(text, textSize, code, terminatingTag,
+                            tokens.getNameLength(token));
+                }
+            }
+
             /*
              * check if it's a comment tag
              */
             if (pos + 3 < textSize) {
                 if (
-                           text[pos + 1] == '!'
-                        && text[pos + 2] == '-'
-                        && text[pos + 3] == '-') {
+                           text.charAt(pos + 1) == '!'
+                        && text.charAt(pos + 2) == '-'
+                        && text.charAt(pos + 3) == '-') {
                     /*
                      * It's indeed a comment tag
                      */
                     position = pos + 4;
                     length = 0;
                     while (position < textSize) {
-                        if (text[position] == END_TAG_CHAR
-                                && text[position - 1] == '-'
-                                && text[position - 2] == '-') {
+                        if (text.charAt(position) == END_TAG_CHAR
+                                && text.charAt(position - 1) == '-'
+                                && text.charAt(position - 2) == '-') {
                             /*
                              * End of comment
                              */
@@ -221,7 +510,7 @@ public class HTMLTextParser extends TextParser
                 return true;
             }
 
-            if (text[pos] == '/') {
+            if (text.charAt(pos) == '/') {
                 terminatingTag = true;
                 pos++;
             }
@@ -231,308 +520,349 @@ public class HTMLTextParser extends TextParser
              */
             position = pos;
             
-            if (text.length <= pos) {
+            if (text.length() <= pos) {
                 return false;
             }
 
             for (int i = pos; i < textSize; i++) {
 
-                ch = text[i];
+                ch = text.charAt(i);
 
                 if (ch == END_TAG_CHAR) {
                     length = i - position + 1;
 
-                    /*
-                     * Parse the name
-                     */
-                    int len = length - 1;
-                    int max = position + length - 1;
-                    for (int k = position; k < max; k++) {
-                        ch = text[k];
-
-                        if (isWhiteSpace(ch) || isNewLine(ch) || ch == '/') {
-                            len = k - position;
-                            break;
-                        }
-                    }
-
-                    final String name = new String(text, position, len);
+                    final int len = getNameLength(text, position, i);
 
                     //#ifdef DEBUG_PARSER
-//#                     AlbiteMIDlet.LOGGER.log("tag: _" + new String(text, position, length) + "_");
-//#                     AlbiteMIDlet.LOGGER.log("tag name: _" + name + "_");
+//#                     AlbiteMIDlet.LOGGER.log("tag: _" + text.getString(position, length) + "_");
+//#                     AlbiteMIDlet.LOGGER.log("tag name: _" + text.getString(position, len) + "_");
 //# 
 //#                     if (length + position < textSize) {
-//#                         AlbiteMIDlet.LOGGER.log("next char to read after this: _" + text[length + position] + "_, " + ((int) text[length + position]));
+//#                         AlbiteMIDlet.LOGGER.log("next char to read after this: _" + text.charAt(length + position) + "_, " + ((int) text.charAt(length + position)));
 //#                     }
                     //#endif
 
-                    if (TAG_IMG.equalsIgnoreCase(name)) {
-                        /*
-                         * Image
-                         */
-                        final String attributes = new String(
-                                text, position + len, length - 1 - len);
-
-                        final int[] srcPositions =
-                                XhtmlStreamReader.readAttribute(
-                                attributes, "src");
-
-                        if (srcPositions == null) {
-                            imageURLPosition = 0;
-                            imageURLLength = 0;
-                        } else {
-                            imageURLPosition = position + len + srcPositions[0];
-                            imageURLLength = srcPositions[1];
-                        }
+                    return applyTag(text, textSize,
+                            getTagCode(text, position, len),
+                            terminatingTag, len);
+                }
+            }
 
-                        final int[] altPositions =
-                                XhtmlStreamReader.readAttribute(
-                                attributes, "alt");
-
-                        if (altPositions == null) {
-                            imageTextPosition = 0;
-                            imageTextLength = 0;
-                        } else {
-                            imageTextPosition =
-                                    position + len + altPositions[0];
-                            imageTextLength = altPositions[1];
-                        }
+            /*
+             * TODO: Do not know if next line is OK.
+             */
+            position = textSize;
+            length = 1;
+            return true;
+        }
 
-                        state = STATE_IMAGE;
-                        return true;
-                    }
+        return false;
+    }
 
-                    if (TAG_SVG_IMAGE.equalsIgnoreCase(name)) {
-                        /*
-                         * SVG Image
-                         */
-                        final String attributes = new String(
-                                text, position + len, length - 1 - len);
-
-                        final int[] srcPositions =
-                                XhtmlStreamReader.readAttribute(
-                                attributes, "xlink:href");
-
-                        if (srcPositions == null) {
-                            imageURLPosition = 0;
-                            imageURLLength = 0;
-                        } else {
-                            imageURLPosition = position + len + srcPositions[0];
-                            imageURLLength = srcPositions[1];
-                        }
+    /**
+     * Executes a tag, <code>position</code> and <code>length</code>
+     * being set to its name and the rest of it, up to and including the
+     * END_TAG_CHAR.
+     *
+     * @param code one of the CODE_ constants, telling what the tag is
+     * @param len the length of its name
+     */
+    private boolean applyTag(
+            final TextBuffer text,
+            final int textSize,
+            final int code,
+            final boolean terminatingTag,
+            final int len) {
+
+        if (code == CODE_IMG) {
+            /*
+             * Image
+             */
+            final String attributes = text.getString(
+                    position + len, length - 1 - len);
+
+            final int[] srcPositions =
+                    XhtmlStreamReader.readAttribute(
+                    attributes, "src");
+
+            if (srcPositions == null) {
+                imageURLPosition = 0;
+                imageURLLength = 0;
+            } else {
+                imageURLPosition = position + len + srcPositions[0];
+                imageURLLength = srcPositions[1];
+            }
 
-                        imageTextPosition = 0;
-                        imageTextLength = 0;
+            final int[] altPositions =
+                    XhtmlStreamReader.readAttribute(
+                    attributes, "alt");
+
+            if (altPositions == null) {
+                imageTextPosition = 0;
+                imageTextLength = 0;
+            } else {
+                imageTextPosition =
+                        position + len + altPositions[0];
+                imageTextLength = altPositions[1];
+            }
 
-                        state = STATE_IMAGE;
-                        return true;
-                    }
+            state = STATE_IMAGE;
+            return true;
+        }
 
-                    /*
-                     * Obviously, the image tag won't affect the `hr` variable
-                     */
-                    final boolean hrOld = hr;
-                    hr = false;
-
-                    if (TAG_BR.equalsIgnoreCase(name)) {
-                        /*
-                         * New line
-                         */
-                        state = STATE_NEW_LINE;
-                        return true;
-                    }
+        if (code == CODE_SVG_IMAGE) {
+            /*
+             * SVG Image
+             */
+            final String attributes = text.getString(
+                    position + len, length - 1 - len);
+
+            final int[] srcPositions =
+                    XhtmlStreamReader.readAttribute(
+                    attributes, "xlink:href");
+
+            if (srcPositions == null) {
+                imageURLPosition = 0;
+                imageURLLength = 0;
+            } else {
+                imageURLPosition = position + len + srcPositions[0];
+                imageURLLength = srcPositions[1];
+            }
 
-                    if (TAG_P.equalsIgnoreCase(name)
-                            || TAG_DIV.equalsIgnoreCase(name)
-                            || TAG_TR.equalsIgnoreCase(name)
-                            || TAG_LI.equalsIgnoreCase(name)) {
-                        /*
-                         * New line
-                         */
-                        //#ifdef DEBUG_PARSER
-//#                         AlbiteMIDlet.LOGGER.log("executed: <P>");
-                        //#endif
-                        state = STATE_NEW_SOFT_LINE;
-                        return true;
+            imageTextPosition = 0;
+            imageTextLength = 0;
+
+            state = STATE_IMAGE;
+            return true;
+        }
+
+        /*
+         * Obviously, the image tag won't affect the `hr` variable
+         */
+        final boolean hrOld = hr;
+        hr = false;
+
+        switch (code) {
+            case CODE_BR:
+                /*
+                 * New line
+                 */
+                state = STATE_NEW_LINE;
+                return true;
+
+            case CODE_BLOCK:
+                /*
+                 * New line
+                 */
+                //#ifdef DEBUG_PARSER
+//#                 AlbiteMIDlet.LOGGER.log("executed: <P>");
+                //#endif
+                state = STATE_NEW_SOFT_LINE;
+                return true;
+
+            case CODE_HR:
+                /*
+                 * Horizontal ruler
+                 */
+                hr = true;
+
+                if (!hrOld) {
+                    instructions.addElement(new Integer(STATE_NEW_SOFT_LINE));
+                    instructions.addElement(new Integer(STATE_RULER));
+                    instructions.addElement(new Integer(STATE_NEW_SOFT_LINE));
+                }
+                state = STATE_PASS;
+                return true;
+        }
+
+        if (terminatingTag) {
+            switch (code) {
+                case CODE_BOLD:
+                    bold--;
+
+                    if (bold <= 0) {
+                        bold = 0;
+                        disableBold = true;
+                        state = STATE_STYLING;
+                    } else {
+                        state = STATE_PASS;
                     }
+                    return true;
 
-                    if (TAG_HR.equalsIgnoreCase(name)) {
-                        /*
-                         * Horizontal ruler
-                         */
-                        hr = true;
+                case CODE_ITALIC:
+                    italic--;
 
-                        if (!hrOld) {
-                            instructions.addElement(new Integer(STATE_NEW_SOFT_LINE));
-                            instructions.addElement(new Integer(STATE_RULER));
-                            instructions.addElement(new Integer(STATE_NEW_SOFT_LINE));
-                        }
+                    if (italic <= 0) {
+                        italic = 0;
+                        disableItalic = true;
+                        state = STATE_STYLING;
+                    } else {
                         state = STATE_PASS;
-                        return true;
                     }
+                    return true;
 
-                    if (terminatingTag) {
-                        if (TAG_B.equalsIgnoreCase(name)
-                                || TAG_STRONG.equalsIgnoreCase(name)) {
-                            bold--;
-
-                            if (bold <= 0) {
-                                bold = 0;
-                                disableBold = true;
-                                state = STATE_STYLING;
-                            } else {
-                                state = STATE_PASS;
-                            }
-                            return true;
-                        }
+                case CODE_HEADING:
+                    heading--;
 
-                        if (TAG_I.equalsIgnoreCase(name)
-                                || TAG_EM.equalsIgnoreCase(name)) {
-                            italic--;
+                    if (heading <= 0) {
+                        heading = 0;
+                        disableHeading = true;
+                        instructions.addElement(new Integer(STATE_STYLING));
+                    }
 
-                            if (italic <= 0) {
-                                italic = 0;
-                                disableItalic = true;
-                                state = STATE_STYLING;
-                            } else {
-                                state = STATE_PASS;
-                            }
-                            return true;
-                        }
+                    state = STATE_NEW_SOFT_LINE;
+                    return true;
 
-                        if (TAG_H1.equalsIgnoreCase(name)
-                                || TAG_H2.equalsIgnoreCase(name)
-                                || TAG_H3.equalsIgnoreCase(name)
-                                || TAG_H4.equalsIgnoreCase(name)
-                                || TAG_H5.equalsIgnoreCase(name)
-                                || TAG_H6.equalsIgnoreCase(name)) {
-                            heading--;
-
-                            if (heading <= 0) {
-                                heading = 0;
-                                disableHeading = true;
-                                instructions.addElement(new Integer(STATE_STYLING));
-                            }
-                            
-                            state = STATE_NEW_SOFT_LINE;
-                            return true;
-                        }
+                case CODE_CENTER:
+                    center--;
 
-                        if (TAG_CENTER.equalsIgnoreCase(name)) {
-                            center--;
+                    if (center <= 0) {
+                        center = 0;
+                        disableCenterAlign = true;
+                        instructions.addElement(new Integer(STATE_STYLING));
+                    }
 
-                            if (center <= 0) {
-                                center = 0;
-                                disableCenterAlign = true;
-                                instructions.addElement(new Integer(STATE_STYLING));
-                            }
-                            
-                            state = STATE_NEW_SOFT_LINE;
-                            return true;
-                        }
+                    state = STATE_NEW_SOFT_LINE;
+                    return true;
 
-                        if (TAG_PRE.equalsIgnoreCase(name)) {
-                            pre--;
+                case CODE_PRE:
+                    pre--;
 
-                            if (pre <= 0) {
-                                pre = 0;
-                                processBreaks = false;
-                            }
+                    if (pre <= 0) {
+                        pre = 0;
+                        processBreaks = false;
+                    }
 
-                            state = STATE_PASS;
-                            return true;
-                        }
+                    state = STATE_PASS;
+                    return true;
 
-                        if (isIgnoreTag(name)) {
-                            ignoreTag--;
+                case CODE_IGNORE:
+                    ignoreTag--;
 
-                            if (ignoreTag < 0) {
-                                ignoreTag = 0;
-                            }
-                            return true;
-                        }
-                    } else {
-                        if (TAG_B.equalsIgnoreCase(name)
-                                || TAG_STRONG.equalsIgnoreCase(name)) {
-                            bold++;
+                    if (ignoreTag < 0) {
+                        ignoreTag = 0;
+                    }
+                    return true;
+            }
+        } else {
+            switch (code) {
+                case CODE_BOLD:
+                    bold++;
 
-                            enableBold = true;
-                            state = STATE_STYLING;
-                            return true;
-                        }
+                    enableBold = true;
+                    state = STATE_STYLING;
+                    return true;
 
-                        if (TAG_I.equalsIgnoreCase(name)
-                                || TAG_EM.equalsIgnoreCase(name)) {
-                            italic++;
+                case CODE_ITALIC:
+                    italic++;
 
-                            enableItalic = true;
-                            state = STATE_STYLING;
-                            return true;
-                        }
+                    enableItalic = true;
+                    state = STATE_STYLING;
+                    return true;
 
-                        if (TAG_H1.equalsIgnoreCase(name)
-                                || TAG_H2.equalsIgnoreCase(name)
-                                || TAG_H3.equalsIgnoreCase(name)
-                                || TAG_H4.equalsIgnoreCase(name)
-                                || TAG_H5.equalsIgnoreCase(name)
-                                || TAG_H6.equalsIgnoreCase(name)) {
-                            heading++;
-
-                            enableHeading = true;
-                            instructions.addElement(new Integer(STATE_NEW_SOFT_LINE));
-                            state = STATE_STYLING;
-                            return true;
-                        }
+                case CODE_HEADING:
+                    heading++;
 
-                        if (TAG_CENTER.equalsIgnoreCase(name)) {
-                            center++;
+                    enableHeading = true;
+                    instructions.addElement(new Integer(STATE_NEW_SOFT_LINE));
+                    state = STATE_STYLING;
+                    return true;
 
-                            enableCenterAlign = true;
-                            instructions.addElement(new Integer(STATE_NEW_SOFT_LINE));
-                            state = STATE_STYLING;
-                            return true;
-                        }
+                case CODE_CENTER:
+                    center++;
 
-                        if (TAG_PRE.equalsIgnoreCase(name)) {
-                            int k = position + length + 1;
-
-                            if (k < textSize) {
-                                if (text[k] == '\n') {
-                                    length += 2;
-                                } else if (text[k] == '\r') {
-                                    length += 2;
-                                    k++;
-                                    if (k < textSize && text[k] == '\n') {
-                                        length++;
-                                    }
-                                }
-                            }
-                            pre++;
-                            processBreaks = true;
-                            state = STATE_PASS;
-                            return true;
-                        }
+                    enableCenterAlign = true;
+                    instructions.addElement(new Integer(STATE_NEW_SOFT_LINE));
+                    state = STATE_STYLING;
+                    return true;
 
-                        if (isIgnoreTag(name)) {
-                            ignoreTag++;
-                            return true;
+                case CODE_PRE:
+                    int k = position + length + 1;
+
+                    if (k < textSize) {
+                        if (text.charAt(k) == '\n') {
+                            length += 2;
+                        } else if (text.charAt(k) == '\r') {
+                            length += 2;
+                            k++;
+                            if (k < textSize && text.charAt(k) == '\n') {
+                                length++;
+                            }
                         }
                     }
+                    pre++;
+                    processBreaks = true;
+                    state = STATE_PASS;
+                    return true;
 
+                case CODE_IGNORE:
+                    ignoreTag++;
                     return true;
-                }
             }
+        }
 
-            /*
-             * TODO: Do not know if next line is OK.
-             */
-            position = textSize;
-            length = 1;
-            return true;
+        return true;
+    }
+
+    /**
+     * Returns the length of the name of the tag, which starts at
+     * <code>start</code> and ends with the END_TAG_CHAR at
+     * <code>end</code>.
+     */
+    static int getNameLength(
+            final TextBuffer text, final int start, final int end) {
+
+        for (int k = start; k < end; k++) {
+            final char c = text.charAt(k);
+
+            if (isWhiteSpace(c) || isNewLine(c) || c == '/') {
+                return k - start;
+            }
         }
 
-        return false;
+        return end - start;
+    }
+
+    /**
+     * Tells what the tag is by its name, without making a string of it.
+     *
+     * @return one of the CODE_ constants
+     */
+    static int getTagCode(
+            final TextBuffer text, final int start, final int length) {
+
+        for (int i = 0; i < TAG_NAMES.length; i++) {
+            final String name = TAG_NAMES[i];
+
+            if (name.length() == length && matches(text, start, name)) {
+                return TAG_CODES[i];
+            }
+        }
+
+        return CODE_OTHER;
+    }
+
+    private static boolean matches(
+            final TextBuffer text, final int start, final String name) {
+
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase(text.charAt(start + i))
+                    != name.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isHeadingTag(final String s) {
+        return
+                   TAG_H1.equalsIgnoreCase(s)
+                || TAG_H2.equalsIgnoreCase(s)
+                || TAG_H3.equalsIgnoreCase(s)
+                || TAG_H4.equalsIgnoreCase(s)
+                || TAG_H5.equalsIgnoreCase(s)
+                || TAG_H6.equalsIgnoreCase(s);
     }
 
     private static boolean isIgnoreTag(final String s) {
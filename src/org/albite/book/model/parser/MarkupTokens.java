@@ -0,0 +1,250 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.albite.book.model.parser;
+
+import org.albite.io.html.HTMLSubstitues;
+import org.albite.lang.TextBuffer;
+
+/**
+ * The tags and comments of a decoded HTML chapter, found in a single pass
+ * right after it has been decoded and kept for as long as its text is.
+ * The chapter is laid out again on every change of the font or the
+ * screen, and replaying the tags from here saves the
+ * {@link HTMLTextParser} looking for their ends and reading their names
+ * each time.
+ *
+ * The text itself is still kept, as the words are drawn from it and all
+ * positions, i.e. bookmarks, pages and the pagination index, point into
+ * it. Each tag takes two ints: the position of its {@link #START_TAG_CHAR}
+ * and the packed tag. Tags the parser would not read the same way, like
+ * unclosed ones, are not kept and are left for the parser to read.
+ *
+ * @author albus
+ */
+public final class MarkupTokens implements HTMLSubstitues {
+
+    /*
+     * Packing: the code of the tag in bits 0 - 4, whether it's a
+     * closing tag in bit 5, the length of its name in bits 6 - 13 and
+     * its length, not counting the START_TAG_CHAR and the slash, in the
+     * rest. For comments, the length is that of the whole comment.
+     */
+    private static final int    CODE_MASK           = 0x1F;
+    private static final int    TERMINATING         = 0x20;
+    private static final int    NAME_SHIFT          = 6;
+    private static final int    NAME_MASK           = 0xFF;
+    private static final int    LENGTH_SHIFT        = 14;
+    private static final int    MAX_LENGTH          = (1 << 18) - 1;
+
+    private static final int    INITIAL_CAPACITY    = 64;
+
+    private final int           textSize;
+    private final int[]         positions;
+    private final int[]         tokens;
+
+    private MarkupTokens(
+            final int textSize,
+            final int[] positions,
+            final int[] tokens) {
+
+        this.textSize = textSize;
+        this.positions = positions;
+        this.tokens = tokens;
+    }
+
+    /**
+     * Finds the tags and comments in the text the same way the
+     * {@link HTMLTextParser} reads them, i.e. the text inside them is
+     * skipped.
+     */
+    public static MarkupTokens tokenize(final TextBuffer text) {
+        final int size = text.length();
+
+        int[] positions = new int[INITIAL_CAPACITY];
+        int[] tokens = new int[INITIAL_CAPACITY];
+        int count = 0;
+
+        int i = 0;
+
+        while (i < size) {
+            if (text.charAt(i) != START_TAG_CHAR) {
+                i++;
+                continue;
+            }
+
+            final int start = i;
+            final int token;
+
+            if (start + 3 < size
+                    && text.charAt(start + 1) == '!'
+                    && text.charAt(start + 2) == '-'
+                    && text.charAt(start + 3) == '-') {
+
+                i = start + 4;
+                while (i < size) {
+                    if (text.charAt(i) == END_TAG_CHAR
+                            && text.charAt(i - 1) == '-'
+                            && text.charAt(i - 2) == '-') {
+                        i++;
+                        break;
+                    }
+                    i++;
+                }
+
+                token = pack(HTMLTextParser.CODE_COMMENT, false, 0, i - start);
+            } else {
+                int nameStart = start + 1;
+                final boolean terminating =
+                        nameStart < size && text.charAt(nameStart) == '/';
+
+                if (terminating) {
+                    nameStart++;
+                }
+
+                int end = nameStart;
+                while (end < size && text.charAt(end) != END_TAG_CHAR) {
+                    end++;
+                }
+
+                if (end >= size) {
+                    /*
+                     * Not closed, so the parser skips the rest of the text
+                     */
+                    break;
+                }
+
+                final int nameLength =
+                        HTMLTextParser.getNameLength(text, nameStart, end);
+
+                token = pack(
+                        HTMLTextParser.getTagCode(text, nameStart, nameLength),
+                        terminating, nameLength, end - nameStart + 1);
+
+                i = end + 1;
+            }
+
+            if (token == -1) {
+                continue;
+            }
+
+            if (count == positions.length) {
+                positions = grow(positions, count);
+                tokens = grow(tokens, count);
+            }
+
+            positions[count] = start;
+            tokens[count] = token;
+            count++;
+        }
+
+        return new MarkupTokens(
+                size, trim(positions, count), trim(tokens, count));
+    }
+
+    /**
+     * @return the packed tag or -1 if it doesn't fit
+     */
+    private static int pack(
+            final int code,
+            final boolean terminating,
+            final int nameLength,
+            final int length) {
+
+        if (length > MAX_LENGTH) {
+            return -1;
+        }
+
+        return code
+                | (terminating ? TERMINATING : 0)
+                | (Math.min(nameLength, NAME_MASK) << NAME_SHIFT)
+                | (length << LENGTH_SHIFT);
+    }
+
+    private static int[] grow(final int[] array, final int count) {
+        final int[] res = new int[count * 2];
+        System.arraycopy(array, 0, res, 0, count);
+        return res;
+    }
+
+    private static int[] trim(final int[] array, final int count) {
+        if (array.length == count) {
+            return array;
+        }
+
+        final int[] res = new int[count];
+        System.arraycopy(array, 0, res, 0, count);
+        return res;
+    }
+
+    /**
+     * Finds the tag at the given position. As tags are read in order,
+     * the one after <code>hint</code> is tried first.
+     *
+     * @param position the position of the START_TAG_CHAR
+     * @param hint the index of the last tag found or -1
+     * @return the index of the tag or -1 if there's no tag kept for the
+     * position
+     */
+    final int find(final int position, final int hint) {
+        final int[] positions = this.positions;
+        final int next = hint + 1;
+
+        if (next >= 0 && next < positions.length
+                && positions[next] == position) {
+            return next;
+        }
+
+        int low = 0;
+        int high = positions.length - 1;
+
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int value = positions[mid];
+
+            if (value < position) {
+                low = mid + 1;
+            } else if (value > position) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * The length of the text the tags were found in. They are no use
+     * for parsing only a part of it.
+     */
+    final int getTextSize() {
+        return textSize;
+    }
+
+    final int getCode(final int index) {
+        return tokens[index] & CODE_MASK;
+    }
+
+    final boolean isTerminating(final int index) {
+        return (tokens[index] & TERMINATING) != 0;
+    }
+
+    final int getNameLength(final int index) {
+        return (tokens[index] >>> NAME_SHIFT) & NAME_MASK;
+    }
+
+    final int getLength(final int index) {
+        return tokens[index] >>> LENGTH_SHIFT;
+    }
+
+    public final int size() {
+        return positions.length;
+    }
+
+    public final int getMemorySize() {
+        return positions.length * 8;
+    }
+}
@@ -5,14 +5,20 @@
 
 package org.albite.book.model.parser;
 
+import org.albite.lang.TextBuffer;
+
 /**
  *
  * @author albus
  */
 public class PlainTextParser extends TextParser {
 
+    public final TextParser newParser() {
+        return new PlainTextParser();
+    }
+
     public boolean parseNext(
-            final char[] text,
+            final TextBuffer text,
             final int textSize) {
 
         if (!proceed(textSize)) {
@@ -27,7 +33,7 @@ public class PlainTextParser extends TextParser {
          * parsing normal text; stopping at stop-chars or end of textbuffer
          */
         for (int i = position; i < textSize; i++) {
-            if (isWhiteSpace(text[i]) || isNewLine(text[i])) {
+            if (isWhiteSpace(text.charAt(i)) || isNewLine(text.charAt(i))) {
                 length = i - position;
                 return true;
             }
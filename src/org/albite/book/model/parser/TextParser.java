@@ -5,6 +5,8 @@
 
 package org.albite.book.model.parser;
 
+import org.albite.lang.TextBuffer;
+
 /**
  *
  * @author Albus Dumbledore
@@ -110,6 +112,45 @@ public abstract class TextParser {
         length              = 0;
     }
 
+    /**
+     * Returns the state the parser carries on from one word to the next,
+     * so that parsing could later be resumed at the same position
+     * using {@link #restoreState(byte[])}.
+     *
+     * @return the parser state as a byte array
+     */
+    public byte[] saveState() {
+        return new byte[] {(byte) (processBreaks ? 1 : 0)};
+    }
+
+    /**
+     * Resets the parser and restores a state, previously returned by
+     * {@link #saveState()}.
+     *
+     * @param state the saved parser state
+     */
+    public void restoreState(final byte[] state) {
+        reset();
+        processBreaks = (state[0] != 0);
+    }
+
+    /**
+     * Creates a new parser of the same kind, e.g. for parsing chapters
+     * in the background.
+     *
+     * @return a new parser instance
+     */
+    public abstract TextParser newParser();
+
+    /**
+     * Gives the parser the tags of the text it's about to parse, found
+     * when the chapter was decoded, so that it needn't read them again.
+     * Parsers for text without markup ignore them.
+     *
+     * @param tokens the tags of the text or null
+     */
+    public void setMarkupTokens(final MarkupTokens tokens) {}
+
     protected final boolean proceed(final int bufferSize) {
         position += length;
         length = 0;
@@ -125,17 +166,17 @@ public abstract class TextParser {
 
     protected boolean processWhiteSpace(
             final int newPosition,
-            final char[] text,
+            final TextBuffer text,
             final int textSize) {
 
         if (processBreaks) {
-            ch = text[newPosition];
+            ch = text.charAt(newPosition);
             if (ch == '\r') {
                 //catch CR or CR+LF sequences
                 state = TextParser.STATE_NEW_LINE;
                 length = 1;
                 if (newPosition + 1 < textSize
-                        && text[newPosition + 1] == '\n') {
+                        && text.charAt(newPosition + 1) == '\n') {
                     length = 2;
                 }
                 return true;
@@ -150,7 +191,7 @@ public abstract class TextParser {
         }
         //skip the blank space
         for (int i = newPosition; i < textSize; i++) {
-            ch = text[i];
+            ch = text.charAt(i);
             if (isWhiteSpace(ch) || isNewLine(ch)) {
                 continue;
             }
@@ -163,14 +204,14 @@ public abstract class TextParser {
         return false;
     }
 
-    protected final boolean isWhiteSpace(final char c) {
+    protected static boolean isWhiteSpace(final char c) {
         return     c == ' '
                 || c == '\t'
                 || c == 0 //null char
                 || c == '\uFEFF'; //BOM
     }
 
-    protected final boolean isNewLine(final char c) {
+    protected static boolean isNewLine(final char c) {
         return c == '\n'
                 || c == '\r'
                 || c == '\f';
@@ -180,5 +221,5 @@ public abstract class TextParser {
      * If a 'normal' word is found, then it returns starting position of word
      * and its length
      */
-    public abstract boolean parseNext(char[] text, int textSize);
+    public abstract boolean parseNext(TextBuffer text, int textSize);
 }
\ No newline at end of file
@@ -8,8 +8,10 @@ package org.albite.book.view;
 import java.util.Vector;
 import org.albite.albite.AlbiteMIDlet;
 import org.albite.book.model.book.Chapter;
+import org.albite.book.model.parser.MarkupTokens;
 import org.albite.book.model.parser.TextParser;
 import org.albite.font.AlbiteFont;
+import org.albite.lang.TextBuffer;
 import org.albite.util.archive.Archive;
 //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
 import org.geometerplus.zlibrary.text.hyphenation.ZLTextTeXHyphenator;
@@ -44,6 +46,60 @@ public class Booklet {
 
     private final Vector        pages; //Page elements
 
+    private final TextParser    parser;
+    private final int           textLength;
+
+    /*
+     * The text of a chapter that is only being indexed. It is decoded
+     * just for the booklet and is not kept by the chapter.
+     */
+    private final TextBuffer    indexText;
+    private final MarkupTokens  indexTokens;
+
+    /*
+     * Only the pages around the current one are kept laid out, i.e.
+     * at most WINDOW pages before and after it. All other pages are null
+     * and are laid out again from their checkpoints when needed.
+     */
+    private static final int    WINDOW = 2;
+
+    /*
+     * The states at the start of the page groups that have been laid out.
+     * A group is a text page followed by the image pages
+     * whose images didn't fit in it.
+     */
+    private PageCheckpoint[]    checkpoints;
+    private int[]               firstPages;
+    private int                 checkpointsCount;
+
+    /*
+     * Pages before this one belong to a checkpoint and can be evicted
+     */
+    private int                 recordedPages = 1;
+
+    /*
+     * The range of pages that may currently be laid out
+     */
+    private int                 laidOutFirst = Integer.MAX_VALUE;
+    private int                 laidOutLast = -1;
+
+    /*
+     * Used only while the chapter is being laid out. The layout is extended
+     * forward only when the reader reaches pages that haven't been laid
+     * out yet. frontier is null when the layout has finished.
+     */
+    private PaginationIndex     index;
+    private PageState           frontier;
+    private PageState           frontierCheckpoint;
+    private int                 frontierCheckpointPages;
+
+    /*
+     * The number of pages, as returned by getPagesCount(). It's read
+     * by the paint thread, so it's computed whenever the layout changes
+     * instead of from the fields above.
+     */
+    private volatile int        pagesCount;
+
     private Page                currentPage;
     private int                 currentPageIndex;
     private Page                prevPage;
@@ -65,7 +121,39 @@ public class Booklet {
             //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
             final ZLTextTeXHyphenator hyphenator,
             //#endif
-            final TextParser parser) {
+            final TextParser parser,
+            final PaginationIndex index) {
+
+        this(width, height, inverted, chapter, bookArchive,
+                fontPlain, fontItalic, lineSpacing, renderImages,
+                //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
+                hyphenator,
+                //#endif
+                parser, index, false);
+    }
+
+    /**
+     * If <code>indexOnly</code> is true, the chapter is only paginated
+     * into the index and no pages are kept, so that the booklet
+     * can't be used for anything else. The chapter's text is then
+     * decoded for the booklet only, unless the chapter is loaded.
+     */
+    Booklet(
+            final int width,
+            final int height,
+            final boolean inverted,
+            final Chapter chapter,
+            final Archive bookArchive,
+            final AlbiteFont fontPlain,
+            final AlbiteFont fontItalic,
+            final int lineSpacing,
+            final boolean renderImages,
+            //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
+            final ZLTextTeXHyphenator hyphenator,
+            //#endif
+            final TextParser parser,
+            final PaginationIndex index,
+            final boolean indexOnly) {
 
         this.width = width;
         this.height = height;
@@ -82,79 +170,243 @@ public class Booklet {
         fontHeight = fontPlain.getLineHeight() + lineSpacing;
         fontIndent = fontPlain.charWidth(' ') * 3;
 
+        this.parser = parser;
+        this.index = index;
+
+        if (indexOnly) {
+            final MarkupTokens[] tokens = new MarkupTokens[1];
+            indexText = chapter.readTextBuffer(tokens);
+            indexTokens = tokens[0];
+        } else {
+            indexText = null;
+            indexTokens = null;
+        }
+
+        textLength = getTextBuffer().length();
+
+        final ChapterIndex chapterIndex =
+                (index == null ? null : index.get(chapter, textLength));
+
+        if (indexOnly && chapterIndex != null) {
+            pages = null;
+            return;
+        }
+
+        pages = new Vector(WINDOW * 4);
+
         /*
-         * Typically ~60-100 pages per chapter, so 200 is quite enough
-         */
-        Vector pagesTemp = new Vector(200);
-        
-        /*
-         * Reserve the position of the first dummy page
+         * First dummy page (transition to prev chapter or opening of book)
          */
-        pagesTemp.addElement(null);
+        if (chapter.getPrevChapter() == null) {
+            pages.addElement(new DummyPage(this, DummyPage.TYPE_BOOK_START));
+        } else {
+            pages.addElement(new DummyPage(this, DummyPage.TYPE_CHAPTER_PREV));
+        }
 
-        PageState ps = new PageState(parser);
-        //#debug
-        int i = 0;
+        if (chapterIndex != null) {
+            /*
+             * The chapter has already been paginated, so pages will
+             * be laid out only when they are needed
+             */
+            useIndex(chapterIndex);
+        } else {
+            checkpoints = new PageCheckpoint[16];
+            firstPages = new int[16];
+            frontier = new PageState(parser);
 
-        try {
             /*
-             * Real pages
+             * A piece of a split chapter goes on with the styling
+             * of the previous one
              */
-            TextPage current;
+            final byte[] parserState = chapter.getParserState();
+            if (parserState != null) {
+                parser.restoreState(parserState);
+            }
 
-            while (!ps.finishedReading()) {
-                //#debug
-                AlbiteMIDlet.LOGGER.log("New page #" + (i++));
+            updatePagesCount();
+        }
 
-                current = new TextPage(this, ps);
+        if (indexOnly) {
+            /*
+             * Paginating in the background, so let the reader go on
+             */
+            while (frontier != null) {
+                layoutNextPage();
+                Thread.yield();
+            }
+            return;
+        }
 
-                if (!current.isEmpty()) {
-                    /*
-                     * page with content to render
-                     */
+        goToFirstPage();
+    }
 
-                    pagesTemp.addElement(current);
-                }
+    /**
+     * Takes the checkpoints of the chapter from the index, dropping
+     * the pages laid out so far, as they can be laid out again from them.
+     */
+    private void useIndex(final ChapterIndex chapterIndex) {
+        for (int i = Math.max(laidOutFirst, 1); i <= laidOutLast; i++) {
+            pages.setElementAt(null, i);
+        }
+
+        laidOutFirst = Integer.MAX_VALUE;
+        laidOutLast = -1;
+
+        checkpoints = chapterIndex.checkpoints;
+        checkpointsCount = checkpoints.length;
+        firstPages = new int[checkpointsCount];
+
+        /*
+         * + 1 because of the reserved position of the first dummy page
+         */
+        int first = 1;
+        for (int i = 0; i < checkpointsCount; i++) {
+            firstPages[i] = first;
+            first += checkpoints[i].pagesCount;
+        }
+
+        pages.setSize(first);
+        recordedPages = first;
+        finishLayout();
+    }
+
+    /**
+     * If the chapter is still being laid out, but it has been paginated
+     * in the background meanwhile, goes on with the index, so that pages
+     * far ahead needn't be reached by laying out all pages before them.
+     */
+    private void checkIndex() {
+        if (frontier != null && index != null) {
+            final ChapterIndex chapterIndex = index.get(chapter, textLength);
+
+            if (chapterIndex != null) {
+                //#debug
+                AlbiteMIDlet.LOGGER.log("switching to the index");
+
+                frontierCheckpoint = null;
+                useIndex(chapterIndex);
             }
+        }
+    }
 
+    /**
+     * Lays out the next page of a chapter that hasn't been
+     * completely laid out yet.
+     */
+    private void layoutNextPage() {
+        try {
             //#debug
-            AlbiteMIDlet.LOGGER.log("pages done!");
+            AlbiteMIDlet.LOGGER.log("New page #" + pages.size());
+
+            if (frontier.images.isEmpty()) {
+                /*
+                 * A text page follows, so the previous group is complete
+                 */
+                if (frontierCheckpoint != null) {
+                    addCheckpoint();
+                }
+
+                frontierCheckpoint = frontier.snapshot();
+                frontierCheckpointPages = 0;
+            }
+
+            final TextPage current = new TextPage(this, frontier);
+
+            if (!current.isEmpty()) {
+                /*
+                 * page with content to render
+                 */
+                pages.addElement(current);
+                frontierCheckpointPages++;
+                updateLaidOut(pages.size() - 1);
+            }
+
+            if (frontier.finishedReading()) {
+                if (frontierCheckpoint != null) {
+                    addCheckpoint();
+                }
+
+                if (index != null) {
+                    final PageCheckpoint[] res =
+                            new PageCheckpoint[checkpointsCount];
+                    System.arraycopy(checkpoints, 0, res, 0, checkpointsCount);
+                    index.put(chapter,
+                            new ChapterIndex(
+                            chapter.getEncoding(), textLength, res));
+                }
+
+                //#debug
+                AlbiteMIDlet.LOGGER.log("pages done!");
+
+                finishLayout();
+            }
         } catch (OutOfMemoryError e) {
             //#debug
             AlbiteMIDlet.LOGGER.log(e);
-            pagesTemp = new Vector(3);
-            
+
             /*
-             * Reserve the position of the first dummy page
+             * Free memory before claiming it!
              */
-            pagesTemp.addElement(null);
-            
+            frontierCheckpoint = null;
+            evictPages();
+
             /*
              * Add a warning message
              */
-            pagesTemp.addElement(
+            pages.addElement(
                     new DummyPage(this, DummyPage.TYPE_CHAPTER_TOO_BIG));
+            finishLayout();
         } catch (Exception e) {
             //#debug
             AlbiteMIDlet.LOGGER.log(e);
-            pagesTemp = new Vector(3);
-
-            /*
-             * Reserve the position of the first dummy page
-             */
-            pagesTemp.addElement(null);
 
             /*
              * Add a warning message
              */
-            pagesTemp.addElement(
+            pages.addElement(
                     new DummyPage(this, DummyPage.TYPE_CHAPTER_ERROR));
+            finishLayout();
+        }
+
+        updatePagesCount();
+    }
+
+    private void addCheckpoint() {
+        if (checkpointsCount == checkpoints.length) {
+            final int size = checkpointsCount * 2;
+
+            final PageCheckpoint[] checkpointsNew = new PageCheckpoint[size];
+            System.arraycopy(checkpoints, 0, checkpointsNew, 0,
+                    checkpointsCount);
+            checkpoints = checkpointsNew;
+
+            final int[] firstPagesNew = new int[size];
+            System.arraycopy(firstPages, 0, firstPagesNew, 0,
+                    checkpointsCount);
+            firstPages = firstPagesNew;
         }
 
+        checkpoints[checkpointsCount] = new PageCheckpoint(
+                frontierCheckpoint, frontierCheckpointPages);
+        firstPages[checkpointsCount] = recordedPages;
+        checkpointsCount++;
+
+        recordedPages += frontierCheckpointPages;
+        frontierCheckpoint = null;
+
         /*
-         * Don't forget to set the final field
+         * The pages of the group can be laid out again if needed
          */
-        pages = pagesTemp;
+        evictPages();
+    }
+
+    /**
+     * Adds the last dummy page(s) after the chapter has been laid out.
+     */
+    private void finishLayout() {
+        frontier = null;
+        frontierCheckpoint = null;
+        index = null;
 
         if (pages.size() == 1) {
             /*
@@ -165,17 +417,6 @@ public class Booklet {
             pages.addElement(new DummyPage(this, DummyPage.TYPE_EMPTY_CHAPTER));
         }
 
-        /*
-         * First dummy page (transition to prev chapter or opening of book)
-         */
-        if (chapter.getPrevChapter() == null) {
-            pages.setElementAt(
-                    new DummyPage(this, DummyPage.TYPE_BOOK_START), 0);
-        } else {
-            pages.setElementAt(
-                    new DummyPage(this, DummyPage.TYPE_CHAPTER_PREV), 0);
-        }
-
         /*
          * Last dummy page (transition to next chapter or end of book)
          */
@@ -185,7 +426,176 @@ public class Booklet {
             pages.addElement(new DummyPage(this, DummyPage.TYPE_CHAPTER_NEXT));
         }
 
-        goToFirstPage();
+        updatePagesCount();
+    }
+
+    /**
+     * Lays out pages forward until the page is available
+     * or the chapter is over.
+     */
+    private void layoutUntilPage(final int page) {
+        if (page >= pages.size()) {
+            checkIndex();
+        }
+
+        while (frontier != null && page >= pages.size()) {
+            layoutNextPage();
+        }
+    }
+
+    /**
+     * Lays out pages forward until the page containing
+     * <code>position</code> belongs to a checkpoint
+     * or the chapter is over.
+     */
+    private void layoutUntilPosition(final int position) {
+        checkIndex();
+
+        while (frontier != null
+                && (checkpointsCount == 0
+                || checkpoints[checkpointsCount - 1].state.position
+                <= position)) {
+            layoutNextPage();
+        }
+    }
+
+    /**
+     * Lays out the pages that start from a given checkpoint.
+     */
+    private void layoutCheckpoint(final int k) {
+        final PageCheckpoint checkpoint = checkpoints[k];
+        final int last = firstPages[k] + checkpoint.pagesCount;
+        int page = firstPages[k];
+
+        /*
+         * The parser may be in the middle of the chapter's layout
+         */
+        final byte[] parserState = (frontier == null ? null
+                : parser.saveState());
+
+        try {
+            final PageState ps = new PageState(parser, checkpoint.state);
+            TextPage current;
+
+            do {
+                current = new TextPage(this, ps);
+
+                if (!current.isEmpty() && page < last) {
+                    pages.setElementAt(current, page);
+                    updateLaidOut(page);
+                    page++;
+                }
+            } while (!ps.images.isEmpty());
+        } catch (OutOfMemoryError e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        } catch (Exception e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        }
+
+        if (parserState != null) {
+            parser.restoreState(parserState);
+        }
+
+        /*
+         * The index is not expected to be wrong, but if it is,
+         * don't leave any holes
+         */
+        for (; page < last; page++) {
+            pages.setElementAt(
+                    new DummyPage(this, DummyPage.TYPE_CHAPTER_ERROR), page);
+            updateLaidOut(page);
+        }
+    }
+
+    private void updateLaidOut(final int page) {
+        if (page < laidOutFirst) {
+            laidOutFirst = page;
+        }
+
+        if (page > laidOutLast) {
+            laidOutLast = page;
+        }
+    }
+
+    /**
+     * Drops the pages that are out of the window around the current page
+     * and that can be laid out again.
+     */
+    private void evictPages() {
+        final int windowFirst = currentPageIndex - WINDOW;
+        final int windowLast = currentPageIndex + WINDOW;
+
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+
+        for (int i = Math.max(laidOutFirst, 1); i <= laidOutLast; i++) {
+            if (i < recordedPages && (i < windowFirst || i > windowLast)) {
+                pages.setElementAt(null, i);
+            } else if (pages.elementAt(i) != null) {
+                if (i < first) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+
+        laidOutFirst = first;
+        laidOutLast = last;
+    }
+
+    /**
+     * Returns the last checkpoint whose first page is not after
+     * <code>page</code>.
+     */
+    private int findCheckpointForPage(final int page) {
+        final int[] firstPagesF = firstPages;
+        int lo = 0;
+        int hi = checkpointsCount - 1;
+
+        while (lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if (firstPagesF[mid] <= page) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        return lo;
+    }
+
+    /**
+     * Returns the last checkpoint that doesn't start after
+     * <code>position</code>.
+     */
+    private int findCheckpointForPosition(final int position) {
+        final PageCheckpoint[] checkpointsF = checkpoints;
+        int lo = 0;
+        int hi = checkpointsCount - 1;
+
+        while (lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if (checkpointsF[mid].state.position <= position) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        return lo;
+    }
+
+    private Page getPage(final int index) {
+        Page page = (Page) pages.elementAt(index);
+
+        if (page == null) {
+            layoutCheckpoint(findCheckpointForPage(index));
+            page = (Page) pages.elementAt(index);
+        }
+
+        return page;
     }
 
     public final Page getCurrentPage() {
@@ -228,6 +638,7 @@ public class Booklet {
 
     private boolean incrementPage() {
         int index = currentPageIndex + 1;
+        layoutUntilPage(index);
         if (index == pages.size()) {
             return false;
         }
@@ -241,7 +652,14 @@ public class Booklet {
         setPages();
     }
 
+    /**
+     * Goes to the last page. If the chapter has been paginated, only
+     * the pages of its last checkpoint are laid out. Otherwise, the last
+     * page is known only after laying out the whole chapter, which
+     * also puts it in the index for the next time.
+     */
     public final void goToLastPage() {
+        layoutUntilPage(Integer.MAX_VALUE);
         currentPageIndex = pages.size() - 2;
         setPages();
     }
@@ -252,16 +670,41 @@ public class Booklet {
             return;
         }
 
-        if (position >= chapter.getTextBuffer().length) {
+        if (position >= textLength) {
             goToLastPage();
             return;
         }
 
-        Page foundPage;
+        layoutUntilPosition(position);
+
+        if (checkpointsCount > 0) {
+            /*
+             * Look only at the pages of the nearest checkpoint
+             */
+            final int k = findCheckpointForPosition(position);
+            final int first = firstPages[k];
+            final int last = first + checkpoints[k].pagesCount;
+
+            for (int i = first; i < last; i++) {
+                if (getPage(i).contains(position)) {
+                    goToPage(i);
+                    return;
+                }
+            }
+
+            if (k < checkpointsCount - 1
+                    || recordedPages == pages.size() - 1) {
+                goToPage(first);
+                return;
+            }
+        }
+
+        /*
+         * The layout of the chapter has failed after the last checkpoint
+         */
         final int pagesSize = pages.size();
-        for (int i = 0; i < pagesSize; i++) {
-            foundPage = (Page) pages.elementAt(i);
-            if (foundPage.contains(position)) {
+        for (int i = recordedPages; i < pagesSize; i++) {
+            if (getPage(i).contains(position)) {
                 goToPage(i);
                 return;
             }
@@ -275,6 +718,8 @@ public class Booklet {
             return;
         }
 
+        layoutUntilPage(page + 1);
+
         if (page >= pages.size() - 1) {
             goToLastPage();
             return;
@@ -287,7 +732,8 @@ public class Booklet {
     private void setPages() {
 
         /* there are always at least three Pages in a booklet! */
-        currentPage = (Page)(pages.elementAt(currentPageIndex));
+        layoutUntilPage(currentPageIndex + 1);
+        currentPage = getPage(currentPageIndex);
 
         if (inverted) {
             prevPage = chooseNextPage();
@@ -297,6 +743,8 @@ public class Booklet {
             nextPage = chooseNextPage();
         }
 
+        evictPages();
+
         chapter.setCurrentPosition(currentPage.getStart());
     }
 
@@ -313,7 +761,7 @@ public class Booklet {
         if (index < 0) {
             return null;
         } else {
-            return (Page)(pages.elementAt(index));
+            return getPage(index);
         }
     }
 
@@ -322,7 +770,7 @@ public class Booklet {
         if (index == pages.size()) {
             return null;
         } else {
-            return (Page)(pages.elementAt(index));
+            return getPage(index);
         }
     }
 
@@ -330,15 +778,53 @@ public class Booklet {
         return currentPageIndex;
     }
 
+    /**
+     * Returns the number of pages, including the dummy ones. If the chapter
+     * hasn't been laid out completely, the count is estimated
+     * from the text that has been laid out so far.
+     */
     public final int getPagesCount() {
-        return pages.size();
+        return pagesCount;
+    }
+
+    private void updatePagesCount() {
+        final int size = pages.size();
+
+        if (frontier == null) {
+            pagesCount = size;
+            return;
+        }
+
+        final int position = frontier.position;
+
+        if (position <= 0) {
+            pagesCount = size + 1;
+            return;
+        }
+
+        final int estimated =
+                (int) (((long) (size - 1)) * textLength / position) + 2;
+
+        pagesCount = Math.max(estimated, size + 1);
     }
 
-    public final char[] getTextBuffer() {
+    public final TextBuffer getTextBuffer() {
+        if (indexText != null) {
+            return indexText;
+        }
+
         return chapter.getTextBuffer();
     }
 
+    public final MarkupTokens getMarkupTokens(final TextBuffer buffer) {
+        if (indexText != null) {
+            return buffer == indexText ? indexTokens : null;
+        }
+
+        return chapter.getMarkupTokens(buffer);
+    }
+
     public final Chapter getChapter() {
         return chapter;
     }
-}
\ No newline at end of file
+}
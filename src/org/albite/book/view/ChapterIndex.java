@@ -0,0 +1,36 @@
+package org.albite.book.view;
+
+/**
+ * The pagination of a single chapter. It is valid only for the same
+ * chapter encoding and the same decoded text length.
+ *
+ * @author albus
+ */
+class ChapterIndex {
+    final String            encoding;
+    final int               textLength;
+    final PageCheckpoint[]  checkpoints;
+
+    ChapterIndex(
+            final String encoding,
+            final int textLength,
+            final PageCheckpoint[] checkpoints) {
+
+        this.encoding = encoding;
+        this.textLength = textLength;
+        this.checkpoints = checkpoints;
+    }
+
+    final boolean matches(final String encoding, final int textLength) {
+        return this.textLength == textLength
+                && this.encoding.equalsIgnoreCase(encoding);
+    }
+
+    final int getPagesCount() {
+        int count = 0;
+        for (int i = 0; i < checkpoints.length; i++) {
+            count += checkpoints[i].pagesCount;
+        }
+        return count;
+    }
+}
@@ -8,6 +8,7 @@ package org.albite.book.view;
 import javax.microedition.lcdui.Graphics;
 import org.albite.albite.ColorScheme;
 import org.albite.font.AlbiteFont;
+import org.albite.lang.TextBuffer;
 
 /**
  *
@@ -73,7 +74,7 @@ public class DummyPage extends Page {
             final ColorScheme cp,
             final AlbiteFont fontPlain,
             final AlbiteFont fontItalic,
-            final char[] chapterBuffer) {
+            final TextBuffer chapterBuffer) {
 
         final int colorDummy = cp.colors[ColorScheme.COLOR_TEXT_DUMMY];
         final int width = booklet.width;
@@ -3,6 +3,7 @@ package org.albite.book.view;
 import javax.microedition.lcdui.Graphics;
 import org.albite.albite.ColorScheme;
 import org.albite.font.AlbiteFont;
+import org.albite.lang.TextBuffer;
 
 public class HyphenatedTextRegion extends TextRegion {
 
@@ -49,7 +50,7 @@ public class HyphenatedTextRegion extends TextRegion {
             final ColorScheme cp,
             final AlbiteFont fontPlain,
             final AlbiteFont fontItalic,
-            final char[] chapterBuffer) {
+            final TextBuffer chapterBuffer) {
 
         draw(
                 g,
@@ -65,7 +66,7 @@ public class HyphenatedTextRegion extends TextRegion {
             final ColorScheme cp,
             final AlbiteFont fontPlain,
             final AlbiteFont fontItalic,
-            final char[] chapterBuffer) {
+            final TextBuffer chapterBuffer) {
 
         draw(
                 g,
@@ -79,7 +80,7 @@ public class HyphenatedTextRegion extends TextRegion {
     private void draw(
             final Graphics g,
             final AlbiteFont font,
-            final char[] chapterBuffer,
+            final TextBuffer chapterBuffer,
             final int backgroundColor,
             final int textColor,
             final boolean drawBackground) {
@@ -94,19 +95,19 @@ public class HyphenatedTextRegion extends TextRegion {
         font.drawChars(g, textColor,
                 chapterBuffer, x, y, chunkPosition, chunkLength);
 
-        if (chapterBuffer[chunkPosition + chunkLength - 1] != '-'
+        if (chapterBuffer.charAt(chunkPosition + chunkLength - 1) != '-'
                 && (chunkPosition + chunkLength != position + length)) {
             font.drawChar(g, textColor, '-', x + width - font.charWidth('-'), y);
         }
     }
 
     public void addTextChunk(
-            final char[] chapterBuffer,
+            final TextBuffer chapterBuffer,
             final StringBuffer buf) {
 
         final int chunkPosition = position + chunkOffset;
 
-        buf.append(chapterBuffer, chunkPosition, chunkLength);
+        chapterBuffer.appendTo(buf, chunkPosition, chunkLength);
         
         if (position + length == chunkPosition + chunkLength) {
             buf.append(' ');
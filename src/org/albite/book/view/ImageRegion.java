@@ -1,7 +1,7 @@
 package org.albite.book.view;
 
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import javax.microedition.lcdui.Image;
 import org.albite.albite.AlbiteMIDlet;
@@ -52,9 +52,16 @@ class ImageRegion {
 
             if (image == null) {
                 try {
-                    InputStream in = entry.openInputStream();
+                    final int size = (int) entry.fileSize();
+                    final DataInputStream in = entry.openDataInputStream();
                     try {
-                        image = Image.createImage(in);
+                        /*
+                         * Read the image in one go, as a stored entry
+                         * is read straight from the file this way
+                         */
+                        final byte[] data = new byte[size];
+                        in.readFully(data);
+                        image = Image.createImage(data, 0, size);
 
                         int maxWidth = (canvasWidth - 4 * MARGIN - 1);
                         int maxHeight = (canvasHeight - 4 * MARGIN - 1);
@@ -0,0 +1,18 @@
+package org.albite.book.view;
+
+/**
+ * The state at the start of a text page, together with the number of pages
+ * that are laid out from it, i.e. the text page itself and the image
+ * pages that follow it.
+ *
+ * @author albus
+ */
+class PageCheckpoint {
+    final PageState state;
+    final int       pagesCount;
+
+    PageCheckpoint(final PageState state, final int pagesCount) {
+        this.state = state;
+        this.pagesCount = pagesCount;
+    }
+}
@@ -5,6 +5,9 @@
 
 package org.albite.book.view;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import org.albite.book.model.parser.TextParser;
 import java.util.Vector;
 
@@ -27,6 +30,11 @@ public class PageState {
 
     boolean                 bufferRead = false;
 
+    /*
+     * The parser's own state, e.g. opened tags. Used only by snapshots.
+     */
+    byte[]                  parserState;
+
     public PageState(final TextParser parser) {
         position = 0;
         length = 0;
@@ -37,7 +45,94 @@ public class PageState {
         parser.reset();
     }
 
+    /**
+     * Resumes parsing from a snapshot, previously taken
+     * using {@link #snapshot()}.
+     *
+     * @param parser the parser to be used
+     * @param snapshot the state at the start of the page
+     */
+    public PageState(final TextParser parser, final PageState snapshot) {
+        position = snapshot.position;
+        length = snapshot.length;
+        style = snapshot.style;
+        center = snapshot.center;
+        lastHyphenatedWord = snapshot.lastHyphenatedWord;
+        startsNewParagraph = snapshot.startsNewParagraph;
+        images = new Vector(8);
+        this.parser = parser;
+        parser.restoreState(snapshot.parserState);
+    }
+
+    private PageState() {}
+
     public boolean finishedReading() {
         return bufferRead && images.isEmpty();
     }
+
+    /**
+     * Takes a snapshot of the current state. Must be called only between
+     * pages and when there are no pending images, i.e. when the next
+     * page would be a text one.
+     *
+     * @return a new detached state
+     */
+    final PageState snapshot() {
+        final PageState s = new PageState();
+        s.position = position;
+        s.length = length;
+        s.style = style;
+        s.center = center;
+        s.lastHyphenatedWord = lastHyphenatedWord;
+        s.startsNewParagraph = startsNewParagraph;
+        s.parserState = parser.saveState();
+        return s;
+    }
+
+    final void write(final DataOutputStream out) throws IOException {
+        out.writeInt(position);
+        out.writeInt(length);
+        out.writeByte(style);
+        out.writeBoolean(center);
+        out.writeBoolean(startsNewParagraph);
+
+        final HyphenatedTextRegion h = lastHyphenatedWord;
+        if (h == null) {
+            out.writeInt(-1);
+        } else {
+            /*
+             * Only the whole word is needed to continue it on the next page
+             */
+            out.writeInt(h.position);
+            out.writeShort(h.length);
+            out.writeByte(h.style);
+            out.writeByte(h.color);
+        }
+
+        out.writeShort(parserState.length);
+        out.write(parserState);
+    }
+
+    static PageState read(final DataInputStream in) throws IOException {
+        final PageState s = new PageState();
+        s.position = in.readInt();
+        s.length = in.readInt();
+        s.style = in.readByte();
+        s.center = in.readBoolean();
+        s.startsNewParagraph = in.readBoolean();
+
+        final int hyphenatedPosition = in.readInt();
+        if (hyphenatedPosition >= 0) {
+            final short hyphenatedLength = in.readShort();
+            s.lastHyphenatedWord = new HyphenatedTextRegion(
+                    (short) 0, (short) 0, (short) 0, (short) 0,
+                    hyphenatedPosition, hyphenatedLength,
+                    in.readByte(), in.readByte(),
+                    hyphenatedPosition, 0);
+        }
+
+        s.parserState = new byte[in.readUnsignedShort()];
+        in.readFully(s.parserState);
+        return s;
+    }
 }
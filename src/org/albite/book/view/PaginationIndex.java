@@ -0,0 +1,198 @@
+package org.albite.book.view;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import org.albite.book.model.book.Chapter;
+
+/**
+ * Keeps the page boundaries of the chapters of a book, so that a chapter
+ * would not need to be laid out in full before showing its first page.
+ *
+ * The index is valid only for the layout parameters it was built with,
+ * i.e. font, page size, line spacing, hyphenation language and whether
+ * images are rendered. The chapters' encodings are checked for each chapter.
+ *
+ * @author albus
+ */
+public class PaginationIndex {
+
+    private static final int    MAGIC_NUMBER = 0x616C7079;
+
+    private final String        font;
+    private final int           width;
+    private final int           height;
+    private final int           lineSpacing;
+    private final String        language;
+    private final boolean       renderImages;
+
+    /*
+     * chapter number -> ChapterIndex
+     */
+    private final Hashtable     chapters = new Hashtable(40);
+
+    private boolean             modified = false;
+
+    public PaginationIndex(
+            final String font,
+            final int width,
+            final int height,
+            final int lineSpacing,
+            final String language,
+            final boolean renderImages) {
+
+        this.font = font;
+        this.width = width;
+        this.height = height;
+        this.lineSpacing = lineSpacing;
+        this.language = (language == null ? "" : language);
+        this.renderImages = renderImages;
+    }
+
+    public final boolean matches(final PaginationIndex other) {
+        return other != null
+                && font.equals(other.font)
+                && width == other.width
+                && height == other.height
+                && lineSpacing == other.lineSpacing
+                && language.equals(other.language)
+                && renderImages == other.renderImages;
+    }
+
+    /**
+     * Returns true if the chapter has been indexed,
+     * regardless of its encoding.
+     */
+    public final boolean contains(final Chapter chapter) {
+        return chapters.containsKey(new Integer(chapter.getNumber()));
+    }
+
+    /**
+     * Returns true if all the chapters up to <code>chaptersCount</code>
+     * have been indexed.
+     */
+    public final boolean isComplete(final int chaptersCount) {
+        for (int i = 0; i < chaptersCount; i++) {
+            if (!chapters.containsKey(new Integer(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public final boolean isModified() {
+        return modified;
+    }
+
+    final ChapterIndex get(
+            final Chapter chapter, final int textLength) {
+
+        final ChapterIndex ci = (ChapterIndex) chapters.get(
+                new Integer(chapter.getNumber()));
+
+        if (ci != null && ci.matches(chapter.getEncoding(), textLength)) {
+            return ci;
+        }
+
+        return null;
+    }
+
+    final synchronized void put(
+            final Chapter chapter, final ChapterIndex chapterIndex) {
+
+        chapters.put(new Integer(chapter.getNumber()), chapterIndex);
+        modified = true;
+    }
+
+    public final synchronized byte[] toByteArray() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(4096);
+        final DataOutputStream out = new DataOutputStream(baos);
+
+        try {
+            out.writeInt(MAGIC_NUMBER);
+            out.writeUTF(font);
+            out.writeShort(width);
+            out.writeShort(height);
+            out.writeShort(lineSpacing);
+            out.writeUTF(language);
+            out.writeBoolean(renderImages);
+
+            out.writeShort(chapters.size());
+
+            for (Enumeration e = chapters.keys(); e.hasMoreElements();) {
+                final Integer number = (Integer) e.nextElement();
+                final ChapterIndex ci = (ChapterIndex) chapters.get(number);
+                final PageCheckpoint[] checkpoints = ci.checkpoints;
+
+                out.writeShort(number.intValue());
+                out.writeUTF(ci.encoding);
+                out.writeInt(ci.textLength);
+                out.writeInt(checkpoints.length);
+
+                for (int i = 0; i < checkpoints.length; i++) {
+                    out.writeShort(checkpoints[i].pagesCount);
+                    checkpoints[i].state.write(out);
+                }
+            }
+
+            modified = false;
+            return baos.toByteArray();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a saved index. If the index was built with different layout
+     * parameters, an empty index is returned instead.
+     *
+     * @param in saved data
+     * @param empty an empty index with the current layout parameters
+     * @return the saved index or <code>empty</code>
+     * @throws IOException
+     */
+    public static PaginationIndex read(
+            final DataInputStream in,
+            final PaginationIndex empty) throws IOException {
+
+        if (in.readInt() != MAGIC_NUMBER) {
+            return empty;
+        }
+
+        final PaginationIndex index = new PaginationIndex(
+                in.readUTF(),
+                in.readShort(),
+                in.readShort(),
+                in.readShort(),
+                in.readUTF(),
+                in.readBoolean());
+
+        if (!index.matches(empty)) {
+            return empty;
+        }
+
+        final int chaptersCount = in.readShort();
+
+        for (int i = 0; i < chaptersCount; i++) {
+            final int number = in.readShort();
+            final String encoding = in.readUTF();
+            final int textLength = in.readInt();
+            final PageCheckpoint[] checkpoints =
+                    new PageCheckpoint[in.readInt()];
+
+            for (int k = 0; k < checkpoints.length; k++) {
+                final int pagesCount = in.readShort();
+                checkpoints[k] =
+                        new PageCheckpoint(PageState.read(in), pagesCount);
+            }
+
+            index.chapters.put(new Integer(number),
+                    new ChapterIndex(encoding, textLength, checkpoints));
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,111 @@
+package org.albite.book.view;
+
+import org.albite.albite.AlbiteMIDlet;
+import org.albite.book.model.book.Book;
+import org.albite.book.model.book.Chapter;
+import org.albite.book.model.parser.TextParser;
+import org.albite.font.AlbiteFont;
+//#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
+import org.geometerplus.zlibrary.text.hyphenation.ZLTextTeXHyphenator;
+//#endif
+
+/**
+ * Paginates the chapters of a book that are missing in the index
+ * on a low-priority background thread.
+ *
+ * @author albus
+ */
+public class PaginationIndexer implements Runnable {
+
+    private final Book                  book;
+    private final PaginationIndex       index;
+
+    private final int                   width;
+    private final int                   height;
+    private final AlbiteFont            fontPlain;
+    private final AlbiteFont            fontItalic;
+    private final int                   lineSpacing;
+    private final boolean               renderImages;
+    //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
+    private final ZLTextTeXHyphenator   hyphenator;
+    //#endif
+
+    /*
+     * The book's parser is used by the reader, so a new one is needed
+     */
+    private final TextParser            parser;
+
+    private volatile boolean            cancelled = false;
+
+    public PaginationIndexer(
+            final Book book,
+            final PaginationIndex index,
+            final int width,
+            final int height,
+            final AlbiteFont fontPlain,
+            final AlbiteFont fontItalic,
+            final int lineSpacing,
+            //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
+            final ZLTextTeXHyphenator hyphenator,
+            //#endif
+            final boolean renderImages) {
+
+        this.book = book;
+        this.index = index;
+        this.width = width;
+        this.height = height;
+        this.fontPlain = fontPlain;
+        this.fontItalic = fontItalic;
+        this.lineSpacing = lineSpacing;
+        //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
+        this.hyphenator = hyphenator;
+        //#endif
+        this.renderImages = renderImages;
+        this.parser = book.getParser().newParser();
+    }
+
+    public final void start() {
+        final Thread thread = new Thread(this);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * The indexer stops after the chapter it is currently paginating.
+     */
+    public final void cancel() {
+        cancelled = true;
+    }
+
+    public final void run() {
+        final int chaptersCount = book.getChaptersCount();
+
+        for (int i = 0; i < chaptersCount && !cancelled; i++) {
+            final Chapter chapter = book.getChapter(i);
+
+            if (index.contains(chapter)) {
+                continue;
+            }
+
+            try {
+                new Booklet(width, height, false, chapter,
+                        book.getArchive(), fontPlain, fontItalic,
+                        lineSpacing, renderImages,
+                        //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
+                        hyphenator,
+                        //#endif
+                        parser, index, true);
+            } catch (OutOfMemoryError e) {
+                //#debug
+                AlbiteMIDlet.LOGGER.log(e);
+                cancelled = true;
+            } catch (Exception e) {
+                //#debug
+                AlbiteMIDlet.LOGGER.log(e);
+            }
+        }
+
+        //#debug
+        AlbiteMIDlet.LOGGER.log("pagination indexer done");
+    }
+}
@@ -3,6 +3,7 @@ package org.albite.book.view;
 import javax.microedition.lcdui.Graphics;
 import org.albite.albite.ColorScheme;
 import org.albite.font.AlbiteFont;
+import org.albite.lang.TextBuffer;
 
 public abstract class Region {
     short x;
@@ -58,14 +59,14 @@ public abstract class Region {
             ColorScheme cp,
             AlbiteFont fontPlain,
             AlbiteFont fontItalic,
-            char[] textBuffer);
+            TextBuffer textBuffer);
 
     public void drawSelected(
             Graphics g,
             ColorScheme cp,
             AlbiteFont fontPlain,
             AlbiteFont fontItalic,
-            char[] textBuffer) {
+            TextBuffer textBuffer) {
         draw(g, cp, fontPlain, fontItalic, textBuffer);
     }
 
@@ -73,6 +74,6 @@ public abstract class Region {
         return position;
     }
 
-    public abstract String getText(char[] chapterBuffer);
-    public abstract void addTextChunk(char[] chapterBuffer, StringBuffer buf);
+    public abstract String getText(TextBuffer chapterBuffer);
+    public abstract void addTextChunk(TextBuffer chapterBuffer, StringBuffer buf);
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ import org.albite.albite.AlbiteMIDlet;
 import org.albite.albite.ColorScheme;
 import org.albite.font.AlbiteFont;
 import org.albite.io.RandomReadingFile;
+import org.albite.lang.TextBuffer;
 import org.albite.util.archive.Archive;
 //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
 import org.geometerplus.zlibrary.text.hyphenation.ZLTextHyphenationInfo;
@@ -54,7 +55,7 @@ public class TextPage
 
         // Chapter settings
         final String chapterPath = booklet.getChapter().getPath();
-        final char[] buffer = booklet.getTextBuffer();
+        final TextBuffer buffer = booklet.getTextBuffer();
         final int bufferSize;
         final Archive bookFile = booklet.bookArchive;
         final Vector images = ip.images;
@@ -69,6 +70,7 @@ public class TextPage
         boolean startsNewParagraph;
 
         TextParser parser = ip.parser;
+        parser.setMarkupTokens(booklet.getMarkupTokens(buffer));
         int wordPixelWidth; //word width in pixels
 
         Vector wordsOnThisLine = new Vector(20); //RegionTexts
@@ -87,7 +89,7 @@ public class TextPage
             parser.position = end = start = ip.position;
             parser.length = ip.length;
 
-            bufferSize = buffer.length;
+            bufferSize = buffer.length();
 
             style = ip.style;
             center = ip.center;
@@ -195,8 +197,8 @@ public class TextPage
                         //#ifdef DEBUG_PARSER
 //#                         AlbiteMIDlet.LOGGER.log(
 //#                                 "parser: _"
-//#                                 + new String(
-//#                                 buffer, parser.position, parser.length)
+//#                                 + buffer.getString(
+//#                                 parser.position, parser.length)
 //#                                 + "_, "
 //#                                 + parser.position + " / "
 //#                                 + parser.length
@@ -286,7 +288,7 @@ public class TextPage
                                                     RandomReadingFile
                                                     .relativeToAbsoluteURL(
                                                     chapterPath +
-                                                    new String(buffer,
+                                                    buffer.getString(
                                                         parser.imageURLPosition,
                                                         parser.imageURLLength))
                                                     )),
@@ -380,8 +382,13 @@ public class TextPage
 
                             //#if !(TinyMode || TinyModeExport || LightMode || LightModeExport)
                             if (hyphenator != null) {
+                                final char[] word = new char[parser.length];
+                                buffer.getChars(parser.position,
+                                        parser.position + parser.length,
+                                        word, 0);
+
                                 ZLTextHyphenationInfo info = hyphenator.getInfo(
-                                        buffer, parser.position, parser.length);
+                                        word, 0, parser.length);
 
                                 /*
                                  * try to hyphenate word, so that the largest
@@ -406,7 +413,7 @@ public class TextPage
                                              * If the word chunk already ends with a
                                              * dash, include it.
                                              */
-                                            if (buffer[parser.position + i]
+                                            if (buffer.charAt(parser.position + i)
                                                     == '-') {
                                                 i++;
                                             }
@@ -473,7 +480,7 @@ public class TextPage
                                          * If the word chunk already ends with a
                                          * dash, include it.
                                          */
-                                        if (buffer[parser.position + i]
+                                        if (buffer.charAt(parser.position + i)
                                                 == '-') {
                                             i++;
                                         }
@@ -689,7 +696,7 @@ public class TextPage
             final ColorScheme cp,
             final AlbiteFont fontPlain,
             final AlbiteFont fontItalic,
-            final char[] textBuffer) {
+            final TextBuffer textBuffer) {
 
         final int regionsSize = regions.length;
 
@@ -760,7 +767,7 @@ public class TextPage
 
         final AlbiteFont fontPlain = booklet.fontPlain;
         final AlbiteFont fontItalic = booklet.fontItalic;
-        final char[] textBuffer = booklet.getTextBuffer();
+        final TextBuffer textBuffer = booklet.getTextBuffer();
 
         final int regionsSize = regions.length;
         final int k = Math.min(firstElement, lastElement);
@@ -776,7 +783,7 @@ public class TextPage
         }
     }
 
-    public final String getTextForBookmark(final char[] chapterBuffer) {
+    public final String getTextForBookmark(final TextBuffer chapterBuffer) {
 
         final int size = regions.length;
         StringBuffer buf = new StringBuffer(48);
@@ -793,7 +800,7 @@ public class TextPage
     }
 
     public final String getTextForBookmark(
-            final char[] chapterBuffer,
+            final TextBuffer chapterBuffer,
             final int firstIndex,
             final int lastIndex) {
 
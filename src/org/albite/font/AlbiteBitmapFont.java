@@ -11,6 +11,7 @@ import java.io.InputStream;
 import javax.microedition.lcdui.Graphics;
 import org.albite.image.AlbiteImageException;
 import org.albite.image.AlbiteImageMono;
+import org.albite.lang.TextBuffer;
 
 /**
  *
@@ -174,28 +175,51 @@ public class AlbiteBitmapFont extends AlbiteFont {
                   int x, final int y,
             final int offset,
             final int length) {
-        int end = offset+length;
-        int c;
-        int glyphLen = glyphs.length;
+        final int end = offset + length;
 
-        Glyph glyph;
         for (int i = offset; i < end; i++) {
-            c = buffer[i];
+            x += drawGlyph(g, color, buffer[i], x, y);
+        }
+    }
 
-            if (c < glyphLen) {
-                glyph = glyphs[c];
-            } else {
-                //non-supported chars are replaced by `?`
-                glyph = glyphs['?'];
-            }
+    public final void drawChars(
+            final Graphics g,
+            final int color,
+            final TextBuffer buffer,
+                  int x, final int y,
+            final int offset,
+            final int length) {
+        final int end = offset + length;
 
-            if (glyph == null) {
-                glyph = glyphs['?'];
-            }
+        for (int i = offset; i < end; i++) {
+            x += drawGlyph(g, color, buffer.charAt(i), x, y);
+        }
+    }
+
+    /**
+     * Draws a char of a string of chars.
+     *
+     * @return the advance of its glyph
+     */
+    private int drawGlyph(
+            final Graphics g,
+            final int color,
+            final char c,
+            final int x, final int y) {
 
-            drawCharFromGlyph(g, color, glyph, x, y);
-            x += glyph.xadvance;
+        Glyph glyph = null;
+
+        if (c < glyphs.length) {
+            glyph = glyphs[c];
+        }
+
+        if (glyph == null) {
+            //non-supported chars are replaced by `?`
+            glyph = glyphs['?'];
         }
+
+        drawCharFromGlyph(g, color, glyph, x, y);
+        return glyph.xadvance;
     }
 
     private void drawCharFromGlyph(
@@ -6,6 +6,7 @@
 package org.albite.font;
 
 import javax.microedition.lcdui.Graphics;
+import org.albite.lang.TextBuffer;
 
 /**
  *
@@ -34,6 +35,18 @@ public abstract class AlbiteFont {
         return res;
     }
 
+    public final int charsWidth(
+            final TextBuffer c, final int offset, final int length) {
+
+        int res = 0;
+
+        for (int i = offset; i < offset + length; i++) {
+            res += charWidth(c.charAt(i));
+        }
+
+        return res;
+    }
+
     public abstract int charWidth(char c);
 
     public final int charsWidth(final char[] c) {
@@ -48,6 +61,14 @@ public abstract class AlbiteFont {
             final int offset,
             final int length);
 
+    public abstract void drawChars(
+            final Graphics g,
+            final int color,
+            final TextBuffer buffer,
+                  int x, final int y,
+            final int offset,
+            final int length);
+
     public final void drawChars(
             final Graphics g,
             final int color,
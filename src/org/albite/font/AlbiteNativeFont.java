@@ -8,6 +8,7 @@ package org.albite.font;
 import java.util.Hashtable;
 import javax.microedition.lcdui.Font;
 import javax.microedition.lcdui.Graphics;
+import org.albite.lang.TextBuffer;
 
 /**
  *
@@ -41,17 +42,33 @@ public class AlbiteNativeFont extends AlbiteFont {
         g.setColor(color);
         g.setFont(font);
         final int end = offset + length;
-        char c;
         for (int i = offset; i < end; i++) {
-            c = buffer[i];
-            g.drawChar(c, x, y, Graphics.TOP | Graphics.LEFT);
-            x += charWidth(c);
+            x += drawChar(g, buffer[i], x, y);
         }
     }
 
-    public void drawChar(Graphics g, int color, char c, int x, int y) {
+    public void drawChars(Graphics g, int color, TextBuffer buffer, int x, int y, int offset, int length) {
         g.setColor(color);
         g.setFont(font);
+        final int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            x += drawChar(g, buffer.charAt(i), x, y);
+        }
+    }
+
+    /**
+     * Draws a char with the color and font already set.
+     *
+     * @return its width
+     */
+    private int drawChar(Graphics g, char c, int x, int y) {
         g.drawChar(c, x, y, Graphics.TOP | Graphics.LEFT);
+        return charWidth(c);
+    }
+
+    public void drawChar(Graphics g, int color, char c, int x, int y) {
+        g.setColor(color);
+        g.setFont(font);
+        drawChar(g, c, x, y);
     }
 }
@@ -0,0 +1,203 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.albite.io;
+
+/**
+ * A fixed number of equally sized blocks of a file, evicted least
+ * recently used first. It only keeps the data: the blocks are loaded
+ * by the caller into slots reserved with {@link #reserve(long)}, so that
+ * the lock is not held while reading the file.
+ *
+ * It also decides how many blocks to read ahead: one, unless the
+ * misses are sequential, in which case the number doubles with each
+ * one, up to half of the cache.
+ *
+ * @author albus
+ */
+final class BlockCache {
+    final int                   blockSize;
+
+    private final byte[][]      blocks;
+
+    /*
+     * Number of the block in each slot, or -1 if the slot is empty
+     */
+    private final long[]        numbers;
+    private final int[]         lengths;
+    private final int[]         lastUse;
+    private final boolean[]     loading;
+    private int                 uses = 0;
+
+    private long                lastMiss = -2;
+    private int                 readahead = 1;
+    private final int           maxReadahead;
+
+    private int                 hits = 0;
+    private int                 misses = 0;
+
+    BlockCache(final int blockSize, final int blockCount) {
+        if (blockSize < 1 || blockCount < 1) {
+            throw new IllegalArgumentException();
+        }
+
+        this.blockSize = blockSize;
+        blocks = new byte[blockCount][];
+        numbers = new long[blockCount];
+        lengths = new int[blockCount];
+        lastUse = new int[blockCount];
+        loading = new boolean[blockCount];
+        maxReadahead = Math.max(1, blockCount / 2);
+
+        for (int i = 0; i < blockCount; i++) {
+            numbers[i] = -1;
+        }
+    }
+
+    /**
+     * Copies cached data at the given position, up to the end of its
+     * block.
+     *
+     * @return the number of bytes copied, or -1 if the block is not
+     * cached
+     */
+    synchronized int read(
+            final long position, final byte[] b, final int off, int len) {
+
+        final int read = copy(position, b, off, len);
+
+        if (read < 0) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return read;
+    }
+
+    /**
+     * Same as {@link #read(long, byte[], int, int)}, but for a block that
+     * has just been loaded after a miss, so it is not counted again.
+     */
+    synchronized int readLoaded(
+            final long position, final byte[] b, final int off, int len) {
+
+        return copy(position, b, off, len);
+    }
+
+    private int copy(
+            final long position, final byte[] b, final int off, int len) {
+
+        final int slot = find(position / blockSize);
+
+        if (slot < 0) {
+            return -1;
+        }
+
+        lastUse[slot] = ++uses;
+
+        final int start = (int) (position % blockSize);
+        len = Math.min(len, lengths[slot] - start);
+
+        if (len <= 0) {
+            return 0;
+        }
+
+        System.arraycopy(blocks[slot], start, b, off, len);
+        return len;
+    }
+
+    synchronized boolean contains(final long number) {
+        return find(number) >= 0;
+    }
+
+    private int find(final long number) {
+        for (int i = 0; i < numbers.length; i++) {
+            if (numbers[i] == number && !loading[i]) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns how many blocks to load, starting with the one that has
+     * just been missed.
+     */
+    synchronized int getReadahead(final long number) {
+        if (number == lastMiss + 1) {
+            readahead = Math.min(readahead * 2, maxReadahead);
+        } else if (number != lastMiss) {
+            readahead = 1;
+        }
+
+        lastMiss = number;
+        return readahead;
+    }
+
+    /**
+     * Reserves the least recently used slot, which is not being loaded,
+     * for loading a block into it.
+     *
+     * @return the slot, or -1 if all are being loaded
+     */
+    synchronized int reserve(final long number) {
+        int slot = -1;
+
+        for (int i = 0; i < numbers.length; i++) {
+            if (!loading[i]
+                    && (slot < 0 || numbers[i] == -1
+                        || (numbers[slot] != -1
+                            && lastUse[i] < lastUse[slot]))) {
+                slot = i;
+            }
+        }
+
+        if (slot >= 0) {
+            loading[slot] = true;
+            numbers[slot] = number;
+
+            if (blocks[slot] == null) {
+                blocks[slot] = new byte[blockSize];
+            }
+        }
+
+        return slot;
+    }
+
+    /**
+     * Returns the array of a reserved slot to load the block into.
+     */
+    byte[] getBlock(final int slot) {
+        return blocks[slot];
+    }
+
+    /**
+     * Makes a reserved slot available, once its block has been loaded.
+     *
+     * @param length the number of bytes loaded, which is less than the
+     * block size only for the last block of the file. If it is negative,
+     * loading failed and the slot is emptied.
+     */
+    synchronized void fill(final int slot, final int length) {
+        loading[slot] = false;
+
+        if (length < 0) {
+            numbers[slot] = -1;
+        } else {
+            lengths[slot] = length;
+            lastUse[slot] = ++uses;
+        }
+    }
+
+    synchronized int getHits() {
+        return hits;
+    }
+
+    synchronized int getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.albite.io;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.microedition.io.InputConnection;
+
+/**
+ * Reads several connections one after another, as if they were one.
+ *
+ * @author albus
+ */
+public class CompositeConnection implements InputConnection {
+    final InputConnection[] parts;
+
+    /*
+     * Offset of each part in the composite data
+     */
+    final int[] starts;
+    final int size;
+
+    public CompositeConnection(
+            final InputConnection[] parts,
+            final int[] sizes) {
+
+        if (parts == null || sizes == null
+                || parts.length == 0 || parts.length != sizes.length) {
+            throw new IllegalArgumentException();
+        }
+
+        this.parts = parts;
+        starts = new int[parts.length];
+
+        int start = 0;
+        for (int i = 0; i < parts.length; i++) {
+            starts[i] = start;
+            start += sizes[i];
+        }
+
+        size = start;
+    }
+
+    public final int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the part the data at the given offset comes from.
+     */
+    public final int getPart(final int offset) {
+        int i = parts.length - 1;
+        while (i > 0 && starts[i] > offset) {
+            i--;
+        }
+        return i;
+    }
+
+    public InputStream openInputStream() throws IOException {
+        return new CompositeInputStream(this);
+    }
+
+    public DataInputStream openDataInputStream() throws IOException {
+        return new DataInputStream(openInputStream());
+    }
+
+    public void close() throws IOException {
+        for (int i = 0; i < parts.length; i++) {
+            parts[i].close();
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.albite.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the parts of a {@link CompositeConnection}, opening each one
+ * only when it's reached.
+ *
+ * The parts are usually whole documents, so a byte order mark at the
+ * start of any part but the first one is dropped, as it would otherwise
+ * be read as text. Its bytes still count in the offsets.
+ *
+ * @author albus
+ */
+public class CompositeInputStream extends InputStream {
+    private final CompositeConnection   cc;
+
+    private InputStream                 is;
+    private int                         part = -1;
+
+    /*
+     * Offset in the composite data
+     */
+    private int                         position = 0;
+
+    /*
+     * Bytes read from the start of a part while looking for a byte
+     * order mark, but not returned yet
+     */
+    private final byte[]                head = new byte[3];
+    private int                         headPos = 0;
+    private int                         headEnd = 0;
+
+    protected CompositeInputStream(final CompositeConnection cc) {
+        this.cc = cc;
+    }
+
+    /**
+     * Moves to the part the current position falls into.
+     *
+     * @return false, if the end of the data has been reached
+     */
+    private boolean nextPart() throws IOException {
+        if (is != null) {
+            is.close();
+            is = null;
+        }
+
+        if (position >= cc.size) {
+            return false;
+        }
+
+        part = cc.getPart(position);
+        is = cc.parts[part].openInputStream();
+
+        final long toSkip = position - cc.starts[part];
+
+        headPos = headEnd = 0;
+
+        if (toSkip > 0) {
+            skipFully(is, toSkip);
+        } else if (part > 0) {
+            skipBOM();
+        }
+
+        return true;
+    }
+
+    /**
+     * Skips exactly n bytes. skip() may skip fewer bytes than asked,
+     * e.g. at the end of an inflater's buffer, and reading a byte tells
+     * if that's because the data has ended.
+     */
+    private static void skipFully(final InputStream is, long n)
+            throws IOException {
+
+        while (n > 0) {
+            final long skipped = is.skip(n);
+
+            if (skipped > 0) {
+                n -= skipped;
+            } else if (is.read() >= 0) {
+                n--;
+            } else {
+                throw new EOFException("Couldn't skip");
+            }
+        }
+    }
+
+    private void skipBOM() throws IOException {
+        while (headEnd < head.length) {
+            final int read = is.read(head, headEnd, head.length - headEnd);
+
+            if (read <= 0) {
+                break;
+            }
+
+            headEnd += read;
+        }
+
+        final int b0 = head[0] & 0xFF;
+        final int b1 = head[1] & 0xFF;
+
+        if (headEnd == 3 && b0 == 0xEF && b1 == 0xBB
+                && (head[2] & 0xFF) == 0xBF) {
+            headPos = 3;
+        } else if (headEnd >= 2 && ((b0 == 0xFE && b1 == 0xFF)
+                || (b0 == 0xFF && b1 == 0xFE))) {
+            headPos = 2;
+        }
+
+        position += headPos;
+    }
+
+    public final int read() throws IOException {
+        while (true) {
+            if (is == null && !nextPart()) {
+                return -1;
+            }
+
+            if (headPos < headEnd) {
+                position++;
+                return head[headPos++] & 0xFF;
+            }
+
+            final int b = is.read();
+
+            if (b >= 0) {
+                position++;
+                return b;
+            }
+
+            /*
+             * Go on with the next part, even if this one
+             * turned out to be shorter
+             */
+            position = endOfPart();
+            is.close();
+            is = null;
+        }
+    }
+
+    public final int read(final byte[] b, final int off, final int len)
+            throws IOException {
+
+        if (len == 0) {
+            return 0;
+        }
+
+        while (true) {
+            if (is == null && !nextPart()) {
+                return -1;
+            }
+
+            if (headPos < headEnd) {
+                final int read = Math.min(len, headEnd - headPos);
+                System.arraycopy(head, headPos, b, off, read);
+                headPos += read;
+                position += read;
+                return read;
+            }
+
+            final int read = is.read(b, off, len);
+
+            if (read > 0) {
+                position += read;
+                return read;
+            }
+
+            position = endOfPart();
+            is.close();
+            is = null;
+        }
+    }
+
+    private int endOfPart() {
+        return (part + 1 < cc.starts.length ? cc.starts[part + 1] : cc.size);
+    }
+
+    /**
+     * Skips whole parts without opening them.
+     */
+    public final long skip(final long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+
+        final int target = (int) Math.min(cc.size, position + n);
+        final long skipped = target - position;
+
+        if (is != null && target < endOfPart()) {
+            long done = Math.min(skipped, headEnd - headPos);
+            headPos += (int) done;
+
+            while (done < skipped) {
+                final long s = is.skip(skipped - done);
+
+                if (s > 0) {
+                    done += s;
+                } else if (is.read() >= 0) {
+                    done++;
+                } else {
+                    /*
+                     * The part turned out to be shorter, which
+                     * read() deals with
+                     */
+                    break;
+                }
+            }
+
+            position += (int) done;
+            return done;
+        }
+
+        if (is != null) {
+            is.close();
+            is = null;
+        }
+
+        headPos = headEnd = 0;
+
+        position = target;
+        return skipped;
+    }
+
+    public final int available() throws IOException {
+        return 0;
+    }
+
+    public final void close() throws IOException {
+        if (is != null) {
+            is.close();
+            is = null;
+        }
+    }
+}
@@ -18,8 +18,13 @@ public class PartialInputStream extends InputStream {
 
     protected PartialInputStream(final PartitionedConnection pc)
             throws IOException {
-        is = pc.input.openInputStream();
-        skip(pc.position);
+        if (pc.input instanceof SeekableConnection) {
+            is = ((SeekableConnection) pc.input)
+                    .openInputStream(pc.position);
+        } else {
+            is = pc.input.openInputStream();
+            skip(pc.position);
+        }
         leftToRead = pc.size;
     }
 
@@ -32,6 +37,22 @@ public class PartialInputStream extends InputStream {
         return -1;
     }
 
+    public final int read(final byte[] b, final int off, final int len)
+            throws IOException {
+
+        if (leftToRead <= 0) {
+            return -1;
+        }
+
+        final int read = is.read(b, off, Math.min(len, leftToRead));
+
+        if (read > 0) {
+            leftToRead -= read;
+        }
+
+        return read;
+    }
+
     public final int available() throws IOException {
         return 0;
     }
@@ -0,0 +1,36 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.albite.io;
+
+import java.io.IOException;
+
+/**
+ * A file that can be read at any position, without a shared pointer,
+ * so that several readers may read different parts of it at once.
+ *
+ * @author albus
+ */
+public interface PositionalFile {
+
+    /**
+     * @return the size of the file
+     */
+    long length() throws IOException;
+
+    String getName();
+
+    /**
+     * Reads len bytes starting at the given position, or fewer, if the
+     * end of the file comes first. It may be called from several
+     * threads at once.
+     *
+     * @return the number of bytes read, or -1 if position is at or
+     * after the end of the file
+     */
+    int read(long position, byte[] b, int off, int len) throws IOException;
+
+    void close() throws IOException;
+}
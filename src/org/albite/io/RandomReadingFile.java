@@ -4,6 +4,7 @@ import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.UTFDataFormatException;
 import java.util.Vector;
 import javax.microedition.io.Connection;
@@ -16,8 +17,8 @@ import org.albite.lang.TextTools;
  * Implements random reading from a
  * {@link javax.microedition.io.file.FileConnection FileConnection}
  *
- * The essential methods are {@link RandomReadingFile#seek(int)
- * seek(int position)}
+ * The essential methods are {@link RandomReadingFile#seek(long)
+ * seek(long position)}
  * and {@link RandomReadingFile#getPointer() getPointer()}.
  *
  * This class also re-implements all the methods from
@@ -26,21 +27,52 @@ import org.albite.lang.TextTools;
  * All other methods are only wrappings around
  * the underlying {@link java.io.DataInputStream} or <code>FileConnection</code>
  *
+ * Positional reads through {@link RandomReadingFile#read(long, byte[], int,
+ * int) read(position, b, off, len)} neither use nor move the pointer.
+ * They go through a few connections of their own, each with its own
+ * position, so that readers of different parts of the file do not
+ * have to wait for each other or keep seeking back.
+ *
+ * All reads go through a cache of fixed-size blocks, so seeking back
+ * costs nothing, as long as the data is still cached. Blocks missed in
+ * sequence are read ahead in growing batches. The counters for cache
+ * hits and misses, reopened connections and skipped bytes are there
+ * for tuning the block size and count per device.
+ *
  * @author Svetlin Ankov <galileostudios@gmail.com>
  * @version 1.0.0
  */
 public class RandomReadingFile extends InputStream
-        implements DataInput, Connection {
+        implements DataInput, Connection, PositionalFile {
+
+    public static final int     DEFAULT_BLOCK_SIZE = 4096;
+    public static final int     DEFAULT_BLOCK_COUNT = 8;
 
     private FileConnection      file;
+    private long                length;
+
+    /*
+     * Reads at the pointer through the cache
+     */
     private DataInputStream     in;
+    private PointerStream       stream;
 
-    /**
-     * The pointer is set to {@link java.lang.Integer#MAX_VALUE} in order to
-     * be able to initialize the {@link java.io.DataInputStream} simply by
-     * using {@link RandomReadingFile#seek(int) seek(0)}
+    private long                pointer = 0;
+
+    /*
+     * null if there is no cache
      */
-    private int                 pointer = Integer.MAX_VALUE;
+    private BlockCache          cache;
+
+    /*
+     * The connections used for positional reads, opened when first
+     * needed
+     */
+    private static final int    CURSORS = 3;
+    private final Cursor[]      cursors = new Cursor[CURSORS];
+    private int                 cursorCount = 0;
+    private int                 cursorUses = 0;
+    private boolean             closed = false;
 
     private RandomReadingFile() {}
 
@@ -51,6 +83,20 @@ public class RandomReadingFile extends InputStream
      * @throws IOException
      */
     public RandomReadingFile(String url) throws IOException {
+        this(url, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_COUNT);
+    }
+
+    /**
+     * Creates a new RandomReadingFile from a valid file URL.
+     *
+     * @param url The URL of the file that is being opened.
+     * @param blockSize The size of the blocks in the cache
+     * @param blockCount The number of blocks in the cache, 0 for no cache
+     * @throws IOException
+     */
+    public RandomReadingFile(String url, int blockSize, int blockCount)
+            throws IOException {
+
         //#debug
         AlbiteMIDlet.LOGGER.log("Opening RRF: [" + url + "]");
 
@@ -67,7 +113,14 @@ public class RandomReadingFile extends InputStream
             throw new IOException("File not found by RRF");
         }
 
-        seek(0);
+        length = file.fileSize();
+
+        if (blockCount > 0) {
+            cache = new BlockCache(blockSize, blockCount);
+        }
+
+        stream = new PointerStream();
+        in = new DataInputStream(stream);
     }
 
     /**
@@ -77,8 +130,8 @@ public class RandomReadingFile extends InputStream
      *                                      application does not have read
      *                                      access for the file
      */
-    public final int length() throws IOException {
-        return (int) file.fileSize();
+    public final long length() throws IOException {
+        return length;
     }
 
     public final String getName() {
@@ -104,44 +157,39 @@ public class RandomReadingFile extends InputStream
      * {@link RandomReadingFile#length()} &lt;= position</code>
      * @throws IOException if an IOException occurred
      */
-    public final void seek(final int position) throws IOException {
+    public final void seek(final long position) throws IOException {
 
         if (position == pointer) {
             return;
         }
 
-        if (position < 0 || position >= length()) {
+        if (position < 0 || position >= length) {
             throw new IllegalArgumentException(
                     "Trying to seek outside file's contents");
         }
 
-        final int pos;
+        /*
+         * Reads go through the cache, so nothing has to be reopened
+         */
+        stream.position = position;
+        pointer = position;
+    }
 
-        if (position < pointer) {
-            /*
-             * Must go back, i.e. it's necessary to reopen the input stream
-             */
+    public final long skip(final long n) throws IOException {
+        long skipped = 0;
 
-            /*
-             * Close input before reopening it
-             */
-            if (in != null) {
-                in.close();
+        while (skipped < n) {
+            final long count = in.skip(n - skipped);
+
+            if (count <= 0) {
+                break;
             }
 
-            in = file.openDataInputStream();
-            pos = position;
-        } else {
-            pos = position - pointer;
+            skipped += count;
         }
 
-        skipBytes(pos);
-
-        pointer = position;
-    }
-
-    public final long skip(long n) throws IOException {
-        return skipBytes((int) n);
+        pointer += skipped;
+        return skipped;
     }
 
     public final int skipBytes(final int n) throws IOException {
@@ -291,6 +339,255 @@ public class RandomReadingFile extends InputStream
         return count;
     }
 
+    /**
+     * Reads len bytes starting at the given position, or fewer, if the
+     * end of the file comes first. The pointer is not moved.
+     *
+     * @return the number of bytes read, or -1 if position is at or
+     * after the end of the file
+     */
+    public final int read(
+            final long position, final byte[] b, final int off, int len)
+            throws IOException {
+
+        if (position < 0) {
+            throw new IllegalArgumentException(
+                    "Trying to read outside file's contents");
+        }
+
+        if (position >= length) {
+            return len == 0 ? 0 : -1;
+        }
+
+        len = (int) Math.min(len, length - position);
+
+        /*
+         * Large reads would only push everything else out of the cache
+         */
+        if (cache == null || len >= 2 * cache.blockSize) {
+            return readThrough(position, b, off, len);
+        }
+
+        int count = 0;
+
+        while (count < len) {
+            final int read = readCached(
+                    position + count, b, off + count, len - count);
+
+            if (read <= 0) {
+                break;
+            }
+
+            count += read;
+        }
+
+        return count == 0 ? -1 : count;
+    }
+
+    /**
+     * Reads from the block at position, loading it and maybe the ones
+     * after it, if it is not cached.
+     */
+    private int readCached(
+            final long position, final byte[] b, final int off, final int len)
+            throws IOException {
+
+        int read = cache.read(position, b, off, len);
+
+        if (read >= 0) {
+            return read;
+        }
+
+        final long number = position / cache.blockSize;
+        loadBlocks(number, cache.getReadahead(number));
+
+        read = cache.readLoaded(position, b, off, len);
+
+        if (read >= 0) {
+            return read;
+        }
+
+        /*
+         * All slots are being loaded by other threads
+         */
+        return readThrough(position, b, off, (int) Math.min(
+                len, (number + 1) * cache.blockSize - position));
+    }
+
+    /**
+     * Loads up to count blocks, starting with the given one, with one
+     * cursor, stopping at the first one that is already cached.
+     */
+    private void loadBlocks(long number, final int count)
+            throws IOException {
+
+        final int blockSize = cache.blockSize;
+        final Cursor cursor = takeCursor(number * blockSize);
+
+        try {
+            for (int i = 0; i < count && number * blockSize < length;
+                    i++, number++) {
+
+                if (i > 0 && cache.contains(number)) {
+                    break;
+                }
+
+                final int slot = cache.reserve(number);
+
+                if (slot < 0) {
+                    break;
+                }
+
+                int read = -1;
+
+                try {
+                    read = cursor.read(
+                            number * blockSize, cache.getBlock(slot),
+                            0, blockSize);
+                } finally {
+                    cache.fill(slot, read);
+                }
+
+                if (read < blockSize) {
+                    break;
+                }
+            }
+        } finally {
+            giveBackCursor(cursor);
+        }
+    }
+
+    /**
+     * Reads straight from the file with a cursor.
+     */
+    private int readThrough(
+            final long position, final byte[] b, final int off, final int len)
+            throws IOException {
+
+        final Cursor cursor = takeCursor(position);
+
+        try {
+            return cursor.read(position, b, off, len);
+        } finally {
+            giveBackCursor(cursor);
+        }
+    }
+
+    /**
+     * @return how many reads the cache could serve
+     */
+    public final int getCacheHits() {
+        return cache == null ? 0 : cache.getHits();
+    }
+
+    /**
+     * @return how many reads had to load a block first
+     */
+    public final int getCacheMisses() {
+        return cache == null ? 0 : cache.getMisses();
+    }
+
+    /**
+     * @return how many times a cursor had to reopen the file, to read
+     * before its position
+     */
+    public final int getReopenCount() {
+        synchronized (cursors) {
+            int count = 0;
+
+            for (int i = 0; i < cursorCount; i++) {
+                count += cursors[i].reopens;
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * @return how many bytes the cursors have skipped to get to the
+     * positions read
+     */
+    public final long getSkippedBytes() {
+        synchronized (cursors) {
+            long count = 0;
+
+            for (int i = 0; i < cursorCount; i++) {
+                count += cursors[i].skipped;
+            }
+
+            return count;
+        }
+    }
+
+    /**
+     * Takes the free cursor that needs to skip the least to get to
+     * position, or, if none of them is before it, a new one or the one
+     * used the longest time ago. Waits if all cursors are busy.
+     */
+    private Cursor takeCursor(final long position) throws IOException {
+        synchronized (cursors) {
+            for (;;) {
+                if (closed) {
+                    throw new IOException("RRF is closed");
+                }
+
+                Cursor ahead = null;
+                Cursor oldest = null;
+
+                for (int i = 0; i < cursorCount; i++) {
+                    final Cursor c = cursors[i];
+
+                    if (c.busy) {
+                        continue;
+                    }
+
+                    if (c.pointer <= position
+                            && (ahead == null || c.pointer > ahead.pointer)) {
+                        ahead = c;
+                    }
+
+                    if (oldest == null || c.lastUse < oldest.lastUse) {
+                        oldest = c;
+                    }
+                }
+
+                Cursor cursor = ahead;
+
+                if (cursor == null && cursorCount < CURSORS) {
+                    cursor = new Cursor(file.getURL());
+                    cursors[cursorCount++] = cursor;
+                }
+
+                if (cursor == null) {
+                    cursor = oldest;
+                }
+
+                if (cursor != null) {
+                    cursor.busy = true;
+                    cursor.lastUse = ++cursorUses;
+                    return cursor;
+                }
+
+                try {
+                    cursors.wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    private void giveBackCursor(final Cursor cursor) throws IOException {
+        synchronized (cursors) {
+            cursor.busy = false;
+            cursors.notify();
+
+            if (closed) {
+                cursor.close();
+            }
+        }
+    }
+
     public final int read() throws IOException {
         int read = in.read();
 
@@ -318,7 +615,21 @@ public class RandomReadingFile extends InputStream
      * @throws IOException
      */
     public final void close() throws IOException {
-        in.close();
+        synchronized (cursors) {
+            closed = true;
+
+            /*
+             * Busy cursors are closed when given back
+             */
+            for (int i = 0; i < cursorCount; i++) {
+                if (!cursors[i].busy) {
+                    cursors[i].close();
+                }
+            }
+
+            cursors.notifyAll();
+        }
+
         file.close();
     }
 
@@ -326,7 +637,7 @@ public class RandomReadingFile extends InputStream
      * Returns the current position of the reading pointer in the file
      * @return the current position of the reading pointer in the file
      */
-    public final int getPointer() {
+    public final long getPointer() {
         return pointer;
     }
 
@@ -410,4 +721,126 @@ public class RandomReadingFile extends InputStream
             return url.substring(0, dotpos) + newExtension;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads at its position through the cache. The pointer API reads
+     * through it, so that seeking only sets the position.
+     */
+    private final class PointerStream extends InputStream {
+        long                        position = 0;
+        private final byte[]        one = new byte[1];
+
+        public int read() throws IOException {
+            return read(one, 0, 1) > 0 ? one[0] & 0xff : -1;
+        }
+
+        public int read(final byte[] b, final int off, final int len)
+                throws IOException {
+
+            final int count = RandomReadingFile.this.read(
+                    position, b, off, len);
+
+            if (count > 0) {
+                position += count;
+            }
+
+            return count;
+        }
+
+        public long skip(long n) {
+            n = Math.max(0, Math.min(n, length - position));
+            position += n;
+            return n;
+        }
+
+        public int available() {
+            return (int) Math.min(length - position, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * A connection of its own to the file, reading forward from
+     * pointer.
+     */
+    private static final class Cursor {
+        private final String        url;
+        private FileConnection      file;
+        private InputStream         in;
+
+        long                        pointer = 0;
+        int                         lastUse;
+        boolean                     busy;
+
+        int                         reopens = 0;
+        long                        skipped = 0;
+
+        Cursor(final String url) {
+            this.url = url;
+        }
+
+        int read(
+                final long position, final byte[] b, int off, int len)
+                throws IOException {
+
+            if (in == null || position < pointer) {
+                if (in != null) {
+                    in.close();
+                    in = null;
+                    reopens++;
+                }
+
+                if (file == null) {
+                    file = (FileConnection) Connector.open(
+                            url, Connector.READ);
+                }
+
+                in = file.openInputStream();
+                pointer = 0;
+            }
+
+            while (pointer < position) {
+                long count = in.skip(position - pointer);
+
+                if (count <= 0) {
+                    if (in.read() < 0) {
+                        return -1;
+                    }
+
+                    count = 1;
+                }
+
+                pointer += count;
+                skipped += count;
+            }
+
+            int count = 0;
+
+            while (len > 0) {
+                final int read = in.read(b, off, len);
+
+                if (read < 0) {
+                    break;
+                }
+
+                off += read;
+                len -= read;
+                count += read;
+                pointer += read;
+            }
+
+            return count == 0 && len > 0 ? -1 : count;
+        }
+
+        void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+        }
+    }
+}
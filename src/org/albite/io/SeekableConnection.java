@@ -0,0 +1,24 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.albite.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import javax.microedition.io.InputConnection;
+
+/**
+ * A connection whose data can be read starting at any position,
+ * without reading all that comes before it.
+ *
+ * @author albus
+ */
+public interface SeekableConnection extends InputConnection {
+
+    /**
+     * Opens a stream that starts at the given position in the data.
+     */
+    InputStream openInputStream(int position) throws IOException;
+}
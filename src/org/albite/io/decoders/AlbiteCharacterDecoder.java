@@ -8,6 +8,7 @@ package org.albite.io.decoders;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.Hashtable;
 
 /**
  *
@@ -25,143 +26,99 @@ abstract class AlbiteCharacterDecoder {
 
     public abstract int decode(InputStream in) throws IOException;
 
-    public static AlbiteCharacterDecoder getDecoder(final String encoding)
-            throws UnsupportedEncodingException {
-
-        //#if !(TinyMode || TinyModeExport)
-        /*
-         * ASCII
-         */
-        if (match(encoding, Encodings.ASCII_ALIASES)) {
-            return DecoderASCII.getInstance();
-        }
-        //#endif
-
-        /*
-         * UTF-8
-         */
-        if (match(encoding, Encodings.UTF_8_ALIASES)) {
-            return DecoderUTF_8.getInstance();
-        }
-
-        /*
-         * ISO-8859-X
-         */
-        if (match(encoding, Encodings.ISO_8859_1_ALIASES)) {
-            return DecoderISO_8859_1.getInstance();
-        }
-
-        //#if !(TinyMode || TinyModeExport)
-        if (match(encoding, Encodings.ISO_8859_2_ALIASES)) {
-            return DecoderISO_8859_2.getInstance();
-        }
-
-        if (match(encoding, Encodings.ISO_8859_3_ALIASES)) {
-            return DecoderISO_8859_3.getInstance();
-        }
-
-        if (match(encoding, Encodings.ISO_8859_4_ALIASES)) {
-            return DecoderISO_8859_4.getInstance();
-        }
-
-        if (match(encoding, Encodings.ISO_8859_5_ALIASES)) {
-            return DecoderISO_8859_5.getInstance();
-        }
-
-        if (match(encoding, Encodings.ISO_8859_7_ALIASES)) {
-            return DecoderISO_8859_7.getInstance();
-        }
-
-        if (match(encoding, Encodings.ISO_8859_9_ALIASES)) {
-            return DecoderISO_8859_9.getInstance();
-        }
-
-        if (match(encoding, Encodings.ISO_8859_10_ALIASES)) {
-            return DecoderISO_8859_10.getInstance();
-        }
+    /**
+     * Decodes len bytes from src into dst. No byte produces more than one
+     * char, so dst must have room for len chars.
+     *
+     * A multibyte sequence cut at the end of src is kept by the decoder
+     * and completed with the bytes of the next call, so decoders that
+     * do that are not shared between streams.
+     *
+     * @return the number of chars written
+     */
+    public abstract int decode(
+            byte[] src, int off, int len, char[] dst, int dstOff);
 
-        if (match(encoding, Encodings.ISO_8859_13_ALIASES)) {
-            return DecoderISO_8859_13.getInstance();
-        }
+    /**
+     * Called at the end of the data, in case a multibyte sequence was
+     * left incomplete. Its substitute is written to dst, which must have
+     * room for one char.
+     *
+     * @return the number of chars written
+     */
+    public int finish(final char[] dst, final int dstOff) {
+        return 0;
+    }
 
-        if (match(encoding, Encodings.ISO_8859_14_ALIASES)) {
-            return DecoderISO_8859_14.getInstance();
-        }
+    /*
+     * Canonical name for each alias, in lower case
+     */
+    private static Hashtable    aliases;
 
-        if (match(encoding, Encodings.ISO_8859_15_ALIASES)) {
-            return DecoderISO_8859_15.getInstance();
-        }
+    /*
+     * The single-byte decoders have no state, so they are shared
+     */
+    private static final Hashtable decoders = new Hashtable();
 
-        if (match(encoding, Encodings.ISO_8859_16_ALIASES)) {
-            return DecoderISO_8859_16.getInstance();
-        }
-        //#endif
+    public static AlbiteCharacterDecoder getDecoder(final String encoding)
+            throws UnsupportedEncodingException {
 
-        /*
-         * Windows
-         */
-        if (match(encoding, Encodings.WINDOWS_1250_ALIASES)) {
-            return DecoderWindows_1250.getInstance();
-        }
+        final String name = getCanonicalName(encoding);
 
-        //#if !(TinyMode || TinyModeExport)
-        if (match(encoding, Encodings.WINDOWS_1251_ALIASES)) {
-            return DecoderWindows_1251.getInstance();
+        if (name == null) {
+            throw new UnsupportedEncodingException();
         }
 
-        if (match(encoding, Encodings.WINDOWS_1252_ALIASES)) {
-            return DecoderWindows_1252.getInstance();
+        if (Encodings.UTF_8.equals(name)) {
+            return DecoderUTF_8.getInstance();
         }
 
-        if (match(encoding, Encodings.WINDOWS_1253_ALIASES)) {
-            return DecoderWindows_1253.getInstance();
-        }
+        synchronized (decoders) {
+            AlbiteCharacterDecoder decoder =
+                    (AlbiteCharacterDecoder) decoders.get(name);
 
-        if (match(encoding, Encodings.WINDOWS_1254_ALIASES)) {
-            return DecoderWindows_1254.getInstance();
-        }
+            if (decoder == null) {
+                decoder = SingleByteDecoder.load(name);
+                decoders.put(name, decoder);
+            }
 
-        if (match(encoding, Encodings.WINDOWS_1257_ALIASES)) {
-            return DecoderWindows_1257.getInstance();
+            return decoder;
         }
+    }
 
-        /*
-         * KOI8
-         */
-        if (match(encoding, Encodings.KOI8_R_ALIASES)) {
-            return DecoderKOI8_R.getInstance();
-        }
+    /**
+     * @return the canonical name of a supported encoding, or null
+     */
+    private static synchronized String getCanonicalName(
+            final String encoding) {
 
-        if (match(encoding, Encodings.KOI8_RU_ALIASES)) {
-            return DecoderKOI8_RU.getInstance();
+        if (encoding == null) {
+            return null;
         }
 
-        if (match(encoding, Encodings.KOI8_U_ALIASES)) {
-            return DecoderKOI8_U.getInstance();
-        }
-        //#endif
+        if (aliases == null) {
+            aliases = new Hashtable(256);
 
-        throw new UnsupportedEncodingException();
-    }
+            for (int i = 0; i < Encodings.ALIASES.length; i++) {
+                final String[] names = Encodings.ALIASES[i];
 
-    private static boolean match(final String name, final String[] aliases) {
-        for (int i = 0; i < aliases.length; i++) {
-            if (aliases[i].equalsIgnoreCase(name)) {
-                return true;
+                for (int j = 0; j < names.length; j++) {
+                    /*
+                     * Some aliases are ambiguous, and the first
+                     * charset that has them wins
+                     */
+                    if (!aliases.containsKey(names[j])) {
+                        aliases.put(names[j], names[0]);
+                    }
+                }
             }
         }
 
-        return false;
+        return (String) aliases.get(encoding.toLowerCase());
     }
 
     public static boolean decoderAvailable(final String encoding) {
-        for (int i = 0; i < Encodings.ALIASES.length; i++) {
-            if (match(encoding, Encodings.ALIASES[i])) {
-                return true;
-            }
-        }
-
-        return false;
+        return getCanonicalName(encoding) != null;
     }
 
     public abstract String getEncoding();
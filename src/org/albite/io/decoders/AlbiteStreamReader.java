@@ -9,7 +9,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
-import java13.io.BufferedInputStream;
 
 /**
  *
@@ -17,7 +16,21 @@ import java13.io.BufferedInputStream;
  */
 public class AlbiteStreamReader extends Reader {
 
-    private final   InputStream             in;
+    private static final int    DEFAULT_BUFFER_SIZE     = 2048;
+
+    /*
+     * Reading at least 32K at a time lets the inflater decompress
+     * straight into the buffer
+     */
+    //#if (TinyMode || TinyModeExport)
+//#     private static final int    MAX_BUFFER_SIZE         = 4096;
+    //#elif (LightMode || LightModeExport)
+//#     private static final int    MAX_BUFFER_SIZE         = 16384;
+    //#else
+    private static final int    MAX_BUFFER_SIZE         = 65536;
+    //#endif
+
+    private final   DecoderInputStream      in;
     private         AlbiteCharacterDecoder  decoder;
 
     public AlbiteStreamReader(
@@ -25,17 +38,29 @@ public class AlbiteStreamReader extends Reader {
             final String encoding)
             throws IOException {
 
+        this(in, encoding, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param in the input stream
+     * @param encoding the encoding of the data
+     * @param size the size of the data, if known. The bytes are read in
+     * chunks of that size, up to a maximum for the current platform.
+     * @throws IOException
+     */
+    public AlbiteStreamReader(
+            final InputStream in,
+            final String encoding,
+            final int size)
+            throws IOException {
+
         setEncoding(encoding);
-        
+
+        this.in = new DecoderInputStream(in,
+                Math.max(DEFAULT_BUFFER_SIZE, Math.min(size, MAX_BUFFER_SIZE)));
+
         if (decoder instanceof DecoderUTF_8) {
-            if (!in.markSupported()) {
-                this.in = new BufferedInputStream(in);
-            } else {
-                this.in = in;
-            }
             skipBOM();
-        } else {
-            this.in = in;
         }
     }
 
@@ -55,6 +80,35 @@ public class AlbiteStreamReader extends Reader {
         }
     }
 
+    /**
+     * Guesses the encoding from the bytes at the start of the data and
+     * switches to it. It must be called before reading anything.
+     *
+     * @see EncodingDetector
+     */
+    public final void detectEncoding() throws IOException {
+        final byte[] sample = new byte[EncodingDetector.SAMPLE_SIZE];
+        int read = 0;
+
+        in.mark(sample.length);
+
+        try {
+            while (read < sample.length) {
+                final int n = in.read(sample, read, sample.length - read);
+
+                if (n <= 0) {
+                    break;
+                }
+
+                read += n;
+            }
+        } finally {
+            in.reset();
+        }
+
+        setEncoding(EncodingDetector.detect(sample, 0, read));
+    }
+
     public final void setEncoding(final String encoding)
             throws UnsupportedEncodingException {
 
@@ -65,24 +119,33 @@ public class AlbiteStreamReader extends Reader {
         return decoder.decode(in);
     }
 
+    /**
+     * Decodes the buffered bytes in bulk, until len chars are read or
+     * the data ends.
+     */
     public int read(char[] cbuf, int off, int len) throws IOException {
 
-        int read = 0;
+        if (len == 0) {
+            return 0;
+        }
+
+        int count = 0;
 
-        for (int i = 0; i < len; i++) {
-            read = decoder.decode(in);
+        while (count < len) {
+            final int read = in.decode(decoder, cbuf, off + count, len - count);
 
             if (read == -1) {
                 /*
                  * EOF
                  */
-                return i;
+                count += decoder.finish(cbuf, off + count);
+                break;
             }
 
-            cbuf[i + off] = (char) read;
+            count += read;
         }
 
-        return len;
+        return count == 0 ? -1 : count;
     }
 
     /**
@@ -0,0 +1,174 @@
+package org.albite.io.decoders;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buffers the bytes for the decoders, which either read them one at a
+ * time or decode them in bulk straight from the buffer. Unlike
+ * {@link java13.io.BufferedInputStream} it is not synchronized and it
+ * always fills its buffer with a single bulk read from the underlying
+ * stream, so that the latter, e.g. an inflating one, could work in
+ * large chunks, too.
+ *
+ * The buffer grows if a mark needs it.
+ *
+ * @author albus
+ */
+final class DecoderInputStream extends InputStream {
+
+    private final InputStream   in;
+
+    private byte[]              buffer;
+    private int                 position            = 0;
+    private int                 count               = 0;
+
+    private int                 markPosition        = -1;
+    private int                 markLimit           = 0;
+
+    DecoderInputStream(final InputStream in, final int size) {
+        this.in = in;
+        buffer = new byte[size];
+    }
+
+    public final int read() throws IOException {
+        if (position == count && !fill()) {
+            return -1;
+        }
+
+        return buffer[position++] & 0xFF;
+    }
+
+    public final int read(final byte[] b, final int off, final int len)
+            throws IOException {
+
+        if (len == 0) {
+            return 0;
+        }
+
+        if (position == count) {
+            if (len >= buffer.length && markPosition < 0) {
+                /*
+                 * No need to go through the buffer
+                 */
+                return in.read(b, off, len);
+            }
+
+            if (!fill()) {
+                return -1;
+            }
+        }
+
+        final int read = Math.min(count - position, len);
+        System.arraycopy(buffer, position, b, off, read);
+        position += read;
+        return read;
+    }
+
+    /**
+     * Decodes up to len of the buffered bytes straight from the buffer,
+     * filling it first, if it is empty.
+     *
+     * @return the number of chars written, or -1 if there is no more data
+     */
+    final int decode(
+            final AlbiteCharacterDecoder decoder,
+            final char[] dst, final int off, final int len)
+            throws IOException {
+
+        if (position == count && !fill()) {
+            return -1;
+        }
+
+        final int bytes = Math.min(count - position, len);
+        final int read = decoder.decode(buffer, position, bytes, dst, off);
+        position += bytes;
+        return read;
+    }
+
+    public final long skip(final long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+
+        final int available = count - position;
+
+        if (available > 0) {
+            final int skipped = (int) Math.min(available, n);
+            position += skipped;
+            return skipped;
+        }
+
+        if (markPosition >= 0) {
+            return (read() < 0 ? 0 : 1);
+        }
+
+        return in.skip(n);
+    }
+
+    /**
+     * Reads more data after the buffered one.
+     *
+     * @return false if there is no more data
+     */
+    private boolean fill() throws IOException {
+        if (markPosition < 0) {
+            position = count = 0;
+        } else if (count == buffer.length) {
+            if (markPosition > 0) {
+                /*
+                 * Keep only what is after the mark
+                 */
+                count -= markPosition;
+                position -= markPosition;
+                System.arraycopy(buffer, markPosition, buffer, 0, count);
+                markPosition = 0;
+            } else if (buffer.length < markLimit) {
+                final byte[] b =
+                        new byte[Math.min(buffer.length * 2, markLimit)];
+                System.arraycopy(buffer, 0, b, 0, count);
+                buffer = b;
+            } else {
+                /*
+                 * Read too far after the mark
+                 */
+                markPosition = -1;
+                position = count = 0;
+            }
+        }
+
+        final int read = in.read(buffer, count, buffer.length - count);
+
+        if (read <= 0) {
+            return false;
+        }
+
+        count += read;
+        return true;
+    }
+
+    public final int available() throws IOException {
+        return count - position + in.available();
+    }
+
+    public final boolean markSupported() {
+        return true;
+    }
+
+    public final void mark(final int readlimit) {
+        markPosition = position;
+        markLimit = readlimit;
+    }
+
+    public final void reset() throws IOException {
+        if (markPosition < 0) {
+            throw new IOException("Mark invalidated");
+        }
+
+        position = markPosition;
+    }
+
+    public final void close() throws IOException {
+        in.close();
+    }
+}
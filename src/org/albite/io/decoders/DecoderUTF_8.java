@@ -14,15 +14,23 @@ import java.io.InputStream;
  */
 class DecoderUTF_8 extends AlbiteCharacterDecoder {
 
-    private static DecoderUTF_8 instance;
+    /*
+     * The sequence cut at the end of the last bulk decode: the bits read
+     * so far, how many continuation bytes are still needed and whether
+     * any of those read were wrong.
+     */
+    private int                 pending             = 0;
+    private int                 needed              = 0;
+    private boolean             bad                 = false;
 
     private DecoderUTF_8() {}
 
+    /**
+     * Unlike the single-byte decoders, it keeps state between bulk
+     * decodes, so every stream gets an instance of its own.
+     */
     public static AlbiteCharacterDecoder getInstance() {
-        if (instance == null) {
-            instance = new DecoderUTF_8();
-        }
-        return instance;
+        return new DecoderUTF_8();
     }
 
     public final int decode(final InputStream in) throws IOException {
@@ -80,6 +88,88 @@ class DecoderUTF_8 extends AlbiteCharacterDecoder {
         }
     }
 
+    public final int decode(
+            final byte[] src, final int off, final int len,
+            final char[] dst, final int dstOff) {
+
+        int pending = this.pending;
+        int needed = this.needed;
+        boolean bad = this.bad;
+
+        final int end = off + len;
+        int i = off;
+        int d = dstOff;
+
+        while (i < end) {
+            int c = src[i++];
+
+            if (needed > 0) {
+                /* 10xx xxxx */
+                if ((c & 0xC0) != 0x80) {
+                    bad = true;
+                }
+
+                pending = (pending << 6) | (c & 0x3F);
+
+                if (--needed == 0) {
+                    dst[d++] = bad ? SUBSTITUTE_CHAR : (char) pending;
+                }
+
+                continue;
+            }
+
+            if (c >= 0) {
+                /*
+                 * A run of 0xxxxxxx
+                 */
+                dst[d++] = (char) c;
+
+                while (i < end && (c = src[i]) >= 0) {
+                    dst[d++] = (char) c;
+                    i++;
+                }
+
+                continue;
+            }
+
+            switch ((c >> 4) & 0x0F) {
+                case 12: case 13:
+                    /* 110x xxxx   10xx xxxx*/
+                    pending = c & 0x1F;
+                    needed = 1;
+                    bad = false;
+                    break;
+
+                case 14:
+                    /* 1110 xxxx  10xx xxxx  10xx xxxx */
+                    pending = c & 0x0F;
+                    needed = 2;
+                    bad = false;
+                    break;
+
+                default:
+                    /* 10xx xxxx,  1111 xxxx */
+                    dst[d++] = SUBSTITUTE_CHAR;
+            }
+        }
+
+        this.pending = pending;
+        this.needed = needed;
+        this.bad = bad;
+
+        return d - dstOff;
+    }
+
+    public final int finish(final char[] dst, final int dstOff) {
+        if (needed == 0) {
+            return 0;
+        }
+
+        needed = 0;
+        dst[dstOff] = SUBSTITUTE_CHAR;
+        return 1;
+    }
+
     public final String getEncoding() {
         return Encodings.UTF_8;
     }
@@ -0,0 +1,373 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.albite.io.decoders;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Guesses the encoding of text from a sample of its first bytes, so that
+ * it could be decoded once with the right one.
+ *
+ * Text with a BOM or valid UTF-8 sequences is UTF-8, as is pure ASCII.
+ * Otherwise every supported single-byte charset decodes the upper half
+ * bytes of the sample and is scored by what it gets: lower case letters
+ * of the one language that fits best score most, other letters and
+ * text punctuation a little, while controls, unmapped bytes, box
+ * drawing and the like count against it. Counting only lower case
+ * letters fully is what tells KOI8 from Windows-1251 and ISO-8859-5,
+ * as they all map the upper half to Cyrillic letters, but with the
+ * cases in different places.
+ *
+ * @author albus
+ */
+public final class EncodingDetector {
+
+    /**
+     * How much of the text is enough for a guess
+     */
+    public static final int     SAMPLE_SIZE         = 4096;
+
+    /*
+     * The lower case non-ASCII letters of the languages the single-byte
+     * charsets are used for
+     */
+    private static final String[] LANGUAGES = {
+        /* Russian, Bulgarian */
+        "абвгдеёжзийклмнопрстуфхцчшщъыьэюя",
+        /* Ukrainian */
+        "абвгґдеєжзиіїйклмнопрстуфхцчшщьюя",
+        /* Belarusian */
+        "абвгдеёжзійклмнопрстуўфхцчшыьэюя",
+        /* Serbian, Macedonian */
+        "абвгдђѓежзѕијклљмнњопрстћќуфхцчџш",
+        /* Greek */
+        "αάβγδεέζηήθιίϊΐκλμνξοόπρσςτυύϋΰφχψωώ",
+        /* French */
+        "àâæçéèêëîïôœùûüÿ",
+        /* German */
+        "äöüß",
+        /* Spanish */
+        "áéíñóúü",
+        /* Portuguese */
+        "áâãàçéêíóôõú",
+        /* Italian */
+        "àèéìíîòóùú",
+        /* Nordic */
+        "åäöæøéðþáíóúý",
+        /* Czech */
+        "áčďéěíňóřšťúůýž",
+        /* Slovak */
+        "áäčďéíĺľňóôŕšťúýž",
+        /* Polish */
+        "ąćęłńóśźż",
+        /* Hungarian */
+        "áéíóöőúüű",
+        /* Romanian */
+        "ăâîșțşţ",
+        /* Croatian, Slovene */
+        "čćđšž",
+        /* Albanian */
+        "çë",
+        /* Turkish */
+        "çğıöşü",
+        /* Lithuanian */
+        "ąčęėįšųūž",
+        /* Latvian */
+        "āčēģīķļņšūž",
+        /* Estonian */
+        "äöõüšž",
+        /* Celtic */
+        "áéíóúàèìòùŵŷẁẃẅỳḃċḋḟġṁṗṡṫ"
+    };
+
+    /*
+     * Lower case letters of the language that fits best
+     */
+    private static final int    SCORE_LANGUAGE      = 4;
+
+    /*
+     * Other letters
+     */
+    private static final int    SCORE_LETTER        = 1;
+
+    private static final int    SCORE_PUNCTUATION   = 1;
+    private static final int    SCORE_SYMBOL        = -4;
+    private static final int    SCORE_CONTROL       = -30;
+    private static final int    SCORE_UNMAPPED      = -60;
+
+    /*
+     * A Cyrillic or Greek letter next to a Latin one
+     */
+    private static final int    SCORE_SCRIPT_BREAK  = -3;
+
+    private static final int    OTHER               = 0;
+    private static final int    LOWER               = 1;
+    private static final int    UPPER               = 2;
+
+    private EncodingDetector() {}
+
+    /**
+     * @return the canonical name of the most likely encoding
+     */
+    public static String detect(final byte[] b, final int off, int len) {
+        len = Math.min(len, SAMPLE_SIZE);
+
+        if (len >= 3
+                && (b[off] & 0xFF) == 0xEF
+                && (b[off + 1] & 0xFF) == 0xBB
+                && (b[off + 2] & 0xFF) == 0xBF) {
+            return Encodings.UTF_8;
+        }
+
+        if (isUTF8(b, off, len)) {
+            return Encodings.UTF_8;
+        }
+
+        /*
+         * How many times each upper half byte occurs, and how many
+         * times it is next to an ASCII letter. The charsets are scored
+         * only by these.
+         */
+        final int[] counts = new int[SingleByteDecoder.TABLE_SIZE];
+        final int[] nextToLatin = new int[SingleByteDecoder.TABLE_SIZE];
+        final int end = off + len;
+
+        for (int i = off; i < end; i++) {
+            final int code = b[i];
+
+            if (code < 0) {
+                counts[code & 0x7F]++;
+
+                if ((i > off && isAsciiLetter(b[i - 1]))
+                        || (i + 1 < end && isAsciiLetter(b[i + 1]))) {
+                    nextToLatin[code & 0x7F]++;
+                }
+            }
+        }
+
+        String best = Encodings.DEFAULT;
+        int bestScore = Integer.MIN_VALUE;
+
+        for (int i = 0; i < Encodings.ENCODINGS.length; i++) {
+            final String encoding = Encodings.ENCODINGS[i];
+
+            if (Encodings.UTF_8.equals(encoding)) {
+                continue;
+            }
+
+            final AlbiteCharacterDecoder decoder;
+
+            try {
+                decoder = AlbiteCharacterDecoder.getDecoder(encoding);
+            } catch (UnsupportedEncodingException e) {
+                continue;
+            }
+
+            final int score = score(
+                    (SingleByteDecoder) decoder, counts, nextToLatin);
+
+            /*
+             * On a tie, the charset listed first wins
+             */
+            if (score > bestScore) {
+                best = encoding;
+                bestScore = score;
+            }
+        }
+
+        return best;
+    }
+
+    private static boolean isAsciiLetter(final byte c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * @return true if the bytes are ASCII or UTF-8. A sequence cut at the
+     * end of the sample is fine.
+     */
+    private static boolean isUTF8(final byte[] b, int off, final int len) {
+        final int end = off + len;
+
+        while (off < end) {
+            final int c = b[off++] & 0xFF;
+
+            final int needed;
+
+            if (c < 0x80) {
+                continue;
+            } else if (c >= 0xC2 && c <= 0xDF) {
+                needed = 1;
+            } else if (c >= 0xE0 && c <= 0xEF) {
+                needed = 2;
+            } else if (c >= 0xF0 && c <= 0xF4) {
+                needed = 3;
+            } else {
+                return false;
+            }
+
+            for (int i = 0; i < needed && off < end; i++) {
+                if ((b[off++] & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static int score(
+            final SingleByteDecoder decoder,
+            final int[] counts, final int[] nextToLatin) {
+
+        final int[] languages = new int[LANGUAGES.length];
+        int score = 0;
+        int lowerCase = 0;
+
+        for (int code = 0; code < counts.length; code++) {
+            final int count = counts[code];
+
+            if (count == 0) {
+                continue;
+            }
+
+            final int c = decoder.decode(SingleByteDecoder.TABLE_SIZE + code);
+            final int charCase = getCase(c);
+
+            if (c == AlbiteCharacterDecoder.SUBSTITUTE_CHAR) {
+                score += count * SCORE_UNMAPPED;
+            } else if (c < 0xA0) {
+                score += count * SCORE_CONTROL;
+            } else if (charCase == LOWER) {
+                lowerCase += count;
+
+                for (int i = 0; i < LANGUAGES.length; i++) {
+                    if (LANGUAGES[i].indexOf(c) >= 0) {
+                        languages[i] += count;
+                    }
+                }
+            } else if (charCase == UPPER) {
+                score += count * SCORE_LETTER;
+            } else if (c == 0xA0 || c == 0xAB || c == 0xBB
+                    || (c >= 0x2013 && c <= 0x2026) || c == 0x20AC) {
+                /*
+                 * No-break space, guillemets, typographic quotes and
+                 * dashes, ellipsis, the euro sign
+                 */
+                score += count * SCORE_PUNCTUATION;
+            } else {
+                score += count * SCORE_SYMBOL;
+            }
+
+            if (charCase != OTHER && c >= 0x0370) {
+                score += nextToLatin[code] * SCORE_SCRIPT_BREAK;
+            }
+        }
+
+        /*
+         * Text is mostly in one language, so only its letters count
+         * fully
+         */
+        int language = 0;
+
+        for (int i = 0; i < languages.length; i++) {
+            if (languages[i] > language) {
+                language = languages[i];
+            }
+        }
+
+        return score
+                + language * SCORE_LANGUAGE
+                + (lowerCase - language) * SCORE_LETTER;
+    }
+
+    /**
+     * Tells the case of letters in the ranges the supported charsets
+     * use. Everything else is {@link #OTHER}.
+     */
+    private static int getCase(final int c) {
+        if (c >= 'a' && c <= 'z') {
+            return LOWER;
+        }
+
+        if (c >= 'A' && c <= 'Z') {
+            return UPPER;
+        }
+
+        if (c < 0xC0) {
+            return OTHER;
+        }
+
+        if (c <= 0xFF) {
+            /*
+             * Latin-1 Supplement, without the multiplication and
+             * division signs
+             */
+            if (c == 0xD7 || c == 0xF7) {
+                return OTHER;
+            }
+
+            return c >= 0xDF ? LOWER : UPPER;
+        }
+
+        if (c <= 0x017F) {
+            /*
+             * Latin Extended-A, mostly alternating pairs
+             */
+            if (c == 0x0138 || c == 0x0149) {
+                return LOWER;
+            }
+
+            if ((c >= 0x0139 && c <= 0x0148) || (c >= 0x0179)) {
+                return (c & 1) == 0 ? LOWER : UPPER;
+            }
+
+            return (c & 1) == 0 ? UPPER : LOWER;
+        }
+
+        if (c >= 0x0218 && c <= 0x021B) {
+            /*
+             * Romanian comma below letters
+             */
+            return (c & 1) == 0 ? UPPER : LOWER;
+        }
+
+        if (c >= 0x0386 && c <= 0x03CE) {
+            /*
+             * Greek
+             */
+            if (c == 0x0387 || c == 0x038B || c == 0x038D || c == 0x03A2) {
+                return OTHER;
+            }
+
+            return c >= 0x03AC ? LOWER : UPPER;
+        }
+
+        if (c >= 0x0400 && c <= 0x045F) {
+            /*
+             * Cyrillic
+             */
+            return c >= 0x0430 ? LOWER : UPPER;
+        }
+
+        if (c == 0x0490) {
+            return UPPER;
+        }
+
+        if (c == 0x0491) {
+            return LOWER;
+        }
+
+        if (c >= 0x1E00 && c <= 0x1EFF) {
+            /*
+             * Latin Extended Additional, in pairs
+             */
+            return (c & 1) == 0 ? UPPER : LOWER;
+        }
+
+        return OTHER;
+    }
+}
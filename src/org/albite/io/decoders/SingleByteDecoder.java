@@ -5,14 +5,139 @@
 
 package org.albite.io.decoders;
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 
 /**
+ * Decodes any of the single-byte charsets with a table for the upper
+ * half, all of them being ASCII in the lower one.
+ *
+ * The tables of all charsets are packed in {@link #RESOURCE}, generated
+ * by the desktop CharsetTableBuilder: the number of tables, their
+ * names, and then {@link #TABLE_SIZE} chars per table, U+FFFD standing
+ * for an unmapped byte. A table is read only when its charset is first
+ * used. ISO-8859-1 needs no table. Tiny builds have only windows-1250,
+ * so they ship a resource with its table alone.
  *
  * @author albus
  */
-abstract class SingleByteDecoder extends AlbiteCharacterDecoder {
+final class SingleByteDecoder extends AlbiteCharacterDecoder {
+
+    //#if (TinyMode || TinyModeExport)
+//#     static final String         RESOURCE            =
+//#             "/res/charsets-tiny.bin";
+    //#else
+    static final String         RESOURCE            = "/res/charsets.bin";
+    //#endif
+    static final int            TABLE_SIZE          = 0x80;
+
+    private static final char   UNMAPPED            = 0xFFFD;
+
+    private final String        encoding;
+    private final char[]        table;
+
+    private SingleByteDecoder(final String encoding, final char[] table) {
+        this.encoding = encoding;
+        this.table = table;
+    }
+
+    /**
+     * Reads the table of the charset.
+     *
+     * @param encoding the canonical name of the charset
+     * @throws UnsupportedEncodingException if it is not in the resource
+     */
+    static SingleByteDecoder load(final String encoding)
+            throws UnsupportedEncodingException {
+
+        final char[] table = new char[TABLE_SIZE];
+
+        if (Encodings.ISO_8859_1.equals(encoding)) {
+            for (int i = 0; i < TABLE_SIZE; i++) {
+                table[i] = (char) (TABLE_SIZE + i);
+            }
+
+            return new SingleByteDecoder(encoding, table);
+        }
+
+        final InputStream is =
+                SingleByteDecoder.class.getResourceAsStream(RESOURCE);
+
+        if (is == null) {
+            throw new UnsupportedEncodingException(encoding);
+        }
+
+        try {
+            final DataInputStream in = new DataInputStream(is);
+
+            try {
+                final int count = in.readUnsignedShort();
+                int index = -1;
+
+                for (int i = 0; i < count; i++) {
+                    if (in.readUTF().equals(encoding)) {
+                        index = i;
+                    }
+                }
+
+                if (index < 0) {
+                    throw new UnsupportedEncodingException(encoding);
+                }
+
+                /*
+                 * skipBytes() may skip fewer bytes, e.g. at the end of
+                 * a buffer of the resource stream
+                 */
+                for (int skip = index * TABLE_SIZE * 2; skip > 0; ) {
+                    final int skipped = in.skipBytes(skip);
+
+                    if (skipped > 0) {
+                        skip -= skipped;
+                    } else {
+                        in.readByte();
+                        skip--;
+                    }
+                }
+
+                for (int i = 0; i < TABLE_SIZE; i++) {
+                    final char c = in.readChar();
+                    table[i] = (c == UNMAPPED ? SUBSTITUTE_CHAR : c);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UnsupportedEncodingException(encoding);
+        }
+
+        return new SingleByteDecoder(encoding, table);
+    }
+
+    /**
+     * @return the charsets that have tables in the resource, i.e. all
+     * single-byte ones, but ISO-8859-1
+     */
+    static String[] getTableEncodings() {
+        final String[] encodings = new String[Encodings.ENCODINGS.length];
+        int count = 0;
+
+        for (int i = 0; i < encodings.length; i++) {
+            final String encoding = Encodings.ENCODINGS[i];
+
+            if (!Encodings.UTF_8.equals(encoding)
+                    && !Encodings.ISO_8859_1.equals(encoding)) {
+                encodings[count++] = encoding;
+            }
+        }
+
+        final String[] res = new String[count];
+        System.arraycopy(encodings, 0, res, 0, count);
+        return res;
+    }
 
     public final int decode(final InputStream in) throws IOException {
         int code = in.read();
@@ -23,5 +148,26 @@ abstract class SingleByteDecoder extends AlbiteCharacterDecoder {
         }
     }
 
-    public abstract int decode(int code);
-}
\ No newline at end of file
+    public final int decode(
+            final byte[] src, int off, final int len,
+            final char[] dst, int dstOff) {
+
+        final char[] table = this.table;
+        final int end = off + len;
+
+        while (off < end) {
+            final int code = src[off++];
+            dst[dstOff++] = (code >= 0 ? (char) code : table[code & 0x7F]);
+        }
+
+        return len;
+    }
+
+    public final int decode(final int code) {
+        return code < TABLE_SIZE ? code : table[code - TABLE_SIZE];
+    }
+
+    public final String getEncoding() {
+        return encoding;
+    }
+}
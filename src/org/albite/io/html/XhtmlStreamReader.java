@@ -17,7 +17,19 @@ import java.util.Hashtable;
 public class XhtmlStreamReader extends Reader implements HTMLSubstitues {
 
     private static final int SEARCH_BUFFER = 2048;
-    private static final Hashtable ENTITIES = new Hashtable(200);
+
+    /*
+     * The HTML entities in a trie. For each node: the char leading to it,
+     * its first child, its next sibling and the char of the entity
+     * ending there, if any. The root is node 0, so 0 also stands for
+     * no node. Built once, the names are matched without allocating
+     * anything.
+     */
+    private static char[]  trieChars   = new char[2048];
+    private static short[] trieChild   = new short[2048];
+    private static short[] trieSibling = new short[2048];
+    private static char[]  trieValues  = new char[2048];
+    private static int     trieSize    = 1;
 
     private final AlbiteStreamReader in;
     private final char[] buffer = new char[10];
@@ -297,7 +309,7 @@ public class XhtmlStreamReader extends Reader implements HTMLSubstitues {
                     /*
                      * Found entity
                      */
-                    return processEntity(new String(buffer, 0, len));
+                    return processEntity(buffer, len);
                 }
 
                 if (read == -1
@@ -323,21 +335,92 @@ public class XhtmlStreamReader extends Reader implements HTMLSubstitues {
         return read;
     }
 
+    /**
+     * Used only for the values of the document's own entities, so the
+     * name is copied into a new array, if it doesn't fit the buffer.
+     */
     private int processEntity(final String entityName) {
+        final int len = entityName.length();
+
+        if (len > buffer.length) {
+            return processEntity(entityName.toCharArray(), len);
+        }
+
+        entityName.getChars(0, len, buffer, 0);
+        return processEntity(buffer, len);
+    }
+
+    /**
+     * Resolves the entity with the given name, which is not terminated
+     * by the semicolon.
+     *
+     * @return the char of the entity, or 0 if it is unknown
+     */
+    private int processEntity(final char[] name, final int len) {
 
-        Object entityValue;
+        /*
+         * Is it a number?
+         * &#1234;
+         * &#xABCD;
+         */
+        if (len > 0 && name[0] == '#') {
+            int radix = 10;
+            int i = 1;
+
+            if (len > 2 && (name[1] == 'x' || name[1] == 'X')) {
+                radix = 16;
+                i = 2;
+            }
+
+            if (i == len) {
+                return 0;
+            }
 
-        entityValue = ENTITIES.get(entityName);
+            int value = 0;
 
-        if (entityValue != null) {
+            for (; i < len; i++) {
+                final int digit = Character.digit(name[i], radix);
+
+                if (digit < 0) {
+                    return 0;
+                }
+
+                value = value * radix + digit;
+
+                if (value > 0x10FFFF) {
+                    return 0;
+                }
+            }
+
+            return value;
+        }
+
+        /*
+         * Walk the trie
+         */
+        int node = 0;
+
+        for (int i = 0; i < len && node >= 0; i++) {
+            final char c = name[i];
+            int child = trieChild[node];
+
+            while (child != 0 && trieChars[child] != c) {
+                child = trieSibling[child];
+            }
+
+            node = (child == 0 ? -1 : child);
+        }
+
+        if (node > 0 && trieValues[node] != 0) {
             /*
              * Entity found in the main table
              */
-            return ((Integer) entityValue).intValue();
+            return trieValues[node];
         }
 
         if (customEntities != null) {
-            entityValue = customEntities.get(entityName);
+            final Object entityValue =
+                    customEntities.get(new String(name, 0, len));
 
             if (entityValue != null) {
                 /*
@@ -348,35 +431,54 @@ public class XhtmlStreamReader extends Reader implements HTMLSubstitues {
         }
 
         /*
-         * Is it a number?
-         * &#1234;
-         * &#xABCD;
+         * The entity couldn't be read, so a default value
+         * (the null char for now) will be returned.
          */
+        return 0;
+    }
 
-        if (entityName.length() > 0 && entityName.charAt(0) == '#') {
-            if (entityName.length() > 3 && (entityName.charAt(1) == 'x' || entityName.charAt(1) == 'X')) {
-                //at least x or X and one digit
-                /*
-                 * &#xABCD;
-                 */
-                try {
-                    return Integer.parseInt(entityName.substring(2), 16);
-                } catch (NumberFormatException e) {}
-            } else if (entityName.length() > 2) { //at least one digit
-                /*
-                 * &1234;
-                 */
-                try {
-                    return Integer.parseInt(entityName.substring(1));
-                } catch (NumberFormatException e) {}
+    private static void addEntity(final String name, final char value) {
+        int node = 0;
+
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            int child = trieChild[node];
+
+            while (child != 0 && trieChars[child] != c) {
+                child = trieSibling[child];
             }
+
+            if (child == 0) {
+                child = trieSize++;
+                trieChars[child] = c;
+                trieSibling[child] = trieChild[node];
+                trieChild[node] = (short) child;
+            }
+
+            node = child;
         }
 
-        /*
-         * The entity couldn't be read, so a default value
-         * (the null char for now) will be returned.
-         */
-        return 0;
+        trieValues[node] = value;
+    }
+
+    /**
+     * Trims the arrays of the trie to its size, once it is built.
+     */
+    private static void trimTrie() {
+        final char[] chars = new char[trieSize];
+        final short[] child = new short[trieSize];
+        final short[] sibling = new short[trieSize];
+        final char[] values = new char[trieSize];
+
+        System.arraycopy(trieChars, 0, chars, 0, trieSize);
+        System.arraycopy(trieChild, 0, child, 0, trieSize);
+        System.arraycopy(trieSibling, 0, sibling, 0, trieSize);
+        System.arraycopy(trieValues, 0, values, 0, trieSize);
+
+        trieChars = chars;
+        trieChild = child;
+        trieSibling = sibling;
+        trieValues = values;
     }
 
     public int read(char[] cbuf, int off, int len) throws IOException {
@@ -412,288 +514,290 @@ public class XhtmlStreamReader extends Reader implements HTMLSubstitues {
         /*
          * HTMLspecial
          */
-        ENTITIES.put("quot",    new Integer('"'));
-        ENTITIES.put("amp",     new Integer('&'));
-        ENTITIES.put("apos",    new Integer('\''));
-        ENTITIES.put("lt",      new Integer('<'));
-        ENTITIES.put("gt",      new Integer('>'));
+        addEntity("quot",    '"');
+        addEntity("amp",     '&');
+        addEntity("apos",    '\'');
+        addEntity("lt",      '<');
+        addEntity("gt",      '>');
 
         /*
          * HTMLlat1
          */
-        ENTITIES.put("nbsp",    new Integer('\u00A0'));
-        ENTITIES.put("iexcl",   new Integer('\u00A1'));
-        ENTITIES.put("cent",    new Integer('\u00A2'));
-        ENTITIES.put("pound",   new Integer('\u00A3'));
-        ENTITIES.put("curren",  new Integer('\u00A4'));
-        ENTITIES.put("yen",     new Integer('\u00A5'));
-        ENTITIES.put("brvbar",  new Integer('\u00A6'));
-        ENTITIES.put("sect",    new Integer('\u00A7'));
-        ENTITIES.put("uml",     new Integer('\u00A8'));
-        ENTITIES.put("copy",    new Integer('\u00A9'));
-        ENTITIES.put("ordf",    new Integer('\u00AA'));
-        ENTITIES.put("laquo",   new Integer('\u00AB'));
-        ENTITIES.put("not",     new Integer('\u00AC'));
-        ENTITIES.put("shy",     new Integer('\u00AD'));
-        ENTITIES.put("reg",     new Integer('\u00AE'));
-        ENTITIES.put("macr",    new Integer('\u00AF'));
-
-        ENTITIES.put("deg",     new Integer('\u00B0'));
-        ENTITIES.put("plusmn",  new Integer('\u00B1'));
-        ENTITIES.put("sup2",    new Integer('\u00B2'));
-        ENTITIES.put("sup3",    new Integer('\u00B3'));
-        ENTITIES.put("acute",   new Integer('\u00B4'));
-        ENTITIES.put("micro",   new Integer('\u00B5'));
-        ENTITIES.put("para",    new Integer('\u00B6'));
-        ENTITIES.put("middot",  new Integer('\u00B7'));
-        ENTITIES.put("cedil",   new Integer('\u00B8'));
-        ENTITIES.put("sup1",    new Integer('\u00B9'));
-        ENTITIES.put("ordm",    new Integer('\u00BA'));
-        ENTITIES.put("raquo",   new Integer('\u00BB'));
-        ENTITIES.put("frac14",  new Integer('\u00BC'));
-        ENTITIES.put("frac12",  new Integer('\u00BD'));
-        ENTITIES.put("frac34",  new Integer('\u00BE'));
-        ENTITIES.put("iquest",  new Integer('\u00BF'));
-
-        ENTITIES.put("Agrave",  new Integer('\u00C0'));
-        ENTITIES.put("Aacute",  new Integer('\u00C1'));
-        ENTITIES.put("Acirc",   new Integer('\u00C2'));
-        ENTITIES.put("Atilde",  new Integer('\u00C3'));
-        ENTITIES.put("Auml",    new Integer('\u00C4'));
-        ENTITIES.put("Aring",   new Integer('\u00C5'));
-        ENTITIES.put("AElig",   new Integer('\u00C6'));
-        ENTITIES.put("Ccedil",  new Integer('\u00C7'));
-        ENTITIES.put("Egrave",  new Integer('\u00C8'));
-        ENTITIES.put("Eacute",  new Integer('\u00C9'));
-        ENTITIES.put("Ecirc",   new Integer('\u00CA'));
-        ENTITIES.put("Euml",    new Integer('\u00CB'));
-        ENTITIES.put("Igrave",  new Integer('\u00CC'));
-        ENTITIES.put("Iacute",  new Integer('\u00CD'));
-        ENTITIES.put("Icirc",   new Integer('\u00CE'));
-        ENTITIES.put("Iuml",    new Integer('\u00CF'));
-
-        ENTITIES.put("ETH",     new Integer('\u00D0'));
-        ENTITIES.put("Ntilde",  new Integer('\u00D1'));
-        ENTITIES.put("Ograve",  new Integer('\u00D2'));
-        ENTITIES.put("Oacute",  new Integer('\u00D3'));
-        ENTITIES.put("Ocirc",   new Integer('\u00D4'));
-        ENTITIES.put("Otilde",  new Integer('\u00D5'));
-        ENTITIES.put("Ouml",    new Integer('\u00D6'));
-        ENTITIES.put("times",   new Integer('\u00D7'));
-        ENTITIES.put("Oslash",  new Integer('\u00D8'));
-        ENTITIES.put("Ugrave",  new Integer('\u00D9'));
-        ENTITIES.put("Uacute",  new Integer('\u00DA'));
-        ENTITIES.put("Ucirc",   new Integer('\u00DB'));
-        ENTITIES.put("Uuml",    new Integer('\u00DC'));
-        ENTITIES.put("Yacute",  new Integer('\u00DD'));
-        ENTITIES.put("THORN",   new Integer('\u00DE'));
-        ENTITIES.put("szlig",   new Integer('\u00DF'));
-
-        ENTITIES.put("agrave",  new Integer('\u00E0'));
-        ENTITIES.put("aacute",  new Integer('\u00E1'));
-        ENTITIES.put("acirc",   new Integer('\u00E2'));
-        ENTITIES.put("atilde",  new Integer('\u00E3'));
-        ENTITIES.put("auml",    new Integer('\u00E4'));
-        ENTITIES.put("aring",   new Integer('\u00E5'));
-        ENTITIES.put("aelig",   new Integer('\u00E6'));
-        ENTITIES.put("ccedil",  new Integer('\u00E7'));
-        ENTITIES.put("egrave",  new Integer('\u00E8'));
-        ENTITIES.put("eacute",  new Integer('\u00E9'));
-        ENTITIES.put("ecirc",   new Integer('\u00EA'));
-        ENTITIES.put("euml",    new Integer('\u00EB'));
-        ENTITIES.put("igrave",  new Integer('\u00EC'));
-        ENTITIES.put("iacute",  new Integer('\u00ED'));
-        ENTITIES.put("icirc",   new Integer('\u00EE'));
-        ENTITIES.put("iuml",    new Integer('\u00EF'));
-
-        ENTITIES.put("eth",     new Integer('\u00F0'));
-        ENTITIES.put("ntilde",  new Integer('\u00F1'));
-        ENTITIES.put("ograve",  new Integer('\u00F2'));
-        ENTITIES.put("oacute",  new Integer('\u00F3'));
-        ENTITIES.put("ocirc",   new Integer('\u00F4'));
-        ENTITIES.put("otilde",  new Integer('\u00F5'));
-        ENTITIES.put("ouml",    new Integer('\u00F6'));
-        ENTITIES.put("divide",  new Integer('\u00F7'));
-        ENTITIES.put("oslash",  new Integer('\u00F8'));
-        ENTITIES.put("ugrave",  new Integer('\u00F9'));
-        ENTITIES.put("uacute",  new Integer('\u00FA'));
-        ENTITIES.put("ucirc",   new Integer('\u00FB'));
-        ENTITIES.put("uuml",    new Integer('\u00FC'));
-        ENTITIES.put("yacute",  new Integer('\u00FD'));
-        ENTITIES.put("thorn",   new Integer('\u00FE'));
-        ENTITIES.put("yuml",    new Integer('\u00FF'));
+        addEntity("nbsp",    '\u00A0');
+        addEntity("iexcl",   '\u00A1');
+        addEntity("cent",    '\u00A2');
+        addEntity("pound",   '\u00A3');
+        addEntity("curren",  '\u00A4');
+        addEntity("yen",     '\u00A5');
+        addEntity("brvbar",  '\u00A6');
+        addEntity("sect",    '\u00A7');
+        addEntity("uml",     '\u00A8');
+        addEntity("copy",    '\u00A9');
+        addEntity("ordf",    '\u00AA');
+        addEntity("laquo",   '\u00AB');
+        addEntity("not",     '\u00AC');
+        addEntity("shy",     '\u00AD');
+        addEntity("reg",     '\u00AE');
+        addEntity("macr",    '\u00AF');
+
+        addEntity("deg",     '\u00B0');
+        addEntity("plusmn",  '\u00B1');
+        addEntity("sup2",    '\u00B2');
+        addEntity("sup3",    '\u00B3');
+        addEntity("acute",   '\u00B4');
+        addEntity("micro",   '\u00B5');
+        addEntity("para",    '\u00B6');
+        addEntity("middot",  '\u00B7');
+        addEntity("cedil",   '\u00B8');
+        addEntity("sup1",    '\u00B9');
+        addEntity("ordm",    '\u00BA');
+        addEntity("raquo",   '\u00BB');
+        addEntity("frac14",  '\u00BC');
+        addEntity("frac12",  '\u00BD');
+        addEntity("frac34",  '\u00BE');
+        addEntity("iquest",  '\u00BF');
+
+        addEntity("Agrave",  '\u00C0');
+        addEntity("Aacute",  '\u00C1');
+        addEntity("Acirc",   '\u00C2');
+        addEntity("Atilde",  '\u00C3');
+        addEntity("Auml",    '\u00C4');
+        addEntity("Aring",   '\u00C5');
+        addEntity("AElig",   '\u00C6');
+        addEntity("Ccedil",  '\u00C7');
+        addEntity("Egrave",  '\u00C8');
+        addEntity("Eacute",  '\u00C9');
+        addEntity("Ecirc",   '\u00CA');
+        addEntity("Euml",    '\u00CB');
+        addEntity("Igrave",  '\u00CC');
+        addEntity("Iacute",  '\u00CD');
+        addEntity("Icirc",   '\u00CE');
+        addEntity("Iuml",    '\u00CF');
+
+        addEntity("ETH",     '\u00D0');
+        addEntity("Ntilde",  '\u00D1');
+        addEntity("Ograve",  '\u00D2');
+        addEntity("Oacute",  '\u00D3');
+        addEntity("Ocirc",   '\u00D4');
+        addEntity("Otilde",  '\u00D5');
+        addEntity("Ouml",    '\u00D6');
+        addEntity("times",   '\u00D7');
+        addEntity("Oslash",  '\u00D8');
+        addEntity("Ugrave",  '\u00D9');
+        addEntity("Uacute",  '\u00DA');
+        addEntity("Ucirc",   '\u00DB');
+        addEntity("Uuml",    '\u00DC');
+        addEntity("Yacute",  '\u00DD');
+        addEntity("THORN",   '\u00DE');
+        addEntity("szlig",   '\u00DF');
+
+        addEntity("agrave",  '\u00E0');
+        addEntity("aacute",  '\u00E1');
+        addEntity("acirc",   '\u00E2');
+        addEntity("atilde",  '\u00E3');
+        addEntity("auml",    '\u00E4');
+        addEntity("aring",   '\u00E5');
+        addEntity("aelig",   '\u00E6');
+        addEntity("ccedil",  '\u00E7');
+        addEntity("egrave",  '\u00E8');
+        addEntity("eacute",  '\u00E9');
+        addEntity("ecirc",   '\u00EA');
+        addEntity("euml",    '\u00EB');
+        addEntity("igrave",  '\u00EC');
+        addEntity("iacute",  '\u00ED');
+        addEntity("icirc",   '\u00EE');
+        addEntity("iuml",    '\u00EF');
+
+        addEntity("eth",     '\u00F0');
+        addEntity("ntilde",  '\u00F1');
+        addEntity("ograve",  '\u00F2');
+        addEntity("oacute",  '\u00F3');
+        addEntity("ocirc",   '\u00F4');
+        addEntity("otilde",  '\u00F5');
+        addEntity("ouml",    '\u00F6');
+        addEntity("divide",  '\u00F7');
+        addEntity("oslash",  '\u00F8');
+        addEntity("ugrave",  '\u00F9');
+        addEntity("uacute",  '\u00FA');
+        addEntity("ucirc",   '\u00FB');
+        addEntity("uuml",    '\u00FC');
+        addEntity("yacute",  '\u00FD');
+        addEntity("thorn",   '\u00FE');
+        addEntity("yuml",    '\u00FF');
 
         /*
          * HTMLspecial
          */
-        ENTITIES.put("OElig",   new Integer('\u0152'));
-        ENTITIES.put("oelig",   new Integer('\u0153'));
-        ENTITIES.put("Scaron",  new Integer('\u0160'));
-        ENTITIES.put("scaron",  new Integer('\u0161'));
-        ENTITIES.put("Yuml",    new Integer('\u0178'));
-        ENTITIES.put("fnof",    new Integer('\u0192'));
-        ENTITIES.put("circ",    new Integer('\u02C6'));
-        ENTITIES.put("tilde",   new Integer('\u02DC'));
+        addEntity("OElig",   '\u0152');
+        addEntity("oelig",   '\u0153');
+        addEntity("Scaron",  '\u0160');
+        addEntity("scaron",  '\u0161');
+        addEntity("Yuml",    '\u0178');
+        addEntity("fnof",    '\u0192');
+        addEntity("circ",    '\u02C6');
+        addEntity("tilde",   '\u02DC');
 
         /*
          * HTMLsymbols
          */
-        ENTITIES.put("Alpha",   new Integer('\u0391'));
-        ENTITIES.put("Beta",    new Integer('\u0392'));
-        ENTITIES.put("Gamma",   new Integer('\u0393'));
-        ENTITIES.put("Delta",   new Integer('\u0394'));
-        ENTITIES.put("Epsilon", new Integer('\u0395'));
-        ENTITIES.put("Zeta",    new Integer('\u0396'));
-        ENTITIES.put("Eta",     new Integer('\u0397'));
-        ENTITIES.put("Theta",   new Integer('\u0398'));
-        ENTITIES.put("Iota",    new Integer('\u0399'));
-        ENTITIES.put("Kappa",   new Integer('\u039A'));
-        ENTITIES.put("Lambda",  new Integer('\u039B'));
-        ENTITIES.put("Mu",      new Integer('\u039C'));
-        ENTITIES.put("Nu",      new Integer('\u039D'));
-        ENTITIES.put("Xi",      new Integer('\u039E'));
-        ENTITIES.put("Omicron", new Integer('\u039F'));
-        ENTITIES.put("Pi",      new Integer('\u03A0'));
-        ENTITIES.put("Rho",     new Integer('\u03A1'));
-        ENTITIES.put("Sigma",   new Integer('\u03A3'));
-        ENTITIES.put("Tau",     new Integer('\u03A4'));
-        ENTITIES.put("Upsilon", new Integer('\u03A5'));
-        ENTITIES.put("Phi",     new Integer('\u03A6'));
-        ENTITIES.put("Chi",     new Integer('\u03A7'));
-        ENTITIES.put("Psi",     new Integer('\u03A8'));
-        ENTITIES.put("Omega",   new Integer('\u03A9'));
-
-        ENTITIES.put("alpha",   new Integer('\u03B1'));
-        ENTITIES.put("beta",    new Integer('\u03B2'));
-        ENTITIES.put("gamma",   new Integer('\u03B3'));
-        ENTITIES.put("delta",   new Integer('\u03B4'));
-        ENTITIES.put("epsilon", new Integer('\u03B5'));
-        ENTITIES.put("zeta",    new Integer('\u03B6'));
-        ENTITIES.put("eta",     new Integer('\u03B7'));
-        ENTITIES.put("theta",   new Integer('\u03B8'));
-        ENTITIES.put("iota",    new Integer('\u03B9'));
-        ENTITIES.put("kappa",   new Integer('\u03BA'));
-        ENTITIES.put("lambda",  new Integer('\u03BB'));
-        ENTITIES.put("mu",      new Integer('\u03BC'));
-        ENTITIES.put("nu",      new Integer('\u03BD'));
-        ENTITIES.put("xi",      new Integer('\u03BE'));
-        ENTITIES.put("omicron", new Integer('\u03BF'));
-        ENTITIES.put("pi",      new Integer('\u03C0'));
-        ENTITIES.put("rho",     new Integer('\u03C1'));
-        ENTITIES.put("sigmaf",  new Integer('\u03C2'));
-        ENTITIES.put("sigma",   new Integer('\u03C3'));
-        ENTITIES.put("tau",     new Integer('\u03C4'));
-        ENTITIES.put("upsilon", new Integer('\u03C5'));
-        ENTITIES.put("phi",     new Integer('\u03C6'));
-        ENTITIES.put("chi",     new Integer('\u03C7'));
-        ENTITIES.put("psi",     new Integer('\u03C8'));
-        ENTITIES.put("omega",   new Integer('\u03C9'));
-        ENTITIES.put("thetasym",new Integer('\u03D1'));
-        ENTITIES.put("upsih",   new Integer('\u03D2'));
-        ENTITIES.put("piv",     new Integer('\u03D6'));
+        addEntity("Alpha",   '\u0391');
+        addEntity("Beta",    '\u0392');
+        addEntity("Gamma",   '\u0393');
+        addEntity("Delta",   '\u0394');
+        addEntity("Epsilon", '\u0395');
+        addEntity("Zeta",    '\u0396');
+        addEntity("Eta",     '\u0397');
+        addEntity("Theta",   '\u0398');
+        addEntity("Iota",    '\u0399');
+        addEntity("Kappa",   '\u039A');
+        addEntity("Lambda",  '\u039B');
+        addEntity("Mu",      '\u039C');
+        addEntity("Nu",      '\u039D');
+        addEntity("Xi",      '\u039E');
+        addEntity("Omicron", '\u039F');
+        addEntity("Pi",      '\u03A0');
+        addEntity("Rho",     '\u03A1');
+        addEntity("Sigma",   '\u03A3');
+        addEntity("Tau",     '\u03A4');
+        addEntity("Upsilon", '\u03A5');
+        addEntity("Phi",     '\u03A6');
+        addEntity("Chi",     '\u03A7');
+        addEntity("Psi",     '\u03A8');
+        addEntity("Omega",   '\u03A9');
+
+        addEntity("alpha",   '\u03B1');
+        addEntity("beta",    '\u03B2');
+        addEntity("gamma",   '\u03B3');
+        addEntity("delta",   '\u03B4');
+        addEntity("epsilon", '\u03B5');
+        addEntity("zeta",    '\u03B6');
+        addEntity("eta",     '\u03B7');
+        addEntity("theta",   '\u03B8');
+        addEntity("iota",    '\u03B9');
+        addEntity("kappa",   '\u03BA');
+        addEntity("lambda",  '\u03BB');
+        addEntity("mu",      '\u03BC');
+        addEntity("nu",      '\u03BD');
+        addEntity("xi",      '\u03BE');
+        addEntity("omicron", '\u03BF');
+        addEntity("pi",      '\u03C0');
+        addEntity("rho",     '\u03C1');
+        addEntity("sigmaf",  '\u03C2');
+        addEntity("sigma",   '\u03C3');
+        addEntity("tau",     '\u03C4');
+        addEntity("upsilon", '\u03C5');
+        addEntity("phi",     '\u03C6');
+        addEntity("chi",     '\u03C7');
+        addEntity("psi",     '\u03C8');
+        addEntity("omega",   '\u03C9');
+        addEntity("thetasym",'\u03D1');
+        addEntity("upsih",   '\u03D2');
+        addEntity("piv",     '\u03D6');
 
         /*
          * HTMLspecial
          */
-        ENTITIES.put("ensp",    new Integer('\u2002'));
-        ENTITIES.put("emsp",    new Integer('\u2003'));
-        ENTITIES.put("thinsp",  new Integer('\u2009'));
-        ENTITIES.put("ndash",   new Integer('\u2013'));
-        ENTITIES.put("mdash",   new Integer('\u2014'));
-        ENTITIES.put("lsquo",   new Integer('\u2018'));
-        ENTITIES.put("rsquo",   new Integer('\u2019'));
-        ENTITIES.put("sbquo",   new Integer('\u201A'));
-        ENTITIES.put("ldquo",   new Integer('\u201C'));
-        ENTITIES.put("rdquo",   new Integer('\u201D'));
-        ENTITIES.put("bdquo",   new Integer('\u201E'));
-        ENTITIES.put("dagger",  new Integer('\u2020'));
-        ENTITIES.put("Dagger",  new Integer('\u2021'));
-        ENTITIES.put("bull",    new Integer('\u2022'));
-        ENTITIES.put("hellip",  new Integer('\u2026'));
-        ENTITIES.put("permil",  new Integer('\u2030'));
-        ENTITIES.put("prime",   new Integer('\u2032'));
-        ENTITIES.put("Prime",   new Integer('\u2033'));
-        ENTITIES.put("lsaquo",  new Integer('\u2039'));
-        ENTITIES.put("rsaquo",  new Integer('\u203A'));
+        addEntity("ensp",    '\u2002');
+        addEntity("emsp",    '\u2003');
+        addEntity("thinsp",  '\u2009');
+        addEntity("ndash",   '\u2013');
+        addEntity("mdash",   '\u2014');
+        addEntity("lsquo",   '\u2018');
+        addEntity("rsquo",   '\u2019');
+        addEntity("sbquo",   '\u201A');
+        addEntity("ldquo",   '\u201C');
+        addEntity("rdquo",   '\u201D');
+        addEntity("bdquo",   '\u201E');
+        addEntity("dagger",  '\u2020');
+        addEntity("Dagger",  '\u2021');
+        addEntity("bull",    '\u2022');
+        addEntity("hellip",  '\u2026');
+        addEntity("permil",  '\u2030');
+        addEntity("prime",   '\u2032');
+        addEntity("Prime",   '\u2033');
+        addEntity("lsaquo",  '\u2039');
+        addEntity("rsaquo",  '\u203A');
 
         /*
          *HTMLsymbol
          */
-        ENTITIES.put("oline",   new Integer('\u203E'));
-        ENTITIES.put("frasl",   new Integer('\u2044'));
+        addEntity("oline",   '\u203E');
+        addEntity("frasl",   '\u2044');
 
         /*
          * HTMLspecial
          */
-        ENTITIES.put("euro",    new Integer('\u20AC'));
+        addEntity("euro",    '\u20AC');
 
         /*
          * HTMLsymbol
          */
-        ENTITIES.put("image",   new Integer('\u2111'));
-        ENTITIES.put("weierp",  new Integer('\u2118'));
-        ENTITIES.put("real",    new Integer('\u211C'));
-        ENTITIES.put("trade",   new Integer('\u2122'));
-        ENTITIES.put("alefsym", new Integer('\u2135'));
-        ENTITIES.put("larr",    new Integer('\u2190'));
-        ENTITIES.put("uarr",    new Integer('\u2191'));
-        ENTITIES.put("rarr",    new Integer('\u2192'));
-        ENTITIES.put("darr",    new Integer('\u2193'));
-        ENTITIES.put("harr",    new Integer('\u2194'));
-        ENTITIES.put("crarr",   new Integer('\u21B5'));
-        ENTITIES.put("lArr",    new Integer('\u21D0'));
-        ENTITIES.put("uArr",    new Integer('\u21D1'));
-        ENTITIES.put("rArr",    new Integer('\u21D2'));
-        ENTITIES.put("dArr",    new Integer('\u21D3'));
-        ENTITIES.put("hArr",    new Integer('\u21D4'));
-        ENTITIES.put("forall",  new Integer('\u2200'));
-        ENTITIES.put("part",    new Integer('\u2202'));
-        ENTITIES.put("exist",   new Integer('\u2203'));
-        ENTITIES.put("empty",   new Integer('\u2205'));
-        ENTITIES.put("nabla",   new Integer('\u2207'));
-        ENTITIES.put("isin",    new Integer('\u2208'));
-        ENTITIES.put("notin",   new Integer('\u2209'));
-        ENTITIES.put("ni",      new Integer('\u220B'));
-        ENTITIES.put("prod",    new Integer('\u220F'));
-        ENTITIES.put("sum",     new Integer('\u2211'));
-        ENTITIES.put("minus",   new Integer('\u2212'));
-        ENTITIES.put("lowast",  new Integer('\u2217'));
-        ENTITIES.put("radic",   new Integer('\u221A'));
-        ENTITIES.put("prop",    new Integer('\u221D'));
-        ENTITIES.put("infin",   new Integer('\u221E'));
-        ENTITIES.put("ang",     new Integer('\u2220'));
-        ENTITIES.put("and",     new Integer('\u2227'));
-        ENTITIES.put("or",      new Integer('\u2228'));
-        ENTITIES.put("cap",     new Integer('\u2229'));
-        ENTITIES.put("cup",     new Integer('\u222A'));
-        ENTITIES.put("int",     new Integer('\u222B'));
-        ENTITIES.put("there4",  new Integer('\u2234'));
-        ENTITIES.put("sim",     new Integer('\u223C'));
-        ENTITIES.put("cong",    new Integer('\u2245'));
-        ENTITIES.put("asymp",   new Integer('\u2248'));
-        ENTITIES.put("ne",      new Integer('\u2260'));
-        ENTITIES.put("equiv",   new Integer('\u2261'));
-        ENTITIES.put("le",      new Integer('\u2264'));
-        ENTITIES.put("ge",      new Integer('\u2265'));
-        ENTITIES.put("sub",     new Integer('\u2282'));
-        ENTITIES.put("sup",     new Integer('\u2283'));
-        ENTITIES.put("nsub",    new Integer('\u2284'));
-        ENTITIES.put("sube",    new Integer('\u2286'));
-        ENTITIES.put("supe",    new Integer('\u2287'));
-        ENTITIES.put("oplus",   new Integer('\u2295'));
-        ENTITIES.put("otimes",  new Integer('\u2297'));
-        ENTITIES.put("perp",    new Integer('\u22A5'));
-        ENTITIES.put("sdot",    new Integer('\u22C5'));
-        ENTITIES.put("lceil",   new Integer('\u2308'));
-        ENTITIES.put("rceil",   new Integer('\u2309'));
-        ENTITIES.put("lfloor",  new Integer('\u230A'));
-        ENTITIES.put("rfloor",  new Integer('\u230B'));
-        ENTITIES.put("lang",    new Integer('\u2329'));
-        ENTITIES.put("rang",    new Integer('\u232A'));
-        ENTITIES.put("loz",     new Integer('\u25CA'));
-        ENTITIES.put("spades",  new Integer('\u2660'));
-        ENTITIES.put("clubs",   new Integer('\u2663'));
-        ENTITIES.put("hearts",  new Integer('\u2665'));
-        ENTITIES.put("diams",   new Integer('\u2666'));
+        addEntity("image",   '\u2111');
+        addEntity("weierp",  '\u2118');
+        addEntity("real",    '\u211C');
+        addEntity("trade",   '\u2122');
+        addEntity("alefsym", '\u2135');
+        addEntity("larr",    '\u2190');
+        addEntity("uarr",    '\u2191');
+        addEntity("rarr",    '\u2192');
+        addEntity("darr",    '\u2193');
+        addEntity("harr",    '\u2194');
+        addEntity("crarr",   '\u21B5');
+        addEntity("lArr",    '\u21D0');
+        addEntity("uArr",    '\u21D1');
+        addEntity("rArr",    '\u21D2');
+        addEntity("dArr",    '\u21D3');
+        addEntity("hArr",    '\u21D4');
+        addEntity("forall",  '\u2200');
+        addEntity("part",    '\u2202');
+        addEntity("exist",   '\u2203');
+        addEntity("empty",   '\u2205');
+        addEntity("nabla",   '\u2207');
+        addEntity("isin",    '\u2208');
+        addEntity("notin",   '\u2209');
+        addEntity("ni",      '\u220B');
+        addEntity("prod",    '\u220F');
+        addEntity("sum",     '\u2211');
+        addEntity("minus",   '\u2212');
+        addEntity("lowast",  '\u2217');
+        addEntity("radic",   '\u221A');
+        addEntity("prop",    '\u221D');
+        addEntity("infin",   '\u221E');
+        addEntity("ang",     '\u2220');
+        addEntity("and",     '\u2227');
+        addEntity("or",      '\u2228');
+        addEntity("cap",     '\u2229');
+        addEntity("cup",     '\u222A');
+        addEntity("int",     '\u222B');
+        addEntity("there4",  '\u2234');
+        addEntity("sim",     '\u223C');
+        addEntity("cong",    '\u2245');
+        addEntity("asymp",   '\u2248');
+        addEntity("ne",      '\u2260');
+        addEntity("equiv",   '\u2261');
+        addEntity("le",      '\u2264');
+        addEntity("ge",      '\u2265');
+        addEntity("sub",     '\u2282');
+        addEntity("sup",     '\u2283');
+        addEntity("nsub",    '\u2284');
+        addEntity("sube",    '\u2286');
+        addEntity("supe",    '\u2287');
+        addEntity("oplus",   '\u2295');
+        addEntity("otimes",  '\u2297');
+        addEntity("perp",    '\u22A5');
+        addEntity("sdot",    '\u22C5');
+        addEntity("lceil",   '\u2308');
+        addEntity("rceil",   '\u2309');
+        addEntity("lfloor",  '\u230A');
+        addEntity("rfloor",  '\u230B');
+        addEntity("lang",    '\u2329');
+        addEntity("rang",    '\u232A');
+        addEntity("loz",     '\u25CA');
+        addEntity("spades",  '\u2660');
+        addEntity("clubs",   '\u2663');
+        addEntity("hearts",  '\u2665');
+        addEntity("diams",   '\u2666');
+
+        trimTrie();
     }
 }
\ No newline at end of file
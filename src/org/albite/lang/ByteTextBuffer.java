@@ -0,0 +1,114 @@
+package org.albite.lang;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.albite.io.html.HTMLSubstitues;
+
+/**
+ * Latin-1 text, stored one byte per char.
+ *
+ * @author albus
+ */
+final class ByteTextBuffer extends TextBuffer implements HTMLSubstitues {
+
+    /*
+     * The tag substitutes are stored as control chars, that are not
+     * expected in a text. If they are found in it, it is not compacted.
+     */
+    private static final byte   START_TAG_BYTE      = 0x01;
+    private static final byte   END_TAG_BYTE        = 0x02;
+
+    /*
+     * byte -> char
+     */
+    private static final char[] CHARS = new char[256];
+
+    static {
+        for (int i = 0; i < CHARS.length; i++) {
+            CHARS[i] = (char) i;
+        }
+
+        CHARS[START_TAG_BYTE] = START_TAG_CHAR;
+        CHARS[END_TAG_BYTE] = END_TAG_CHAR;
+    }
+
+    private final byte[] text;
+
+    ByteTextBuffer(final char[] chars, final int length) {
+        final byte[] res = new byte[length];
+
+        char c;
+        for (int i = 0; i < length; i++) {
+            c = chars[i];
+
+            switch (c) {
+                case START_TAG_CHAR:
+                    res[i] = START_TAG_BYTE;
+                    break;
+
+                case END_TAG_CHAR:
+                    res[i] = END_TAG_BYTE;
+                    break;
+
+                default:
+                    res[i] = (byte) c;
+            }
+        }
+
+        text = res;
+    }
+
+    ByteTextBuffer(final byte[] text) {
+        this.text = text;
+    }
+
+    static boolean fits(final char[] chars, final int length) {
+        char c;
+        for (int i = 0; i < length; i++) {
+            c = chars[i];
+
+            if (
+                    (c > 0xFF
+                        && c != START_TAG_CHAR
+                        && c != END_TAG_CHAR)
+                    || c == START_TAG_BYTE
+                    || c == END_TAG_BYTE) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public final int length() {
+        return text.length;
+    }
+
+    public final char charAt(final int index) {
+        return CHARS[text[index] & 0xFF];
+    }
+
+    public final void getChars(
+            final int srcBegin,
+            final int srcEnd,
+            final char[] dst,
+            final int dstBegin) {
+
+        final byte[] textF = text;
+        final char[] chars = CHARS;
+
+        for (int i = srcBegin, j = dstBegin; i < srcEnd; i++, j++) {
+            dst[j] = chars[textF[i] & 0xFF];
+        }
+    }
+
+    public final int getMemorySize() {
+        return text.length;
+    }
+
+    public final void write(final DataOutputStream out) throws IOException {
+        out.writeByte(TYPE_BYTES);
+        out.writeInt(text.length);
+        out.write(text);
+    }
+}
@@ -0,0 +1,53 @@
+package org.albite.lang;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Text that can't be compacted.
+ *
+ * @author albus
+ */
+final class CharTextBuffer extends TextBuffer {
+
+    private final char[] text;
+
+    CharTextBuffer(final char[] text) {
+        this.text = text;
+    }
+
+    public final int length() {
+        return text.length;
+    }
+
+    public final char charAt(final int index) {
+        return text[index];
+    }
+
+    public final void getChars(
+            final int srcBegin,
+            final int srcEnd,
+            final char[] dst,
+            final int dstBegin) {
+
+        System.arraycopy(text, srcBegin, dst, dstBegin, srcEnd - srcBegin);
+    }
+
+    public final int getMemorySize() {
+        return text.length * 2;
+    }
+
+    public final void write(final DataOutputStream out) throws IOException {
+        final char[] textF = text;
+        final byte[] data = new byte[textF.length * 2];
+
+        for (int i = 0, j = 0; i < textF.length; i++, j += 2) {
+            data[j] = (byte) (textF[i] >> 8);
+            data[j + 1] = (byte) textF[i];
+        }
+
+        out.writeByte(TYPE_CHARS);
+        out.writeInt(textF.length);
+        out.write(data);
+    }
+}
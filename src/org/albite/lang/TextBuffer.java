@@ -0,0 +1,123 @@
+package org.albite.lang;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Read-only text of a chapter.
+ *
+ * Text whose chars are all Latin-1 (with the exception of the tag
+ * substitutes) is kept in a byte array, i.e. it takes half the memory
+ * of a char array.
+ *
+ * @author albus
+ */
+public abstract class TextBuffer {
+
+    static final byte       TYPE_CHARS  = 0;
+    static final byte       TYPE_BYTES  = 1;
+
+    public static final TextBuffer EMPTY = new CharTextBuffer(new char[0]);
+
+    public abstract int length();
+
+    public abstract char charAt(int index);
+
+    /**
+     * Copies chars from the buffer just like
+     * {@link java.lang.String#getChars(int, int, char[], int)}.
+     */
+    public abstract void getChars(
+            int srcBegin, int srcEnd, char[] dst, int dstBegin);
+
+    /**
+     * @return the approximate memory taken by the text in bytes
+     */
+    public abstract int getMemorySize();
+
+    /**
+     * Writes the buffer as it is kept in memory, so that it could be
+     * read back without any conversion.
+     */
+    public abstract void write(DataOutputStream out) throws IOException;
+
+    /**
+     * Reads a buffer, previously written using
+     * {@link #write(DataOutputStream)}.
+     *
+     * @param maxSize the most bytes the text may take, e.g. the size of
+     * the file it is read from, so that a corrupt length would not be
+     * trusted
+     * @throws IOException if the data is not a valid buffer
+     */
+    public static TextBuffer read(final DataInputStream in, final long maxSize)
+            throws IOException {
+
+        final byte type = in.readByte();
+        final int length = in.readInt();
+
+        if (length < 0
+                || length > (type == TYPE_CHARS ? maxSize / 2 : maxSize)) {
+            throw new IOException("Wrong text buffer length");
+        }
+
+        switch (type) {
+            case TYPE_BYTES:
+                final byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                return new ByteTextBuffer(bytes);
+
+            case TYPE_CHARS:
+                final byte[] data = new byte[length * 2];
+                in.readFully(data);
+
+                final char[] chars = new char[length];
+                for (int i = 0, j = 0; i < length; i++, j += 2) {
+                    chars[i] = (char) (((data[j] & 0xFF) << 8)
+                            | (data[j + 1] & 0xFF));
+                }
+                return new CharTextBuffer(chars);
+
+            default:
+                throw new IOException("Unknown text buffer type");
+        }
+    }
+
+    public final String getString(final int offset, final int length) {
+        final char[] chars = new char[length];
+        getChars(offset, offset + length, chars, 0);
+        return new String(chars);
+    }
+
+    public final void appendTo(
+            final StringBuffer buf, final int offset, final int length) {
+
+        for (int i = offset; i < offset + length; i++) {
+            buf.append(charAt(i));
+        }
+    }
+
+    /**
+     * Makes a buffer from the first <code>length</code> chars of
+     * <code>text</code>, compacting it if possible. The array may be used
+     * by the new buffer, so it must not be modified afterwards.
+     */
+    public static TextBuffer create(final char[] text, final int length) {
+        if (length == 0) {
+            return EMPTY;
+        }
+
+        if (ByteTextBuffer.fits(text, length)) {
+            return new ByteTextBuffer(text, length);
+        }
+
+        if (length == text.length) {
+            return new CharTextBuffer(text);
+        }
+
+        final char[] res = new char[length];
+        System.arraycopy(text, 0, res, 0, length);
+        return new CharTextBuffer(res);
+    }
+}
@@ -28,19 +28,19 @@ public final class TextTools {
      * @return          a new String, stripped from punctuation from both sides
      */
     public static String prepareForDict(
-            final char[] buffer, final int pos, final int len) {
+            final TextBuffer buffer, final int pos, final int len) {
 
         int l = pos;
         int r = pos + len - 1;
 
         while (
                 l <= r
-                && !AlbiteCharacter.isLetterOrDigit(buffer[l])) {
+                && !AlbiteCharacter.isLetterOrDigit(buffer.charAt(l))) {
             l++;
         }
 
         while (r >= l
-                && !AlbiteCharacter.isLetterOrDigit(buffer[r])) {
+                && !AlbiteCharacter.isLetterOrDigit(buffer.charAt(r))) {
             r--;
         }
 
@@ -52,23 +52,23 @@ public final class TextTools {
                 /*
                  * 98.6F
                  */
-                (l < r && Character.isDigit(buffer[l]))
+                (l < r && Character.isDigit(buffer.charAt(l)))
 
                 /*
                  * -273.15F
                  * −273.15F
                  * –273.15F
                  */
-                || (l + 1 < r && (Character.isDigit(buffer[l + 1]))
-                    && (buffer[l] == '-' || buffer[l] == '−'
-                        || buffer[l] == '–')
+                || (l + 1 < r && (Character.isDigit(buffer.charAt(l + 1)))
+                    && (buffer.charAt(l) == '-' || buffer.charAt(l) == '−'
+                        || buffer.charAt(l) == '–')
                     )
 
                 ) {
             while (r >= l
-                    && (buffer[r] != '.')
-                    && (buffer[r] != ',')
-                    && !Character.isDigit(buffer[r])) {
+                    && (buffer.charAt(r) != '.')
+                    && (buffer.charAt(r) != ',')
+                    && !Character.isDigit(buffer.charAt(r))) {
                 r--;
             }
 
@@ -79,7 +79,7 @@ public final class TextTools {
              */
             char[] b2 = new char[r - l + 1];
             for (int i = 0; i < b2.length; i++) {
-                switch (buffer[l + i]) {
+                switch (buffer.charAt(l + i)) {
                     case ',':
                         b2[i] = '.';
                         break;
@@ -90,14 +90,14 @@ public final class TextTools {
                         break;
 
                     default:
-                    b2[i] = buffer[l + i];
+                    b2[i] = buffer.charAt(l + i);
                 }
             }
 
             return new String(b2);
         }
 
-        return new String(buffer, l, r - l + 1);
+        return buffer.getString(l, r - l + 1);
     }
 
     public static int compareCharArrays(
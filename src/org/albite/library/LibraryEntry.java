@@ -0,0 +1,212 @@
+package org.albite.library;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.albite.book.model.book.Book;
+import org.albite.book.model.book.EPubSpine;
+
+/**
+ * What the library knows about a book without opening it.
+ *
+ * @author albus
+ */
+public class LibraryEntry {
+
+    final String            url;
+    final long              fileSize;
+    final long              fileModified;
+
+    /*
+     * null if the book couldn't be opened
+     */
+    final String            title;
+    final String            author;
+    final String            language;
+
+    final int               chaptersCount;
+    final int               currentChapter;
+    final int               currentPosition;
+
+    /*
+     * Record in the library's record store, or 0 if not saved yet
+     */
+    int                     recordId = 0;
+
+    LibraryEntry(
+            final String url,
+            final long fileSize,
+            final long fileModified,
+            final String title,
+            final String author,
+            final String language,
+            final int chaptersCount,
+            final int currentChapter,
+            final int currentPosition) {
+
+        this.url = url;
+        this.fileSize = fileSize;
+        this.fileModified = fileModified;
+        this.title = title;
+        this.author = author;
+        this.language = (language == null ? "" : language);
+        this.chaptersCount = chaptersCount;
+        this.currentChapter = currentChapter;
+        this.currentPosition = currentPosition;
+    }
+
+    /**
+     * Creates an entry for an open book.
+     */
+    LibraryEntry(
+            final Book book,
+            final long fileSize,
+            final long fileModified) {
+
+        this(
+                book.getURL(),
+                fileSize,
+                fileModified,
+                book.getTitle(),
+                book.getAuthor(),
+                book.getOriginalLanguage(),
+                book.getChaptersCount(),
+                book.getCurrentChapter().getNumber(),
+                book.getCurrentChapterPosition());
+    }
+
+    /**
+     * Creates an entry for an EPUB from its spine, i.e. without opening
+     * it. Its chapters are counted as its spine items and its reading
+     * position is unknown until it has been opened.
+     */
+    LibraryEntry(
+            final String url,
+            final EPubSpine spine,
+            final long fileSize,
+            final long fileModified) {
+
+        this(
+                url,
+                fileSize,
+                fileModified,
+                (spine.getTitle() == null
+                    ? Book.DEFAULT_TITLE : spine.getTitle()),
+                (spine.getAuthor() == null
+                    ? Book.DEFAULT_AUTHOR : spine.getAuthor()),
+                spine.getLanguage(),
+                spine.getItemsCount(),
+                0,
+                0);
+    }
+
+    /**
+     * Creates an entry for a file that is not a readable book or that
+     * can't be read without opening it, so that it wouldn't be read again
+     * unless it changes.
+     */
+    LibraryEntry(
+            final String url,
+            final long fileSize,
+            final long fileModified) {
+
+        this(url, fileSize, fileModified, null, null, null, 0, 0, 0);
+    }
+
+    public final String getURL() {
+        return url;
+    }
+
+    public final long getFileSize() {
+        return fileSize;
+    }
+
+    public final long getFileModified() {
+        return fileModified;
+    }
+
+    public final boolean isReadable() {
+        return title != null;
+    }
+
+    public final String getTitle() {
+        return title;
+    }
+
+    public final String getAuthor() {
+        return author;
+    }
+
+    public final String getLanguage() {
+        return language;
+    }
+
+    public final int getChaptersCount() {
+        return chaptersCount;
+    }
+
+    public final int getCurrentChapter() {
+        return currentChapter;
+    }
+
+    public final int getCurrentPosition() {
+        return currentPosition;
+    }
+
+    /**
+     * Returns true if the entry is still valid for the file.
+     */
+    public final boolean matches(
+            final long fileSize,
+            final long fileModified) {
+
+        return this.fileSize == fileSize && this.fileModified == fileModified;
+    }
+
+    final byte[] toByteArray() throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(128);
+        final DataOutputStream out = new DataOutputStream(baos);
+
+        try {
+            out.writeUTF(url);
+            out.writeLong(fileSize);
+            out.writeLong(fileModified);
+            out.writeBoolean(title != null);
+
+            if (title != null) {
+                out.writeUTF(title);
+                out.writeUTF(author);
+                out.writeUTF(language);
+                out.writeShort(chaptersCount);
+                out.writeShort(currentChapter);
+                out.writeInt(currentPosition);
+            }
+
+            return baos.toByteArray();
+        } finally {
+            out.close();
+        }
+    }
+
+    static LibraryEntry read(final DataInputStream in) throws IOException {
+        final String url = in.readUTF();
+        final long fileSize = in.readLong();
+        final long fileModified = in.readLong();
+
+        if (!in.readBoolean()) {
+            return new LibraryEntry(url, fileSize, fileModified);
+        }
+
+        return new LibraryEntry(
+                url,
+                fileSize,
+                fileModified,
+                in.readUTF(),
+                in.readUTF(),
+                in.readUTF(),
+                in.readShort(),
+                in.readShort(),
+                in.readInt());
+    }
+}
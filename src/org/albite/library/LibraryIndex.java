@@ -0,0 +1,132 @@
+package org.albite.library;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Hashtable;
+import javax.microedition.rms.RecordEnumeration;
+import javax.microedition.rms.RecordStore;
+import javax.microedition.rms.RecordStoreException;
+import org.albite.albite.AlbiteMIDlet;
+import org.albite.book.model.book.Book;
+
+/**
+ * Keeps the metadata of the books in the library, so that it could be
+ * shown without opening them. Each book is kept in a separate record,
+ * so that updating one would not need saving all the rest.
+ *
+ * The index is loaded the first time it's used.
+ *
+ * @author albus
+ */
+public class LibraryIndex {
+
+    private static final String RECORD_STORE = "library";
+
+    private RecordStore         rs;
+
+    /*
+     * url -> LibraryEntry
+     */
+    private Hashtable           entries;
+
+    private void load() {
+        if (entries != null) {
+            return;
+        }
+
+        entries = new Hashtable(64);
+
+        try {
+            rs = RecordStore.openRecordStore(RECORD_STORE, true);
+
+            final RecordEnumeration records =
+                    rs.enumerateRecords(null, null, false);
+
+            try {
+                while (records.hasNextElement()) {
+                    final int id = records.nextRecordId();
+                    final DataInputStream in = new DataInputStream(
+                            new ByteArrayInputStream(rs.getRecord(id)));
+
+                    try {
+                        final LibraryEntry entry = LibraryEntry.read(in);
+                        entry.recordId = id;
+                        entries.put(entry.url, entry);
+                    } catch (IOException e) {
+                        /*
+                         * Broken record
+                         */
+                        rs.deleteRecord(id);
+                    } finally {
+                        in.close();
+                    }
+                }
+            } finally {
+                records.destroy();
+            }
+        } catch (RecordStoreException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        } catch (IOException e) {}
+    }
+
+    /**
+     * Returns the entry for a book.
+     *
+     * @param url the book's URL
+     * @return the entry or null, if the book is not in the index
+     */
+    public final synchronized LibraryEntry get(final String url) {
+        load();
+        return (LibraryEntry) entries.get(url);
+    }
+
+    /**
+     * Adds or updates the entry of an open book, e.g. after its reading
+     * position has changed.
+     */
+    public final void update(final Book book) {
+        if (book.getFileSize() >= 0) {
+            put(new LibraryEntry(
+                    book, book.getFileSize(), book.getFileModified()));
+        }
+    }
+
+    final synchronized void put(final LibraryEntry entry) {
+        load();
+
+        final LibraryEntry old = (LibraryEntry) entries.get(entry.url);
+        entries.put(entry.url, entry);
+
+        if (rs == null) {
+            return;
+        }
+
+        try {
+            final byte[] data = entry.toByteArray();
+
+            if (old != null && old.recordId > 0) {
+                entry.recordId = old.recordId;
+                rs.setRecord(entry.recordId, data, 0, data.length);
+            } else {
+                entry.recordId = rs.addRecord(data, 0, data.length);
+            }
+        } catch (RecordStoreException e) {
+            //#debug
+            AlbiteMIDlet.LOGGER.log(e);
+        } catch (IOException e) {}
+    }
+
+    public final synchronized void close() {
+        if (rs != null) {
+            try {
+                rs.closeRecordStore();
+            } catch (RecordStoreException e) {}
+
+            rs = null;
+        }
+
+        entries = null;
+    }
+}
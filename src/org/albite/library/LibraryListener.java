@@ -0,0 +1,20 @@
+package org.albite.library;
+
+/**
+ * Gets notified as the library scanner reads the books.
+ *
+ * @author albus
+ */
+public interface LibraryListener {
+
+    /**
+     * Called on the scanner's thread when the entry of a book
+     * has been added or updated.
+     *
+     * @param scanner the scanner
+     * @param file the index of the book in the scanned list
+     * @param entry the new entry
+     */
+    public void entryUpdated(
+            LibraryScanner scanner, int file, LibraryEntry entry);
+}
@@ -0,0 +1,122 @@
+package org.albite.library;
+
+import java.io.IOException;
+import javax.microedition.io.Connector;
+import javax.microedition.io.file.FileConnection;
+import org.albite.albite.AlbiteMIDlet;
+import org.albite.book.model.book.Book;
+import org.albite.book.model.book.BookException;
+import org.albite.book.model.book.EPubBook;
+
+/**
+ * Updates the library index for the books in a folder in the background.
+ * Only books that are not in the index or whose size or time of
+ * modification have changed are read.
+ *
+ * The books are not opened, as that would split their chapters and
+ * create their user files. Only the container.xml and OPF of EPUBs are
+ * read. Other books have nothing to read short of opening them, so
+ * they are listed by their file names until they have been opened.
+ *
+ * @author albus
+ */
+public class LibraryScanner implements Runnable {
+
+    private final LibraryIndex      index;
+    private final String            folderURL;
+    private final String[]          files;
+    private final LibraryListener   listener;
+
+    private volatile boolean        cancelled = false;
+
+    /**
+     * @param index the library index
+     * @param folderURL URL of the folder, ending with a slash
+     * @param files the names of the books in the folder
+     * @param listener notified of the updated entries
+     */
+    public LibraryScanner(
+            final LibraryIndex index,
+            final String folderURL,
+            final String[] files,
+            final LibraryListener listener) {
+
+        this.index = index;
+        this.folderURL = folderURL;
+        this.files = files;
+        this.listener = listener;
+    }
+
+    public final void start() {
+        final Thread thread = new Thread(this);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    public final void cancel() {
+        cancelled = true;
+    }
+
+    public final void run() {
+        for (int i = 0; i < files.length && !cancelled; i++) {
+            final String url = folderURL + files[i];
+            final long fileSize;
+            final long fileModified;
+
+            try {
+                final FileConnection file =
+                        (FileConnection) Connector.open(url, Connector.READ);
+
+                try {
+                    fileSize = file.fileSize();
+                    fileModified = file.lastModified();
+                } finally {
+                    file.close();
+                }
+            } catch (IOException e) {
+                continue;
+            } catch (SecurityException e) {
+                continue;
+            }
+
+            final LibraryEntry old = index.get(url);
+
+            if (old != null && old.matches(fileSize, fileModified)) {
+                continue;
+            }
+
+            LibraryEntry entry = null;
+
+            try {
+                if (url.toLowerCase().endsWith(Book.EPUB_EXTENSION)) {
+                    entry = new LibraryEntry(url, EPubBook.readSpine(url),
+                            fileSize, fileModified);
+                }
+            } catch (IOException e) {
+                entry = null;
+            } catch (BookException e) {
+                entry = null;
+            } catch (SecurityException e) {
+                entry = null;
+            } catch (RuntimeException e) {
+                //#debug
+                AlbiteMIDlet.LOGGER.log(e);
+                entry = null;
+            } catch (OutOfMemoryError e) {
+                //#debug
+                AlbiteMIDlet.LOGGER.log(e);
+                entry = null;
+            }
+
+            if (entry == null) {
+                entry = new LibraryEntry(url, fileSize, fileModified);
+            }
+
+            index.put(entry);
+
+            if (!cancelled) {
+                listener.entryUpdated(this, i, entry);
+            }
+        }
+    }
+}
@@ -12,6 +12,6 @@ import java.io.IOException;
  * @author albus
  */
 public interface File {
-    public int fileSize() throws IOException;
+    public long fileSize() throws IOException;
     public String getURL();
 }
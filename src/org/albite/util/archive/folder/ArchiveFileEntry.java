@@ -34,8 +34,8 @@ public class ArchiveFileEntry implements ArchiveEntry {
         file.close();
     }
 
-    public int fileSize() throws IOException {
-        return (int) file.fileSize();
+    public long fileSize() throws IOException {
+        return file.fileSize();
     }
 
     public String getURL() {
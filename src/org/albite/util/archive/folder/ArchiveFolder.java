@@ -46,7 +46,7 @@ public class ArchiveFolder implements Archive {
          */
     }
 
-    public int fileSize() {
+    public long fileSize() {
         return 0;
     }
 
@@ -5,9 +5,9 @@
 
 package org.albite.util.archive.zip;
 
-import gnu.zip.ZipEntry;
 import gnu.zip.ZipFile;
 import java.io.IOException;
+import org.albite.albite.AlbiteMIDlet;
 import org.albite.io.RandomReadingFile;
 import org.albite.util.archive.Archive;
 import org.albite.util.archive.ArchiveEntry;
@@ -28,24 +28,43 @@ public class ArchiveZip implements Archive {
     }
 
     public final void close() throws IOException {
+        //#debug
+        AlbiteMIDlet.LOGGER.log("Zip pool: " + zip.getPoolHits() + " of "
+                + zip.getPoolRequests() + " inflaters and buffers reused");
+
+        //#debug
+        AlbiteMIDlet.LOGGER.log("File cache: " + file.getCacheHits()
+                + " hits, " + file.getCacheMisses() + " misses, "
+                + file.getReopenCount() + " reopens, "
+                + file.getSkippedBytes() + " bytes skipped");
+
         zip.close();
     }
 
+    /**
+     * Sets whether entries are checked against their CRC while they are
+     * read, so that a damaged file fails to read instead of giving
+     * garbage.
+     */
+    public final void setVerify(final boolean verify) {
+        zip.setVerify(verify);
+    }
+
     public final ArchiveEntry getEntry(final String name) {
-        ZipEntry entry = zip.getEntry(name);
+        final int index = zip.getEntryIndex(name);
 
-        if (entry == null) {
+        if (index < 0) {
             return null;
         }
 
-        return new ArchiveZipEntry(zip, entry);
+        return new ArchiveZipEntry(zip, index, name);
     }
 
     public final String getURL() {
         return file.getURL();
     }
 
-    public final int fileSize() throws IOException {
+    public final long fileSize() throws IOException {
         return file.length();
     }
 }
\ No newline at end of file
@@ -5,30 +5,36 @@
 
 package org.albite.util.archive.zip;
 
-import gnu.zip.ZipEntry;
 import gnu.zip.ZipFile;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import org.albite.io.SeekableConnection;
 import org.albite.util.archive.ArchiveEntry;
 
 /**
+ * A lightweight reference to an entry in a zip file: only its index
+ * in the zip's central directory is kept.  Large deflated entries
+ * can be opened at a position without inflating all before it.
  *
  * @author Svetlin Ankov <galileostudios@gmail.com>
  */
-public class ArchiveZipEntry implements ArchiveEntry {
+public class ArchiveZipEntry
+        implements ArchiveEntry, SeekableConnection {
 
     private final ZipFile zipfile;
-    private final ZipEntry zipentry;
+    private final int index;
+    private final String name;
 
     protected ArchiveZipEntry(
-            final ZipFile zipfile, final ZipEntry zipentry) {
+            final ZipFile zipfile, final int index, final String name) {
 
-        if (zipfile == null || zipentry == null) {
+        if (zipfile == null || name == null) {
             throw new NullPointerException("null input parameters");
         }
         this.zipfile = zipfile;
-        this.zipentry = zipentry;
+        this.index = index;
+        this.name = name;
     }
 
     public DataInputStream openDataInputStream() throws IOException {
@@ -36,15 +42,20 @@ public class ArchiveZipEntry implements ArchiveEntry {
     }
 
     public InputStream openInputStream() throws IOException {
-        return zipfile.getInputStream(zipentry);
+        return zipfile.getInputStream(index);
     }
 
-    public int fileSize() {
-        return (int) zipentry.getSize();
+    public InputStream openInputStream(final int position)
+            throws IOException {
+        return zipfile.getInputStream(index, position);
+    }
+
+    public long fileSize() {
+        return zipfile.getSize(index);
     }
 
     public String getURL() {
-        return zipentry.getName();
+        return name;
     }
 
     public void close() throws IOException {
@@ -49,6 +49,10 @@ import javax.microedition.io.file.*;
 import javax.microedition.lcdui.*;
 import org.albite.albite.AlbiteMIDlet;
 import org.albite.book.model.book.Book;
+import org.albite.library.LibraryEntry;
+import org.albite.library.LibraryIndex;
+import org.albite.library.LibraryListener;
+import org.albite.library.LibraryScanner;
 //#if !((defined(LightMode) || defined(TinyMode) || defined(LightModeExport) || defined(TinyModeExport)))
 import org.albite.lang.AlbiteCharacter;
 //#endif
@@ -60,7 +64,8 @@ import org.albite.lang.AlbiteCharacter;
  * @author breh
  */
 
-public class FileBrowser extends List implements CommandListener {
+public class FileBrowser extends List
+        implements CommandListener, LibraryListener {
 
     /**
      * Command fired on file selection.
@@ -96,6 +101,15 @@ public class FileBrowser extends List implements CommandListener {
 
     private String title;
 
+    /*
+     * Books are shown using their metadata from the library index
+     * and the index is updated in the background for the current dir
+     */
+    private LibraryIndex library;
+    private LibraryScanner scanner;
+    private String[] files;
+    private int filesStart;
+
     /**
      * Creates a new instance of FileBrowser for given <code>Display</code> object.
      * @param display non null display object.
@@ -173,7 +187,10 @@ public class FileBrowser extends List implements CommandListener {
     public final void commandAction(final Command c, final Displayable d) {
         if (c.equals(SELECT_FILE_COMMAND)) {
             List curr = (List) d;
-            currFile = curr.getString(curr.getSelectedIndex());
+            final int selected = curr.getSelectedIndex();
+            currFile = (files != null && selected >= filesStart
+                    ? files[selected - filesStart]
+                    : curr.getString(selected));
 //            new Thread(new Runnable() {
 //
 //                public void run() {
@@ -186,10 +203,53 @@ public class FileBrowser extends List implements CommandListener {
 //                }
 //            }).start();
         } else {
+            stopScanner();
             commandListener.commandAction(c, d);
         }
     }
 
+    /**
+     * Sets the library index, used for showing the books' metadata.
+     */
+    public final void setLibraryIndex(final LibraryIndex library) {
+        this.library = library;
+    }
+
+    public final synchronized void stopScanner() {
+        if (scanner != null) {
+            scanner.cancel();
+            scanner = null;
+        }
+    }
+
+    private synchronized void startScanner() {
+        stopScanner();
+
+        if (library != null && files != null) {
+            scanner = new LibraryScanner(
+                    library, "file:///" + currDirName, files, this);
+            scanner.start();
+        }
+    }
+
+    public final synchronized void entryUpdated(
+            final LibraryScanner scanner,
+            final int file,
+            final LibraryEntry entry) {
+
+        if (scanner == this.scanner) {
+            set(filesStart + file, getItemText(files[file], entry), fileIcon);
+        }
+    }
+
+    private String getItemText(final String file, final LibraryEntry entry) {
+        if (entry == null || !entry.isReadable()) {
+            return file;
+        }
+
+        return entry.getTitle() + " - " + entry.getAuthor();
+    }
+
     /**
      * Sets component's title.
      *  @param title component's title.
@@ -209,6 +269,8 @@ public class FileBrowser extends List implements CommandListener {
         Enumeration e = null;
         FileConnection currDir = null;
 
+        stopScanner();
+        files = null;
         deleteAll();
         if (MEGA_ROOT.equals(currDirName)) {
 //            append(UP_DIRECTORY, dirIcon);
@@ -276,9 +338,14 @@ public class FileBrowser extends List implements CommandListener {
             final String[] files = new String[filesVector.size()];
             filesVector.copyInto(files);
             sortStringArray(files);
+            filesStart = size();
             for (int i = 0; i < files.length; i++) {
-                append(files[i], fileIcon);
+                append(getItemText(files[i], (library == null ? null
+                        : library.get("file:///" + currDirName + files[i]))),
+                        fileIcon);
             }
+            this.files = files;
+            startScanner();
         }
 
         if (currDir != null) {
@@ -361,6 +428,7 @@ public class FileBrowser extends List implements CommandListener {
     }
 
     private void doDismiss() {
+        stopScanner();
         selectedURL = "file:///" + currDirName + currFile;
         CommandListener commandListener = getCommandListener();
         if (commandListener != null) {